@@ -66,6 +66,7 @@ import org.smartregister.service.FormSubmissionService;
 import org.smartregister.service.FormSubmissionSyncService;
 import org.smartregister.service.HTTPAgent;
 import org.smartregister.service.MotherService;
+import org.smartregister.service.RegisterCountService;
 import org.smartregister.service.PendingFormSubmissionService;
 import org.smartregister.service.ServiceProvidedService;
 import org.smartregister.service.UserService;
@@ -122,6 +123,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 
 import timber.log.Timber;
 
@@ -162,6 +164,7 @@ public class Context {
     private ZiggyService ziggyService;
     private UserService userService;
     private AlertService alertService;
+    private RegisterCountService registerCountService;
     private EligibleCoupleService eligibleCoupleService;
     private MotherService motherService;
     private ChildService childService;
@@ -763,6 +766,14 @@ public class Context {
         return alertService;
     }
 
+    public synchronized RegisterCountService registerCountService() {
+        if (registerCountService == null) {
+            registerCountService = new RegisterCountService(this, Executors.newSingleThreadScheduledExecutor(),
+                    RegisterCountService.DEFAULT_RECOUNT_DELAY_MILLIS);
+        }
+        return registerCountService;
+    }
+
     public ServiceProvidedService serviceProvidedService() {
         if (serviceProvidedService == null) {
             serviceProvidedService = new ServiceProvidedService(allServicesProvided());
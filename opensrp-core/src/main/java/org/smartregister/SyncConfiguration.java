@@ -105,6 +105,129 @@ public abstract class SyncConfiguration {
         return false;
     }
 
+    /**
+     * Determines whether clients and events pulled from the server are saved as the response is read,
+     * instead of reading the whole page into memory first
+     *
+     * @return true to stream the pulled clients and events, false to read the whole page into memory
+     */
+    public boolean isStreamEventClientPull() {
+        return false;
+    }
+
+    /**
+     * Determines whether unsynced clients and events are pushed as the JSON stored in the database,
+     * looking up the clients of a batch of events together instead of one event at a time.
+     * The request body is gzip compressed as it is written to the connection
+     *
+     * @return true to push the stored JSON of clients and events, false to parse each record before pushing it
+     */
+    public boolean isStreamEventClientPush() {
+        return false;
+    }
+
+    /**
+     * Determines whether the next page of clients and events is downloaded while the previous pages are saved and processed.
+     * The last sync server version is only updated once a page has been processed, pages are processed in server version order
+     *
+     * @return true to pipeline the fetch, save and client processing of pulled pages, false to handle one page at a time
+     */
+    public boolean isPipelinedEventClientPull() {
+        return false;
+    }
+
+    /**
+     * Determines whether full text search rows of processed clients are rebuilt in batches at the end of
+     * {@link org.smartregister.sync.ClientProcessorForJava#processClient(List, boolean)} instead of once per processed case.
+     * Search results lag behind the processed events until the batch is indexed
+     *
+     * @return true to defer search indexing to the end of each batch of processed events
+     */
+    public boolean isDeferredSearchIndexing() {
+        return false;
+    }
+
+    /**
+     * Determines whether register counts are cached and kept up to date as clients are processed
+     * instead of being counted every time a register is loaded or filtered, see {@link org.smartregister.service.RegisterCountService}
+     *
+     * @return true to cache register counts
+     */
+    public boolean isCachedRegisterCounts() {
+        return false;
+    }
+
+    /**
+     * Determines whether register searches show the best ranked full text search hits, ranked by how many of
+     * the hits of the search phrase are in each client, instead of every hit in the order of the register sort
+     *
+     * @return true to rank register searches
+     */
+    public boolean isRankedSearch() {
+        return false;
+    }
+
+    /**
+     * @return the number of best ranked hits a ranked register search shows
+     */
+    public int getRankedSearchLimit() {
+        return 100;
+    }
+
+    /**
+     * Determines whether the number of events pulled and pushed per request adapts to the measured network conditions.
+     * When false the fixed limits in {@link org.smartregister.sync.intent.SyncIntentService} are used
+     *
+     * @return true to adapt the sync batch sizes
+     */
+    public boolean isAdaptiveSyncBatchSize() {
+        return false;
+    }
+
+    /**
+     * @return the smallest number of events requested per pull when adaptive batch sizes are enabled
+     */
+    public int getMinEventPullLimit() {
+        return 25;
+    }
+
+    /**
+     * @return the largest number of events requested per pull when adaptive batch sizes are enabled
+     */
+    public int getMaxEventPullLimit() {
+        return 1000;
+    }
+
+    /**
+     * @return the smallest number of events sent per push when adaptive batch sizes are enabled
+     */
+    public int getMinEventPushLimit() {
+        return 10;
+    }
+
+    /**
+     * @return the largest number of events sent per push when adaptive batch sizes are enabled
+     */
+    public int getMaxEventPushLimit() {
+        return 200;
+    }
+
+    /**
+     * Pages that take longer than this shrink the adaptive batch size, pages that take less than half of it grow it
+     *
+     * @return the target duration of a single sync request in milliseconds
+     */
+    public long getTargetSyncRoundTripMillis() {
+        return 15000;
+    }
+
+    /**
+     * @return the largest payload in bytes a single adaptive sync page should carry
+     */
+    public long getMaxSyncPayloadBytes() {
+        return 2 * 1024 * 1024;
+    }
+
     /**
      * This method determines the param used for Settings Sync
      *
@@ -101,6 +101,28 @@ public class AllCommonsRepository {
         return remainingIds;
     }
 
+    /**
+     * Rebuilds the search rows of many cases with set based reads and one write transaction
+     *
+     * @param caseIds the ids of the cases
+     * @return the ids whose search rows were not written
+     */
+    public List<String> batchUpdateSearch(List<String> caseIds) {
+        List<String> remainingIds = new ArrayList<>();
+        if (caseIds == null || caseIds.isEmpty()) {
+            return remainingIds;
+        }
+
+        Map<String, ContentValues> searchMap = personRepository.batchPopulateSearchValues(caseIds);
+        boolean written = searchMap.isEmpty() || personRepository.searchBatchReplace(searchMap);
+        for (String caseId : caseIds) {
+            if (!written || !searchMap.containsKey(caseId)) {
+                remainingIds.add(caseId);
+            }
+        }
+        return remainingIds;
+    }
+
     public boolean updateSearch(String caseId) {
         if (StringUtils.isBlank(caseId)) {
             return false;
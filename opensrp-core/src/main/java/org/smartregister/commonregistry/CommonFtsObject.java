@@ -7,8 +7,10 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by keyman on 30/08/16.
@@ -27,6 +29,7 @@ public class CommonFtsObject {
     private Map<String, String[]> mainConditionMap;
     private Map<String, String> customRelationalIdMap;
     private Map<String, Pair<String, Boolean>> alertsScheduleMap;
+    private Map<String, int[]> searchPrefixMap;
 
     public CommonFtsObject(String[] tables) {
         this.tables = tables;
@@ -35,6 +38,7 @@ public class CommonFtsObject {
         this.mainConditionMap = new HashMap<>();
         this.customRelationalIdMap = new HashMap<>();
         this.alertsScheduleMap = new HashMap<>();
+        this.searchPrefixMap = new HashMap<>();
     }
 
     public static String searchTableName(String table) {
@@ -65,6 +69,17 @@ public class CommonFtsObject {
         }
     }
 
+    /**
+     * Sets the lengths of the prefixes the search table of the table indexes, so prefix queries of those
+     * lengths read the prefix index instead of every term starting with the prefix.
+     * Applies to search tables created or rebuilt after it is set
+     */
+    public void updateSearchPrefixes(String table, int[] prefixLengths) {
+        if (containsTable(table) && prefixLengths != null) {
+            searchPrefixMap.put(table, prefixLengths);
+        }
+    }
+
     public void updateAlertScheduleMap(Map<String, Pair<String, Boolean>> alertsScheduleMap) {
         this.alertsScheduleMap = alertsScheduleMap;
     }
@@ -92,6 +107,10 @@ public class CommonFtsObject {
         return mainConditionMap.get(table);
     }
 
+    public int[] getSearchPrefixes(String table) {
+        return searchPrefixMap.get(table);
+    }
+
     public String getCustomRelationalId(String table) {
         return customRelationalIdMap.get(table);
     }
@@ -137,6 +156,52 @@ public class CommonFtsObject {
         return alertFilterVisitCodes;
     }
 
+    /**
+     * @return the statement creating the search table of the table, with its id, phrase, main condition and sort columns
+     */
+    public String createSearchTableSql(String table) {
+        return createSearchTableSql(table, searchTableName(table));
+    }
+
+    /**
+     * @param searchTable the name of the search table created for the table
+     */
+    public String createSearchTableSql(String table, String searchTable) {
+        Set<String> searchColumns = new LinkedHashSet<>();
+        searchColumns.add(idColumn);
+        searchColumns.add(relationalIdColumn);
+        searchColumns.add(phraseColumn);
+        searchColumns.add(isClosedColumn);
+
+        String[] mainConditions = getMainConditions(table);
+        if (mainConditions != null) {
+            for (String mainCondition : mainConditions) {
+                if (!mainCondition.equals(isClosedColumnName)) {
+                    searchColumns.add(mainCondition);
+                }
+            }
+        }
+
+        String[] sortFields = getSortFields(table);
+        if (sortFields != null) {
+            for (String sortValue : sortFields) {
+                if (sortValue.startsWith("alerts.")) {
+                    sortValue = sortValue.split("\\.")[1];
+                }
+                searchColumns.add(sortValue);
+            }
+        }
+
+        String joinedSearchColumns = StringUtils.join(searchColumns, ",");
+
+        int[] prefixLengths = getSearchPrefixes(table);
+        if (ArrayUtils.isNotEmpty(prefixLengths)) {
+            joinedSearchColumns += ",prefix=\"" + StringUtils.join(prefixLengths, ',') + "\"";
+        }
+
+        return "create virtual table " + searchTable + " using fts4 (" + joinedSearchColumns + ");";
+    }
+
     public boolean containsTable(String table) {
         if (tables == null || StringUtils.isBlank(table)) {
             return false;
@@ -2,23 +2,43 @@ package org.smartregister.commonregistry;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.provider.BaseColumns;
 
+import androidx.annotation.Nullable;
+import androidx.core.os.CancellationSignal;
+import androidx.core.os.OperationCanceledException;
+
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.smartregister.CoreLibrary;
+import org.smartregister.SyncConfiguration;
 import org.smartregister.domain.AlertStatus;
 import org.smartregister.domain.ColumnDetails;
 import org.smartregister.repository.DrishtiRepository;
+import org.smartregister.util.FtsQueryUtil;
 
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -51,8 +71,26 @@ public class CommonRepository extends DrishtiRepository {
     private String common_Relational_Underscore_ID_INDEX_SQL = null;
     private String common_Base_Entity_ID_INDEX_SQL = null;
     private String common_Custom_Relational_ID_INDEX_SQL = null;
+    private static final int SEARCH_BATCH_CHUNK_SIZE = 250;
+    public static final String SEARCH_HITS_TABLE = "temp.search_hits";
+    public static final String SEARCH_HITS_ID_COLUMN = "id";
+    public static final String SEARCH_HITS_QUERY_ID_COLUMN = "query_id";
+    public static final String SEARCH_HITS_POSITION_COLUMN = "position";
+    // the phrase and column counts followed by the hits of each phrase in each column
+    public static final String RANK_MATCH_INFO = "pcx";
+    // the matches read between checks of a ranked search's cancellation signal
+    private static final int RANKED_SEARCH_CANCEL_CHECK_ROWS = 64;
+    private static final String CREATE_SEARCH_HITS_TABLE_SQL = "CREATE TEMP TABLE IF NOT EXISTS search_hits "
+            + "(query_id INTEGER NOT NULL, position INTEGER NOT NULL, id VARCHAR NOT NULL, PRIMARY KEY (query_id, position))";
+    private static final String INSERT_SEARCH_HITS_SQL = "INSERT INTO " + SEARCH_HITS_TABLE + " (query_id, position, id) VALUES ";
+    // three arguments a hit, within the 999 arguments a statement can bind
+    private static final int SEARCH_HITS_INSERT_CHUNK_SIZE = 300;
+    private static final AtomicLong lastSearchHitsId = new AtomicLong();
+    // the tables whose search index is being rebuilt, their search writes also go to the table being rebuilt
+    private static final Set<String> REBUILDING_SEARCH_TABLES = Collections.synchronizedSet(new HashSet<>());
     private CommonFtsObject commonFtsObject;
     private String[] columns = null;
+    private volatile CursorRowMapper rowMapper;
 
     // Legacy Support
     public CommonRepository(String tablename, String[] columns) {
@@ -171,6 +209,7 @@ public class CommonRepository extends DrishtiRepository {
     public void add(CommonPersonObject common) {
         SQLiteDatabase database = masterRepository().getWritableDatabase();
         database.insert(TABLE_NAME, null, createValuesFor(common));
+        onRegisterWritten(TABLE_NAME);
     }
 
     public void updateDetails(String caseId, Map<String, String> details) {
@@ -184,6 +223,7 @@ public class CommonRepository extends DrishtiRepository {
         ContentValues valuesToUpdate = new ContentValues();
         valuesToUpdate.put(DETAILS_COLUMN, new Gson().toJson(details));
         database.update(TABLE_NAME, valuesToUpdate, ID_COLUMN + " = ?", new String[]{caseId});
+        onRegisterWritten(TABLE_NAME);
     }
 
     public void mergeDetails(String caseId, Map<String, String> details) {
@@ -199,6 +239,7 @@ public class CommonRepository extends DrishtiRepository {
         ContentValues valuesToUpdate = new ContentValues();
         valuesToUpdate.put(DETAILS_COLUMN, new Gson().toJson(mergedDetails));
         database.update(TABLE_NAME, valuesToUpdate, ID_COLUMN + " = ?", new String[]{caseId});
+        onRegisterWritten(TABLE_NAME);
     }
 
     public String[] getTableColumns() {
@@ -356,18 +397,20 @@ public class CommonRepository extends DrishtiRepository {
     private List<CommonPersonObject> readAllcommon(Cursor cursor) {
         cursor.moveToFirst();
         List<CommonPersonObject> commons = new ArrayList<CommonPersonObject>();
+        int columncount = cursor.getColumnCount();
+        int isClosedIndex = cursor.getColumnIndex(IS_CLOSED_COLUMN);
+        Gson gson = new Gson();
+        Type detailsType = new TypeToken<Map<String, String>>() {
+        }.getType();
         while (!cursor.isAfterLast()) {
-            int columncount = cursor.getColumnCount();
             HashMap<String, String> columns = new HashMap<String, String>();
             for (int i = initialColumnCount; i < columncount; i++) {
                 columns.put(additionalcolumns[i - initialColumnCount].getName(), cursor.getString(i));
             }
             CommonPersonObject common = new CommonPersonObject(cursor.getString(0),
                     cursor.getString(1),
-                    new Gson().<Map<String, String>>fromJson(cursor.getString(2),
-                            new TypeToken<Map<String, String>>() {
-                            }.getType()), TABLE_NAME);
-            common.setClosed(cursor.getShort(cursor.getColumnIndex(IS_CLOSED_COLUMN)));
+                    gson.<Map<String, String>>fromJson(cursor.getString(2), detailsType), TABLE_NAME);
+            common.setClosed(cursor.getShort(isClosedIndex));
             common.setColumnmaps(columns);
 
             commons.add(common);
@@ -400,6 +443,7 @@ public class CommonRepository extends DrishtiRepository {
     public void updateColumn(String tableName, ContentValues contentValues, String caseId) {
         SQLiteDatabase database = masterRepository().getWritableDatabase();
         database.update(tableName, contentValues, ID_COLUMN + " = ?", new String[]{caseId});
+        onRegisterWritten(tableName);
     }
 
     public List<CommonPersonObject> customQuery(String sql, String[] selections, String tableName) {
@@ -415,11 +459,11 @@ public class CommonRepository extends DrishtiRepository {
         try {
             cursor.moveToFirst();
 
+            String[] columnNames = cursor.getColumnNames();
             while (!cursor.isAfterLast()) {
-                int columncount = cursor.getColumnCount();
                 HashMap<String, String> columns = new HashMap<String, String>();
-                for (int i = 0; i < columncount; i++) {
-                    columns.put(cursor.getColumnName(i), String.valueOf(cursor.getInt(i)));
+                for (int i = 0; i < columnNames.length; i++) {
+                    columns.put(columnNames[i], String.valueOf(cursor.getInt(i)));
                 }
                 CommonPersonObject common = new CommonPersonObject("1", "0", null, tableName);
                 common.setClosed((short) 0);
@@ -451,17 +495,18 @@ public class CommonRepository extends DrishtiRepository {
         try {
             cursor.moveToFirst();
 
+            int columncount = cursor.getColumnCount();
+            int detailsIndex = cursor.getColumnIndex("details");
+            Gson gson = new Gson();
+            Type detailsType = new TypeToken<Map<String, String>>() {
+            }.getType();
             while (!cursor.isAfterLast()) {
-                int columncount = cursor.getColumnCount();
                 HashMap<String, String> columns = new HashMap<String, String>();
                 for (int i = initialColumnCount; i < columncount; i++) {
                     columns.put(additionalcolumns[i - initialColumnCount].getName(), cursor.getString(i));
                 }
                 CommonPersonObject common = new CommonPersonObject("1", "0",
-                        new Gson().<Map<String, String>>fromJson(
-                                cursor.getString(cursor.getColumnIndex("details")),
-                                new TypeToken<Map<String, String>>() {
-                                }.getType()), tableName);
+                        gson.<Map<String, String>>fromJson(cursor.getString(detailsIndex), detailsType), tableName);
                 common.setClosed((short) 0);
                 common.setColumnmaps(columns);
 
@@ -486,13 +531,8 @@ public class CommonRepository extends DrishtiRepository {
 
     public CommonPersonObject readAllcommonforCursorAdapter(Cursor cursor) {
 
-        int columncount = cursor.getColumnCount();
-        HashMap<String, String> columns = new HashMap<String, String>();
-        for (int i = 0; i < columncount; i++) {
-            String columnName = cursor.getColumnName(i);
-            String value = cursor.getString(cursor.getColumnIndex(columnName));
-            columns.put(columnName, value);
-        }
+        CursorRowMapper mapper = getRowMapper(cursor);
+        HashMap<String, String> columns = mapper.readRowByFirstColumn(cursor);
         //CommonPersonObject common = new CommonPersonObject(cursor.getString(0),cursor.getString
         // (1),new Gson().<Map<String, String>>fromJson(cursor.getString(2), new
         // TypeToken<Map<String, String>>() {
@@ -505,8 +545,9 @@ public class CommonRepository extends DrishtiRepository {
 
     public CommonPersonObject getCommonPersonObjectFromCursor(Cursor cursor) {
         CommonPersonObject commonPersonObject = null;
-        String caseId = cursor.getString(cursor.getColumnIndex("_id"));
-        String relationalid = cursor.getString(cursor.getColumnIndex("relationalid"));
+        CursorRowMapper mapper = getRowMapper(cursor);
+        String caseId = cursor.getString(mapper.getColumnIndex("_id"));
+        String relationalid = cursor.getString(mapper.getColumnIndex("relationalid"));
         Map<String, String> details = sqliteRowToMap(cursor);
         commonPersonObject = new CommonPersonObject(caseId, relationalid, details, TABLE_NAME);
         return commonPersonObject;
@@ -523,6 +564,7 @@ public class CommonRepository extends DrishtiRepository {
         values.put("id", baseEntityId);
         Long id = database.insertWithOnConflict(tableName, BaseColumns._ID, values,
                 android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE);
+        onRegisterWritten(tableName);
         return id;
     }
 
@@ -550,20 +592,34 @@ public class CommonRepository extends DrishtiRepository {
     }
 
     public Map<String, String> sqliteRowToMap(Cursor cursor) {
-        int totalColumn = cursor.getColumnCount();
-        Map<String, String> rowObject = new HashMap<String, String>();
-        if (cursor != null) {
-            for (int i = 0; i < totalColumn; i++) {
-                if (cursor.getColumnName(i) != null) {
-                    try {
-                        rowObject.put(cursor.getColumnName(i), cursor.getString(i));
-                    } catch (Exception e) {
-                        Timber.d(e.getMessage());
-                    }
-                }
-            }
+        if (cursor == null) {
+            return new HashMap<String, String>();
+        }
+        return getRowMapper(cursor).readRow(cursor);
+    }
+
+    /**
+     * Returns the row mapper of the cursor, the mapper of the last cursor read row by row is kept so its
+     * columns are resolved once rather than for every row. The mapper only weakly references its cursor
+     * and is dropped once the cursor is closed
+     */
+    private CursorRowMapper getRowMapper(Cursor cursor) {
+        CursorRowMapper mapper = rowMapper;
+        if (mapper == null || !mapper.isFor(cursor)) {
+            mapper = new CursorRowMapper(cursor);
+            rowMapper = mapper;
+        }
+        return mapper;
+    }
+
+    /**
+     * Marks the cached register counts of the table stale after its records are written
+     */
+    private void onRegisterWritten(String tableName) {
+        SyncConfiguration syncConfiguration = CoreLibrary.getInstance().getSyncConfiguration();
+        if (syncConfiguration != null && syncConfiguration.isCachedRegisterCounts() && tableName != null) {
+            CoreLibrary.getInstance().context().registerCountService().onTableWritten(tableName);
         }
-        return rowObject;
     }
 
     public Cursor queryTable(String query) {
@@ -583,6 +639,7 @@ public class CommonRepository extends DrishtiRepository {
             ContentValues cv = new ContentValues();
             cv.put(IS_CLOSED_COLUMN, 1);
             db.update(tableName, cv, BASE_ENTITY_ID_COLUMN + "=?", new String[]{baseEntityId});
+            onRegisterWritten(tableName);
         } catch (Exception e) {
             Timber.e(e);
         }
@@ -600,6 +657,7 @@ public class CommonRepository extends DrishtiRepository {
                     .delete(tableName, BASE_ENTITY_ID_COLUMN + " = ? COLLATE NOCASE" + " ",
                             new String[]{baseEntityId});
             if (afftectedRows > 0) {
+                onRegisterWritten(tableName);
                 return true;
             }
         } catch (Exception e) {
@@ -615,14 +673,10 @@ public class CommonRepository extends DrishtiRepository {
             SQLiteDatabase database = masterRepository().getReadableDatabase();
             cursor = database.rawQuery(sql, selectionArgs);
             if (cursor != null && cursor.getCount() > 0 && cursor.moveToFirst()) {
+                CursorRowMapper mapper = new CursorRowMapper(cursor);
                 // looping through all rows and adding to list
                 do {
-                    HashMap<String, String> map = new HashMap<String, String>();
-                    for (int i = 0; i < cursor.getColumnCount(); i++) {
-                        map.put(cursor.getColumnName(i), cursor.getString(i));
-                    }
-
-                    maplist.add(map);
+                    maplist.add(mapper.readRow(cursor));
                 } while (cursor.moveToNext());
             }
         } catch (Exception e) {
@@ -637,12 +691,81 @@ public class CommonRepository extends DrishtiRepository {
         return maplist;
     }
 
+    /**
+     * Same as {@link #rawQuery(String, String[])}, optionally reading the rows into compact maps that hold
+     * only the values of a row and share the column names of the result
+     */
+    public List<Map<String, String>> rawQuery(String sql, String[] selectionArgs, boolean compactRows) {
+        List<Map<String, String>> rows = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = masterRepository().getReadableDatabase();
+            cursor = database.rawQuery(sql, selectionArgs);
+            if (cursor != null && cursor.moveToFirst()) {
+                CursorRowMapper mapper = new CursorRowMapper(cursor);
+                do {
+                    rows.add(compactRows ? mapper.readCompactRow(cursor) : mapper.readRow(cursor));
+                } while (cursor.moveToNext());
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return rows;
+    }
+
     public ContentValues populateSearchValues(String caseId) {
         CommonPersonObject commonPersonObject = findByCaseID(caseId);
         if (commonPersonObject == null) {
             return null;
         }
 
+        return populateSearchValues(caseId, commonPersonObject, null);
+    }
+
+    /**
+     * Builds the search values of many cases, reading the case rows with one query per chunk of ids
+     *
+     * @param caseIds the ids of the cases
+     * @return the search values keyed by case id, cases that do not exist are left out
+     */
+    public Map<String, ContentValues> batchPopulateSearchValues(List<String> caseIds) {
+        Map<String, ContentValues> searchMap = new LinkedHashMap<>();
+        if (commonFtsObject == null || caseIds == null || caseIds.isEmpty()) {
+            return searchMap;
+        }
+
+        SQLiteDatabase database = masterRepository().getReadableDatabase();
+        // related table columns are read once for the whole batch
+        Map<String, Set<String>> tableColumns = new HashMap<>();
+        for (int start = 0; start < caseIds.size(); start += SEARCH_BATCH_CHUNK_SIZE) {
+            List<String> chunk = caseIds.subList(start, Math.min(caseIds.size(), start + SEARCH_BATCH_CHUNK_SIZE));
+            Cursor cursor = null;
+            try {
+                cursor = database.query(TABLE_NAME, getTableColumns(), ID_COLUMN + " IN (" + insertPlaceholdersForInClause(chunk.size()) + ")",
+                        chunk.toArray(new String[0]), null, null, null, null);
+                for (CommonPersonObject commonPersonObject : readAllcommon(cursor)) {
+                    ContentValues searchValues = populateSearchValues(commonPersonObject.getCaseId(), commonPersonObject, tableColumns);
+                    if (searchValues != null) {
+                        searchMap.put(commonPersonObject.getCaseId(), searchValues);
+                    }
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return searchMap;
+    }
+
+    /**
+     * @param tableColumns the column names of the related tables read so far, null to read them for every field
+     */
+    private ContentValues populateSearchValues(String caseId, CommonPersonObject commonPersonObject, @Nullable Map<String, Set<String>> tableColumns) {
         if (commonFtsObject == null) {
             return null;
         }
@@ -661,7 +784,7 @@ public class CommonRepository extends DrishtiRepository {
             String[] ftsSearchFields = commonFtsObject.getSearchFields(TABLE_NAME);
             for (String ftsSearchField : ftsSearchFields) {
                 if (!ftsSearchField.startsWith("alerts.")) {
-                    String ftsSearchValue = getSearchFieldValue(commonPersonObject, ftsSearchField);
+                    String ftsSearchValue = getSearchFieldValue(commonPersonObject, ftsSearchField, tableColumns);
                     String ftsSearchColumn = withSub(ftsSearchValue);
                     ftsSearchColumns.add(ftsSearchColumn);
                 }
@@ -683,7 +806,7 @@ public class CommonRepository extends DrishtiRepository {
                             value = new Gson().toJson(details);
                         }
                     } else {
-                        value = getSearchFieldValue(commonPersonObject, ftsMainConditionField);
+                        value = getSearchFieldValue(commonPersonObject, ftsMainConditionField, tableColumns);
                     }
 
                     searchValues.put(ftsMainConditionField, value);
@@ -695,7 +818,7 @@ public class CommonRepository extends DrishtiRepository {
             if (ftsSortFields != null) {
                 for (String ftsSortField : ftsSortFields) {
                     if (!ftsSortField.startsWith("alerts.")) {
-                        String ftsSortValue = getSearchFieldValue(commonPersonObject, ftsSortField);
+                        String ftsSortValue = getSearchFieldValue(commonPersonObject, ftsSortField, tableColumns);
                         searchValues.put(ftsSortField, ftsSortValue);
                     }
                 }
@@ -720,6 +843,157 @@ public class CommonRepository extends DrishtiRepository {
         }
     }
 
+    /**
+     * Indexes every record of the table again into a new search table that replaces the search table once complete,
+     * searches read the old search table until then.
+     * <p>
+     * The records are read by id in batches, each batch is written in its own transaction so client
+     * processing can go on while the index is rebuilt. Client processing writes its search rows to both
+     * search tables meanwhile, rows it writes to the new table in between batches are kept as written.
+     * The new table replaces the old one in one transaction and is optimized once all records are indexed.
+     *
+     * @param batchSize the records indexed per batch
+     * @param listener  notified after every batch, may be null
+     * @return the number of records indexed
+     */
+    public int rebuildSearchIndex(int batchSize, SearchIndexRebuildListener listener) {
+        if (commonFtsObject == null || !commonFtsObject.containsTable(TABLE_NAME)) {
+            return 0;
+        }
+
+        SQLiteDatabase database = masterRepository().getWritableDatabase();
+        String ftsSearchTable = CommonFtsObject.searchTableName(TABLE_NAME);
+        String rebuildTable = getRebuildSearchTable();
+        long total = count();
+
+        database.beginTransaction();
+        try {
+            database.execSQL("DROP TABLE IF EXISTS " + rebuildTable);
+            database.execSQL(commonFtsObject.createSearchTableSql(TABLE_NAME, rebuildTable));
+            REBUILDING_SEARCH_TABLES.add(TABLE_NAME);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        boolean replaced = false;
+        int indexed = 0;
+        try {
+            Set<String> writtenElsewhere = new HashSet<>();
+            long lastDocId = 0;
+            String lastId = null;
+            while (true) {
+                List<String> ids = findIdsAfter(database, lastId, batchSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+                Map<String, ContentValues> searchMap = batchPopulateSearchValues(ids);
+
+                database.beginTransaction();
+                try {
+                    // rows inserted since the last batch were written by client processing
+                    lastDocId = findDocIdsAfter(database, rebuildTable, lastDocId, writtenElsewhere);
+                    for (Map.Entry<String, ContentValues> entry : searchMap.entrySet()) {
+                        if (!writtenElsewhere.contains(entry.getKey())) {
+                            database.insert(rebuildTable, null, entry.getValue());
+                        }
+                    }
+                    // the content table of the search table keeps the rows by docid
+                    lastDocId = longForQuery(database, "SELECT IFNULL(MAX(docid), 0) FROM " + rebuildTable + "_content", null);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+
+                indexed += ids.size();
+                if (listener != null) {
+                    listener.onProgress(TABLE_NAME, indexed, total);
+                }
+            }
+
+            database.beginTransaction();
+            try {
+                database.execSQL("DROP TABLE IF EXISTS " + ftsSearchTable);
+                database.execSQL("ALTER TABLE " + rebuildTable + " RENAME TO " + ftsSearchTable);
+                REBUILDING_SEARCH_TABLES.remove(TABLE_NAME);
+                database.setTransactionSuccessful();
+                replaced = true;
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            if (!replaced) {
+                REBUILDING_SEARCH_TABLES.remove(TABLE_NAME);
+                dropRebuildSearchTable(database, rebuildTable);
+            }
+        }
+
+        database.execSQL("INSERT INTO " + ftsSearchTable + "(" + ftsSearchTable + ") VALUES('optimize')");
+        return indexed;
+    }
+
+    private String getRebuildSearchTable() {
+        return CommonFtsObject.searchTableName(TABLE_NAME) + "_rebuild";
+    }
+
+    private void dropRebuildSearchTable(SQLiteDatabase database, String rebuildTable) {
+        try {
+            database.execSQL("DROP TABLE IF EXISTS " + rebuildTable);
+        } catch (Exception e) {
+            Timber.e(e, "Unable to drop %s", rebuildTable);
+        }
+    }
+
+    /**
+     * @return the search tables the search rows of the table are written to, with the search table being rebuilt
+     * while {@link #rebuildSearchIndex(int, SearchIndexRebuildListener)} runs. Call within the transaction of the write
+     */
+    private List<String> getSearchTablesToWrite() {
+        List<String> searchTables = new ArrayList<>();
+        searchTables.add(CommonFtsObject.searchTableName(TABLE_NAME));
+        if (REBUILDING_SEARCH_TABLES.contains(TABLE_NAME)) {
+            searchTables.add(getRebuildSearchTable());
+        }
+        return searchTables;
+    }
+
+    private List<String> findIdsAfter(SQLiteDatabase database, String lastId, int limit) {
+        List<String> ids = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = database.query(TABLE_NAME, new String[]{ID_COLUMN},
+                    lastId == null ? ID_COLUMN + " IS NOT NULL" : ID_COLUMN + " > ?",
+                    lastId == null ? null : new String[]{lastId}, null, null, ID_COLUMN, String.valueOf(limit));
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return ids;
+    }
+
+    private long findDocIdsAfter(SQLiteDatabase database, String ftsSearchTable, long docId, Set<String> objectIds) {
+        long lastDocId = docId;
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT docid, " + CommonFtsObject.idColumn + " FROM " + ftsSearchTable
+                    + " WHERE docid > ?", new String[]{String.valueOf(docId)});
+            while (cursor.moveToNext()) {
+                lastDocId = Math.max(lastDocId, cursor.getLong(0));
+                objectIds.add(cursor.getString(1));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return lastDocId;
+    }
+
     public boolean populateSearchValues(String caseId, String field, String value, String[]
             listToRemove) {
         SQLiteDatabase database = masterRepository().getWritableDatabase();
@@ -790,13 +1064,23 @@ public class CommonRepository extends DrishtiRepository {
             searchValues.put(field, value);
         }
 
+        database.beginTransaction();
         try {
-            int rowsAffected = database
-                    .update(ftsSearchTable, searchValues, CommonFtsObject.idColumn + " MATCH ?",
-                            new String[]{caseId});
+            int rowsAffected = 0;
+            for (String searchTable : getSearchTablesToWrite()) {
+                int updated = database
+                        .update(searchTable, searchValues, CommonFtsObject.idColumn + " MATCH ?",
+                                new String[]{caseId});
+                if (searchTable.equals(ftsSearchTable)) {
+                    rowsAffected = updated;
+                }
+            }
+            database.setTransactionSuccessful();
             return rowsAffected > 0;
         } catch (Exception e) {
             return false;
+        } finally {
+            database.endTransaction();
         }
     }
 
@@ -804,21 +1088,22 @@ public class CommonRepository extends DrishtiRepository {
         SQLiteDatabase database = masterRepository().getWritableDatabase();
 
         database.beginTransaction();
-        String ftsSearchTable = CommonFtsObject.searchTableName(TABLE_NAME);
         try {
-            for (String caseId : searchMap.keySet()) {
-                ContentValues searchValues = searchMap.get(caseId);
-                ArrayList<HashMap<String, String>> mapList = rawQuery(
-                        "SELECT " + CommonFtsObject.idColumn + " FROM " + ftsSearchTable
-                                + " WHERE " + CommonFtsObject.idColumn + " MATCH ?", new String[]{caseId});
-                if (!mapList.isEmpty()) {
-                    int updated = database.update(ftsSearchTable, searchValues,
-                            CommonFtsObject.idColumn + " MATCH ?", new String[]{caseId});
-                    Timber.i("Fts Row Updated: %s", String.valueOf(updated));
-
-                } else {
-                    long rowId = database.insert(ftsSearchTable, null, searchValues);
-                    Timber.i("Details Row Inserted : %s", String.valueOf(rowId));
+            for (String ftsSearchTable : getSearchTablesToWrite()) {
+                for (String caseId : searchMap.keySet()) {
+                    ContentValues searchValues = searchMap.get(caseId);
+                    ArrayList<HashMap<String, String>> mapList = rawQuery(
+                            "SELECT " + CommonFtsObject.idColumn + " FROM " + ftsSearchTable
+                                    + " WHERE " + CommonFtsObject.idColumn + " MATCH ?", new String[]{caseId});
+                    if (!mapList.isEmpty()) {
+                        int updated = database.update(ftsSearchTable, searchValues,
+                                CommonFtsObject.idColumn + " MATCH ?", new String[]{caseId});
+                        Timber.i("Fts Row Updated: %s", String.valueOf(updated));
+
+                    } else {
+                        long rowId = database.insert(ftsSearchTable, null, searchValues);
+                        Timber.i("Details Row Inserted : %s", String.valueOf(rowId));
+                    }
                 }
             }
             database.setTransactionSuccessful();
@@ -832,16 +1117,93 @@ public class CommonRepository extends DrishtiRepository {
         }
     }
 
+    /**
+     * Updates or inserts the search rows of many cases in one transaction.
+     * The existing rows are looked up with one full text query per chunk of ids instead of one query per case,
+     * existing rows are updated in place so columns maintained separately e.g. alert statuses are kept
+     *
+     * @param searchMap the search values keyed by case id
+     * @return true if all rows were written
+     */
+    public boolean searchBatchReplace(Map<String, ContentValues> searchMap) {
+        if (searchMap.isEmpty()) {
+            return true;
+        }
+        SQLiteDatabase database = masterRepository().getWritableDatabase();
+
+        database.beginTransaction();
+        try {
+            List<String> caseIds = new ArrayList<>(searchMap.keySet());
+            for (String ftsSearchTable : getSearchTablesToWrite()) {
+                for (int start = 0; start < caseIds.size(); start += SEARCH_BATCH_CHUNK_SIZE) {
+                    List<String> chunk = caseIds.subList(start, Math.min(caseIds.size(), start + SEARCH_BATCH_CHUNK_SIZE));
+                    Map<String, List<Long>> docIds = getSearchDocIds(database, ftsSearchTable, chunk);
+                    for (String caseId : chunk) {
+                        ContentValues searchValues = searchMap.get(caseId);
+                        List<Long> caseDocIds = docIds.get(caseId);
+                        if (caseDocIds == null) {
+                            database.insert(ftsSearchTable, null, searchValues);
+                        } else {
+                            for (Long docId : caseDocIds) {
+                                database.update(ftsSearchTable, searchValues, "docid = ?", new String[]{String.valueOf(docId)});
+                            }
+                        }
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            Timber.e(e, "Update Search Error");
+            return false;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private Map<String, List<Long>> getSearchDocIds(SQLiteDatabase database, String ftsSearchTable, List<String> caseIds) {
+        Map<String, List<Long>> docIds = new HashMap<>();
+        String matchQuery = FtsQueryUtil.toMatchAnyPhrase(caseIds);
+        if (matchQuery == null) {
+            return docIds;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT docid, " + CommonFtsObject.idColumn + " FROM " + ftsSearchTable
+                    + " WHERE " + CommonFtsObject.idColumn + " MATCH ?", new String[]{matchQuery});
+            Set<String> ids = new HashSet<>(caseIds);
+            while (cursor != null && cursor.moveToNext()) {
+                // a phrase also matches ids that contain it
+                String caseId = cursor.getString(1);
+                if (ids.contains(caseId)) {
+                    List<Long> caseDocIds = docIds.get(caseId);
+                    if (caseDocIds == null) {
+                        caseDocIds = new ArrayList<>();
+                        docIds.put(caseId, caseDocIds);
+                    }
+                    caseDocIds.add(cursor.getLong(0));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return docIds;
+    }
+
     public boolean deleteSearchRecord(String caseId) {
         SQLiteDatabase database = masterRepository().getWritableDatabase();
 
         database.beginTransaction();
-        String ftsSearchTable = CommonFtsObject.searchTableName(TABLE_NAME);
         try {
 
-            int afftectedRows = database
-                    .delete(ftsSearchTable, CommonFtsObject.idColumn + " MATCH ?",
-                            new String[]{caseId});
+            int afftectedRows = 0;
+            for (String ftsSearchTable : getSearchTablesToWrite()) {
+                afftectedRows += database
+                        .delete(ftsSearchTable, CommonFtsObject.idColumn + " MATCH ?",
+                                new String[]{caseId});
+            }
 
             database.setTransactionSuccessful();
             database.endTransaction();
@@ -858,6 +1220,13 @@ public class CommonRepository extends DrishtiRepository {
     }
 
     public List<String> findSearchIds(String query) {
+        return findSearchIds(query, null);
+    }
+
+    /**
+     * @param selectionArgs the arguments bound to the placeholders of the query
+     */
+    public List<String> findSearchIds(String query, String[] selectionArgs) {
 
         List<String> ids = new ArrayList<String>();
         Cursor cursor = null;
@@ -865,7 +1234,7 @@ public class CommonRepository extends DrishtiRepository {
             SQLiteDatabase database = masterRepository().getReadableDatabase();
 
             Timber.i(query);
-            cursor = database.rawQuery(query, null);
+            cursor = database.rawQuery(query, selectionArgs);
 
             if (cursor.moveToFirst()) {
                 do {
@@ -884,6 +1253,161 @@ public class CommonRepository extends DrishtiRepository {
         return ids;
     }
 
+    /**
+     * Finds the ids of the best ranked rows of a query built with
+     * {@link org.smartregister.cursoradapter.SmartRegisterQueryBuilder#rankedSearchQueryFts(String, String, String)}.
+     * Only the limit best ranked ids are kept while the matches are read, rather than every match
+     *
+     * @return the ids, best ranked first
+     */
+    public List<String> findRankedSearchIds(String query, int limit) {
+        return findRankedSearchIds(query, limit, null);
+    }
+
+    /**
+     * @param cancellationSignal stops reading the matches once canceled e.g. when the search is restarted
+     * @throws OperationCanceledException if the signal is canceled before every match is read
+     */
+    public List<String> findRankedSearchIds(String query, int limit, @Nullable CancellationSignal cancellationSignal) {
+        List<String> ids = new ArrayList<>();
+        if (limit <= 0) {
+            return ids;
+        }
+        // the worst ranked hit kept is at the head to be replaced by a better one
+        PriorityQueue<RankedHit> hits = new PriorityQueue<>(limit,
+                (first, second) -> RankedHit.BY_RANK.compare(second, first));
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = masterRepository().getReadableDatabase();
+
+            Timber.i(query);
+            cursor = database.rawQuery(query, null);
+
+            int row = 0;
+            while (cursor.moveToNext()) {
+                if (cancellationSignal != null && row % RANKED_SEARCH_CANCEL_CHECK_ROWS == 0) {
+                    cancellationSignal.throwIfCanceled();
+                }
+                RankedHit hit = new RankedHit(cursor.getString(0), rank(cursor.getBlob(1)), row++);
+                if (hits.size() < limit) {
+                    hits.add(hit);
+                } else if (RankedHit.BY_RANK.compare(hit, hits.peek()) < 0) {
+                    hits.poll();
+                    hits.add(hit);
+                }
+            }
+        } catch (OperationCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            Timber.e(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        List<RankedHit> rankedHits = new ArrayList<>(hits);
+        Collections.sort(rankedHits, RankedHit.BY_RANK);
+        for (RankedHit hit : rankedHits) {
+            ids.add(hit.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Ranks a search table row by the {@link #RANK_MATCH_INFO} match info of the row, adding up for each phrase
+     * and column the share of the phrase's hits in the column of all rows that are in the row
+     */
+    public static double rank(byte[] matchInfo) {
+        if (matchInfo == null || matchInfo.length < 8) {
+            return 0;
+        }
+        IntBuffer values = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = values.get(0);
+        int columnCount = values.get(1);
+        if (values.limit() < 2 + 3 * phraseCount * columnCount) {
+            return 0;
+        }
+        double rank = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int hits = 2 + 3 * (phrase * columnCount + column);
+                int rowHits = values.get(hits);
+                int allRowHits = values.get(hits + 1);
+                if (rowHits > 0 && allRowHits > 0) {
+                    rank += (double) rowHits / allRowHits;
+                }
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Keeps the ids found in the search tables in a temporary table for the register query to select, so the
+     * query text is the same for every page and search and its compiled statement is reused.
+     * The hits are only written to the connection's temporary database, a page of hits is one insert
+     * statement and no transaction is held on the main database. They are kept until {@link #deleteSearchHits(long)}
+     *
+     * @return the id the hits are saved under, to bind to the query built with
+     * {@link org.smartregister.cursoradapter.SmartRegisterQueryBuilder#toStringFtsHits(String, String, String)}
+     */
+    public long saveSearchHits(List<String> ids) {
+        long searchHitsId = lastSearchHitsId.incrementAndGet();
+        SQLiteDatabase database = masterRepository().getWritableDatabase();
+        database.execSQL(CREATE_SEARCH_HITS_TABLE_SQL);
+        for (int start = 0; start < ids.size(); start += SEARCH_HITS_INSERT_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(ids.size(), start + SEARCH_HITS_INSERT_CHUNK_SIZE));
+            SQLiteStatement insertStatement = database.compileStatement(INSERT_SEARCH_HITS_SQL + repeat("(?, ?, ?)", ", ", chunk.size()));
+            try {
+                int index = 1;
+                for (int i = 0; i < chunk.size(); i++) {
+                    insertStatement.bindLong(index++, searchHitsId);
+                    insertStatement.bindLong(index++, start + i);
+                    insertStatement.bindString(index++, chunk.get(i));
+                }
+                insertStatement.executeInsert();
+            } finally {
+                insertStatement.close();
+            }
+        }
+        return searchHitsId;
+    }
+
+    public void deleteSearchHits(long searchHitsId) {
+        try {
+            masterRepository().getWritableDatabase().delete(SEARCH_HITS_TABLE, SEARCH_HITS_QUERY_ID_COLUMN + " = ?",
+                    new String[]{String.valueOf(searchHitsId)});
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * Saves the ids as search hits and runs the register query selecting them. The hits belong to the returned
+     * cursor and are deleted when it is closed, so every loaded page keeps its own hits while it is shown
+     *
+     * @param query built with {@link org.smartregister.cursoradapter.SmartRegisterQueryBuilder#toStringFtsHits(String, String, String)}
+     *              or {@link org.smartregister.cursoradapter.SmartRegisterQueryBuilder#toStringRankedFtsHits(String, String)}
+     */
+    public Cursor rawSearchHitsQueryForAdapter(String query, List<String> ids) {
+        long searchHitsId = saveSearchHits(ids);
+        Cursor cursor = null;
+        try {
+            cursor = rawCustomQueryForAdapter(query, new String[]{String.valueOf(searchHitsId)});
+        } finally {
+            if (cursor == null) {
+                deleteSearchHits(searchHitsId);
+            }
+        }
+        return cursor != null ? new SearchHitsCursor(cursor, searchHitsId) : null;
+    }
+
+    public Cursor rawCustomQueryForAdapter(String query, String[] selectionArgs) {
+        Timber.i(query);
+        SQLiteDatabase database = masterRepository().getReadableDatabase();
+        return database.rawQuery(query, selectionArgs);
+    }
+
     public int countSearchIds(String query) {
 
         int count = 0;
@@ -908,6 +1432,23 @@ public class CommonRepository extends DrishtiRepository {
         return count;
     }
 
+    /**
+     * Checks whether the record with the id is one of the records matching the condition
+     *
+     * @param condition a where clause on this table, blank to match any record
+     * @return whether the record matches, null if the condition can not be evaluated on this table
+     */
+    public Boolean matchesCondition(String caseId, String condition) {
+        String query = "SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE " + ID_COLUMN + " = ?"
+                + (StringUtils.isNotBlank(condition) ? " AND (" + condition + ")" : "");
+        try {
+            return longForQuery(masterRepository().getReadableDatabase(), query, new String[]{caseId}) > 0;
+        } catch (Exception e) {
+            Timber.w(e, "Condition %s can not be evaluated on %s", condition, TABLE_NAME);
+            return null;
+        }
+    }
+
     public boolean isFts() {
         return commonFtsObject != null;
     }
@@ -925,7 +1466,7 @@ public class CommonRepository extends DrishtiRepository {
         return withSub.trim();
     }
 
-    private String getSearchFieldValue(CommonPersonObject commonPersonObject, String field) {
+    private String getSearchFieldValue(CommonPersonObject commonPersonObject, String field, @Nullable Map<String, Set<String>> tableColumns) {
         if (field.equals(ID_COLUMN) || field.equals(Relational_ID) || field
                 .equals(IS_CLOSED_COLUMN)) {
             return null;
@@ -940,28 +1481,28 @@ public class CommonRepository extends DrishtiRepository {
             if (additionalColumns.containsKey(Relational_Underscore_ID)) { // Try getting the field
                 // by the relational_id
                 return getFieldValueFromRelatedTable(field,
-                        commonPersonObject.getColumnmaps().get(Relational_Underscore_ID));
+                        commonPersonObject.getColumnmaps().get(Relational_Underscore_ID), tableColumns);
             } else if (commonFtsObject.getCustomRelationalId(TABLE_NAME) != null
                     && additionalColumns.containsKey(commonFtsObject
                     .getCustomRelationalId(TABLE_NAME))) {  // Try getting the field by a
                 // pre-defined custom relational id
                 return getFieldValueFromRelatedTable(field, commonPersonObject.getColumnmaps()
-                        .get(commonFtsObject.getCustomRelationalId(TABLE_NAME)));
+                        .get(commonFtsObject.getCustomRelationalId(TABLE_NAME)), tableColumns);
             } else { // Try getting the field by the case Id
-                return getFieldValueFromRelatedTable(field, commonPersonObject.getCaseId());
+                return getFieldValueFromRelatedTable(field, commonPersonObject.getCaseId(), tableColumns);
             }
         } else {
             return commonPersonObject.getColumnmaps().get(field);
         }
     }
 
-    private String getFieldValueFromRelatedTable(String fieldName, String relationId) {
+    private String getFieldValueFromRelatedTable(String fieldName, String relationId, @Nullable Map<String, Set<String>> tableColumns) {
         if (StringUtils.isBlank(relationId)) {
             return null;
         }
 
         for (String table : commonFtsObject.getTables()) {
-            if (!table.equals(TABLE_NAME) && isFieldExist(table, fieldName)) {
+            if (!table.equals(TABLE_NAME) && isFieldExist(table, fieldName, tableColumns)) {
                 ArrayList<HashMap<String, String>> list = rawQuery(
                         " SELECT " + fieldName + " FROM " + table + " WHERE " + ID_COLUMN
                                 + " = ?", new String[]{relationId});
@@ -973,7 +1514,16 @@ public class CommonRepository extends DrishtiRepository {
         return null;
     }
 
-    private boolean isFieldExist(String tableName, String fieldName) {
+    private boolean isFieldExist(String tableName, String fieldName, @Nullable Map<String, Set<String>> tableColumns) {
+        if (tableColumns != null) {
+            Set<String> columnNames = tableColumns.get(tableName);
+            if (columnNames == null) {
+                columnNames = getColumnNames(tableName);
+                tableColumns.put(tableName, columnNames);
+            }
+            return columnNames.contains(fieldName);
+        }
+
         boolean isExist = false;
         SQLiteDatabase db = masterRepository().getWritableDatabase();
         Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
@@ -991,4 +1541,69 @@ public class CommonRepository extends DrishtiRepository {
 
         return isExist;
     }
+
+    private Set<String> getColumnNames(String tableName) {
+        Set<String> columnNames = new HashSet<>();
+        SQLiteDatabase db = masterRepository().getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int index = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columnNames.add(cursor.getString(index));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columnNames;
+    }
+
+    /**
+     * Deletes the search hits its rows were selected with when it is closed
+     */
+    private class SearchHitsCursor extends CursorWrapper {
+
+        private final long searchHitsId;
+
+        private boolean hitsDeleted;
+
+        private SearchHitsCursor(Cursor cursor, long searchHitsId) {
+            super(cursor);
+            this.searchHitsId = searchHitsId;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (!hitsDeleted) {
+                hitsDeleted = true;
+                deleteSearchHits(searchHitsId);
+            }
+        }
+    }
+
+    private static class RankedHit {
+
+        // best ranked first, rows ranked the same in the order they were read
+        private static final Comparator<RankedHit> BY_RANK = (first, second) -> {
+            int byRank = Double.compare(second.rank, first.rank);
+            return byRank != 0 ? byRank : Integer.compare(first.row, second.row);
+        };
+
+        private final String id;
+
+        private final double rank;
+
+        private final int row;
+
+        private RankedHit(String id, double rank, int row) {
+            this.id = id;
+            this.rank = rank;
+            this.row = row;
+        }
+    }
+
+    public interface SearchIndexRebuildListener {
+
+        void onProgress(String tableName, int indexed, long total);
+    }
 }
@@ -0,0 +1,272 @@
+package org.smartregister.commonregistry;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Reads the rows of a cursor into maps of column name to value.
+ * <p>
+ * The column names and indexes are resolved once for the cursor rather than for every row, and every row
+ * map shares the same key strings. Rows can also be read into a compact map holding only the values of
+ * the row, its keys and index are shared by all the rows of the cursor.
+ * Columns whose value can not be read as text are left out of the row maps.
+ * <p>
+ * The cursor is only weakly referenced, a mapper kept for reuse does not keep its cursor from being collected.
+ */
+public class CursorRowMapper {
+
+    // marks the columns whose value can not be read, never returned
+    private static final String UNREADABLE = new String("unreadable");
+
+    private final WeakReference<Cursor> cursor;
+
+    private final String[] columnNames;
+
+    private final int[] firstIndexes;
+
+    // index of the last column of each name, the value a row map keeps for repeated names
+    private final Map<String, Integer> lastIndexes;
+
+    public CursorRowMapper(@NonNull Cursor cursor) {
+        this.cursor = new WeakReference<>(cursor);
+        int columnCount = cursor.getColumnCount();
+        columnNames = new String[columnCount];
+        firstIndexes = new int[columnCount];
+        lastIndexes = new HashMap<>(capacity(columnCount));
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = cursor.getColumnName(i);
+            firstIndexes[i] = columnNames[i] != null ? cursor.getColumnIndex(columnNames[i]) : -1;
+            if (columnNames[i] != null) {
+                lastIndexes.put(columnNames[i], i);
+            }
+        }
+    }
+
+    /**
+     * @return true if the mapper resolved the columns of the cursor and the cursor is not closed
+     */
+    public boolean isFor(@Nullable Cursor cursor) {
+        return cursor != null && this.cursor.get() == cursor && !cursor.isClosed();
+    }
+
+    /**
+     * @return the index of the column, -1 if the cursor has no column with the name
+     */
+    public int getColumnIndex(@NonNull String columnName) {
+        Integer i = lastIndexes.get(columnName);
+        return i != null ? firstIndexes[i] : -1;
+    }
+
+    /**
+     * Reads the row the cursor is at, mapping each column name to its value, of the last readable column
+     * with the name when the name is repeated
+     */
+    @NonNull
+    public HashMap<String, String> readRow(@NonNull Cursor cursor) {
+        return toMap(readValues(cursor));
+    }
+
+    /**
+     * Reads the row the cursor is at, mapping each column name to the value of the first column with the name
+     * when the name is repeated, as looking the value up with {@link Cursor#getColumnIndex(String)} does
+     */
+    @NonNull
+    public HashMap<String, String> readRowByFirstColumn(@NonNull Cursor cursor) {
+        String[] values = readValues(cursor);
+        HashMap<String, String> row = new HashMap<>(capacity(columnNames.length));
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i] != null && firstIndexes[i] >= 0 && values[firstIndexes[i]] != UNREADABLE) {
+                row.put(columnNames[i], values[firstIndexes[i]]);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reads the row the cursor is at into a compact map that holds only the values of the row.
+     * A row with a column that can not be read is read into a {@link HashMap} instead
+     */
+    @NonNull
+    public Map<String, String> readCompactRow(@NonNull Cursor cursor) {
+        String[] values = readValues(cursor);
+        for (String value : values) {
+            if (value == UNREADABLE) {
+                return toMap(values);
+            }
+        }
+        return new CompactRowMap(columnNames, lastIndexes, values);
+    }
+
+    private String[] readValues(Cursor cursor) {
+        String[] values = new String[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i] == null) {
+                continue;
+            }
+            try {
+                values[i] = cursor.getString(i);
+            } catch (Exception e) {
+                Timber.d(e.getMessage());
+                values[i] = UNREADABLE;
+            }
+        }
+        return values;
+    }
+
+    private HashMap<String, String> toMap(String[] values) {
+        HashMap<String, String> row = new HashMap<>(capacity(columnNames.length));
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i] != null && values[i] != UNREADABLE) {
+                row.put(columnNames[i], values[i]);
+            }
+        }
+        return row;
+    }
+
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * A map over the values of a row that shares the column names and index of the cursor's other rows.
+     * Values of the columns can be replaced in place, adding or removing keys copies the row into a
+     * {@link LinkedHashMap} that the map uses from then on.
+     */
+    private static class CompactRowMap extends AbstractMap<String, String> implements Serializable {
+
+        private final String[] keys;
+
+        private final Map<String, Integer> index;
+
+        private final String[] values;
+
+        private Map<String, String> copy;
+
+        private CompactRowMap(String[] keys, Map<String, Integer> index, String[] values) {
+            this.keys = keys;
+            this.index = index;
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return copy != null ? copy.size() : index.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return copy != null ? copy.containsKey(key) : index.containsKey(key);
+        }
+
+        @Override
+        public String get(Object key) {
+            if (copy != null) {
+                return copy.get(key);
+            }
+            Integer i = index.get(key);
+            return i != null ? values[i] : null;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            Integer i = copy == null ? index.get(key) : null;
+            if (i != null) {
+                String previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            return copy().put(key, value);
+        }
+
+        @Override
+        public String remove(Object key) {
+            return containsKey(key) ? copy().remove(key) : null;
+        }
+
+        @Override
+        public void clear() {
+            copy().clear();
+        }
+
+        @NonNull
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (copy != null) {
+                return copy.entrySet();
+            }
+            return new AbstractSet<Entry<String, String>>() {
+                @NonNull
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+        }
+
+        private Map<String, String> copy() {
+            if (copy == null) {
+                Map<String, String> row = new LinkedHashMap<>(capacity(index.size() + 1));
+                for (Entry<String, String> entry : entrySet()) {
+                    row.put(entry.getKey(), entry.getValue());
+                }
+                copy = row;
+            }
+            return copy;
+        }
+
+        private class EntryIterator implements Iterator<Entry<String, String>> {
+
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < keys.length;
+            }
+
+            @Override
+            public Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int i = next;
+                next = advance(i + 1);
+                return new SimpleEntry<String, String>(keys[i], values[i]) {
+                    @Override
+                    public String setValue(String value) {
+                        values[i] = value;
+                        return super.setValue(value);
+                    }
+                };
+            }
+
+            // skips unnamed columns and all but the last column of a repeated name
+            private int advance(int from) {
+                int i = from;
+                while (i < keys.length && (keys[i] == null || index.get(keys[i]) != i)) {
+                    i++;
+                }
+                return i;
+            }
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package org.smartregister.compression;
 
-import android.util.Log;
-
 import org.apache.commons.lang3.CharEncoding;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -20,6 +25,29 @@ import timber.log.Timber;
  */
 public class GZIPCompression implements ICompression {
 
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    public GZIPCompression() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the deflate compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *              or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public GZIPCompression(int level) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
     /**
      * Compression using gzip
      */
@@ -28,7 +56,7 @@ public class GZIPCompression implements ICompression {
         try {
 
             ByteArrayOutputStream os = new ByteArrayOutputStream();
-            GZIPOutputStream gos = new GZIPOutputStream(os);
+            GZIPOutputStream gos = newGZIPOutputStream(os);
             gos.write(rawString.getBytes(CharEncoding.UTF_8));
             gos.close();
             byte[] compressed = os.toByteArray();
@@ -48,19 +76,15 @@ public class GZIPCompression implements ICompression {
      */
     @Override
     public String decompress(byte[] compressedBytes) {
-        try {
+        try (Reader reader = newReader(new ByteArrayInputStream(compressedBytes))) {
 
-            byte[] readBuffer = new byte[4096];
-            ByteArrayInputStream arrayInputStream = new ByteArrayInputStream(compressedBytes);
-
-            GZIPInputStream inputStream = new GZIPInputStream(arrayInputStream);
-
-            int read = inputStream.read(readBuffer, 0, readBuffer.length);
-            inputStream.close();
-
-            byte[] result = Arrays.copyOf(readBuffer, read);
-
-            return new String(result, CharEncoding.UTF_8);
+            StringBuilder builder = new StringBuilder(compressedBytes.length * 2);
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
 
         } catch (IOException e) {
 
@@ -84,7 +108,7 @@ public class GZIPCompression implements ICompression {
 
 
             FileOutputStream os = new FileOutputStream(compressedOutputFilepath);
-            GZIPOutputStream gos = new GZIPOutputStream(os);
+            GZIPOutputStream gos = newGZIPOutputStream(os);
 
             FileInputStream in = new FileInputStream(inputFilePath);
 
@@ -139,4 +163,74 @@ public class GZIPCompression implements ICompression {
 
     }
 
+    @Override
+    public void compress(InputStream inputStream, OutputStream outputStream) throws IOException {
+        // closing the gzip stream ends its deflater, the caller's stream is left open
+        try (GZIPOutputStream gos = newGZIPOutputStream(new NonClosingOutputStream(outputStream))) {
+            copy(inputStream, gos);
+        }
+    }
+
+    @Override
+    public void decompress(InputStream inputStream, OutputStream outputStream) throws IOException {
+        // closing the gzip stream ends its inflater, the caller's stream is left open
+        try (GZIPInputStream gis = new GZIPInputStream(new NonClosingInputStream(inputStream), BUFFER_SIZE)) {
+            copy(gis, outputStream);
+        }
+    }
+
+    /**
+     * Returns a reader of the UTF-8 text decompressed from the input stream as it is read.
+     * Closing the reader closes the input stream and frees the native inflater, so it must be closed
+     */
+    public Reader newReader(InputStream inputStream) throws IOException {
+        return new InputStreamReader(new GZIPInputStream(inputStream, BUFFER_SIZE), StandardCharsets.UTF_8);
+    }
+
+    private GZIPOutputStream newGZIPOutputStream(OutputStream outputStream) throws IOException {
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    private static class NonClosingInputStream extends FilterInputStream {
+
+        private NonClosingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public void close() {
+            // the caller closes the stream
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        private NonClosingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the caller closes the stream
+            flush();
+        }
+    }
+
+    private void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, len);
+        }
+    }
+
 }
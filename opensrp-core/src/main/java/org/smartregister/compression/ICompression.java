@@ -1,5 +1,12 @@
 package org.smartregister.compression;
 
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Created by ndegwamartin on 28/04/2019.
  */
@@ -12,4 +19,28 @@ public interface ICompression {
     void compress(String inputFilePath, String compressedOutputFilepath);
 
     void decompress(String compressedInputFilePath, String decompressedOutputFilePath);
+
+    /**
+     * Compresses everything read from the input stream into the output stream. Neither stream is closed.
+     * The default implementation reads the whole input into memory as UTF-8 text, implementations should stream it
+     */
+    default void compress(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] compressed = compress(new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8));
+        if (compressed == null) {
+            throw new IOException("Unable to compress the input");
+        }
+        outputStream.write(compressed);
+    }
+
+    /**
+     * Decompresses everything read from the input stream into the output stream. Neither stream is closed.
+     * The default implementation reads the whole input into memory as UTF-8 text, implementations should stream it
+     */
+    default void decompress(InputStream inputStream, OutputStream outputStream) throws IOException {
+        String decompressed = decompress(IOUtils.toByteArray(inputStream));
+        if (decompressed == null) {
+            throw new IOException("Unable to decompress the input");
+        }
+        outputStream.write(decompressed.getBytes(StandardCharsets.UTF_8));
+    }
 }
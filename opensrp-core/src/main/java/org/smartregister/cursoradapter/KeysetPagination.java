@@ -0,0 +1,288 @@
+package org.smartregister.cursoradapter;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Seek (keyset) pagination for register lists.
+ * <p>
+ * A page is read as the rows after the last row of the previous page in the order of the sort columns
+ * followed by the id, instead of skipping offset rows with LIMIT offset,limit, so every page costs the same
+ * to load however deep into the register it is. The key each visited page starts after is kept, so going
+ * back a page is a seek too.
+ * <p>
+ * Only sorts that are a list of plain columns with an optional ASC or DESC are paged by key,
+ * any other sort keeps paging with an offset.
+ */
+public class KeysetPagination {
+
+    /**
+     * The column register select queries output the id as
+     */
+    public static final String ID_COLUMN = "_id";
+
+    private static final Pattern SORT_TERM = Pattern.compile("^([A-Za-z_][A-Za-z0-9_.]*)(?:\\s+(ASC|DESC))?$", Pattern.CASE_INSENSITIVE);
+
+    private final Map<Integer, Key> pageStartKeys = new HashMap<>();
+
+    private String sort;
+
+    private List<SortTerm> sortTerms;
+
+    private String pageEndId;
+
+    /**
+     * @return true if the sort can be paged by key
+     */
+    public synchronized boolean isSupported(@Nullable String sort) {
+        return getSortTerms(sort) != null;
+    }
+
+    /**
+     * @return true if the page at the offset can be read by seeking i.e. it is the first page or the key it
+     * starts after is known
+     */
+    public synchronized boolean canSeek(@Nullable String sort, int offset) {
+        return getSortTerms(sort) != null && (offset == 0 || pageStartKeys.containsKey(offset));
+    }
+
+    /**
+     * Returns the ORDER BY terms pages are read in, the sort with the id as the tie breaker
+     *
+     * @param outputColumns true to use the column names the select query outputs instead of the columns as written in the sort
+     */
+    @NonNull
+    public synchronized String getOrderBy(@Nullable String sort, @NonNull String idColumn, boolean outputColumns) {
+        List<SortTerm> terms = getSortTerms(sort);
+        if (terms == null) {
+            return StringUtils.defaultString(sort);
+        }
+        StringBuilder orderBy = new StringBuilder();
+        for (SortTerm term : terms) {
+            orderBy.append(outputColumns ? term.name : term.column).append(term.descending ? " DESC" : " ASC").append(", ");
+        }
+        return orderBy.append(idColumn).append(" ASC").toString();
+    }
+
+    /**
+     * Returns the condition that selects the rows after the key the page at the offset starts after.
+     * Sort columns are referred to by the names the select query outputs. The key values are bound
+     * as arguments so the query text is the same for every page.
+     *
+     * @param textValues true to compare the key as text, as the columns of the full text search tables hold text
+     * @return the condition, null for the first page or when the page can not be read by seeking
+     */
+    @Nullable
+    public synchronized SeekCondition getSeekCondition(@Nullable String sort, int offset, @NonNull String idColumn, boolean textValues) {
+        List<SortTerm> terms = getSortTerms(sort);
+        Key key = pageStartKeys.get(offset);
+        if (terms == null || offset == 0 || key == null) {
+            return null;
+        }
+
+        String condition = idColumn + " > ?";
+        LinkedList<String> args = new LinkedList<>();
+        args.add(key.id);
+        for (int i = terms.size() - 1; i >= 0; i--) {
+            SortTerm term = terms.get(i);
+            Object value = textValues ? key.texts[i] : key.values[i];
+            // arguments are bound as text, numbers are cast back so they are compared as numbers
+            String placeholder = value == null ? null : value instanceof Long ? "CAST(? AS INTEGER)"
+                    : value instanceof Double ? "CAST(? AS REAL)" : "?";
+
+            // nulls come first in ascending order and last in descending order
+            String after;
+            if (placeholder == null) {
+                after = term.descending ? null : term.name + " IS NOT NULL";
+            } else {
+                after = term.descending ? "(" + term.name + " < " + placeholder + " OR " + term.name + " IS NULL)" : term.name + " > " + placeholder;
+                args.addFirst(String.valueOf(value));
+                args.addFirst(String.valueOf(value));
+            }
+            String equal = placeholder == null ? term.name + " IS NULL" : term.name + " = " + placeholder;
+
+            condition = after == null ? "(" + equal + " AND " + condition + ")"
+                    : "(" + after + " OR (" + equal + " AND " + condition + "))";
+        }
+        return new SeekCondition(condition, args.toArray(new String[0]));
+    }
+
+    /**
+     * Sets the id of the last row of the loaded page when the page rows are not read in key order
+     * e.g. when the ids of the page are looked up in the full text search tables
+     */
+    public synchronized void setPageEndId(@Nullable String pageEndId) {
+        this.pageEndId = pageEndId;
+    }
+
+    /**
+     * Keeps the key of the last row of the loaded page as the key the page at the next offset starts after
+     *
+     * @param cursor     the rows of the loaded page, read with the sort last used to build a page query
+     * @param nextOffset the offset of the next page
+     */
+    public synchronized void onNextPage(@Nullable Cursor cursor, int nextOffset) {
+        List<SortTerm> terms = sortTerms;
+        if (terms == null || cursor == null || cursor.isClosed() || cursor.getCount() == 0) {
+            return;
+        }
+
+        int position = cursor.getPosition();
+        try {
+            Key key = readKey(cursor, terms);
+            if (key != null) {
+                pageStartKeys.put(nextOffset, key);
+            }
+        } finally {
+            cursor.moveToPosition(position);
+        }
+    }
+
+    public synchronized void reset() {
+        pageStartKeys.clear();
+        pageEndId = null;
+    }
+
+    @Nullable
+    private Key readKey(Cursor cursor, List<SortTerm> terms) {
+        int idIndex = cursor.getColumnIndex(ID_COLUMN);
+        if (idIndex < 0 || !moveToPageEnd(cursor, idIndex)) {
+            return null;
+        }
+
+        Object[] values = new Object[terms.size()];
+        String[] texts = new String[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            int index = cursor.getColumnIndex(terms.get(i).name);
+            if (index < 0) {
+                return null;
+            }
+            switch (cursor.getType(index)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(index);
+                    texts[i] = cursor.getString(index);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(index);
+                    texts[i] = cursor.getString(index);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values[i] = cursor.getString(index);
+                    texts[i] = (String) values[i];
+                    break;
+                default:
+                    return null;
+            }
+        }
+        String id = cursor.getString(idIndex);
+        return id == null ? null : new Key(values, texts, id);
+    }
+
+    private boolean moveToPageEnd(Cursor cursor, int idIndex) {
+        if (pageEndId != null && cursor.moveToFirst()) {
+            do {
+                if (pageEndId.equals(cursor.getString(idIndex))) {
+                    return true;
+                }
+            } while (cursor.moveToNext());
+        }
+        return pageEndId == null && cursor.moveToLast();
+    }
+
+    @Nullable
+    private List<SortTerm> getSortTerms(@Nullable String sort) {
+        String normalizedSort = StringUtils.trimToEmpty(sort);
+        if (!normalizedSort.equals(this.sort)) {
+            this.sort = normalizedSort;
+            this.sortTerms = parseSort(normalizedSort);
+            reset();
+        }
+        return sortTerms;
+    }
+
+    @Nullable
+    private static List<SortTerm> parseSort(String sort) {
+        if (sort.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<SortTerm> terms = new ArrayList<>();
+        for (String term : sort.split(",")) {
+            Matcher matcher = SORT_TERM.matcher(term.trim());
+            if (!matcher.matches()) {
+                return null;
+            }
+            terms.add(new SortTerm(matcher.group(1), "DESC".equalsIgnoreCase(matcher.group(2))));
+        }
+        return Collections.unmodifiableList(terms);
+    }
+
+    /**
+     * A seek condition and the arguments bound to its placeholders, in order
+     */
+    public static class SeekCondition {
+
+        private final String condition;
+
+        private final String[] args;
+
+        private SeekCondition(String condition, String[] args) {
+            this.condition = condition;
+            this.args = args;
+        }
+
+        @NonNull
+        public String getCondition() {
+            return condition;
+        }
+
+        @NonNull
+        public String[] getArgs() {
+            return args;
+        }
+    }
+
+    private static class SortTerm {
+
+        private final String column;
+
+        private final String name;
+
+        private final boolean descending;
+
+        private SortTerm(String column, boolean descending) {
+            this.column = column;
+            this.name = column.substring(column.lastIndexOf('.') + 1);
+            this.descending = descending;
+        }
+    }
+
+    private static class Key {
+
+        private final Object[] values;
+
+        private final String[] texts;
+
+        private final String id;
+
+        private Key(Object[] values, String[] texts, String id) {
+            this.values = values;
+            this.texts = texts;
+            this.id = id;
+        }
+    }
+}
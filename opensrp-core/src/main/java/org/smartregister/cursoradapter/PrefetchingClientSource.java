@@ -0,0 +1,196 @@
+package org.smartregister.cursoradapter;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.smartregister.commonregistry.CommonPersonObject;
+import org.smartregister.commonregistry.CommonPersonObjectClient;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.event.Listener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import timber.log.Timber;
+
+import static org.smartregister.event.Event.FORM_SUBMITTED;
+
+/**
+ * Materialises the {@link CommonPersonObjectClient}s of the next register page before it is shown.
+ * <p>
+ * Once a page is shown its register query is run for the next page on a background executor, with a cursor of
+ * its own, and the clients of its rows are kept by id. Binding a row of the next page then finds its client
+ * already read. Binding never waits on the background reads, they share no cursor or lock with the adapter.
+ * The clients are kept in an LRU of the last read rows, so flipping back a page or scrolling back and forth
+ * rebinds them without reading the cursor again.
+ * <p>
+ * The client of a record is dropped when {@link org.smartregister.event.Event#FORM_SUBMITTED} is notified with its id,
+ * {@link #clear()} drops every client e.g. when the register is reloaded.
+ */
+public class PrefetchingClientSource {
+
+    public static final int DEFAULT_CACHE_SIZE = 200;
+
+    private final CommonRepository commonRepository;
+
+    private final Executor executor;
+
+    private final Map<String, CommonPersonObjectClient> clients;
+
+    // kept as events only hold weak references to their listeners
+    private final Listener<String> recordUpdatedListener = this::evict;
+
+    private Cursor cursor;
+
+    private int idIndex = -1;
+
+    private int generation;
+
+    public PrefetchingClientSource(@NonNull CommonRepository commonRepository, @NonNull Executor executor) {
+        this(commonRepository, executor, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the clients kept, at least two pages so a page read ahead is not evicted before it is bound
+     */
+    public PrefetchingClientSource(@NonNull CommonRepository commonRepository, @NonNull Executor executor, final int cacheSize) {
+        this.commonRepository = commonRepository;
+        this.executor = executor;
+        this.clients = new LinkedHashMap<String, CommonPersonObjectClient>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CommonPersonObjectClient> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        FORM_SUBMITTED.addListener(recordUpdatedListener);
+    }
+
+    /**
+     * Sets the cursor of the page being shown, clients read for other pages are kept
+     */
+    public synchronized void setCursor(@Nullable Cursor cursor) {
+        if (cursor == this.cursor) {
+            return;
+        }
+        this.cursor = cursor;
+        idIndex = cursor != null ? cursor.getColumnIndex(KeysetPagination.ID_COLUMN) : -1;
+    }
+
+    /**
+     * Returns the client of the row the cursor is at, reading it if it is not read yet
+     */
+    @NonNull
+    public CommonPersonObjectClient getClient(@NonNull Cursor cursor) {
+        String id = getId(cursor);
+        CommonPersonObjectClient client = id != null ? getCachedClient(id) : null;
+        if (client == null) {
+            client = readClient(commonRepository, cursor);
+            if (id != null) {
+                synchronized (this) {
+                    clients.put(id, client);
+                }
+            }
+        }
+        return client;
+    }
+
+    @Nullable
+    public synchronized CommonPersonObjectClient getCachedClient(@NonNull String id) {
+        return clients.get(id);
+    }
+
+    /**
+     * Runs the query of a page in the background and keeps the clients of its rows, a page queried
+     * before {@link #clear()} is discarded
+     *
+     * @param pageQuery returns the cursor of the page, it is closed once its rows are read
+     */
+    public void prefetchPage(@NonNull Callable<Cursor> pageQuery) {
+        final int pageGeneration;
+        synchronized (this) {
+            pageGeneration = generation;
+        }
+        executor.execute(() -> readPage(pageQuery, pageGeneration));
+    }
+
+    /**
+     * Drops every client e.g. when the records of the register may have changed
+     */
+    public synchronized void clear() {
+        generation++;
+        clients.clear();
+    }
+
+    public synchronized void evict(@Nullable String id) {
+        if (id != null) {
+            clients.remove(id);
+        }
+    }
+
+    /**
+     * Builds the client of the row the cursor is at
+     */
+    @NonNull
+    public static CommonPersonObjectClient readClient(@NonNull CommonRepository commonRepository, @NonNull Cursor cursor) {
+        CommonPersonObject personinlist = commonRepository.readAllcommonforCursorAdapter(cursor);
+        CommonPersonObjectClient pClient = new CommonPersonObjectClient(personinlist.getCaseId(),
+                personinlist.getDetails(), personinlist.getDetails().get("FWHOHFNAME"));
+        pClient.setColumnmaps(personinlist.getColumnmaps());
+        return pClient;
+    }
+
+    @Nullable
+    private String getId(Cursor cursor) {
+        int index;
+        synchronized (this) {
+            index = cursor == this.cursor ? idIndex : cursor.getColumnIndex(KeysetPagination.ID_COLUMN);
+        }
+        return index >= 0 ? cursor.getString(index) : null;
+    }
+
+    private void readPage(Callable<Cursor> pageQuery, int pageGeneration) {
+        Cursor pageCursor = null;
+        try {
+            pageCursor = pageQuery.call();
+            if (pageCursor == null) {
+                return;
+            }
+            int index = pageCursor.getColumnIndex(KeysetPagination.ID_COLUMN);
+            if (index < 0) {
+                return;
+            }
+            while (pageCursor.moveToNext()) {
+                String id = pageCursor.getString(index);
+                if (id == null) {
+                    continue;
+                }
+                synchronized (this) {
+                    if (pageGeneration != generation) {
+                        return;
+                    }
+                    if (clients.containsKey(id)) {
+                        continue;
+                    }
+                }
+
+                CommonPersonObjectClient client = readClient(commonRepository, pageCursor);
+                synchronized (this) {
+                    if (pageGeneration != generation) {
+                        return;
+                    }
+                    clients.put(id, client);
+                }
+            }
+        } catch (Exception e) {
+            Timber.w(e);
+        } finally {
+            if (pageCursor != null) {
+                pageCursor.close();
+            }
+        }
+    }
+}
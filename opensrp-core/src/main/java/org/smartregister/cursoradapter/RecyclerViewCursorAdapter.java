@@ -59,8 +59,13 @@ public abstract class RecyclerViewCursorAdapter extends RecyclerView.Adapter<Rec
 
     @Override
     public long getItemId(int position) {
-        if (mDataValid && mCursor != null && mCursor.moveToPosition(position)) {
-            return mCursor.getLong(mRowIdColumn);
+        if (mDataValid && mCursor != null) {
+            // the rows are also read to page the register by key, see RecyclerViewPaginatedAdapter#nextPageOffset
+            synchronized (mCursor) {
+                if (mCursor.moveToPosition(position)) {
+                    return mCursor.getLong(mRowIdColumn);
+                }
+            }
         }
         return 0;
     }
@@ -93,10 +98,12 @@ public abstract class RecyclerViewCursorAdapter extends RecyclerView.Adapter<Rec
         if (!mDataValid) {
             throw new IllegalStateException("this should only be called when the cursor is valid");
         }
-        if (position < mCursor.getCount() && !mCursor.moveToPosition(position)) {
-            throw new IllegalStateException("couldn't move cursor to position " + position);
+        synchronized (mCursor) {
+            if (position < mCursor.getCount() && !mCursor.moveToPosition(position)) {
+                throw new IllegalStateException("couldn't move cursor to position " + position);
+            }
+            onBindViewHolder(viewHolder, mCursor);
         }
-        onBindViewHolder(viewHolder, mCursor);
     }
 
     /**
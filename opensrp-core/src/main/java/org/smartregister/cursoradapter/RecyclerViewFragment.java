@@ -4,7 +4,12 @@ import android.content.pm.ActivityInfo;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.util.Pair;
+import androidx.annotation.Nullable;
+import androidx.core.os.CancellationSignal;
+import androidx.core.os.OperationCanceledException;
 import androidx.loader.app.LoaderManager;
+import androidx.loader.content.AsyncTaskLoader;
 import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 import androidx.recyclerview.widget.DividerItemDecoration;
@@ -23,10 +28,15 @@ import android.widget.TextView;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.LocalDate;
+import org.smartregister.CoreLibrary;
 import org.smartregister.R;
+import org.smartregister.SyncConfiguration;
+import org.smartregister.commonregistry.CommonFtsObject;
 import org.smartregister.commonregistry.CommonRepository;
 import org.smartregister.domain.ReportMonth;
+import org.smartregister.event.Listener;
 import org.smartregister.provider.SmartRegisterClientsProvider;
+import org.smartregister.service.RegisterCountService;
 import org.smartregister.view.activity.SecuredNativeSmartRegisterActivity;
 import org.smartregister.view.contract.SmartRegisterClient;
 import org.smartregister.view.customcontrols.CustomFontTextView;
@@ -40,13 +50,16 @@ import org.smartregister.view.dialog.ServiceModeOption;
 import org.smartregister.view.dialog.SortOption;
 import org.smartregister.view.fragment.SecuredNativeSmartRegisterFragment;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import timber.log.Timber;
 
 import static android.view.View.INVISIBLE;
 import static android.view.View.VISIBLE;
 import static org.smartregister.AllConstants.SHORT_DATE_FORMAT;
+import static org.smartregister.event.Event.REGISTER_COUNT_UPDATED;
 
 /**
  * Created by keyman on 09/07/18.
@@ -59,6 +72,14 @@ public abstract class RecyclerViewFragment extends
     public final SearchCancelHandler searchCancelHandler = new SearchCancelHandler();
     public final PaginationViewHandler paginationViewHandler = new PaginationViewHandler();
     private final NavBarActionsHandler navBarActionsHandler = new NavBarActionsHandler();
+    private final Listener<String> registerCountUpdatedListener = new Listener<String>() {
+        @Override
+        public void onEvent(String tableName) {
+            if (tableName.equals(tablename) && getActivity() != null) {
+                getActivity().runOnUiThread(() -> onRegisterCountUpdated());
+            }
+        }
+    };
 
     public String mainSelect;
     public String filters = "";
@@ -80,6 +101,9 @@ public abstract class RecyclerViewFragment extends
 
     private static final String COUNT = "count_execute";
 
+    // the query of the ranked search and its best ranked hits, read on the main thread to read ahead
+    private volatile Pair<String, List<String>> rankedSearch;
+
     public String getTablename() {
         return tablename;
     }
@@ -177,6 +201,18 @@ public abstract class RecyclerViewFragment extends
         // TODO add implementation
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        REGISTER_COUNT_UPDATED.addListener(registerCountUpdatedListener);
+    }
+
+    @Override
+    public void onPause() {
+        REGISTER_COUNT_UPDATED.removeListener(registerCountUpdatedListener);
+        super.onPause();
+    }
+
     private void setupStatusBarViews(View view) {
         appliedSortView = view.findViewById(R.id.sorted_by);
         appliedVillageFilterView = view.findViewById(R.id.village);
@@ -393,6 +429,11 @@ public abstract class RecyclerViewFragment extends
     }
 
     public void filterandSortExecute(Bundle args) {
+        // the register is counted when it is reloaded rather than paged, its records may have changed
+        PrefetchingClientSource clientSource = clientAdapter != null ? clientAdapter.getClientSource() : null;
+        if (clientSource != null && args != null && args.getBoolean(COUNT)) {
+            clientSource.clear();
+        }
         getLoaderManager().restartLoader(LOADER_ID, args, this);
     }
 
@@ -419,72 +460,240 @@ public abstract class RecyclerViewFragment extends
         }
     }
 
-    private String filterandSortQuery() {
+    private Cursor filterandSortQuery(AsyncTaskLoader<?> loader, CancellationSignal cancellationSignal) {
         SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder(mainSelect);
+        int offset = clientAdapter.getCurrentoffset();
 
-        String query = "";
         try {
-            if (isValidFilterForFts(commonRepository())) {
-                String sql = sqb
-                        .searchQueryFts(tablename, joinTable, mainCondition, filters, Sortqueries,
-                                clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset());
-                List<String> ids = commonRepository().findSearchIds(sql);
-                query = sqb.toStringFts(ids, tablename, CommonRepository.ID_COLUMN,
-                        Sortqueries);
-                query = sqb.Endquery(query);
+            if (isValidFilterForFts(commonRepository()) && isRankedSearch()) {
+                List<String> ids = findRankedSearchIds(false, cancellationSignal);
+                throwIfCanceled(loader);
+
+                // the ranked hits are paged by offset, they are not in the order of a sort to seek by
+                setPageEndId(null);
+                return commonRepository().rawSearchHitsQueryForAdapter(rankedSearchHitsQuery(sqb), getRankedPageIds(ids, offset));
+            } else if (isValidFilterForFts(commonRepository())) {
+                KeysetPagination.SeekCondition seekCondition = getPageSeekCondition(CommonFtsObject.idColumn, true, offset);
+                List<String> ids = commonRepository().findSearchIds(searchIdsQuery(sqb, seekCondition, offset),
+                        seekCondition != null ? seekCondition.getArgs() : null);
+                throwIfCanceled(loader);
+                setPageEndId(ids.isEmpty() ? null : ids.get(ids.size() - 1));
+                return commonRepository().rawSearchHitsQueryForAdapter(searchHitsQuery(sqb), ids);
             } else {
                 sqb.addCondition(filters);
-                query = sqb.orderbyCondition(Sortqueries);
-                query = sqb.Endquery(sqb.addlimitandOffset(query, clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset()));
-
+                setPageEndId(null);
+                KeysetPagination.SeekCondition seekCondition = getPageSeekCondition(KeysetPagination.ID_COLUMN, false, offset);
+                return commonRepository().rawCustomQueryForAdapter(pageQuery(sqb, seekCondition, offset),
+                        seekCondition != null ? seekCondition.getArgs() : null);
             }
+        } catch (OperationCanceledException e) {
+            throw e;
         } catch (Exception e) {
             Timber.e(e);
         }
 
-        return query;
+        return null;
     }
 
-    private String filterandSortJoinArrayQuery() {
+    /**
+     * Builds the query of the page at the offset from the state of the register, call on the main thread.
+     * The returned query only reads the database so it can run in the background
+     *
+     * @return the query of the page, null if the page can not be read ahead
+     */
+    @Nullable
+    private Callable<Cursor> getPageReadAhead(int offset) {
+        final CommonRepository commonRepository = commonRepository();
         SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder(mainSelect);
+        if (isValidFilterForFts(commonRepository) && isRankedSearch()) {
+            List<String> ids = getRankedSearchIds();
+            if (ids == null) {
+                return null;
+            }
+            final List<String> pageIds = new ArrayList<>(getRankedPageIds(ids, offset));
+            final String query = rankedSearchHitsQuery(sqb);
+            return () -> commonRepository.rawSearchHitsQueryForAdapter(query, pageIds);
+        } else if (isValidFilterForFts(commonRepository)) {
+            KeysetPagination.SeekCondition seekCondition = getPageSeekCondition(CommonFtsObject.idColumn, true, offset);
+            final String idsQuery = searchIdsQuery(sqb, seekCondition, offset);
+            final String[] args = seekCondition != null ? seekCondition.getArgs() : null;
+            final String query = searchHitsQuery(sqb);
+            return () -> commonRepository.rawSearchHitsQueryForAdapter(query, commonRepository.findSearchIds(idsQuery, args));
+        }
+        sqb.addCondition(filters);
+        KeysetPagination.SeekCondition seekCondition = getPageSeekCondition(KeysetPagination.ID_COLUMN, false, offset);
+        final String query = pageQuery(sqb, seekCondition, offset);
+        final String[] args = seekCondition != null ? seekCondition.getArgs() : null;
+        return () -> commonRepository.rawCustomQueryForAdapter(query, args);
+    }
+
+    /**
+     * @return the query of the ids of the search hits of the page
+     */
+    private String searchIdsQuery(SmartRegisterQueryBuilder sqb, KeysetPagination.SeekCondition seekCondition, int offset) {
+        String sort = getPageSort(CommonFtsObject.idColumn, true);
+        if (ArrayUtils.isNotEmpty(joinTables)) {
+            return seekCondition != null ? sqb
+                    .searchQueryFts(tablename, joinTables, mainCondition, filters, sort,
+                            clientAdapter.getCurrentlimit(), seekCondition.getCondition()) : sqb
+                    .searchQueryFts(tablename, joinTables, mainCondition, filters, sort,
+                            clientAdapter.getCurrentlimit(), offset);
+        }
+        return seekCondition != null ? sqb
+                .searchQueryFts(tablename, joinTable, mainCondition, filters, sort,
+                        clientAdapter.getCurrentlimit(), seekCondition.getCondition()) : sqb
+                .searchQueryFts(tablename, joinTable, mainCondition, filters, sort,
+                        clientAdapter.getCurrentlimit(), offset);
+    }
+
+    /**
+     * @return the query of the rows of the search hits, in the order of the register sort
+     */
+    private String searchHitsQuery(SmartRegisterQueryBuilder sqb) {
+        // the ids are bound rather than inlined so the query text is the same for every page
+        return sqb.Endquery(sqb.toStringFtsHits(tablename, CommonRepository.ID_COLUMN, Sortqueries));
+    }
+
+    /**
+     * @return the query of the rows of the best ranked search hits, in the order of their rank
+     */
+    private String rankedSearchHitsQuery(SmartRegisterQueryBuilder sqb) {
+        return sqb.Endquery(sqb.toStringRankedFtsHits(tablename, CommonRepository.ID_COLUMN));
+    }
 
-        String query = "";
-        try {
-            if (isValidFilterForFts(commonRepository())) {
-                String sql = sqb
-                        .searchQueryFts(tablename, joinTables, mainCondition, filters, Sortqueries,
-                                clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset());
-                List<String> ids = commonRepository().findSearchIds(sql);
-                query = sqb.toStringFts(ids, tablename, CommonRepository.ID_COLUMN,
-                        Sortqueries);
-                query = sqb.Endquery(query);
-            } else {
-                sqb.addCondition(filters);
-                query = sqb.orderbyCondition(Sortqueries);
-                query = sqb.Endquery(sqb.addlimitandOffset(query, clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset()));
+    private List<String> getRankedPageIds(List<String> ids, int pageOffset) {
+        int offset = Math.min(pageOffset, ids.size());
+        return ids.subList(offset, Math.min(offset + clientAdapter.getCurrentlimit(), ids.size()));
+    }
 
-            }
-        } catch (Exception e) {
-            Timber.e(e);
+    /**
+     * @return the best ranked search hits, ranked again only when the search changes or the register is counted
+     * @throws OperationCanceledException if the signal is canceled while the hits are ranked
+     */
+    private synchronized List<String> findRankedSearchIds(boolean rerank, CancellationSignal cancellationSignal) {
+        String sql = new SmartRegisterQueryBuilder().rankedSearchQueryFts(tablename, mainCondition, filters);
+        Pair<String, List<String>> ranked = rankedSearch;
+        if (rerank || ranked == null || !sql.equals(ranked.first)) {
+            ranked = Pair.create(sql, commonRepository().findRankedSearchIds(sql, getRankedSearchLimit(), cancellationSignal));
+            rankedSearch = ranked;
+        }
+        return ranked.second;
+    }
+
+    /**
+     * @return the best ranked hits of the current search without ranking them, null if they are not ranked yet
+     */
+    @Nullable
+    private List<String> getRankedSearchIds() {
+        String sql = new SmartRegisterQueryBuilder().rankedSearchQueryFts(tablename, mainCondition, filters);
+        Pair<String, List<String>> ranked = rankedSearch;
+        return ranked != null && sql.equals(ranked.first) ? ranked.second : null;
+    }
+
+    /**
+     * @return the number of best ranked search hits a search shows, 0 to show every hit in the order of the register sort
+     */
+    protected int getRankedSearchLimit() {
+        SyncConfiguration syncConfiguration = CoreLibrary.getInstance().getSyncConfiguration();
+        return syncConfiguration != null && syncConfiguration.isRankedSearch() ? syncConfiguration.getRankedSearchLimit() : 0;
+    }
+
+    /**
+     * Ranked searches rank the hits of the register's own search table, searches joining other tables are not ranked
+     */
+    private boolean isRankedSearch() {
+        return getRankedSearchLimit() > 0 && StringUtils.isNotBlank(filters)
+                && ArrayUtils.isEmpty(joinTables) && StringUtils.isBlank(joinTable);
+    }
+
+    /**
+     * Stops a load the loader was restarted over, e.g. the search of a phrase the user kept typing
+     */
+    private static void throwIfCanceled(AsyncTaskLoader<?> loader) {
+        if (loader != null && loader.isLoadInBackgroundCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * @return the query of the page, seeking to it when the seek condition is given
+     */
+    private String pageQuery(SmartRegisterQueryBuilder sqb, KeysetPagination.SeekCondition seekCondition, int offset) {
+        if (seekCondition != null) {
+            return sqb.Endquery(sqb.addKeysetPage(sqb.toString(), seekCondition.getCondition(),
+                    getPageSort(KeysetPagination.ID_COLUMN, true), clientAdapter.getCurrentlimit()));
+        }
+        String query = sqb.orderbyCondition(getPageSort(tablename + "." + CommonRepository.ID_COLUMN, false));
+        return sqb.Endquery(sqb.addlimitandOffset(query, clientAdapter.getCurrentlimit(), offset));
+    }
+
+    /**
+     * @return the sort of the page, with the id as the tie breaker when the register is paged by key
+     */
+    private String getPageSort(String idColumn, boolean outputColumns) {
+        KeysetPagination keysetPagination = clientAdapter.getKeysetPagination();
+        if (keysetPagination != null && keysetPagination.isSupported(Sortqueries)) {
+            return keysetPagination.getOrderBy(Sortqueries, idColumn, outputColumns);
+        }
+        return Sortqueries;
+    }
+
+    /**
+     * @return the condition seeking to the current page, null when the page is read with an offset
+     */
+    private KeysetPagination.SeekCondition getPageSeekCondition(String idColumn, boolean searchTable, int offset) {
+        KeysetPagination keysetPagination = clientAdapter.getKeysetPagination();
+        if (keysetPagination != null && keysetPagination.canSeek(Sortqueries, offset)) {
+            return keysetPagination.getSeekCondition(Sortqueries, offset, idColumn, searchTable);
         }
+        return null;
+    }
 
-        return query;
+    private void setPageEndId(String pageEndId) {
+        KeysetPagination keysetPagination = clientAdapter.getKeysetPagination();
+        if (keysetPagination != null) {
+            keysetPagination.setPageEndId(pageEndId);
+        }
     }
 
     public void countExecute() {
+        countExecute(null);
+    }
+
+    private void countExecute(CancellationSignal cancellationSignal) {
         Cursor c = null;
 
         try {
             SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder(countSelect);
             String query = "";
-            if (isValidFilterForFts(commonRepository())) {
+            RegisterCountService registerCountService = getRegisterCountService();
+            if (isValidFilterForFts(commonRepository()) && isRankedSearch()) {
+                // a ranked search shows only the best ranked hits
+                clientAdapter.setTotalcount(findRankedSearchIds(true, cancellationSignal).size());
+            } else if (isValidFilterForFts(commonRepository())) {
                 String sql = sqb.countQueryFts(tablename, joinTable, mainCondition, filters);
                 Timber.i(query);
 
-                clientAdapter.setTotalcount(commonRepository().countSearchIds(sql));
+                if (registerCountService != null) {
+                    // without a search phrase or joined table the count is the records matching the main condition
+                    String recordCondition = StringUtils.isBlank(filters) && StringUtils.isBlank(joinTable)
+                            && ArrayUtils.isEmpty(joinTables) ? mainCondition : null;
+                    clientAdapter.setTotalcount(registerCountService.getCount(tablename, mainCondition, filters,
+                            recordCondition, getSearchCounter(commonRepository(), sql)));
+                } else {
+                    clientAdapter.setTotalcount(commonRepository().countSearchIds(sql));
+                }
                 Timber.v("total count here %d", clientAdapter.getTotalcount());
 
 
+            } else if (registerCountService != null) {
+                sqb.addCondition(filters);
+                query = sqb.Endquery(sqb.orderbyCondition(Sortqueries));
+
+                // the count query holds the conditions of the register
+                clientAdapter.setTotalcount(registerCountService.getCount(tablename, countSelect, filters,
+                        null, getQueryCounter(commonRepository(), query)));
+                Timber.v("total count here %d", clientAdapter.getTotalcount());
             } else {
                 sqb.addCondition(filters);
                 query = sqb.orderbyCondition(Sortqueries);
@@ -512,6 +721,47 @@ public abstract class RecyclerViewFragment extends
         }
     }
 
+    /**
+     * @return the service caching register counts, null to count the register every time it is filtered
+     */
+    protected RegisterCountService getRegisterCountService() {
+        SyncConfiguration syncConfiguration = CoreLibrary.getInstance().getSyncConfiguration();
+        return syncConfiguration != null && syncConfiguration.isCachedRegisterCounts() ? context().registerCountService() : null;
+    }
+
+    private static Callable<Integer> getSearchCounter(final CommonRepository commonRepository, final String sql) {
+        return () -> commonRepository.countSearchIds(sql);
+    }
+
+    private static Callable<Integer> getQueryCounter(final CommonRepository commonRepository, final String query) {
+        return () -> {
+            Timber.i(query);
+            Cursor cursor = commonRepository.rawCustomQueryForAdapter(query);
+            try {
+                return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        };
+    }
+
+    /**
+     * Updates the register count once a cached count of the register changes in the background
+     */
+    protected void onRegisterCountUpdated() {
+        RegisterCountService registerCountService = getRegisterCountService();
+        // the count of a ranked search is its best ranked hits
+        if (registerCountService == null || clientAdapter == null || isRankedSearch()) {
+            return;
+        }
+        String countKey = isValidFilterForFts(commonRepository()) ? mainCondition : countSelect;
+        Integer count = registerCountService.getCachedCount(tablename, countKey, filters);
+        if (count != null && count != clientAdapter.getTotalcount()) {
+            clientAdapter.setTotalcount(count);
+            clientAdapter.notifyDataSetChanged();
+        }
+    }
+
     protected boolean isValidFilterForFts(CommonRepository commonRepository) {
         return commonRepository.isFts() && filters != null && !StringUtils
                 .containsIgnoreCase(filters, "like") && !StringUtils
@@ -530,21 +780,37 @@ public abstract class RecyclerViewFragment extends
             case LOADER_ID:
                 // Returns a new CursorLoader
                 return new CursorLoader(getActivity()) {
+                    private CancellationSignal cancellationSignal;
+
                     @Override
                     public Cursor loadInBackground() {
-                        // Count query
-                        if (args != null && args.getBoolean(COUNT)) {
-                            countExecute();
+                        synchronized (this) {
+                            throwIfCanceled(this);
+                            cancellationSignal = new CancellationSignal();
+                        }
+                        try {
+                            // Count query
+                            if (args != null && args.getBoolean(COUNT)) {
+                                countExecute(cancellationSignal);
+                                throwIfCanceled(this);
+                            }
+                            // Select register query
+                            return filterandSortQuery(this, cancellationSignal);
+                        } finally {
+                            synchronized (this) {
+                                cancellationSignal = null;
+                            }
                         }
-                        String query = "";
-                        // Select register query
+                    }
 
-                        if (ArrayUtils.isNotEmpty(joinTables)) {
-                            query = filterandSortJoinArrayQuery();
-                        } else {
-                            query = filterandSortQuery();
+                    @Override
+                    public void cancelLoadInBackground() {
+                        super.cancelLoadInBackground();
+                        synchronized (this) {
+                            if (cancellationSignal != null) {
+                                cancellationSignal.cancel();
+                            }
                         }
-                        return commonRepository().rawCustomQueryForAdapter(query);
                     }
                 };
             default:
@@ -557,10 +823,35 @@ public abstract class RecyclerViewFragment extends
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
         clientAdapter.swapCursor(cursor);
+        prefetchNextPage();
 
         hideProgressView();
     }
 
+    /**
+     * Reads the clients of the next page in the background when the adapter has a {@link PrefetchingClientSource}
+     */
+    private void prefetchNextPage() {
+        PrefetchingClientSource clientSource = clientAdapter.getClientSource();
+        Cursor cursor = clientAdapter.getCursor();
+        if (clientSource == null || cursor == null || !clientAdapter.hasNextPage()) {
+            return;
+        }
+
+        final int nextOffset = clientAdapter.getCurrentoffset() + clientAdapter.getCurrentlimit();
+        KeysetPagination keysetPagination = clientAdapter.getKeysetPagination();
+        if (keysetPagination != null) {
+            // the next page is read by seeking from the last row of this page
+            synchronized (cursor) {
+                keysetPagination.onNextPage(cursor, nextOffset);
+            }
+        }
+        Callable<Cursor> pageQuery = getPageReadAhead(nextOffset);
+        if (pageQuery != null) {
+            clientSource.prefetchPage(pageQuery);
+        }
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         clientAdapter.swapCursor(null);
@@ -7,10 +7,10 @@ import android.os.Handler;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.recyclerview.widget.RecyclerView;
 
-import org.smartregister.commonregistry.CommonPersonObject;
 import org.smartregister.commonregistry.CommonPersonObjectClient;
 import org.smartregister.commonregistry.CommonRepository;
 
@@ -23,6 +23,8 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
     public int currentlimit = 20;
     public int currentoffset = 0;
     private CommonRepository commonRepository;
+    private KeysetPagination keysetPagination;
+    private PrefetchingClientSource clientSource;
 
     public RecyclerViewPaginatedAdapter(Cursor cursor,
                                         RecyclerViewProvider<RecyclerView.ViewHolder>
@@ -50,10 +52,8 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
             updateFooterViewCounts(listItemProvider, viewHolder);
 
         } else {
-            CommonPersonObject personinlist = commonRepository.readAllcommonforCursorAdapter(cursor);
-            CommonPersonObjectClient pClient = new CommonPersonObjectClient(personinlist.getCaseId(),
-                    personinlist.getDetails(), personinlist.getDetails().get("FWHOHFNAME"));
-            pClient.setColumnmaps(personinlist.getColumnmaps());
+            CommonPersonObjectClient pClient = clientSource != null ? clientSource.getClient(cursor)
+                    : PrefetchingClientSource.readClient(commonRepository, cursor);
             listItemProvider.getView(cursor, pClient, viewHolder);
         }
     }
@@ -94,6 +94,12 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
     }
 
     public void nextPageOffset() {
+        Cursor cursor = getCursor();
+        if (keysetPagination != null && cursor != null) {
+            synchronized (cursor) {
+                keysetPagination.onNextPage(cursor, currentoffset + currentlimit);
+            }
+        }
         currentoffset = currentoffset + currentlimit;
     }
 
@@ -101,6 +107,46 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
         currentoffset = currentoffset - currentlimit;
     }
 
+    @Nullable
+    public KeysetPagination getKeysetPagination() {
+        return keysetPagination;
+    }
+
+    /**
+     * Pages the register by key instead of by offset, see {@link KeysetPagination}
+     *
+     * @param keysetPagination the pagination state, null to page by offset
+     */
+    public void setKeysetPagination(@Nullable KeysetPagination keysetPagination) {
+        this.keysetPagination = keysetPagination;
+    }
+
+    @Nullable
+    public PrefetchingClientSource getClientSource() {
+        return clientSource;
+    }
+
+    /**
+     * Reads the clients of the rows ahead of the scroll position in the background, see {@link PrefetchingClientSource}
+     *
+     * @param clientSource the source of the clients, null to read each client as its row is bound
+     */
+    public void setClientSource(@Nullable PrefetchingClientSource clientSource) {
+        this.clientSource = clientSource;
+        if (clientSource != null) {
+            clientSource.setCursor(getCursor());
+        }
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        Cursor oldCursor = super.swapCursor(newCursor);
+        if (clientSource != null) {
+            clientSource.setCursor(getCursor());
+        }
+        return oldCursor;
+    }
+
     public int getTotalcount() {
         return totalcount;
     }
@@ -115,6 +161,10 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
 
     public void setCurrentoffset(int currentoffset) {
         this.currentoffset = currentoffset;
+        // a new listing starts from the first page, keys of the previous listing no longer apply
+        if (currentoffset == 0 && keysetPagination != null) {
+            keysetPagination.reset();
+        }
     }
 
     public int getCurrentlimit() {
@@ -3,6 +3,7 @@ package org.smartregister.cursoradapter;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.smartregister.commonregistry.CommonFtsObject;
+import org.smartregister.commonregistry.CommonRepository;
 
 import java.util.List;
 
@@ -70,6 +71,15 @@ public class SmartRegisterQueryBuilder {
         return selectquery + " LIMIT " + offset + "," + limit;
     }
 
+    /**
+     * Pages the select query by seeking past the last row of the previous page instead of skipping
+     * offset rows. The condition and order refer to the columns the select query outputs.
+     */
+    public String addKeysetPage(String selectquery, String seekCondition, String orderBy, int limit) {
+        return "SELECT * FROM (" + selectquery + ")" + (StringUtils.isNotBlank(seekCondition) ? " WHERE " + seekCondition : "")
+                + orderByClause(orderBy) + " LIMIT " + limit;
+    }
+
     public String limitandOffset(int limit, int offset) {
         return Selectquery + " LIMIT " + offset + "," + limit;
     }
@@ -211,6 +221,59 @@ public class SmartRegisterQueryBuilder {
         return res;
     }
 
+    /**
+     * Same as {@link #toStringFts(List, String, String, String)} but selects the ids saved with
+     * {@link CommonRepository#saveSearchHits(List)} instead of inlining them, the id the hits were saved under
+     * is bound to the one argument of the query
+     */
+    public String toStringFtsHits(String tName, String idCol, String sortBy) {
+        String res = Selectquery;
+        String idColumn = idCol;
+        String sort = sortBy;
+
+        if (StringUtils.containsIgnoreCase(res, "JOIN") && StringUtils.isNotBlank(tName)) {
+            idColumn = tName + "." + idColumn;
+            if (StringUtils.isNotBlank(sort)) {
+                sort = tName + "." + sort;
+            }
+        }
+        // Remove where clause, Already used when fetching ids
+        if (StringUtils.containsIgnoreCase(res, "WHERE")) {
+            res = res.substring(0, res.toUpperCase().lastIndexOf("WHERE"));
+        }
+
+        res += String.format(" WHERE %s IN (SELECT %s FROM %s WHERE %s = ?) ", idColumn,
+                CommonRepository.SEARCH_HITS_ID_COLUMN, CommonRepository.SEARCH_HITS_TABLE,
+                CommonRepository.SEARCH_HITS_QUERY_ID_COLUMN);
+        if (StringUtils.isNotBlank(sort)) {
+            res += " ORDER BY " + sort;
+        }
+        return res;
+    }
+
+    /**
+     * Same as {@link #toStringFtsHits(String, String, String)} but orders the rows as the hits were saved, for
+     * hits saved in the order of their rank. The id the hits were saved under is bound to the one argument of the query
+     */
+    public String toStringRankedFtsHits(String tName, String idCol) {
+        String res = Selectquery;
+        // qualified so the hits' own id column is not compared in the ORDER BY sub query
+        String idColumn = StringUtils.isNotBlank(tName) ? tName + "." + idCol : idCol;
+
+        // Remove where clause, Already used when fetching ids
+        if (StringUtils.containsIgnoreCase(res, "WHERE")) {
+            res = res.substring(0, res.toUpperCase().lastIndexOf("WHERE"));
+        }
+
+        res += String.format(" WHERE %s IN (SELECT %s FROM %s WHERE %s = ?1) ", idColumn,
+                CommonRepository.SEARCH_HITS_ID_COLUMN, CommonRepository.SEARCH_HITS_TABLE,
+                CommonRepository.SEARCH_HITS_QUERY_ID_COLUMN);
+        res += String.format(" ORDER BY (SELECT %s FROM %s WHERE %s = ?1 AND %s = %s)",
+                CommonRepository.SEARCH_HITS_POSITION_COLUMN, CommonRepository.SEARCH_HITS_TABLE,
+                CommonRepository.SEARCH_HITS_QUERY_ID_COLUMN, CommonRepository.SEARCH_HITS_ID_COLUMN, idColumn);
+        return res;
+    }
+
     public String searchQueryFts(String tablename, String searchJoinTable, String mainCondition,
                                  String searchFilter, String sort, int limit, int offset) {
         if (StringUtils.isNotBlank(searchJoinTable) && StringUtils.isNotBlank(searchFilter)) {
@@ -225,6 +288,29 @@ public class SmartRegisterQueryBuilder {
         return query;
     }
 
+    /**
+     * Same as {@link #searchQueryFts(String, String, String, String, String, int, int)} but reads the page
+     * after the key in the seek condition instead of skipping offset rows
+     */
+    public String searchQueryFts(String tablename, String searchJoinTable, String mainCondition,
+                                 String searchFilter, String sort, int limit, String seekCondition) {
+        String phraseClause = StringUtils.isNotBlank(searchJoinTable) && StringUtils.isNotBlank(searchFilter)
+                ? phraseClause(tablename, searchJoinTable, mainCondition, searchFilter)
+                : phraseClause(mainCondition, searchFilter);
+        return "SELECT " + CommonFtsObject.idColumn + " FROM " + CommonFtsObject.searchTableName(tablename)
+                + seekClause(phraseClause, seekCondition) + orderByClause(sort) + " LIMIT " + limit;
+    }
+
+    /**
+     * Selects the ids of the search table rows matching the search filter with the
+     * {@link CommonRepository#RANK_MATCH_INFO} match info of each row to rank them by
+     */
+    public String rankedSearchQueryFts(String tablename, String mainCondition, String searchFilter) {
+        String searchTable = CommonFtsObject.searchTableName(tablename);
+        return "SELECT " + CommonFtsObject.idColumn + ", matchinfo(" + searchTable + ", '"
+                + CommonRepository.RANK_MATCH_INFO + "') FROM " + searchTable + phraseClause(mainCondition, searchFilter);
+    }
+
     public String countQueryFts(String tablename, String searchJoinTable, String mainCondition,
                                 String searchFilter) {
         if (StringUtils.isNotBlank(searchJoinTable) && StringUtils.isNotBlank(searchFilter)) {
@@ -310,6 +396,19 @@ public class SmartRegisterQueryBuilder {
         return query;
     }
 
+    /**
+     * Same as {@link #searchQueryFts(String, String[], String, String, String, int, int)} but reads the page
+     * after the key in the seek condition instead of skipping offset rows
+     */
+    public String searchQueryFts(String tablename, String searchJoinTable[], String mainCondition,
+                                 String searchFilter, String sort, int limit, String seekCondition) {
+        String phraseClause = ArrayUtils.isNotEmpty(searchJoinTable) && StringUtils.isNotBlank(searchFilter)
+                ? phraseClause(tablename, searchJoinTable, mainCondition, searchFilter)
+                : phraseClause(mainCondition, searchFilter);
+        return "SELECT " + CommonFtsObject.idColumn + " FROM " + CommonFtsObject.searchTableName(tablename)
+                + seekClause(phraseClause, seekCondition) + orderByClause(sort) + " LIMIT " + limit;
+    }
+
     private String matchPhrase(String phrase) {
         if (phrase == null) {
             phrase = "";
@@ -330,6 +429,16 @@ public class SmartRegisterQueryBuilder {
         return "";
     }
 
+    private String seekClause(String whereClause, String seekCondition) {
+        if (StringUtils.isBlank(seekCondition)) {
+            return whereClause;
+        } else if (StringUtils.isBlank(whereClause)) {
+            return " WHERE " + seekCondition;
+        }
+        // the where clause is " WHERE <condition>", keep its own precedence
+        return " WHERE (" + whereClause.substring(" WHERE ".length()) + ") AND " + seekCondition;
+    }
+
     private String limitClause(int limit, int offset) {
         return " LIMIT " + offset + "," + limit;
     }
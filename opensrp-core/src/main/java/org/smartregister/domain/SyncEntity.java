@@ -5,7 +5,7 @@ package org.smartregister.domain;
  */
 public enum SyncEntity {
     TASKS("Tasks"), EVENTS("Events"), LOCATIONS("Locations"),
-    STRUCTURES("structures"), PLANS("Plans");
+    STRUCTURES("structures"), PLANS("Plans"), SEARCH_INDEX("Search index");
     private String value;
 
     SyncEntity(String value) {
@@ -0,0 +1,114 @@
+package org.smartregister.domain.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.smartregister.AllConstants;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The unsynced clients and events sent to the server in one push, held as the raw JSON stored in the database
+ */
+public class EventClientPushBatch {
+
+    private final List<String> clients = new ArrayList<>();
+
+    private final List<String> events = new ArrayList<>();
+
+    private final List<String> baseEntityIds = new ArrayList<>();
+
+    private final List<String> formSubmissionIds = new ArrayList<>();
+
+    public void addClient(@NonNull String baseEntityId, @NonNull String json) {
+        baseEntityIds.add(baseEntityId);
+        clients.add(json);
+    }
+
+    public void addEvent(@Nullable String formSubmissionId, @NonNull String json) {
+        if (formSubmissionId != null) {
+            formSubmissionIds.add(formSubmissionId);
+        }
+        events.add(json);
+    }
+
+    public List<String> getBaseEntityIds() {
+        return baseEntityIds;
+    }
+
+    public List<String> getFormSubmissionIds() {
+        return formSubmissionIds;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public int getEventCount() {
+        return events.size();
+    }
+
+    /**
+     * @return the number of characters of the records in the batch, roughly the size of the uncompressed request body
+     */
+    public long getJsonLength() {
+        long length = 0;
+        for (String client : clients) {
+            length += client.length();
+        }
+        for (String event : events) {
+            length += event.length();
+        }
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return clients.isEmpty() && events.isEmpty();
+    }
+
+    /**
+     * Writes the request body for the add events endpoint i.e. {"clients":[...],"events":[...]} without parsing the records
+     */
+    public void writeTo(@NonNull Writer writer) throws IOException {
+        writer.write('{');
+        boolean hasClients = !clients.isEmpty();
+        if (hasClients) {
+            writeArray(writer, AllConstants.KEY.CLIENTS, clients);
+        }
+        if (!events.isEmpty()) {
+            if (hasClients) {
+                writer.write(',');
+            }
+            writeArray(writer, AllConstants.KEY.EVENTS, events);
+        }
+        writer.write('}');
+    }
+
+    private void writeArray(Writer writer, String key, List<String> records) throws IOException {
+        writer.write('"');
+        writer.write(key);
+        writer.write("\":[");
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(records.get(i));
+        }
+        writer.write(']');
+    }
+
+    public String toJson() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+}
@@ -4,8 +4,8 @@ import org.apache.commons.lang3.ObjectUtils;
 import org.smartregister.domain.FetchStatus;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Event<CallbackType> {
     public static final Event<FetchStatus> ON_DATA_FETCHED = new Event<FetchStatus>();
@@ -15,11 +15,13 @@ public class Event<CallbackType> {
     public static final Event<Boolean> SYNC_COMPLETED = new Event<>();
     public static final Event<String> FORM_SUBMITTED = new Event<>();
     public static final Event<String> ACTION_HANDLED = new Event<>();
+    public static final Event<String> REGISTER_COUNT_UPDATED = new Event<>();
 
     List<WeakReference<Listener<CallbackType>>> listeners;
 
     public Event() {
-        listeners = new ArrayList<WeakReference<Listener<CallbackType>>>();
+        // listeners are notified from background threads while views add and remove theirs
+        listeners = new CopyOnWriteArrayList<WeakReference<Listener<CallbackType>>>();
     }
 
     public void addListener(Listener<CallbackType> listener) {
@@ -0,0 +1,20 @@
+package org.smartregister.job;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+
+import org.smartregister.sync.intent.SearchIndexRebuildIntentService;
+
+public class SearchIndexRebuildServiceJob extends BaseJob {
+
+    public static final String TAG = "SearchIndexRebuildServiceJob";
+
+    @NonNull
+    @Override
+    protected Result onRunJob(@NonNull Params params) {
+        Intent intent = new Intent(getApplicationContext(), SearchIndexRebuildIntentService.class);
+        startIntentService(intent);
+        return Result.SUCCESS;
+    }
+}
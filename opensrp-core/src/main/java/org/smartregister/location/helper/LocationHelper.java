@@ -24,6 +24,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +44,7 @@ public class LocationHelper {
     private List<String> locationNameHierarchy;
     private Map<String, Pair<String, String>> childAndParentLocationIds;
     private String defaultLocation;
+    private final AtomicReference<LocationHierarchyIndex> hierarchyIndex = new AtomicReference<>();
 
     private List<String> ALLOWED_LEVELS;
     private List<String> ADVANCED_DATA_CAPTURE_LEVELS;
@@ -107,7 +109,7 @@ public class LocationHelper {
     public List<String> locationsFromHierarchy(boolean fetchLocationIds, String defaultLocation) {
         List<String> locations = new ArrayList<>();
         try {
-            LinkedHashMap<String, TreeNode<String, Location>> map = map();
+            LinkedHashMap<String, TreeNode<String, Location>> map = getHierarchyIndex().getHierarchy();
             if (!Utils.isEmptyMap(map)) {
                 for (Map.Entry<String, TreeNode<String, Location>> entry : map.entrySet()) {
                     List<String> foundLocations = extractLocations(entry.getValue(), fetchLocationIds, defaultLocation);
@@ -142,15 +144,9 @@ public class LocationHelper {
 
         String response = locationName;
         try {
-            LinkedHashMap<String, TreeNode<String, Location>> map = map();
-            if (!Utils.isEmptyMap(map)) {
-                for (Map.Entry<String, TreeNode<String, Location>> entry : map.entrySet()) {
-                    String curResult = getOpenMrsLocationId(locationName, entry.getValue());
-                    if (StringUtils.isNotBlank(curResult)) {
-                        response = curResult;
-                        break;
-                    }
-                }
+            String locationId = getHierarchyIndex().getLocationId(locationName);
+            if (StringUtils.isNotBlank(locationId)) {
+                response = locationId;
             }
         } catch (Exception e) {
             Timber.e(e);
@@ -166,14 +162,11 @@ public class LocationHelper {
 
         String response = locationId;
         try {
-            LinkedHashMap<String, TreeNode<String, Location>> map = map();
-            if (!Utils.isEmptyMap(map)) {
-                for (Map.Entry<String, TreeNode<String, Location>> entry : map.entrySet()) {
-                    String curResult = getOpenMrsLocationName(locationId, entry.getValue());
-                    if (StringUtils.isNotBlank(curResult)) {
-                        response = curResult;
-                        break;
-                    }
+            LocationHierarchyIndex index = getHierarchyIndex();
+            if (!Utils.isEmptyMap(index.getHierarchy())) {
+                String locationName = index.getLocationName(locationId);
+                if (StringUtils.isNotBlank(locationName)) {
+                    response = locationName;
                 }
             } else {
                 Timber.e("locationData doesn't have locationHierarchy");
@@ -200,15 +193,9 @@ public class LocationHelper {
         List<String> response = null;
 
         try {
-            LinkedHashMap<String, TreeNode<String, Location>> map = map();
-            if (!Utils.isEmptyMap(map)) {
-                for (Map.Entry<String, TreeNode<String, Location>> entry : map.entrySet()) {
-                    List<String> curResult = getOpenMrsLocationHierarchy(locationId, entry.getValue(), new ArrayList<>(), onlyAllowedLevels);
-                    if (!Utils.isEmptyCollection(curResult)) {
-                        response = curResult;
-                        break;
-                    }
-                }
+            LocationHierarchyIndex index = getHierarchyIndex();
+            if (!Utils.isEmptyMap(index.getHierarchy())) {
+                response = index.getNameHierarchy(locationId, onlyAllowedLevels);
             } else {
                 Timber.e("locationData doesn't have locationHierarchy");
             }
@@ -230,7 +217,7 @@ public class LocationHelper {
         try {
             String defaultLocationUuid = allSharedPreferences.fetchDefaultLocalityId(allSharedPreferences.fetchRegisteredANM());
 
-            LinkedHashMap<String, TreeNode<String, Location>> map = map();
+            LinkedHashMap<String, TreeNode<String, Location>> map = getHierarchyIndex().getHierarchy();
             if (!Utils.isEmptyMap(map)) {
                 for (Map.Entry<String, TreeNode<String, Location>> entry : map.entrySet()) {
                     List<String> curResult = getDefaultLocationHierarchy(defaultLocationUuid, entry.getValue(), new ArrayList<>(), allowedLevels, idKeys);
@@ -246,12 +233,12 @@ public class LocationHelper {
     }
 
     public List<FormLocation> generateLocationHierarchyTree(boolean withOtherOption, List<String> allowedLevels) {
-        LinkedHashMap<String, TreeNode<String, Location>> map = map();
+        LinkedHashMap<String, TreeNode<String, Location>> map = getHierarchyIndex().getHierarchy();
         return generateLocationHierarchyTree(withOtherOption, allowedLevels, map, false);
     }
 
     public List<FormLocation> generateLocationHierarchyTree(boolean withOtherOption, List<String> allowedLevels, boolean idKey) {
-        LinkedHashMap<String, TreeNode<String, Location>> map = map();
+        LinkedHashMap<String, TreeNode<String, Location>> map = getHierarchyIndex().getHierarchy();
         return generateLocationHierarchyTree(withOtherOption, allowedLevels, map, idKey);
     }
 
@@ -360,70 +347,6 @@ public class LocationHelper {
         return locationList;
     }
 
-    private String getOpenMrsLocationId(String locationName, TreeNode<String, Location> openMrsLocations) {
-        try {
-            if (openMrsLocations == null) {
-                return null;
-            }
-
-            Location node = openMrsLocations.getNode();
-            if (node == null) {
-                return null;
-            }
-            String name = node.getName();
-            if (locationName.equals(name)) {
-                return node.getLocationId();
-            }
-
-            LinkedHashMap<String, TreeNode<String, Location>> childMap = childMap(openMrsLocations);
-            if (!Utils.isEmptyMap(childMap)) {
-                for (Map.Entry<String, TreeNode<String, Location>> childEntry : childMap.entrySet()) {
-                    String curResult = getOpenMrsLocationId(locationName, childEntry.getValue());
-                    if (StringUtils.isNotBlank(curResult)) {
-                        return curResult;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Timber.e(e);
-        }
-        return null;
-    }
-
-    private String getOpenMrsLocationName(String locationId, TreeNode<String, Location> openMrsLocations) {
-        try {
-            if (openMrsLocations == null) {
-                return null;
-            }
-
-            Location node = openMrsLocations.getNode();
-            if (node == null) {
-                return null;
-            }
-            String id = node.getLocationId();
-            Timber.d("Current location id is %s", id);
-            if (locationId.equals(id)) {
-                return node.getName();
-            }
-
-            LinkedHashMap<String, TreeNode<String, Location>> childMap = childMap(openMrsLocations);
-            if (!Utils.isEmptyMap(childMap)) {
-                for (Map.Entry<String, TreeNode<String, Location>> childEntry : childMap.entrySet()) {
-                    String curResult = getOpenMrsLocationName(locationId, childEntry.getValue());
-                    if (StringUtils.isNotBlank(curResult)) {
-                        return curResult;
-                    }
-                }
-            } else {
-                Timber.d(id + " does not have children");
-            }
-
-        } catch (Exception e) {
-            Timber.e(e);
-        }
-        return null;
-    }
-
     public List<String> getDefaultLocationHierarchy(String defaultLocationUuid, TreeNode<String,
             Location> openMrsLocationData, List<String> parents, List<String> allowedLevels) {
         return getDefaultLocationHierarchy(defaultLocationUuid, openMrsLocationData, parents, allowedLevels, false);
@@ -629,56 +552,39 @@ public class LocationHelper {
         childLocationId = childId;
     }
 
-    private List<String> getOpenMrsLocationHierarchy(String locationId,
-                                                     TreeNode<String, Location> openMrsLocation,
-                                                     List<String> parents, boolean onlyAllowedLevels) {
-        List<String> hierarchy = new ArrayList<>(parents);
-        if (openMrsLocation == null) {
-            return null;
-        }
-
-        Location node = openMrsLocation.getNode();
-        if (node == null) {
-            return null;
-        }
-
-        if (onlyAllowedLevels) {
-            Set<String> levels = node.getTags();
-            if (!Utils.isEmptyCollection(levels)) {
-                for (String level : levels) {
-                    if (ALLOWED_LEVELS.contains(level)) {
-                        hierarchy.add(node.getName());
-                    }
-                }
-            }
-        } else {
-            hierarchy.add(node.getName());
-        }
+    public LinkedHashMap<String, TreeNode<String, Location>> map() {
+        return parseHierarchy(CoreLibrary.getInstance().context().anmLocationController().get());
+    }
 
-        String id = node.getLocationId();
-        Timber.d("Current location id is %s", id);
-        if (locationId.equals(id)) {
-            return hierarchy;
-        }
+    /**
+     * Swaps in the index of a new location tree as it is saved, lookups use it from then on rather than
+     * the tree saved before it. Every write of the ANM location tree must go through here since lookups
+     * do not read the saved tree again once it is indexed.
+     */
+    public void updateLocationHierarchy(@NonNull LocationTree locationTree) {
+        hierarchyIndex.set(new LocationHierarchyIndex(locationTree.getLocationsHierarchy(), ALLOWED_LEVELS));
+        locationIds = null;
+        locationNames = null;
+        childAndParentLocationIds.clear();
+    }
 
-        LinkedHashMap<String, TreeNode<String, Location>> childMap = childMap(openMrsLocation);
-        if (!Utils.isEmptyMap(childMap)) {
-            for (Map.Entry<String, TreeNode<String, Location>> childEntry : childMap.entrySet()) {
-                List<String> curResult = getOpenMrsLocationHierarchy(locationId, childEntry.getValue(), hierarchy, onlyAllowedLevels);
-                if (!Utils.isEmptyCollection(curResult)) {
-                    return curResult;
-                }
-            }
-        } else {
-            Timber.d(id + " does not have children");
+    /**
+     * Returns the index of the location tree, built from the saved tree on first use and then only
+     * replaced by {@link #updateLocationHierarchy(LocationTree)}
+     */
+    private LocationHierarchyIndex getHierarchyIndex() {
+        LocationHierarchyIndex index = hierarchyIndex.get();
+        if (index != null) {
+            return index;
         }
 
-        return null;
+        LocationHierarchyIndex newIndex = new LocationHierarchyIndex(
+                parseHierarchy(CoreLibrary.getInstance().context().anmLocationController().get()), ALLOWED_LEVELS);
+        // an index swapped in by a new tree while this one was built is kept
+        return hierarchyIndex.compareAndSet(null, newIndex) ? newIndex : hierarchyIndex.get();
     }
 
-
-    public LinkedHashMap<String, TreeNode<String, Location>> map() {
-        String locationData = CoreLibrary.getInstance().context().anmLocationController().get();
+    private LinkedHashMap<String, TreeNode<String, Location>> parseHierarchy(String locationData) {
         LocationTree locationTree = AssetHandler.jsonStringToJava(locationData, LocationTree.class);
         if (locationTree != null) {
             return locationTree.getLocationsHierarchy();
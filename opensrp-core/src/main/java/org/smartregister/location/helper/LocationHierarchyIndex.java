@@ -0,0 +1,126 @@
+package org.smartregister.location.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.domain.jsonmapping.Location;
+import org.smartregister.domain.jsonmapping.util.TreeNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable index of a version of the ANM location tree, built once and replaced when a new tree is saved.
+ * <p>
+ * Looks up locations by id and name and holds the name hierarchy of every location, with every level and
+ * with the allowed levels only. A location found more than once in the tree resolves to the first one
+ * found walking the tree depth first, as walking the tree for it does.
+ */
+class LocationHierarchyIndex {
+
+    private final List<String> allowedLevels;
+
+    private final LinkedHashMap<String, TreeNode<String, Location>> hierarchy;
+
+    private final Map<String, String> idsByName = new HashMap<>();
+
+    private final Map<String, String> namesById = new HashMap<>();
+
+    private final Map<String, List<String>> nameHierarchies = new HashMap<>();
+
+    private final Map<String, List<String>> allowedNameHierarchies = new HashMap<>();
+
+    LocationHierarchyIndex(@Nullable LinkedHashMap<String, TreeNode<String, Location>> hierarchy,
+                           @Nullable List<String> allowedLevels) {
+        this.allowedLevels = allowedLevels;
+        this.hierarchy = hierarchy;
+        if (hierarchy != null) {
+            for (TreeNode<String, Location> treeNode : hierarchy.values()) {
+                index(treeNode, Collections.emptyList(), Collections.emptyList());
+            }
+        }
+    }
+
+    /**
+     * @return the tree the index was built from, it is shared and must not be modified
+     */
+    @Nullable
+    LinkedHashMap<String, TreeNode<String, Location>> getHierarchy() {
+        return hierarchy;
+    }
+
+    @Nullable
+    String getLocationId(@NonNull String locationName) {
+        return idsByName.get(locationName);
+    }
+
+    @Nullable
+    String getLocationName(@NonNull String locationId) {
+        return namesById.get(locationId);
+    }
+
+    /**
+     * @return a copy of the name hierarchy of the location starting with the top-most parent, null if the
+     * location is not found or has no names at the levels
+     */
+    @Nullable
+    List<String> getNameHierarchy(@NonNull String locationId, boolean onlyAllowedLevels) {
+        List<String> nameHierarchy = (onlyAllowedLevels ? allowedNameHierarchies : nameHierarchies).get(locationId);
+        return nameHierarchy != null ? new ArrayList<>(nameHierarchy) : null;
+    }
+
+    private void index(TreeNode<String, Location> treeNode, List<String> parentNames, List<String> allowedParentNames) {
+        Location node = treeNode != null ? treeNode.getNode() : null;
+        if (node == null) {
+            return;
+        }
+
+        String id = node.getLocationId();
+        String name = node.getName();
+        List<String> names = new ArrayList<>(parentNames.size() + 1);
+        names.addAll(parentNames);
+        names.add(name);
+
+        List<String> allowedNames = allowedParentNames;
+        Set<String> levels = node.getTags();
+        if (allowedLevels != null && levels != null) {
+            for (String level : levels) {
+                if (allowedLevels.contains(level)) {
+                    if (allowedNames == allowedParentNames) {
+                        allowedNames = new ArrayList<>(allowedParentNames);
+                    }
+                    allowedNames.add(name);
+                }
+            }
+        }
+
+        if (StringUtils.isNotBlank(id)) {
+            putIfAbsent(idsByName, name, id);
+            if (StringUtils.isNotBlank(name)) {
+                putIfAbsent(namesById, id, name);
+            }
+            putIfAbsent(nameHierarchies, id, names);
+            if (!allowedNames.isEmpty()) {
+                putIfAbsent(allowedNameHierarchies, id, allowedNames);
+            }
+        }
+
+        if (treeNode.getChildren() != null) {
+            for (TreeNode<String, Location> child : treeNode.getChildren().values()) {
+                index(child, names, allowedNames);
+            }
+        }
+    }
+
+    private static <V> void putIfAbsent(Map<String, V> map, String key, V value) {
+        if (key != null && value != null && !map.containsKey(key)) {
+            map.put(key, value);
+        }
+    }
+}
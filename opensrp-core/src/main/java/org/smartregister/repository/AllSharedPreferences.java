@@ -33,6 +33,7 @@ public class AllSharedPreferences {
     public static final String FORMS_VERSION = "FORMS_VERSION";
     private static final String ENCRYPTED_PASSPHRASE_KEY = "ENCRYPTED_PASSPHRASE_KEY";
     private static final String DB_ENCRYPTION_VERSION = "DB_ENCRYPTION_VERSION";
+    private static final String SYNC_BATCH_SIZE = "SYNC_BATCH_SIZE_";
     private SharedPreferences preferences;
     private String LAST_AUTHENTICATION_HTTP_STATUS = "LAST_AUTHENTICATION_HTTP_STATUS";
 
@@ -326,6 +327,14 @@ public class AllSharedPreferences {
     }
 
 
+    public int fetchSyncBatchSize(@NonNull String batchType, int defaultBatchSize) {
+        return preferences.getInt(SYNC_BATCH_SIZE + batchType, defaultBatchSize);
+    }
+
+    public void saveSyncBatchSize(@NonNull String batchType, int batchSize) {
+        preferences.edit().putInt(SYNC_BATCH_SIZE + batchType, batchSize).commit();
+    }
+
     public void updateTransactionsKilledFlag(boolean transactionsKilled) {
         preferences.edit().putBoolean(TRANSACTIONS_KILLED_FLAG, transactionsKilled).commit();
     }
@@ -1,9 +1,12 @@
 package org.smartregister.repository;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
+import org.apache.commons.lang3.StringUtils;
 import org.smartregister.domain.db.Column;
 import org.smartregister.view.activity.DrishtiApplication;
 
@@ -37,6 +40,9 @@ public class BaseRepository {
 
     public static String COLLATE_NOCASE = " COLLATE NOCASE ";
 
+    // the ids looked up in one IN clause, within the limit of SQLite on the arguments of a statement
+    protected static final int IN_CLAUSE_PAGE_SIZE = 500;
+
     protected String generateRandomUUIDString() {
         return UUID.randomUUID().toString();
     }
@@ -88,4 +94,36 @@ public class BaseRepository {
         return repeat("?", ",", length);
     }
 
+    /**
+     * @return the SQL of a statement that inserts or replaces a row with values for the columns, in their order
+     */
+    protected static String getInsertOrReplaceSql(String table, String[] columns) {
+        return "INSERT OR REPLACE INTO " + table + " (" + StringUtils.join(columns, ", ") + ") VALUES (" +
+                repeat("?", ", ", columns.length) + ")";
+    }
+
+    /**
+     * Binds the values of the columns to a statement in the order of the columns, null for the columns without a value
+     */
+    protected static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values.get(columns[i]);
+            int index = i + 1;
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
 }
@@ -4,11 +4,15 @@ import android.content.ContentValues;
 import android.database.Cursor;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.smartregister.commonregistry.CommonPersonObject;
 import org.smartregister.commonregistry.CommonPersonObjectClient;
+import org.smartregister.util.FtsQueryUtil;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import timber.log.Timber;
@@ -56,6 +60,114 @@ public class DetailsRepository extends DrishtiRepository {
         }
     }
 
+    /**
+     * Saves the details of a client in one transaction. The current details of the client are read once,
+     * only keys that are new or whose value changed are written
+     *
+     * @param baseEntityId the client the details belong to
+     * @param details      the details keyed by details key
+     * @param timestamp    the event date saved with the changed details
+     */
+    public void add(String baseEntityId, Map<String, String> details, Long timestamp) {
+        if (details == null || details.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase database = masterRepository().getWritableDatabase();
+        SQLiteStatement insertStatement = null;
+        SQLiteStatement updateStatement = null;
+        database.beginTransaction();
+        try {
+            Map<String, StoredDetail> storedDetails = getStoredDetails(database, baseEntityId);
+            for (Map.Entry<String, String> detail : details.entrySet()) {
+                String key = detail.getKey();
+                String value = detail.getValue();
+                StoredDetail storedDetail = storedDetails.get(key);
+                if (storedDetail == null) {
+                    if (insertStatement == null) {
+                        insertStatement = database.compileStatement("INSERT INTO " + TABLE_NAME + " (" + BASE_ENTITY_ID_COLUMN + ", "
+                                + KEY_COLUMN + ", " + VALUE_COLUMN + ", " + EVENT_DATE_COLUMN + ") VALUES (?, ?, ?, ?)");
+                    }
+                    bindString(insertStatement, 1, baseEntityId);
+                    bindString(insertStatement, 2, key);
+                    bindString(insertStatement, 3, value);
+                    bindLong(insertStatement, 4, timestamp);
+                    storedDetails.put(key, new StoredDetail(insertStatement.executeInsert(), value));
+                } else if (value == null || !value.equals(storedDetail.value)) {
+                    if (updateStatement == null) {
+                        updateStatement = database.compileStatement("UPDATE " + TABLE_NAME + " SET " + VALUE_COLUMN + " = ?, "
+                                + EVENT_DATE_COLUMN + " = ? WHERE docid = ?");
+                    }
+                    for (Long docId : storedDetail.docIds) {
+                        bindString(updateStatement, 1, value);
+                        bindLong(updateStatement, 2, timestamp);
+                        updateStatement.bindLong(3, docId);
+                        updateStatement.executeUpdateDelete();
+                    }
+                    storedDetail.value = value;
+                }
+            }
+            database.setTransactionSuccessful();
+        } catch (Exception e) {
+            Timber.e(e);
+        } finally {
+            database.endTransaction();
+            if (insertStatement != null) {
+                insertStatement.close();
+            }
+            if (updateStatement != null) {
+                updateStatement.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the current details of a client using the full text index on the base entity id
+     */
+    private Map<String, StoredDetail> getStoredDetails(SQLiteDatabase database, String baseEntityId) {
+        Map<String, StoredDetail> storedDetails = new HashMap<>();
+        String phrase = FtsQueryUtil.toMatchPhrase(baseEntityId);
+        String query = "SELECT docid, " + KEY_COLUMN + ", " + VALUE_COLUMN + " FROM " + TABLE_NAME + " WHERE ";
+        String[] args;
+        if (phrase == null) {
+            query += BASE_ENTITY_ID_COLUMN + " = ?";
+            args = new String[]{baseEntityId};
+        } else {
+            query += BASE_ENTITY_ID_COLUMN + " MATCH ? AND " + BASE_ENTITY_ID_COLUMN + " = ?";
+            args = new String[]{phrase, baseEntityId};
+        }
+
+        try (Cursor cursor = database.rawQuery(query, args)) {
+            while (cursor != null && cursor.moveToNext()) {
+                String key = cursor.getString(1);
+                StoredDetail storedDetail = storedDetails.get(key);
+                if (storedDetail == null) {
+                    storedDetail = new StoredDetail(cursor.getLong(0), cursor.getString(2));
+                    storedDetails.put(key, storedDetail);
+                } else {
+                    storedDetail.docIds.add(cursor.getLong(0));
+                }
+            }
+        }
+        return storedDetails;
+    }
+
+    private void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
     private Boolean getIdForDetailsIfExists(String baseEntityId, String key, String value) {
         Cursor mCursor = null;
         try {
@@ -146,4 +258,15 @@ public class DetailsRepository extends DrishtiRepository {
         return false;
     }
 
+    private static class StoredDetail {
+
+        private final List<Long> docIds = new ArrayList<>();
+
+        private String value;
+
+        private StoredDetail(long docId, String value) {
+            docIds.add(docId);
+            this.value = value;
+        }
+    }
 }
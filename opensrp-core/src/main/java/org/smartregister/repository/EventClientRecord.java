@@ -0,0 +1,48 @@
+package org.smartregister.repository;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A client or event saved by the batch inserts of {@link EventClientRepository}, read either from a
+ * {@link org.json.JSONObject} or from a sync response stream as a {@link StreamedRecord}
+ */
+interface EventClientRecord {
+
+    /**
+     * @return the json of the record without its syncStatus
+     */
+    String getJson();
+
+    boolean has(String field);
+
+    /**
+     * @return the value of the top level field as text, null if the record does not have it
+     */
+    @Nullable
+    String get(String field);
+
+    /**
+     * @return the value of the top level field, an empty string if the record does not have it
+     */
+    @NonNull
+    String optString(String field);
+
+    @NonNull
+    String optDetail(String detail);
+
+    @NonNull
+    String optAttribute(String attribute);
+
+    @Nullable
+    String getSyncStatus();
+
+    /**
+     * @return the name of the first relationship of the client with a relational id
+     */
+    @Nullable
+    String getRelationship();
+
+    @Nullable
+    String getRelationalId();
+}
@@ -21,6 +21,7 @@ import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteStatement;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -37,6 +38,7 @@ import org.smartregister.domain.UniqueId;
 import org.smartregister.domain.db.Column;
 import org.smartregister.domain.db.ColumnAttribute;
 import org.smartregister.domain.db.EventClient;
+import org.smartregister.domain.db.EventClientPushBatch;
 import org.smartregister.p2p.sync.data.JsonData;
 import org.smartregister.sync.intent.P2pProcessRecordsService;
 import org.smartregister.sync.intent.PullUniqueIdsIntentService;
@@ -54,6 +56,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -69,6 +72,10 @@ public class EventClientRepository extends BaseRepository {
 
     private static final String _ID = "_id";
 
+    private static final List<Column> CLIENT_VALUE_COLUMNS = getValueColumns(client_column.values());
+
+    private static final List<Column> EVENT_VALUE_COLUMNS = getValueColumns(event_column.values());
+
     public static final String VARCHAR = "VARCHAR";
 
     public static final String ZEIR_ID = "ZEIR_ID";
@@ -282,23 +289,6 @@ public class EventClientRepository extends BaseRepository {
         return false;
     }
 
-    private List<String> getFormSubmissionIdsFromJsonArray(JSONArray array) {
-        if (array != null && array.length() != 0) {
-            List<String> stringList = new ArrayList<>();
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject jsonObject = array.optJSONObject(i);
-                if (jsonObject != null) {
-                    String formSubmissionId = jsonObject.optString(event_column.formSubmissionId.name());
-                    if (StringUtils.isNotBlank(formSubmissionId)) {
-                        stringList.add(formSubmissionId);
-                    }
-                }
-            }
-            return stringList;
-        }
-        return new ArrayList<>();
-    }
-
     protected void populateFormSubmissionIds(@NonNull List<String> formSubmissionIdsList,
                                              Set<String> formSubmissionIds) {
         int tempPageSize = FORM_SUBMISSION_IDS_PAGE_SIZE;
@@ -334,6 +324,29 @@ public class EventClientRepository extends BaseRepository {
         populateFormSubmissionIds(formSubmissionIdsList.subList(tempPageSize, formSubmissionIdsList.size()), formSubmissionIds);
     }
 
+    /**
+     * Adds the baseEntityIds from the list that already exist in the table to the set,
+     * looking them up in pages of {@link #FORM_SUBMISSION_IDS_PAGE_SIZE}
+     */
+    protected void populateBaseEntityIds(Table table, @NonNull List<String> baseEntityIdsList,
+                                         Set<String> baseEntityIds, SQLiteDatabase sqLiteDatabase) {
+        for (int start = 0; start < baseEntityIdsList.size(); start += FORM_SUBMISSION_IDS_PAGE_SIZE) {
+            List<String> tempList = baseEntityIdsList.subList(start, Math.min(baseEntityIdsList.size(), start + FORM_SUBMISSION_IDS_PAGE_SIZE));
+            String query = "SELECT " + client_column.baseEntityId + " FROM " + table.name() +
+                    " WHERE " + client_column.baseEntityId + " IN ( " + StringUtils.repeat("?", ", ", tempList.size()) + ")";
+
+            try (Cursor mCursor = sqLiteDatabase.rawQuery(query, tempList.toArray(new String[0]))) {
+                if (mCursor != null) {
+                    while (mCursor.moveToNext()) {
+                        baseEntityIds.add(mCursor.getString(0));
+                    }
+                }
+            } catch (SQLException e) {
+                Timber.e(e);
+            }
+        }
+    }
+
     public Boolean checkIfExistsByFormSubmissionId(Table table, String formSubmissionId) {
         return checkIfExistsByFormSubmissionId(table, formSubmissionId, getReadableDatabase());
     }
@@ -364,102 +377,96 @@ public class EventClientRepository extends BaseRepository {
         return false;
     }
 
-    private boolean populateStatement(SQLiteStatement statement, Table table, JSONObject jsonObject, Map<String, Integer> columnOrder) {
+    /**
+     * @return the columns bound from the field of the record with the same name, the other columns of the table
+     * are bound by {@link #createClientBindings} and {@link #createEventBindings}
+     */
+    private static List<Column> getValueColumns(Column[] columns) {
+        List<Column> valueColumns = new ArrayList<>(Arrays.asList(columns));
+        valueColumns.removeAll(Arrays.asList(
+                client_column.json,
+                client_column.updatedAt,
+                client_column.syncStatus,
+                client_column.validationStatus,
+                client_column.baseEntityId,
+                client_column.residence,
+                client_column.locationId,
+                client_column.clientType,
+                event_column.json,
+                event_column.updatedAt,
+                event_column.syncStatus,
+                event_column.validationStatus,
+                event_column.baseEntityId,
+                event_column.eventId,
+                event_column.planId,
+                event_column.taskId
+        ));
+        return valueColumns;
+    }
+
+    private boolean populateStatement(SQLiteStatement statement, Table table, EventClientRecord record, Map<String, Integer> columnOrder) {
         if (statement == null)
             return false;
 
-        statement.clearBindings();
-        List columns;
+        List<Column> valueColumns;
+        if (table.equals(clientTable)) {
+            valueColumns = CLIENT_VALUE_COLUMNS;
+        } else if (table.equals(eventTable)) {
+            valueColumns = EVENT_VALUE_COLUMNS;
+        } else {
+            return false;
+        }
+        if (record.get(client_column.baseEntityId.name()) == null) {
+            return false;
+        }
 
-        try {
-            if (table.equals(clientTable)) {
-                columns = Arrays.asList(client_column.values());
-                createClientBindings(statement, jsonObject, columnOrder);
-            } else if (table.equals(eventTable)) {
-                columns = Arrays.asList(event_column.values());
-                createEventBindings(statement, jsonObject, columnOrder);
+        statement.clearBindings();
+        if (table.equals(clientTable)) {
+            createClientBindings(statement, record, columnOrder);
+        } else {
+            createEventBindings(statement, record, columnOrder);
+        }
+
+        for (Column column : valueColumns) {
+            String value = record.get(column.name());
+            if (value == null) {
+                statement.bindNull(columnOrder.get(column.name()));
+            } else if (column.column().type().equals(ColumnAttribute.Type.date)) {
+                // dates sent as epoch milliseconds are numbers
+                DateTime date = NumberUtils.isDigits(value) ? new DateTime(Long.parseLong(value)) : new DateTime(value);
+                statement.bindString(columnOrder.get(column.name()), dateFormat.format(date.toDate()));
+            } else if (column.column().type().equals(ColumnAttribute.Type.longnum)) {
+                statement.bindLong(columnOrder.get(column.name()), Long.parseLong(value));
             } else {
-                return false;
-            }
-
-            List<? extends Column> otherColumns = new ArrayList(columns);
-            if (!otherColumns.isEmpty()) {
-                otherColumns.removeAll(Arrays.asList(
-                        client_column.json,
-                        client_column.updatedAt,
-                        client_column.syncStatus,
-                        client_column.validationStatus,
-                        client_column.baseEntityId,
-                        client_column.residence,
-                        client_column.locationId,
-                        client_column.clientType,
-                        event_column.json,
-                        event_column.updatedAt,
-                        event_column.syncStatus,
-                        event_column.validationStatus,
-                        event_column.baseEntityId,
-                        event_column.eventId,
-                        event_column.planId,
-                        event_column.taskId
-                ));
-            }
-
-            for (Column column : otherColumns) {
-                if (jsonObject.has(column.name())) {
-                    Object value = jsonObject.get(column.name());
-                    if (column.column().type().equals(ColumnAttribute.Type.date)) {
-                        statement.bindString(columnOrder.get(column.name()), dateFormat.format(new DateTime(value).toDate()));
-                    } else if (column.column().type().equals(ColumnAttribute.Type.longnum)) {
-                        statement.bindLong(columnOrder.get(column.name()), Long.valueOf(value.toString()));
-                    } else {
-                        statement.bindString(columnOrder.get(column.name()), value.toString());
-                    }
-                } else {
-                    statement.bindNull(columnOrder.get(column.name()));
-                }
+                statement.bindString(columnOrder.get(column.name()), value);
             }
-            return true;
-        } catch (JSONException e) {
-            Timber.e(e);
-            return false;
         }
+        return true;
     }
 
-    private void createEventBindings(SQLiteStatement statement, JSONObject jsonObject, Map<String, Integer> columnOrder) throws JSONException {
-        String syncStatus = jsonObject.has(client_column.syncStatus.name()) ? jsonObject.getString(client_column.syncStatus.name()) : BaseRepository.TYPE_Synced;
-        jsonObject.remove(client_column.syncStatus.name());
-        statement.bindString(columnOrder.get(event_column.json.name()), jsonObject.toString());
+    private void createEventBindings(SQLiteStatement statement, EventClientRecord record, Map<String, Integer> columnOrder) {
+        statement.bindString(columnOrder.get(event_column.json.name()), record.getJson());
         statement.bindString(columnOrder.get(event_column.updatedAt.name()), dateFormat.format(new Date()));
-        statement.bindString(columnOrder.get(event_column.syncStatus.name()), syncStatus);
+        statement.bindString(columnOrder.get(event_column.syncStatus.name()), record.getSyncStatus() != null ? record.getSyncStatus() : BaseRepository.TYPE_Synced);
         statement.bindString(columnOrder.get(event_column.validationStatus.name()), BaseRepository.TYPE_Valid);
-        statement.bindString(columnOrder.get(event_column.baseEntityId.name()), jsonObject.getString(event_column.baseEntityId.name()));
-        statement.bindString(columnOrder.get(event_column.locationId.name()), jsonObject.optString(event_column.locationId.name()));
-        if (jsonObject.has(EVENT_ID))
-            statement.bindString(columnOrder.get(event_column.eventId.name()), jsonObject.getString(EVENT_ID));
-        else if (jsonObject.has(_ID))
-            statement.bindString(columnOrder.get(event_column.eventId.name()), jsonObject.getString(_ID));
-        JSONObject details = jsonObject.optJSONObject(AllConstants.DETAILS);
-        if (details != null) {
-            bindString(statement, columnOrder.get(event_column.planId.name()), details.optString(AllConstants.PLAN_IDENTIFIER));
-            bindString(statement, columnOrder.get(event_column.taskId.name()), details.optString(AllConstants.TASK_IDENTIFIER));
-        }
-    }
-
-    private void createClientBindings(SQLiteStatement statement, JSONObject jsonObject, Map<String, Integer> columnOrder) throws JSONException {
-        String syncStatus = jsonObject.has(client_column.syncStatus.name()) ? jsonObject.getString(client_column.syncStatus.name()) : BaseRepository.TYPE_Synced;
-        jsonObject.remove(client_column.syncStatus.name());
-        statement.bindString(columnOrder.get(client_column.json.name()), jsonObject.toString());
+        statement.bindString(columnOrder.get(event_column.baseEntityId.name()), record.get(event_column.baseEntityId.name()));
+        if (record.has(EVENT_ID))
+            statement.bindString(columnOrder.get(event_column.eventId.name()), record.optString(EVENT_ID));
+        else if (record.has(_ID))
+            statement.bindString(columnOrder.get(event_column.eventId.name()), record.optString(_ID));
+        bindString(statement, columnOrder.get(event_column.planId.name()), record.optDetail(AllConstants.PLAN_IDENTIFIER));
+        bindString(statement, columnOrder.get(event_column.taskId.name()), record.optDetail(AllConstants.TASK_IDENTIFIER));
+    }
+
+    private void createClientBindings(SQLiteStatement statement, EventClientRecord record, Map<String, Integer> columnOrder) {
+        statement.bindString(columnOrder.get(client_column.json.name()), record.getJson());
         statement.bindString(columnOrder.get(client_column.updatedAt.name()), dateFormat.format(new Date()));
-        statement.bindString(columnOrder.get(client_column.syncStatus.name()), syncStatus);
+        statement.bindString(columnOrder.get(client_column.syncStatus.name()), record.getSyncStatus() != null ? record.getSyncStatus() : BaseRepository.TYPE_Synced);
         statement.bindString(columnOrder.get(client_column.validationStatus.name()), BaseRepository.TYPE_Valid);
-        statement.bindString(columnOrder.get(client_column.baseEntityId.name()), jsonObject.getString(client_column.baseEntityId.name()));
-
-        bindString(statement, columnOrder.get(client_column.locationId.name()), jsonObject.optString(AllConstants.LOCATION_ID));
-        bindString(statement, columnOrder.get(client_column.clientType.name()), jsonObject.optString(AllConstants.CLIENT_TYPE));
-        JSONObject attributes = jsonObject.optJSONObject(AllConstants.ATTRIBUTES);
-        if (attributes != null) {
-            bindString(statement, columnOrder.get(client_column.residence.name()), attributes.optString(AllConstants.RESIDENCE));
-        }
+        statement.bindString(columnOrder.get(client_column.baseEntityId.name()), record.get(client_column.baseEntityId.name()));
+        bindString(statement, columnOrder.get(client_column.locationId.name()), record.optString(AllConstants.LOCATION_ID));
+        bindString(statement, columnOrder.get(client_column.clientType.name()), record.optString(AllConstants.CLIENT_TYPE));
+        bindString(statement, columnOrder.get(client_column.residence.name()), record.optAttribute(AllConstants.RESIDENCE));
     }
 
 
@@ -543,71 +550,7 @@ public class EventClientRepository extends BaseRepository {
         if (array == null || array.length() == 0) {
             return false;
         }
-        SQLiteStatement insertStatement = null;
-        SQLiteStatement updateStatement = null;
-        try {
-            sqLiteDatabase.beginTransaction();
-
-            int maxRowId = 0;
-            QueryWrapper insertQueryWrapper = generateInsertQuery(clientTable);
-
-            QueryWrapper updateQueryWrapper = generateUpdateQuery(clientTable);
-
-            insertStatement = sqLiteDatabase.compileStatement(insertQueryWrapper.sqlQuery);
-
-            updateStatement = sqLiteDatabase.compileStatement(updateQueryWrapper.sqlQuery);
-            Set<ClientRelationship> clientRelationships = new HashSet<>();
-
-            for (int i = 0; i < array.length(); i++) {
-                try {
-                    if (array.isNull(i)) {
-                        continue;
-                    }
-                    JSONObject jsonObject = array.getJSONObject(i);
-                    String baseEntityId = jsonObject.getString(client_column.baseEntityId.name());
-
-                    if (maxRowId == 0) {
-                        maxRowId = getMaxRowId(clientTable, sqLiteDatabase);
-                    }
-
-                    maxRowId++;
-                    if (checkIfExists(clientTable, baseEntityId, sqLiteDatabase)) {
-                        if (populateStatement(updateStatement, clientTable, jsonObject, updateQueryWrapper.columnOrder)) {
-                            updateStatement.bindLong(updateQueryWrapper.columnOrder.get(ROWID), (long) maxRowId);
-                            updateStatement.executeUpdateDelete();
-                            clientRelationships.add(getClientRelationShip(baseEntityId, jsonObject));
-                        } else {
-                            Timber.w("Unable to update client with baseEntityId: %s", baseEntityId);
-                        }
-
-                    } else {
-                        if (populateStatement(insertStatement, clientTable, jsonObject, insertQueryWrapper.columnOrder)) {
-                            insertStatement.executeInsert();
-                            clientRelationships.add(getClientRelationShip(baseEntityId, jsonObject));
-                        } else
-                            Timber.w("Unable to add client with baseEntityId: %s", baseEntityId);
-                    }
-                } catch (JSONException e) {
-                    Timber.e(e, "JSONException");
-                }
-            }
-            if (CoreLibrary.getInstance().getSyncConfiguration().runPlanEvaluationOnClientProcessing()) {
-                CoreLibrary.getInstance().context().getClientRelationshipRepository().saveRelationship(clientRelationships.toArray(new ClientRelationship[0]));
-            }
-            sqLiteDatabase.setTransactionSuccessful();
-            sqLiteDatabase.endTransaction();
-            return true;
-        } catch (Exception e) {
-            if (sqLiteDatabase.isDbLockedByCurrentThread())
-                sqLiteDatabase.endTransaction();
-            Timber.e(e);
-            return false;
-        } finally {
-            if (insertStatement != null)
-                insertStatement.close();
-            if (updateStatement != null)
-                updateStatement.close();
-        }
+        return batchInsertRecords(clientTable, toRecords(array), sqLiteDatabase);
     }
 
     public int getMaxRowId(@NonNull Table table) {
@@ -642,69 +585,133 @@ public class EventClientRepository extends BaseRepository {
         if (array == null || array.length() == 0) {
             return false;
         }
+        return batchInsertRecords(eventTable, toRecords(array), sqLiteDatabase);
+    }
 
-        SQLiteStatement insertStatement = null;
-        SQLiteStatement updateStatement = null;
-
-        List<String> formSubmissionIdsList = getFormSubmissionIdsFromJsonArray(array);
+    /**
+     * Adds or updates clients read from a sync response stream like {@link #batchInsertClients(JSONArray)},
+     * binding the values read from the stream instead of parsing each client into a {@link JSONObject}
+     */
+    public boolean batchInsertClientRecords(List<StreamedRecord> records) {
+        if (records == null || records.isEmpty()) {
+            return false;
+        }
+        return batchInsertRecords(clientTable, records, getWritableDatabase());
+    }
 
-        Set<String> formSubmissionIds = new HashSet<>();
+    /**
+     * Adds or updates events read from a sync response stream like {@link #batchInsertEvents(JSONArray, long)},
+     * binding the values read from the stream instead of parsing each event into a {@link JSONObject}
+     */
+    public boolean batchInsertEventRecords(List<StreamedRecord> records, long serverVersion) {
+        if (records == null || records.isEmpty()) {
+            return false;
+        }
+        return batchInsertRecords(eventTable, records, getWritableDatabase());
+    }
 
-        populateFormSubmissionIds(formSubmissionIdsList, formSubmissionIds);
+    /**
+     * Adds the clients or events in one transaction, updating those already saved. Clients are matched by
+     * baseEntityId and events by formSubmissionId, each one saved moves to the end of the table for peer to peer sync
+     */
+    private boolean batchInsertRecords(Table table, List<? extends EventClientRecord> records, SQLiteDatabase sqLiteDatabase) {
+        boolean clients = table.equals(clientTable);
+        Column idColumn = clients ? client_column.baseEntityId : event_column.formSubmissionId;
+        String recordType = clients ? "client" : "event";
+
+        Set<String> existingIds = new HashSet<>();
+        if (clients) {
+            populateBaseEntityIds(table, getRecordValues(records, idColumn.name()), existingIds, sqLiteDatabase);
+        } else {
+            populateFormSubmissionIds(getRecordValues(records, idColumn.name()), existingIds);
+        }
 
+        SQLiteStatement insertStatement = null;
+        SQLiteStatement updateStatement = null;
         try {
-
             sqLiteDatabase.beginTransaction();
-            int maxRowId = 0;
-
-            QueryWrapper insertQueryWrapper = generateInsertQuery(eventTable);
-
-            QueryWrapper updateQueryWrapper = generateUpdateQuery(eventTable);
 
+            int maxRowId = 0;
+            QueryWrapper insertQueryWrapper = generateInsertQuery(table);
+            QueryWrapper updateQueryWrapper = generateUpdateQuery(table);
             insertStatement = sqLiteDatabase.compileStatement(insertQueryWrapper.sqlQuery);
-
             updateStatement = sqLiteDatabase.compileStatement(updateQueryWrapper.sqlQuery);
-            for (int i = 0; i < array.length(); i++) {
-                if (array.isNull(i)) {
+            Set<ClientRelationship> clientRelationships = new HashSet<>();
+
+            for (EventClientRecord record : records) {
+                String id = record.get(idColumn.name());
+                if (StringUtils.isBlank(id)) {
+                    Timber.w("Unable to add %s without %s", recordType, idColumn.name());
                     continue;
                 }
-                JSONObject jsonObject = array.getJSONObject(i);
-                String formSubmissionId = jsonObject.getString(event_column.formSubmissionId.name());
 
                 if (maxRowId == 0) {
-                    maxRowId = getMaxRowId(eventTable, sqLiteDatabase);
+                    maxRowId = getMaxRowId(table, sqLiteDatabase);
                 }
 
                 maxRowId++;
-                if (formSubmissionIds.contains(formSubmissionId)) {
-                    if (populateStatement(updateStatement, eventTable, jsonObject, updateQueryWrapper.columnOrder)) {
-                        updateStatement.bindLong(updateQueryWrapper.columnOrder.get(ROWID), (long) maxRowId);
-                        updateStatement.executeUpdateDelete();
-                    } else {
-                        Timber.w("Unable to update event with formSubmissionId: %s ", formSubmissionId);
-                    }
+                boolean exists = existingIds.contains(id);
+                SQLiteStatement statement = exists ? updateStatement : insertStatement;
+                Map<String, Integer> columnOrder = exists ? updateQueryWrapper.columnOrder : insertQueryWrapper.columnOrder;
+                if (!populateStatement(statement, table, record, columnOrder)) {
+                    Timber.w("Unable to %s %s with %s: %s", exists ? "update" : "add", recordType, idColumn.name(), id);
+                    continue;
+                }
+                if (exists) {
+                    statement.bindLong(columnOrder.get(ROWID), (long) maxRowId);
+                    statement.executeUpdateDelete();
                 } else {
-                    if (populateStatement(insertStatement, eventTable, jsonObject, insertQueryWrapper.columnOrder))
-                        insertStatement.executeInsert();
-                    else
-                        Timber.w("Unable to update event with formSubmissionId: %s", formSubmissionId);
+                    statement.executeInsert();
+                    // a record repeated later in the batch is updated
+                    existingIds.add(id);
+                }
+                if (clients && record.getRelationalId() != null) {
+                    clientRelationships.add(ClientRelationship.builder()
+                            .baseEntityId(id)
+                            .relationship(record.getRelationship())
+                            .relationalId(record.getRelationalId())
+                            .build());
                 }
             }
+            if (clients && CoreLibrary.getInstance().getSyncConfiguration().runPlanEvaluationOnClientProcessing()) {
+                CoreLibrary.getInstance().context().getClientRelationshipRepository().saveRelationship(clientRelationships.toArray(new ClientRelationship[0]));
+            }
             sqLiteDatabase.setTransactionSuccessful();
-            sqLiteDatabase.endTransaction();
             return true;
         } catch (Exception e) {
             Timber.e(e);
-            sqLiteDatabase.endTransaction();
             return false;
         } finally {
             if (insertStatement != null)
                 insertStatement.close();
             if (updateStatement != null)
                 updateStatement.close();
+            sqLiteDatabase.endTransaction();
         }
     }
 
+    private List<EventClientRecord> toRecords(JSONArray array) {
+        List<EventClientRecord> records = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject jsonObject = array.optJSONObject(i);
+            if (jsonObject != null) {
+                records.add(new JsonRecord(jsonObject));
+            }
+        }
+        return records;
+    }
+
+    private List<String> getRecordValues(List<? extends EventClientRecord> records, String field) {
+        List<String> values = new ArrayList<>();
+        for (EventClientRecord record : records) {
+            String value = record.get(field);
+            if (StringUtils.isNotBlank(value)) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
     public <T> T convert(JSONObject jo, Class<T> t) {
         if (jo == null) {
             return null;
@@ -1174,6 +1181,89 @@ public class EventClientRepository extends BaseRepository {
         return result;
     }
 
+    /**
+     * Builds the next push batch like {@link #getUnSyncedEvents(int)}, but keeps the stored JSON as is and
+     * looks up the unsynced clients of the events with one query per {@link #FORM_SUBMISSION_IDS_PAGE_SIZE} clients.
+     * A client shared by several events is added once.
+     *
+     * @param limit the maximum number of events in the batch
+     * @return the batch to push, the unsynced clients only if there are no unsynced events
+     */
+    public EventClientPushBatch getUnSyncedEventClientPushBatch(int limit) {
+        EventClientPushBatch pushBatch = new EventClientPushBatch();
+        Set<String> baseEntityIds = new LinkedHashSet<>();
+
+        String query = "SELECT "
+                + event_column.json + ", "
+                + event_column.baseEntityId + ", "
+                + event_column.formSubmissionId
+                + " FROM "
+                + eventTable.name()
+                + " WHERE "
+                + event_column.syncStatus
+                + " IN (?, ?) AND length("
+                + event_column.json
+                + ")>2 ORDER BY "
+                + event_column.updatedAt
+                + " ASC LIMIT "
+                + limit;
+        try (Cursor cursor = getReadableDatabase().rawQuery(query, new String[]{BaseRepository.TYPE_Unsynced, BaseRepository.TYPE_Unprocessed})) {
+            while (cursor.moveToNext()) {
+                String json = cursor.getString(0);
+                if (StringUtils.isBlank(json) || json.equals("{}")) {
+                    continue;
+                }
+                pushBatch.addEvent(cursor.getString(2), json);
+                String baseEntityId = cursor.getString(1);
+                if (StringUtils.isNotBlank(baseEntityId)) {
+                    baseEntityIds.add(baseEntityId);
+                }
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+            return new EventClientPushBatch();
+        }
+
+        if (pushBatch.isEmpty()) {
+            addUnSyncedClients(pushBatch, null, limit);
+        } else {
+            List<String> baseEntityIdList = new ArrayList<>(baseEntityIds);
+            for (int start = 0; start < baseEntityIdList.size(); start += FORM_SUBMISSION_IDS_PAGE_SIZE) {
+                addUnSyncedClients(pushBatch, baseEntityIdList.subList(start, Math.min(baseEntityIdList.size(), start + FORM_SUBMISSION_IDS_PAGE_SIZE)), limit);
+            }
+        }
+        return pushBatch;
+    }
+
+    private void addUnSyncedClients(EventClientPushBatch pushBatch, List<String> baseEntityIds, int limit) {
+        List<String> args = new ArrayList<>();
+        args.add(BaseRepository.TYPE_Unsynced);
+        String query = "SELECT "
+                + client_column.json + ", "
+                + client_column.baseEntityId
+                + " FROM "
+                + clientTable.name()
+                + " WHERE "
+                + client_column.syncStatus
+                + " = ?";
+        if (baseEntityIds == null) {
+            query += " LIMIT " + limit;
+        } else {
+            query += " AND " + client_column.baseEntityId + " IN (" + StringUtils.repeat("?", ", ", baseEntityIds.size()) + ")";
+            args.addAll(baseEntityIds);
+        }
+        try (Cursor cursor = getReadableDatabase().rawQuery(query, args.toArray(new String[0]))) {
+            while (cursor.moveToNext()) {
+                String json = cursor.getString(0);
+                if (StringUtils.isNotBlank(json)) {
+                    pushBatch.addClient(cursor.getString(1), json);
+                }
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
     public int getUnSyncedEventsCount() {
         int count = 0;
         String query = "SELECT count("
@@ -1930,6 +2020,19 @@ public class EventClientRepository extends BaseRepository {
     }
 
     private ClientRelationship getClientRelationShip(String baseEntityId, JSONObject jsonObject) {
+        String[] relationship = getRelationship(jsonObject);
+        return relationship == null ? null : ClientRelationship.builder()
+                .baseEntityId(baseEntityId)
+                .relationship(relationship[0])
+                .relationalId(relationship[1])
+                .build();
+    }
+
+    /**
+     * @return the name and relational id of the first relationship of the client with a relational id
+     */
+    @Nullable
+    private static String[] getRelationship(JSONObject jsonObject) {
         try {
             JSONObject relationShips = jsonObject.optJSONObject(AllConstants.RELATIONSHIPS);
             if (relationShips != null) {
@@ -1938,16 +2041,12 @@ public class EventClientRepository extends BaseRepository {
                     String relationshipName = keys.next();
                     JSONArray relationalIds = relationShips.optJSONArray(relationshipName);
                     if (relationalIds != null && relationalIds.length() > 0) {
-                        return ClientRelationship.builder()
-                                .baseEntityId(baseEntityId)
-                                .relationship(relationshipName)
-                                .relationalId(relationalIds.optString(0))
-                                .build();
+                        return new String[]{relationshipName, relationalIds.optString(0)};
                     }
                 }
             }
         } catch (Exception e) {
-            Timber.e(e, "Error saving relationship for %s", baseEntityId);
+            Timber.e(e, "Error reading relationships of %s", jsonObject.optString(client_column.baseEntityId.name()));
         }
         return null;
     }
@@ -2171,6 +2270,11 @@ public class EventClientRepository extends BaseRepository {
         markEventsAsSynced(syncedEventsClients, null, null);
     }
 
+    /**
+     * Marks the pushed clients and events as synced in one transaction, except those the server reported as failed.
+     * The rows are updated in chunks of {@link #FORM_SUBMISSION_IDS_PAGE_SIZE} and moved after the current max ROWID
+     * in their current order, like {@link #markEventAsSynced(String)} and {@link #markClientAsSynced(String)} do for one row
+     */
     @SuppressWarnings("unchecked")
     public void markEventsAsSynced(Map<String, Object> syncedEventsClients, Set<String> failedEvents, Set<String> failedClients) {
         try {
@@ -2182,26 +2286,97 @@ public class EventClientRepository extends BaseRepository {
                     ? (List<JSONObject>) syncedEventsClients.get(AllConstants.KEY.EVENTS)
                     : null;
 
-            if (clients != null && !clients.isEmpty()) {
+            List<String> baseEntityIds = new ArrayList<>();
+            if (clients != null) {
                 for (JSONObject client : clients) {
-                    String baseEntityId = client.getString(client_column.baseEntityId.name());
-                    if (failedClients == null || !failedClients.contains(baseEntityId))
-                        markClientAsSynced(baseEntityId);
+                    baseEntityIds.add(client.getString(client_column.baseEntityId.name()));
                 }
             }
-
-            if (events != null && !events.isEmpty()) {
+            List<String> formSubmissionIds = new ArrayList<>();
+            if (events != null) {
                 for (JSONObject event : events) {
-                    String formSubmissionId = event.getString(event_column.formSubmissionId.name());
-                    if (failedEvents == null || !failedEvents.contains(formSubmissionId))
-                        markEventAsSynced(formSubmissionId);
+                    formSubmissionIds.add(event.getString(event_column.formSubmissionId.name()));
                 }
             }
+            markAsSynced(excludeFailed(baseEntityIds, failedClients), excludeFailed(formSubmissionIds, failedEvents), getWritableDatabase());
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * Marks the clients and events of a pushed {@link EventClientPushBatch} as synced,
+     * see {@link #markEventsAsSynced(Map, Set, Set)}
+     */
+    public void markEventsAsSynced(@NonNull EventClientPushBatch pushBatch, Set<String> failedEvents, Set<String> failedClients) {
+        try {
+            markAsSynced(excludeFailed(pushBatch.getBaseEntityIds(), failedClients),
+                    excludeFailed(pushBatch.getFormSubmissionIds(), failedEvents), getWritableDatabase());
         } catch (Exception e) {
             Timber.e(e);
         }
     }
 
+    private List<String> excludeFailed(List<String> ids, Set<String> failedIds) {
+        if (failedIds == null || failedIds.isEmpty()) {
+            return ids;
+        }
+        List<String> syncedIds = new ArrayList<>();
+        for (String id : ids) {
+            if (!failedIds.contains(id)) {
+                syncedIds.add(id);
+            }
+        }
+        return syncedIds;
+    }
+
+    private void markAsSynced(List<String> baseEntityIds, List<String> formSubmissionIds, SQLiteDatabase database) {
+        if (baseEntityIds.isEmpty() && formSubmissionIds.isEmpty()) {
+            return;
+        }
+        database.beginTransaction();
+        try {
+            markAsSynced(clientTable, client_column.baseEntityId.name(), baseEntityIds, database);
+            markAsSynced(eventTable, event_column.formSubmissionId.name(), formSubmissionIds, database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Marks the rows as synced and moves them after the last row of the table with consecutive rowids,
+     * keeping their order, as marking them one at a time does
+     */
+    private void markAsSynced(Table table, String idColumn, List<String> ids, SQLiteDatabase database) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        long maxRowId = getMaxRowId(table, database);
+        SQLiteStatement updateStatement = database.compileStatement("UPDATE " + table.name() + " SET "
+                + client_column.syncStatus.name() + " = ?, " + ROWID + " = ? WHERE " + ROWID + " = ?");
+        try {
+            for (int start = 0; start < ids.size(); start += FORM_SUBMISSION_IDS_PAGE_SIZE) {
+                List<String> chunk = ids.subList(start, Math.min(ids.size(), start + FORM_SUBMISSION_IDS_PAGE_SIZE));
+                List<Long> rowIds = new ArrayList<>(chunk.size());
+                try (Cursor cursor = database.rawQuery("SELECT " + ROWID + " FROM " + table.name() + " WHERE " + idColumn
+                        + " IN (" + StringUtils.repeat("?", ", ", chunk.size()) + ") ORDER BY " + ROWID, chunk.toArray(new String[0]))) {
+                    while (cursor != null && cursor.moveToNext()) {
+                        rowIds.add(cursor.getLong(0));
+                    }
+                }
+                for (Long rowId : rowIds) {
+                    updateStatement.bindString(1, BaseRepository.TYPE_Synced);
+                    updateStatement.bindLong(2, ++maxRowId);
+                    updateStatement.bindLong(3, rowId);
+                    updateStatement.executeUpdateDelete();
+                }
+            }
+        } finally {
+            updateStatement.close();
+        }
+    }
+
     protected List<Client> fetchClients(String query, String[] params) {
         Cursor cursor = null;
         List<Client> clients = new ArrayList<>();
@@ -2349,6 +2524,79 @@ public class EventClientRepository extends BaseRepository {
         public Map<String, Integer> columnOrder;
     }
 
+    /**
+     * A client or event in a {@link JSONObject}, its syncStatus is removed from the json to be bound to its own column
+     */
+    private static class JsonRecord implements EventClientRecord {
+
+        private final JSONObject jsonObject;
+
+        private final String syncStatus;
+
+        private final String[] relationship;
+
+        private JsonRecord(JSONObject jsonObject) {
+            this.jsonObject = jsonObject;
+            this.syncStatus = jsonObject.isNull(client_column.syncStatus.name()) ? null : jsonObject.optString(client_column.syncStatus.name());
+            jsonObject.remove(client_column.syncStatus.name());
+            this.relationship = getRelationship(jsonObject);
+        }
+
+        @Override
+        public String getJson() {
+            return jsonObject.toString();
+        }
+
+        @Override
+        public boolean has(String field) {
+            return jsonObject.has(field);
+        }
+
+        @Override
+        @Nullable
+        public String get(String field) {
+            return jsonObject.isNull(field) ? null : jsonObject.opt(field).toString();
+        }
+
+        @Override
+        @NonNull
+        public String optString(String field) {
+            return jsonObject.optString(field);
+        }
+
+        @Override
+        @NonNull
+        public String optDetail(String detail) {
+            JSONObject details = jsonObject.optJSONObject(AllConstants.DETAILS);
+            return details != null ? details.optString(detail) : "";
+        }
+
+        @Override
+        @NonNull
+        public String optAttribute(String attribute) {
+            JSONObject attributes = jsonObject.optJSONObject(AllConstants.ATTRIBUTES);
+            return attributes != null ? attributes.optString(attribute) : "";
+        }
+
+        @Override
+        @Nullable
+        public String getSyncStatus() {
+            return syncStatus;
+        }
+
+        @Override
+        @Nullable
+        public String getRelationship() {
+            return relationship != null ? relationship[0] : null;
+        }
+
+        @Override
+        @Nullable
+        public String getRelationalId() {
+            return relationship != null ? relationship[1] : null;
+        }
+    }
+
     public List<Event> getEventsByTaskIds(Set<String> taskIds) {
         return fetchEvents("SELECT json FROM "
                 + eventTable.name()
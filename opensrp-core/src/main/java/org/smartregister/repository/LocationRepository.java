@@ -55,6 +55,26 @@ public class LocationRepository extends BaseRepository {
     private static final String CREATE_LOCATION_NAME_INDEX = "CREATE INDEX "
             + LOCATION_TABLE + "_" + NAME + "_ind ON " + LOCATION_TABLE + "(" + NAME + ")";
 
+    protected static final String LOCATION_ANCESTRY_TABLE = "location_ancestry";
+    protected static final String ANCESTOR_ID = "ancestor_id";
+    protected static final String DESCENDANT_ID = "descendant_id";
+    protected static final String DEPTH = "depth";
+
+    // the deepest hierarchy a rebuild walks, so that locations whose parents form a cycle are not walked forever
+    protected static final int MAX_ANCESTRY_DEPTH = 64;
+
+    private static final String CREATE_LOCATION_ANCESTRY_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + LOCATION_ANCESTRY_TABLE + " (" +
+                    ANCESTOR_ID + " VARCHAR NOT NULL, " +
+                    DESCENDANT_ID + " VARCHAR NOT NULL, " +
+                    DEPTH + " INTEGER NOT NULL, " +
+                    "PRIMARY KEY (" + ANCESTOR_ID + ", " + DESCENDANT_ID + ")) ";
+
+    private static final String CREATE_LOCATION_ANCESTRY_DESCENDANT_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + LOCATION_ANCESTRY_TABLE + "_" + DESCENDANT_ID + "_ind ON " + LOCATION_ANCESTRY_TABLE + "(" + DESCENDANT_ID + ")";
+
+    private boolean ancestryTableCreated;
+
     protected String getLocationTableName() {
         return LOCATION_TABLE;
     }
@@ -62,6 +82,18 @@ public class LocationRepository extends BaseRepository {
     public static void createTable(SQLiteDatabase database) {
         database.execSQL(CREATE_LOCATION_TABLE);
         database.execSQL(CREATE_LOCATION_NAME_INDEX);
+        database.execSQL(CREATE_LOCATION_ANCESTRY_TABLE);
+        database.execSQL(CREATE_LOCATION_ANCESTRY_DESCENDANT_INDEX);
+    }
+
+    /**
+     * Creates the location ancestry table of a database created before it was added and fills it from the
+     * locations already saved, for use when upgrading the database
+     */
+    public static void createAncestryTable(SQLiteDatabase database) {
+        database.execSQL(CREATE_LOCATION_ANCESTRY_TABLE);
+        database.execSQL(CREATE_LOCATION_ANCESTRY_DESCENDANT_INDEX);
+        rebuildLocationAncestry(database);
     }
 
     public void addOrUpdate(Location location) {
@@ -74,7 +106,45 @@ public class LocationRepository extends BaseRepository {
         contentValues.put(NAME, location.getProperties().getName());
         contentValues.put(GEOJSON, gson.toJson(location));
         contentValues.put(SYNC_STATUS, location.getSyncStatus());
-        getWritableDatabase().replace(getLocationTableName(), null, contentValues);
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ensureAncestryTable(database);
+            database.replace(getLocationTableName(), null, contentValues);
+            updateAncestry(database, location.getId(), location.getProperties().getParentId());
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Adds or updates locations in one transaction
+     *
+     * @return true if all the locations were saved, false if none were saved
+     */
+    public boolean batchInsertLocations(List<Location> locations) {
+        if (locations == null || locations.isEmpty()) {
+            return false;
+        }
+
+        SQLiteDatabase database = getWritableDatabase();
+        try {
+            database.beginTransaction();
+            for (Location location : locations) {
+                if (location != null) {
+                    addOrUpdate(location);
+                }
+            }
+            database.setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            Timber.e(e, "EXCEPTION %s", e.toString());
+            return false;
+        } finally {
+            database.endTransaction();
+        }
     }
 
     /**
@@ -83,9 +153,178 @@ public class LocationRepository extends BaseRepository {
      * @param locationIdentifiers the set of jurisdiction identifiers to delete
      */
     public void deleteLocations(@NonNull Set<String> locationIdentifiers) {
-        getWritableDatabase().delete(LOCATION_TABLE,
-                String.format("%s IN (%s)", ID, StringUtils.repeat("?", ",", locationIdentifiers.size())),
-                locationIdentifiers.toArray(new String[]{}));
+        String[] ids = locationIdentifiers.toArray(new String[]{});
+        String inClause = String.format("(%s)", StringUtils.repeat("?", ",", ids.length));
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ensureAncestryTable(database);
+            database.delete(LOCATION_TABLE, ID + " IN " + inClause, ids);
+            // the children left keep the deleted locations as ancestors, as locations saved before their parents do
+            for (String id : ids) {
+                detachAncestry(database, id);
+            }
+            database.delete(LOCATION_ANCESTRY_TABLE, DESCENDANT_ID + " IN " + inClause, ids);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Get the locations below a location in the hierarchy, nearest first
+     *
+     * @param locationId the id of the location
+     * @param maxDepth   the levels below the location to get, 1 for its children only
+     * @return the descendants of the location that are saved
+     */
+    public List<Location> getDescendants(String locationId, int maxDepth) {
+        Cursor cursor = null;
+        List<Location> locations = new ArrayList<>();
+        try {
+            ensureAncestryTable(getWritableDatabase());
+            cursor = getReadableDatabase().rawQuery("SELECT l.* FROM " + LOCATION_TABLE + " l JOIN " + LOCATION_ANCESTRY_TABLE +
+                            " a ON l." + ID + " = a." + DESCENDANT_ID + " WHERE a." + ANCESTOR_ID + " = ? AND a." + DEPTH +
+                            " BETWEEN 1 AND ? ORDER BY a." + DEPTH,
+                    new String[]{locationId, String.valueOf(maxDepth)});
+            while (cursor.moveToNext()) {
+                locations.add(readCursor(cursor));
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return locations;
+    }
+
+    /**
+     * @return true if the location is below the ancestor in the hierarchy, false if they are the same location
+     */
+    public boolean isAncestor(String ancestorId, String locationId) {
+        try {
+            SQLiteDatabase database = getWritableDatabase();
+            ensureAncestryTable(database);
+            return isAncestor(database, ancestorId, locationId, 1);
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the location ancestry from the parents of the saved locations
+     */
+    public void rebuildLocationAncestry() {
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.execSQL(CREATE_LOCATION_ANCESTRY_TABLE);
+            database.execSQL(CREATE_LOCATION_ANCESTRY_DESCENDANT_INDEX);
+            rebuildLocationAncestry(database);
+            ancestryTableCreated = true;
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static void rebuildLocationAncestry(SQLiteDatabase database) {
+        database.execSQL("DELETE FROM " + LOCATION_ANCESTRY_TABLE);
+        database.execSQL("WITH RECURSIVE ancestry(" + ANCESTOR_ID + ", " + DESCENDANT_ID + ", " + DEPTH + ") AS (" +
+                "SELECT " + ID + ", " + ID + ", 0 FROM " + LOCATION_TABLE +
+                " UNION ALL SELECT l." + PARENT_ID + ", a." + DESCENDANT_ID + ", a." + DEPTH + " + 1 FROM ancestry a JOIN " +
+                LOCATION_TABLE + " l ON l." + ID + " = a." + ANCESTOR_ID + " WHERE l." + PARENT_ID + " IS NOT NULL AND l." +
+                PARENT_ID + " != '' AND a." + DEPTH + " < " + MAX_ANCESTRY_DEPTH + ") " +
+                "INSERT OR REPLACE INTO " + LOCATION_ANCESTRY_TABLE + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID + ", " + DEPTH + ") " +
+                "SELECT " + ANCESTOR_ID + ", " + DESCENDANT_ID + ", MIN(" + DEPTH + ") FROM ancestry GROUP BY " +
+                ANCESTOR_ID + ", " + DESCENDANT_ID);
+        // parents not saved yet are the roots of their children's hierarchies
+        database.execSQL("INSERT OR IGNORE INTO " + LOCATION_ANCESTRY_TABLE + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID +
+                ", " + DEPTH + ") SELECT DISTINCT " + PARENT_ID + ", " + PARENT_ID + ", 0 FROM " + LOCATION_TABLE +
+                " WHERE " + PARENT_ID + " IS NOT NULL AND " + PARENT_ID + " != ''");
+    }
+
+    /**
+     * Creates and fills the ancestry table the first time it is used with a database created before it was added
+     */
+    private void ensureAncestryTable(SQLiteDatabase database) {
+        if (ancestryTableCreated) {
+            return;
+        }
+        if (!ancestryTableExists(database)) {
+            createAncestryTable(database);
+        }
+        ancestryTableCreated = true;
+    }
+
+    private boolean ancestryTableExists(SQLiteDatabase database) {
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                    new String[]{LOCATION_ANCESTRY_TABLE});
+            return cursor != null && cursor.getCount() > 0;
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    /**
+     * Moves the location and the locations below it under its parent, unless it is there already
+     */
+    private void updateAncestry(SQLiteDatabase database, String locationId, String parentId) {
+        boolean hasParent = StringUtils.isNotBlank(parentId);
+        if (hasParent && isAncestor(database, parentId, locationId, 1, 1)) {
+            return;
+        }
+
+        database.execSQL("INSERT OR IGNORE INTO " + LOCATION_ANCESTRY_TABLE + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID +
+                ", " + DEPTH + ") VALUES (?, ?, 0)", new Object[]{locationId, locationId});
+        detachAncestry(database, locationId);
+        if (!hasParent) {
+            return;
+        }
+        if (isAncestor(database, locationId, parentId, 0)) {
+            Timber.w("Location %s not moved under %s, it is one of the locations below it", locationId, parentId);
+            return;
+        }
+
+        database.execSQL("INSERT OR IGNORE INTO " + LOCATION_ANCESTRY_TABLE + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID +
+                ", " + DEPTH + ") VALUES (?, ?, 0)", new Object[]{parentId, parentId});
+        database.execSQL("INSERT OR REPLACE INTO " + LOCATION_ANCESTRY_TABLE + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID +
+                ", " + DEPTH + ") SELECT a." + ANCESTOR_ID + ", d." + DESCENDANT_ID + ", a." + DEPTH + " + d." + DEPTH +
+                " + 1 FROM " + LOCATION_ANCESTRY_TABLE + " a, " + LOCATION_ANCESTRY_TABLE + " d WHERE a." + DESCENDANT_ID +
+                " = ? AND d." + ANCESTOR_ID + " = ?", new Object[]{parentId, locationId});
+    }
+
+    /**
+     * Removes the ancestors of the location from it and the locations below it
+     */
+    private void detachAncestry(SQLiteDatabase database, String locationId) {
+        database.execSQL("DELETE FROM " + LOCATION_ANCESTRY_TABLE + " WHERE " + DESCENDANT_ID + " IN (SELECT " +
+                DESCENDANT_ID + " FROM " + LOCATION_ANCESTRY_TABLE + " WHERE " + ANCESTOR_ID + " = ?) AND " + ANCESTOR_ID +
+                " IN (SELECT " + ANCESTOR_ID + " FROM " + LOCATION_ANCESTRY_TABLE + " WHERE " + DESCENDANT_ID + " = ? AND " +
+                DEPTH + " > 0)", new Object[]{locationId, locationId});
+    }
+
+    private boolean isAncestor(SQLiteDatabase database, String ancestorId, String locationId, int minDepth) {
+        return isAncestor(database, ancestorId, locationId, minDepth, Integer.MAX_VALUE);
+    }
+
+    private boolean isAncestor(SQLiteDatabase database, String ancestorId, String locationId, int minDepth, int maxDepth) {
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT 1 FROM " + LOCATION_ANCESTRY_TABLE + " WHERE " + ANCESTOR_ID + " = ? AND " +
+                            DESCENDANT_ID + " = ? AND " + DEPTH + " BETWEEN ? AND ?",
+                    new String[]{ancestorId, locationId, String.valueOf(minDepth), String.valueOf(maxDepth)});
+            return cursor != null && cursor.moveToFirst();
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
     }
 
     public List<Location> getAllLocations() {
@@ -6,7 +6,6 @@ import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteDatabaseHook;
 import net.sqlcipher.database.SQLiteException;
 import net.sqlcipher.database.SQLiteOpenHelper;
-import org.apache.commons.lang3.StringUtils;
 import org.smartregister.AllConstants;
 import org.smartregister.CoreLibrary;
 import org.smartregister.commonregistry.CommonFtsObject;
@@ -19,9 +18,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.LinkedHashSet;
 import java.util.Objects;
-import java.util.Set;
 import timber.log.Timber;
 
 public class Repository extends SQLiteOpenHelper {
@@ -103,38 +100,7 @@ public class Repository extends SQLiteOpenHelper {
 
         if (this.commonFtsObject != null) {
             for (String ftsTable : commonFtsObject.getTables()) {
-                Set<String> searchColumns = new LinkedHashSet<>();
-                searchColumns.add(CommonFtsObject.idColumn);
-                searchColumns.add(CommonFtsObject.relationalIdColumn);
-                searchColumns.add(CommonFtsObject.phraseColumn);
-                searchColumns.add(CommonFtsObject.isClosedColumn);
-
-                String[] mainConditions = this.commonFtsObject.getMainConditions(ftsTable);
-                if (mainConditions != null) {
-                    for (String mainCondition : mainConditions) {
-                        if (!mainCondition.equals(CommonFtsObject.isClosedColumnName)) {
-                            searchColumns.add(mainCondition);
-                        }
-                    }
-                }
-
-                String[] sortFields = this.commonFtsObject.getSortFields(ftsTable);
-                if (sortFields != null) {
-                    for (String sortValue : sortFields) {
-                        if (sortValue.startsWith("alerts.")) {
-                            sortValue = sortValue.split("\\.")[1];
-                        }
-                        searchColumns.add(sortValue);
-                    }
-                }
-
-                String joinedSearchColumns = StringUtils.join(searchColumns, ",");
-
-                String searchSql =
-                        "create virtual table " + CommonFtsObject.searchTableName(ftsTable)
-                                + " using fts4 (" + joinedSearchColumns + ");";
-                database.execSQL(searchSql);
-
+                database.execSQL(commonFtsObject.createSearchTableSql(ftsTable));
             }
         }
     }
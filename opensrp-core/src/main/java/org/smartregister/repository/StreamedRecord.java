@@ -0,0 +1,107 @@
+package org.smartregister.repository;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A client or event read from a sync response stream: its json, without the syncStatus, and the values
+ * {@link EventClientRepository} binds to the columns of its table, so that it is saved without being
+ * parsed into a {@link org.json.JSONObject}
+ */
+public class StreamedRecord implements EventClientRecord {
+
+    private final String json;
+
+    private final Map<String, String> values;
+
+    private final Map<String, String> details;
+
+    private final Map<String, String> attributes;
+
+    private String syncStatus;
+
+    private String relationship;
+
+    private String relationalId;
+
+    /**
+     * @param json       the json of the record without its syncStatus
+     * @param values     the scalar values of the record's top level fields, as text
+     * @param details    the scalar values of the record's details
+     * @param attributes the scalar values of the record's attributes
+     */
+    public StreamedRecord(@NonNull String json, @NonNull Map<String, String> values,
+                          @Nullable Map<String, String> details, @Nullable Map<String, String> attributes) {
+        this.json = json;
+        this.values = values;
+        this.details = details != null ? details : new HashMap<>();
+        this.attributes = attributes != null ? attributes : new HashMap<>();
+    }
+
+    @Override
+    public String getJson() {
+        return json;
+    }
+
+    @Override
+    public boolean has(String field) {
+        return values.containsKey(field);
+    }
+
+    @Override
+    @Nullable
+    public String get(String field) {
+        return values.get(field);
+    }
+
+    @Override
+    @NonNull
+    public String optString(String field) {
+        String value = values.get(field);
+        return value != null ? value : "";
+    }
+
+    @Override
+    @NonNull
+    public String optDetail(String detail) {
+        String value = details.get(detail);
+        return value != null ? value : "";
+    }
+
+    @Override
+    @NonNull
+    public String optAttribute(String attribute) {
+        String value = attributes.get(attribute);
+        return value != null ? value : "";
+    }
+
+    @Override
+    @Nullable
+    public String getSyncStatus() {
+        return syncStatus;
+    }
+
+    public void setSyncStatus(String syncStatus) {
+        this.syncStatus = syncStatus;
+    }
+
+    @Override
+    @Nullable
+    public String getRelationship() {
+        return relationship;
+    }
+
+    @Override
+    @Nullable
+    public String getRelationalId() {
+        return relationalId;
+    }
+
+    public void setRelationship(String relationship, String relationalId) {
+        this.relationship = relationship;
+        this.relationalId = relationalId;
+    }
+}
@@ -4,9 +4,15 @@ import android.content.ContentValues;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.reflect.TypeToken;
 
 import net.sqlcipher.Cursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
@@ -17,12 +23,16 @@ import org.smartregister.p2p.sync.data.JsonData;
 import org.smartregister.repository.helper.MappingHelper;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.smartregister.AllConstants.ROWID;
 
 import org.smartregister.sync.helper.LocationServiceHelper;
+import org.smartregister.util.AppExecutors;
 import org.smartregister.util.P2PUtil;
 
 import timber.log.Timber;
@@ -52,11 +62,67 @@ public class StructureRepository extends LocationRepository {
     private static final String CREATE_LOCATION_PARENT_INDEX = "CREATE INDEX "
             + STRUCTURE_TABLE + "_" + PARENT_ID + "_ind ON " + STRUCTURE_TABLE + "(" + PARENT_ID + ")";
 
+    protected static final String STRUCTURE_BOUNDS_TABLE = "structure_bounds";
+    protected static final String MIN_LONGITUDE = "min_longitude";
+    protected static final String MAX_LONGITUDE = "max_longitude";
+    protected static final String MIN_LATITUDE = "min_latitude";
+    protected static final String MAX_LATITUDE = "max_latitude";
+
+    // the bounding box of each structure keyed by the rowid of the structure, in an r-tree
+    private static final String CREATE_STRUCTURE_BOUNDS_RTREE = "CREATE VIRTUAL TABLE IF NOT EXISTS " +
+            STRUCTURE_BOUNDS_TABLE + " USING rtree(" + ID + ", " + MIN_LONGITUDE + ", " + MAX_LONGITUDE + ", " +
+            MIN_LATITUDE + ", " + MAX_LATITUDE + ")";
+
+    // the same columns in a plain table for SQLite builds without the r-tree module
+    private static final String CREATE_STRUCTURE_BOUNDS_TABLE = "CREATE TABLE IF NOT EXISTS " + STRUCTURE_BOUNDS_TABLE +
+            " (" + ID + " INTEGER PRIMARY KEY, " + MIN_LONGITUDE + " REAL, " + MAX_LONGITUDE + " REAL, " +
+            MIN_LATITUDE + " REAL, " + MAX_LATITUDE + " REAL)";
+
+    private static final String CREATE_STRUCTURE_BOUNDS_LATITUDE_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + STRUCTURE_BOUNDS_TABLE + "_" + MIN_LATITUDE + "_ind ON " + STRUCTURE_BOUNDS_TABLE + "(" + MIN_LATITUDE + ")";
+
+    private static final String BOUNDS_CONDITION = MAX_LONGITUDE + " >= ? AND " + MIN_LONGITUDE + " <= ? AND " +
+            MAX_LATITUDE + " >= ? AND " + MIN_LATITUDE + " <= ?";
+
+    private static final String[] BATCH_COLUMNS = {ROWID, ID, UUID, PARENT_ID, NAME, SYNC_STATUS, LATITUDE, LONGITUDE, GEOJSON};
+
+    private static final String[] BOUNDS_COLUMNS = {ID, MIN_LONGITUDE, MAX_LONGITUDE, MIN_LATITUDE, MAX_LATITUDE};
+
+    // half the height in degrees of the first box searched for the nearest structures, about 100m
+    private static final double NEAREST_SEARCH_RADIUS = 0.001;
+
     private MappingHelper helper;
 
+    private boolean boundsTableCreated;
+
+    private AppExecutors appExecutors;
+
     public static void createTable(SQLiteDatabase database) {
         database.execSQL(CREATE_LOCATION_TABLE);
         database.execSQL(CREATE_LOCATION_PARENT_INDEX);
+        createBoundsTable(database);
+    }
+
+    /**
+     * Creates the structure bounds table of a database created before it was added and fills it from the
+     * structures already saved, for use when upgrading the database
+     */
+    public static void addBoundsTable(SQLiteDatabase database) {
+        createBoundsTable(database);
+        rebuildStructureBounds(database);
+    }
+
+    /**
+     * Creates the structure bounds table, an r-tree if SQLite has the r-tree module
+     */
+    public static void createBoundsTable(SQLiteDatabase database) {
+        try {
+            database.execSQL(CREATE_STRUCTURE_BOUNDS_RTREE);
+        } catch (Exception e) {
+            Timber.w(e, "r-tree not available, structure bounds saved in a table");
+            database.execSQL(CREATE_STRUCTURE_BOUNDS_TABLE);
+            database.execSQL(CREATE_STRUCTURE_BOUNDS_LATITUDE_INDEX);
+        }
     }
 
     @Override
@@ -107,13 +173,32 @@ public class StructureRepository extends LocationRepository {
     public void addOrUpdate(Location location) {
         if (StringUtils.isBlank(location.getId()))
             throw new IllegalArgumentException("id not provided");
-        ContentValues contentValues = new ContentValues();
+        ContentValues contentValues = createContentValues(location);
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ensureBoundsTable(database);
+            if (P2PUtil.checkIfExistsById(STRUCTURE_TABLE, location.getId(), database)) {
+                int maxRowId = P2PUtil.getMaxRowId(STRUCTURE_TABLE, database);
+                contentValues.put(ROWID, ++maxRowId);
+            }
 
-        if (P2PUtil.checkIfExistsById(STRUCTURE_TABLE, location.getId(), getWritableDatabase())) {
-            int maxRowId = P2PUtil.getMaxRowId(STRUCTURE_TABLE, getWritableDatabase());
-            contentValues.put(ROWID, ++maxRowId);
+            // the rowid of a structure saved again changes, its bounds are saved again with the new one
+            database.execSQL("DELETE FROM " + STRUCTURE_BOUNDS_TABLE + " WHERE " + ID + " = (SELECT " + ROWID + " FROM " +
+                    STRUCTURE_TABLE + " WHERE " + ID + " = ?)", new Object[]{location.getId()});
+            long rowId = database.replace(getLocationTableName(), null, contentValues);
+            if (rowId != -1) {
+                saveBounds(database, rowId, getBounds(location.getGeometry()));
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
         }
+    }
 
+    private ContentValues createContentValues(Location location) {
+        ContentValues contentValues = new ContentValues();
         contentValues.put(ID, location.getId());
         contentValues.put(UUID, location.getProperties().getUid());
         contentValues.put(PARENT_ID, location.getProperties().getParentId());
@@ -128,8 +213,234 @@ public class StructureRepository extends LocationRepository {
             contentValues.put(LATITUDE, center.getLatitude());
             contentValues.put(LONGITUDE, center.getLongitude());
         }
-        getWritableDatabase().replace(getLocationTableName(), null, contentValues);
+        return contentValues;
+    }
+
+    /**
+     * Get the structures whose bounding boxes overlap a bounding box
+     *
+     * @return the structures found, read without parsing the structures outside the box
+     */
+    public List<Location> getStructuresInBounds(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+        Cursor cursor = null;
+        List<Location> structures = new ArrayList<>();
+        try {
+            ensureBoundsTable(getWritableDatabase());
+            cursor = getReadableDatabase().rawQuery("SELECT s.* FROM " + STRUCTURE_TABLE + " s JOIN " + STRUCTURE_BOUNDS_TABLE +
+                            " b ON s." + ROWID + " = b." + ID + " WHERE b." + MAX_LONGITUDE + " >= ? AND b." + MIN_LONGITUDE +
+                            " <= ? AND b." + MAX_LATITUDE + " >= ? AND b." + MIN_LATITUDE + " <= ?",
+                    new Object[]{minLongitude, maxLongitude, minLatitude, maxLatitude});
+            while (cursor.moveToNext()) {
+                structures.add(readCursor(cursor));
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return structures;
+    }
+
+    /**
+     * Get the structures nearest a point, nearest first, by the distance from the point to their bounding boxes
+     *
+     * @param limit the structures to get
+     */
+    public List<Location> getNearestStructures(double latitude, double longitude, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        try {
+            ensureBoundsTable(getWritableDatabase());
+            // a degree of longitude is shorter than a degree of latitude away from the equator
+            double longitudeScale = Math.max(Math.cos(Math.toRadians(latitude)), 0.01);
+            double radius = NEAREST_SEARCH_RADIUS;
+            while (true) {
+                Map<Long, Double> distances = getBoundsDistances(latitude, longitude, longitudeScale, radius);
+                List<Long> rowIds = new ArrayList<>(distances.keySet());
+                Collections.sort(rowIds, (a, b) -> Double.compare(distances.get(a), distances.get(b)));
+                if (rowIds.size() >= limit) {
+                    double distance = distances.get(rowIds.get(limit - 1));
+                    // a structure outside the box searched may be nearer than the furthest one found
+                    if (distance > radius) {
+                        radius = distance;
+                        continue;
+                    }
+                    return getStructuresByRowIds(rowIds.subList(0, limit));
+                } else if (radius >= 180) {
+                    return getStructuresByRowIds(rowIds);
+                }
+                radius = Math.min(radius * 4, 180);
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Rebuilds the bounding boxes of the structures from their geometries
+     */
+    public void rebuildStructureBounds() {
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            createBoundsTable(database);
+            rebuildStructureBounds(database);
+            boundsTableCreated = true;
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static void rebuildStructureBounds(SQLiteDatabase database) {
+        database.execSQL("DELETE FROM " + STRUCTURE_BOUNDS_TABLE);
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT " + ROWID + ", " + GEOJSON + " FROM " + STRUCTURE_TABLE, null);
+            while (cursor != null && cursor.moveToNext()) {
+                Location structure = gson.fromJson(cursor.getString(1), Location.class);
+                saveBounds(database, cursor.getLong(0), structure != null ? getBounds(structure.getGeometry()) : null);
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    /**
+     * Creates the bounds table the first time it is used with a database that was not upgraded with
+     * {@link #addBoundsTable(SQLiteDatabase)}, it is filled in the background so writes do not parse every structure
+     */
+    private void ensureBoundsTable(SQLiteDatabase database) {
+        if (boundsTableCreated) {
+            return;
+        }
+        Cursor cursor = null;
+        boolean exists;
+        try {
+            cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                    new String[]{STRUCTURE_BOUNDS_TABLE});
+            exists = cursor != null && cursor.getCount() > 0;
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        if (!exists) {
+            createBoundsTable(database);
+            getAppExecutors().diskIO().execute(() -> {
+                try {
+                    rebuildStructureBounds();
+                } catch (Exception e) {
+                    Timber.e(e, "Error filling the structure bounds");
+                }
+            });
+        }
+        boundsTableCreated = true;
+    }
 
+    private AppExecutors getAppExecutors() {
+        if (appExecutors == null) {
+            appExecutors = new AppExecutors();
+        }
+        return appExecutors;
+    }
+
+    @VisibleForTesting
+    void setAppExecutors(AppExecutors appExecutors) {
+        this.appExecutors = appExecutors;
+    }
+
+    private static void saveBounds(SQLiteDatabase database, long rowId, double[] bounds) {
+        if (bounds == null) {
+            return;
+        }
+        database.execSQL("INSERT OR REPLACE INTO " + STRUCTURE_BOUNDS_TABLE + " (" + ID + ", " + MIN_LONGITUDE + ", " +
+                        MAX_LONGITUDE + ", " + MIN_LATITUDE + ", " + MAX_LATITUDE + ") VALUES (?, ?, ?, ?, ?)",
+                new Object[]{rowId, bounds[0], bounds[1], bounds[2], bounds[3]});
+    }
+
+    /**
+     * @return the distance of the bounding boxes in a box around the point, in degrees of latitude, by structure rowid
+     */
+    private Map<Long, Double> getBoundsDistances(double latitude, double longitude, double longitudeScale, double radius) {
+        Map<Long, Double> distances = new HashMap<>();
+        double longitudeRadius = radius / longitudeScale;
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery("SELECT " + ID + ", " + MIN_LONGITUDE + ", " + MAX_LONGITUDE + ", " +
+                            MIN_LATITUDE + ", " + MAX_LATITUDE + " FROM " + STRUCTURE_BOUNDS_TABLE + " WHERE " + BOUNDS_CONDITION,
+                    new Object[]{longitude - longitudeRadius, longitude + longitudeRadius, latitude - radius, latitude + radius});
+            while (cursor.moveToNext()) {
+                double dx = (Math.max(0, Math.max(cursor.getDouble(1) - longitude, longitude - cursor.getDouble(2)))) * longitudeScale;
+                double dy = Math.max(0, Math.max(cursor.getDouble(3) - latitude, latitude - cursor.getDouble(4)));
+                distances.put(cursor.getLong(0), Math.sqrt(dx * dx + dy * dy));
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return distances;
+    }
+
+    private List<Location> getStructuresByRowIds(List<Long> rowIds) {
+        List<Location> structures = new ArrayList<>();
+        if (rowIds.isEmpty()) {
+            return structures;
+        }
+        Map<Long, Location> structuresByRowId = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery("SELECT " + ROWID + ", * FROM " + STRUCTURE_TABLE + " WHERE " + ROWID +
+                    " IN (" + StringUtils.repeat("?", ",", rowIds.size()) + ")", rowIds.toArray());
+            while (cursor.moveToNext()) {
+                structuresByRowId.put(cursor.getLong(0), readCursor(cursor));
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        for (Long rowId : rowIds) {
+            Location structure = structuresByRowId.get(rowId);
+            if (structure != null) {
+                structures.add(structure);
+            }
+        }
+        return structures;
+    }
+
+    /**
+     * @return the bounding box of the geometry as min longitude, max longitude, min latitude and max latitude,
+     * null if it has no coordinates
+     */
+    @VisibleForTesting
+    @Nullable
+    static double[] getBounds(@Nullable Geometry geometry) {
+        if (geometry == null || geometry.getCoordinates() == null) {
+            return null;
+        }
+        double[] bounds = {Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+        addBounds(geometry.getCoordinates(), bounds);
+        return bounds[0] <= bounds[1] ? bounds : null;
+    }
+
+    private static void addBounds(JsonArray coordinates, double[] bounds) {
+        if (coordinates.size() >= 2 && coordinates.get(0).isJsonPrimitive()) {
+            double longitude = coordinates.get(0).getAsDouble();
+            double latitude = coordinates.get(1).getAsDouble();
+            bounds[0] = Math.min(bounds[0], longitude);
+            bounds[1] = Math.max(bounds[1], longitude);
+            bounds[2] = Math.min(bounds[2], latitude);
+            bounds[3] = Math.max(bounds[3], latitude);
+            return;
+        }
+        for (JsonElement element : coordinates) {
+            if (element.isJsonArray()) {
+                addBounds(element.getAsJsonArray(), bounds);
+            }
+        }
     }
 
     public void setHelper(MappingHelper helper) {
@@ -140,24 +451,114 @@ public class StructureRepository extends LocationRepository {
         if (array == null || array.length() == 0) {
             return false;
         }
+        try {
+            List<Location> structures = LocationServiceHelper.locationGson.fromJson(array.toString(), new TypeToken<List<Location>>() {
+            }.getType());
+            return batchInsertStructures(structures);
+        } catch (Exception e) {
+            Timber.e(e, "EXCEPTION %s", e.toString());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean batchInsertLocations(List<Location> locations) {
+        return batchInsertStructures(locations);
+    }
+
+    /**
+     * Adds or updates structures and their bounds in one transaction
+     *
+     * @return true if all the structures were saved, false if none were saved
+     */
+    public boolean batchInsertStructures(List<Location> structures) {
+        if (structures == null || structures.isEmpty()) {
+            return false;
+        }
 
+        SQLiteDatabase database = getWritableDatabase();
+        SQLiteStatement structureStatement = null;
+        SQLiteStatement deleteBoundsStatement = null;
+        SQLiteStatement boundsStatement = null;
         try {
-            getWritableDatabase().beginTransaction();
+            database.beginTransaction();
+            ensureBoundsTable(database);
+            structureStatement = database.compileStatement(getInsertOrReplaceSql(STRUCTURE_TABLE, BATCH_COLUMNS));
+            deleteBoundsStatement = database.compileStatement("DELETE FROM " + STRUCTURE_BOUNDS_TABLE + " WHERE " + ID + " = ?");
+            boundsStatement = database.compileStatement(getInsertOrReplaceSql(STRUCTURE_BOUNDS_TABLE, BOUNDS_COLUMNS));
+
+            Map<String, Long> rowIds = getRowIds(database, structures);
+            int maxRowId = rowIds.isEmpty() ? 0 : P2PUtil.getMaxRowId(STRUCTURE_TABLE, database);
+            ContentValues boundsValues = new ContentValues();
+            for (Location structure : structures) {
+                if (structure == null) {
+                    continue;
+                }
+                if (StringUtils.isBlank(structure.getId()))
+                    throw new IllegalArgumentException("id not provided");
+                ContentValues contentValues = createContentValues(structure);
+                Long existingRowId = rowIds.get(structure.getId());
+                if (existingRowId != null) {
+                    deleteBoundsStatement.bindLong(1, existingRowId);
+                    deleteBoundsStatement.executeUpdateDelete();
+                    // an updated structure is moved to the end of the table for peer to peer sync
+                    contentValues.put(ROWID, ++maxRowId);
+                }
 
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject jsonObject = array.getJSONObject(i);
-                Location structure = LocationServiceHelper.locationGson.fromJson(jsonObject.toString(), Location.class);
-                addOrUpdate(structure);
+                bindValues(structureStatement, BATCH_COLUMNS, contentValues);
+                long rowId = structureStatement.executeInsert();
+                maxRowId = Math.max(maxRowId, (int) rowId);
+                rowIds.put(structure.getId(), rowId);
+
+                double[] bounds = getBounds(structure.getGeometry());
+                if (bounds != null) {
+                    boundsValues.put(ID, rowId);
+                    boundsValues.put(MIN_LONGITUDE, bounds[0]);
+                    boundsValues.put(MAX_LONGITUDE, bounds[1]);
+                    boundsValues.put(MIN_LATITUDE, bounds[2]);
+                    boundsValues.put(MAX_LATITUDE, bounds[3]);
+                    bindValues(boundsStatement, BOUNDS_COLUMNS, boundsValues);
+                    boundsStatement.executeInsert();
+                }
             }
 
-            getWritableDatabase().setTransactionSuccessful();
-            getWritableDatabase().endTransaction();
+            database.setTransactionSuccessful();
             return true;
         } catch (Exception e) {
             Timber.e(e, "EXCEPTION %s", e.toString());
-            getWritableDatabase().endTransaction();
             return false;
+        } finally {
+            if (structureStatement != null)
+                structureStatement.close();
+            if (deleteBoundsStatement != null)
+                deleteBoundsStatement.close();
+            if (boundsStatement != null)
+                boundsStatement.close();
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * @return the rowids of the structures already saved, by id
+     */
+    private Map<String, Long> getRowIds(SQLiteDatabase database, List<Location> structures) {
+        List<String> ids = new ArrayList<>();
+        for (Location structure : structures) {
+            if (structure != null && StringUtils.isNotBlank(structure.getId())) {
+                ids.add(structure.getId());
+            }
+        }
+        Map<String, Long> rowIds = new HashMap<>();
+        for (int start = 0; start < ids.size(); start += IN_CLAUSE_PAGE_SIZE) {
+            List<String> page = ids.subList(start, Math.min(ids.size(), start + IN_CLAUSE_PAGE_SIZE));
+            try (Cursor cursor = database.rawQuery("SELECT " + ID + ", " + ROWID + " FROM " + STRUCTURE_TABLE +
+                    " WHERE " + ID + " IN (" + insertPlaceholdersForInClause(page.size()) + ")", page.toArray(new String[0]))) {
+                while (cursor != null && cursor.moveToNext()) {
+                    rowIds.put(cursor.getString(0), cursor.getLong(1));
+                }
+            }
         }
+        return rowIds;
     }
 
     /**
@@ -4,6 +4,7 @@ import android.content.ContentValues;
 
 import net.sqlcipher.Cursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.apache.commons.lang3.StringUtils;
 import org.smartregister.domain.Note;
@@ -41,7 +42,21 @@ public class TaskNotesRepository extends BaseRepository {
         database.execSQL(CREATE_TASK_NOTE_TABLE);
     }
 
+    protected static final String INSERT_OR_REPLACE_NOTE_SQL = getInsertOrReplaceSql(TASK_NOTES_TABLE, COLUMNS);
+
     public void addOrUpdate(Note note, String taskId) {
+        getWritableDatabase().replace(TASK_NOTES_TABLE, null, createContentValues(note, taskId));
+    }
+
+    /**
+     * Adds or updates a note with a statement compiled from {@link #INSERT_OR_REPLACE_NOTE_SQL}, for saving the notes of many tasks
+     */
+    protected static void addOrUpdate(SQLiteStatement statement, Note note, String taskId) {
+        bindValues(statement, COLUMNS, createContentValues(note, taskId));
+        statement.executeInsert();
+    }
+
+    private static ContentValues createContentValues(Note note, String taskId) {
         if (StringUtils.isBlank(taskId)) {
             throw new IllegalArgumentException("taskId must be specified");
         }
@@ -50,7 +65,7 @@ public class TaskNotesRepository extends BaseRepository {
         contentValues.put(AUTHOR, note.getAuthorString());
         contentValues.put(TIME, note.getTime().getMillis());
         contentValues.put(TEXT, note.getText());
-        getWritableDatabase().replace(TASK_NOTES_TABLE, null, contentValues);
+        return contentValues;
     }
 
     public List<Note> getNotesByTask(String taskId) {
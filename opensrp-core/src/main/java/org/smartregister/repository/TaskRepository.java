@@ -7,6 +7,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.util.Consumer;
 
+import com.google.gson.reflect.TypeToken;
+
 import net.sqlcipher.Cursor;
 import net.sqlcipher.SQLException;
 import net.sqlcipher.database.SQLiteDatabase;
@@ -143,7 +145,7 @@ public class TaskRepository extends BaseRepository {
         if (StringUtils.isBlank(task.getIdentifier())) {
             throw new IllegalArgumentException("identifier must be specified");
         }
-        ContentValues contentValues = new ContentValues();
+        ContentValues contentValues = createContentValues(task);
 
         Task existingTask = getTaskByIdentifier(task.getIdentifier());
         if (existingTask != null) {
@@ -154,6 +156,22 @@ public class TaskRepository extends BaseRepository {
             contentValues.put(ROWID, ++maxRowId);
         }
 
+        if (updateOnly) {
+            getWritableDatabase().update(TASK_TABLE, contentValues, ID + " =?", new String[]{task.getIdentifier()});
+        } else {
+            getWritableDatabase().replace(TASK_TABLE, null, contentValues);
+        }
+
+        if (task.getNotes() != null) {
+            for (Note note : task.getNotes())
+                taskNotesRepository.addOrUpdate(note, task.getIdentifier());
+        }
+
+        return task;
+    }
+
+    private ContentValues createContentValues(Task task) {
+        ContentValues contentValues = new ContentValues();
         contentValues.put(ID, task.getIdentifier());
         contentValues.put(PLAN_ID, task.getPlanIdentifier());
         contentValues.put(GROUP_ID, task.getGroupIdentifier());
@@ -190,19 +208,7 @@ public class TaskRepository extends BaseRepository {
                 contentValues.put(RESTRICTION_END, DateUtil.getMillis(task.getRestriction().getPeriod().getEnd()));
             }
         }
-
-        if (updateOnly) {
-            getWritableDatabase().update(TASK_TABLE, contentValues, ID + " =?", new String[]{task.getIdentifier()});
-        } else {
-            getWritableDatabase().replace(TASK_TABLE, null, contentValues);
-        }
-
-        if (task.getNotes() != null) {
-            for (Note note : task.getNotes())
-                taskNotesRepository.addOrUpdate(note, task.getIdentifier());
-        }
-
-        return task;
+        return contentValues;
     }
 
     public Map<String, Set<Task>> getTasksByPlanAndGroup(String planId, String groupId) {
@@ -555,24 +561,104 @@ public class TaskRepository extends BaseRepository {
         if (array == null || array.length() == 0) {
             return false;
         }
+        try {
+            List<Task> tasks = TaskServiceHelper.taskGson.fromJson(array.toString(), new TypeToken<List<Task>>() {
+            }.getType());
+            return batchInsertTasks(tasks);
+        } catch (Exception e) {
+            Timber.e(e, "EXCEPTION %s", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Adds or updates tasks and their notes in one transaction, skipping the tasks saved with a later last
+     * modified date, as {@link #addOrUpdate(Task)} does
+     *
+     * @return true if all the tasks were saved or skipped, false if none were saved
+     */
+    public boolean batchInsertTasks(List<Task> tasks) {
+        if (tasks == null || tasks.isEmpty()) {
+            return false;
+        }
 
+        SQLiteDatabase database = getWritableDatabase();
+        SQLiteStatement taskStatement = null;
+        SQLiteStatement noteStatement = null;
         try {
-            getWritableDatabase().beginTransaction();
+            database.beginTransaction();
+            taskStatement = database.compileStatement(getInsertOrReplaceSql(TASK_TABLE, COLUMNS));
 
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject jsonObject = array.getJSONObject(i);
-                Task task = TaskServiceHelper.taskGson.fromJson(jsonObject.toString(), Task.class);
-                addOrUpdate(task);
+            Map<String, Long> lastModifiedDates = getLastModifiedDates(database, tasks);
+            int maxRowId = lastModifiedDates.isEmpty() ? 0 : P2PUtil.getMaxRowId(TASK_TABLE, database);
+            for (Task task : tasks) {
+                if (task == null) {
+                    continue;
+                }
+                if (StringUtils.isBlank(task.getIdentifier())) {
+                    throw new IllegalArgumentException("identifier must be specified");
+                }
+                ContentValues contentValues = createContentValues(task);
+                Long lastModified = contentValues.getAsLong(LAST_MODIFIED);
+                if (lastModifiedDates.containsKey(task.getIdentifier())) {
+                    Long existingLastModified = lastModifiedDates.get(task.getIdentifier());
+                    if (existingLastModified != null && existingLastModified > (lastModified != null ? lastModified : System.currentTimeMillis())) {
+                        continue;
+                    }
+                    // an updated task is moved to the end of the table for peer to peer sync
+                    contentValues.put(ROWID, ++maxRowId);
+                }
+
+                bindValues(taskStatement, COLUMNS, contentValues);
+                long rowId = taskStatement.executeInsert();
+                maxRowId = Math.max(maxRowId, (int) rowId);
+                lastModifiedDates.put(task.getIdentifier(), lastModified);
+
+                if (task.getNotes() != null && !task.getNotes().isEmpty()) {
+                    if (noteStatement == null) {
+                        noteStatement = database.compileStatement(TaskNotesRepository.INSERT_OR_REPLACE_NOTE_SQL);
+                    }
+                    for (Note note : task.getNotes()) {
+                        TaskNotesRepository.addOrUpdate(noteStatement, note, task.getIdentifier());
+                    }
+                }
             }
 
-            getWritableDatabase().setTransactionSuccessful();
-            getWritableDatabase().endTransaction();
+            database.setTransactionSuccessful();
             return true;
         } catch (Exception e) {
             Timber.e(e, "EXCEPTION %s", e.toString());
-            getWritableDatabase().endTransaction();
             return false;
+        } finally {
+            if (taskStatement != null)
+                taskStatement.close();
+            if (noteStatement != null)
+                noteStatement.close();
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * @return the last modified dates of the tasks already saved, by identifier
+     */
+    private Map<String, Long> getLastModifiedDates(SQLiteDatabase database, List<Task> tasks) {
+        List<String> identifiers = new ArrayList<>();
+        for (Task task : tasks) {
+            if (task != null && StringUtils.isNotBlank(task.getIdentifier())) {
+                identifiers.add(task.getIdentifier());
+            }
+        }
+        Map<String, Long> lastModifiedDates = new HashMap<>();
+        for (int start = 0; start < identifiers.size(); start += IN_CLAUSE_PAGE_SIZE) {
+            List<String> page = identifiers.subList(start, Math.min(identifiers.size(), start + IN_CLAUSE_PAGE_SIZE));
+            try (Cursor cursor = database.rawQuery("SELECT " + ID + ", " + LAST_MODIFIED + " FROM " + TASK_TABLE +
+                    " WHERE " + ID + " IN (" + insertPlaceholdersForInClause(page.size()) + ")", page.toArray(new String[0]))) {
+                while (cursor != null && cursor.moveToNext()) {
+                    lastModifiedDates.put(cursor.getString(0), cursor.isNull(1) ? null : cursor.getLong(1));
+                }
+            }
         }
+        return lastModifiedDates;
     }
 
     /**
@@ -117,6 +117,18 @@ public class AlertService {
 
     }
 
+    /**
+     * Writes the alerts of all cases to the search tables again e.g. after the search tables are rebuilt
+     */
+    public void updateFtsSearchOfAllAlerts() {
+        if (commonFtsObject == null || allCommonsRepositoryMap == null) {
+            return;
+        }
+        for (Alert alert : repository.allAlerts()) {
+            updateFtsSearch(alert, false);
+        }
+    }
+
     public void updateFtsSearch(Alert alert, boolean statusChange) {
         try {
             if (commonFtsObject != null && allCommonsRepositoryMap != null) {
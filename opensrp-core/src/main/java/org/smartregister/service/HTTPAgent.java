@@ -38,6 +38,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.smartregister.AllConstants;
 import org.smartregister.CoreLibrary;
 import org.smartregister.DristhiConfiguration;
+import org.smartregister.SyncConfiguration;
 import org.smartregister.account.AccountAuthenticatorXml;
 import org.smartregister.account.AccountConfiguration;
 import org.smartregister.account.AccountError;
@@ -60,6 +61,7 @@ import org.smartregister.util.Utils;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -72,6 +74,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
@@ -81,8 +84,11 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -155,6 +161,7 @@ public class HTTPAgent {
         try {
 
             HttpURLConnection urlConnection = initializeHttp(requestURLPath, true);
+            acceptGzipResponse(urlConnection);
 
             int responseCode = urlConnection.getResponseCode();
 
@@ -166,6 +173,7 @@ public class HTTPAgent {
                 invalidateExpiredCachedAccessToken();
 
                 urlConnection = initializeHttp(requestURLPath, true);
+                acceptGzipResponse(urlConnection);
 
             }
 
@@ -177,6 +185,76 @@ public class HTTPAgent {
         }
     }
 
+    /**
+     * Fetches a resource and passes the response body to the {@link ResponseStreamHandler} while the connection is open
+     *
+     * @param requestURLPath the url of the resource
+     * @param handler        reads the response body
+     * @return a response whose payload is the value returned by the handler
+     */
+    public <T> Response<T> fetchStream(String requestURLPath, @NonNull ResponseStreamHandler<T> handler) {
+        try {
+
+            HttpURLConnection urlConnection = initializeHttp(requestURLPath, true);
+            acceptGzipResponse(urlConnection);
+
+            int responseCode = urlConnection.getResponseCode();
+
+            allSharedPreferences.updateLastAuthenticationHttpStatus(responseCode);
+
+            //If unauthorized invalidate cache of old token retry
+            if (HttpURLConnection.HTTP_UNAUTHORIZED == responseCode) {
+
+                invalidateExpiredCachedAccessToken();
+
+                urlConnection = initializeHttp(requestURLPath, true);
+                acceptGzipResponse(urlConnection);
+
+            }
+
+            return processStreamResponse(urlConnection, handler);
+
+        } catch (IOException | URISyntaxException exception) {
+            Timber.e(exception, "EXCEPTION %s", exception.toString());
+            return new Response<>(ResponseStatus.failure, null);
+        }
+    }
+
+    /**
+     * Posts the payload and passes the response body to the {@link ResponseStreamHandler} while the connection is open
+     *
+     * @param postURLPath the url to post to
+     * @param jsonPayload the request body
+     * @param handler     reads the response body
+     * @return a response whose payload is the value returned by the handler
+     */
+    public <T> Response<T> postStream(String postURLPath, String jsonPayload, @NonNull ResponseStreamHandler<T> handler) {
+        logResponse(postURLPath, jsonPayload);
+        try {
+
+            HttpURLConnection urlConnection = generatePostRequest(postURLPath, jsonPayload);
+
+            int responseCode = urlConnection.getResponseCode();
+
+            allSharedPreferences.updateLastAuthenticationHttpStatus(responseCode);
+
+            //If unauthorized invalidate cache of old token retry
+            if (HttpURLConnection.HTTP_UNAUTHORIZED == responseCode) {
+
+                invalidateExpiredCachedAccessToken();
+
+                urlConnection = generatePostRequest(postURLPath, jsonPayload);
+
+            }
+
+            return processStreamResponse(urlConnection, handler);
+
+        } catch (IOException | URISyntaxException exception) {
+            Timber.e(exception, "EXCEPTION: %s", exception.toString());
+            return new Response<>(ResponseStatus.failure, null);
+        }
+    }
+
     public void invalidateExpiredCachedAccessToken() {
         AccountAuthenticatorXml authenticatorXml = CoreLibrary.getInstance().getAccountAuthenticatorXml();
         String authToken = AccountHelper.getCachedOAuthToken(allSharedPreferences.fetchRegisteredANM(), authenticatorXml.getAccountType(), AccountHelper.TOKEN_TYPE.PROVIDER);
@@ -221,6 +299,7 @@ public class HTTPAgent {
         urlConnection.setRequestMethod("POST");
         urlConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
         urlConnection.setRequestProperty("Content-Encoding", "gzip");
+        acceptGzipResponse(urlConnection);
 
         byte[] content = gzipCompression.compress(jsonPayload);
         urlConnection.setFixedLengthStreamingMode(content.length);
@@ -237,6 +316,82 @@ public class HTTPAgent {
         return urlConnection;
     }
 
+    /**
+     * Posts a request body that is gzip compressed while the {@link RequestStreamWriter} writes it,
+     * using chunked transfer so that neither the body nor its compressed bytes are held in memory
+     *
+     * @param postURLPath   the url to post to
+     * @param requestWriter writes the json request body, called again if the request is retried
+     * @return the response
+     */
+    public Response<String> postStream(String postURLPath, @NonNull RequestStreamWriter requestWriter) {
+        HttpURLConnection urlConnection;
+        try {
+
+            urlConnection = generateStreamingPostRequest(postURLPath, requestWriter);
+
+            int responseCode = urlConnection.getResponseCode();
+
+            allSharedPreferences.updateLastAuthenticationHttpStatus(responseCode);
+
+            //If unauthorized invalidate cache of old token retry
+            if (HttpURLConnection.HTTP_UNAUTHORIZED == responseCode) {
+
+                invalidateExpiredCachedAccessToken();
+
+                urlConnection = generateStreamingPostRequest(postURLPath, requestWriter);
+
+            }
+
+            return processResponse(urlConnection);
+
+        } catch (IOException | URISyntaxException exception) {
+            Timber.e(exception, "EXCEPTION: %s", exception.toString());
+            return new Response<>(ResponseStatus.failure, null);
+        }
+    }
+
+    @NonNull
+    @VisibleForTesting
+    protected HttpURLConnection generateStreamingPostRequest(String postURLPath, @NonNull RequestStreamWriter requestWriter) throws IOException, URISyntaxException {
+        HttpURLConnection urlConnection = initializeHttp(postURLPath, true);
+
+        urlConnection.setDoOutput(true);
+        urlConnection.setRequestMethod("POST");
+        urlConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        urlConnection.setRequestProperty("Content-Encoding", "gzip");
+        acceptGzipResponse(urlConnection);
+        urlConnection.setChunkedStreamingMode(0);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(urlConnection.getOutputStream()), StandardCharsets.UTF_8))) {
+            requestWriter.write(writer);
+        }
+
+        urlConnection.connect();
+        return urlConnection;
+    }
+
+    /**
+     * Asks for a gzip compressed response when the app opted in to compressed push, see
+     * {@link SyncConfiguration#isStreamEventClientPush()}
+     */
+    private void acceptGzipResponse(HttpURLConnection urlConnection) {
+        SyncConfiguration syncConfiguration = CoreLibrary.getInstance().getSyncConfiguration();
+        if (syncConfiguration != null && syncConfiguration.isStreamEventClientPush()) {
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+    }
+
+    /**
+     * Returns the response body, decompressing it if the server gzip compressed it
+     */
+    private InputStream getResponseStream(HttpURLConnection urlConnection, InputStream inputStream) throws IOException {
+        if (inputStream != null && "gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            return new GZIPInputStream(inputStream);
+        }
+        return inputStream;
+    }
+
     public Response<String> postWithJsonResponse(String postURLPath, String jsonPayload) {
         logResponse(postURLPath, jsonPayload);
         return post(postURLPath, jsonPayload);
@@ -351,7 +506,9 @@ public class HTTPAgent {
             else
                 inputStream = urlConnection.getInputStream();
 
-            responseString = IOUtils.toString(inputStream);
+            try (InputStream responseStream = getResponseStream(urlConnection, inputStream)) {
+                responseString = responseStream != null ? IOUtils.toString(responseStream, StandardCharsets.UTF_8) : null;
+            }
 
             totalRecords = urlConnection.getHeaderField(AllConstants.SyncProgressConstants.TOTAL_RECORDS);
 
@@ -375,6 +532,44 @@ public class HTTPAgent {
                 .withTotalRecords(Utils.tryParseLong(totalRecords, 0));
     }
 
+    private <T> Response<T> processStreamResponse(HttpURLConnection urlConnection, ResponseStreamHandler<T> handler) {
+        InputStream inputStream = null;
+        T payload;
+        String totalRecords;
+        try {
+            int statusCode = urlConnection.getResponseCode();
+
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                inputStream = getResponseStream(urlConnection, urlConnection.getErrorStream());
+                Timber.e("Bad response status code %d using url %s: %s", statusCode, urlConnection.getURL(),
+                        inputStream != null ? IOUtils.toString(inputStream, StandardCharsets.UTF_8) : null);
+                return new Response<>(ResponseStatus.failure, null);
+            }
+
+            totalRecords = urlConnection.getHeaderField(AllConstants.SyncProgressConstants.TOTAL_RECORDS);
+
+            inputStream = new BufferedInputStream(getResponseStream(urlConnection, urlConnection.getInputStream()));
+            payload = handler.handle(inputStream);
+
+        } catch (MalformedURLException exception) {
+            Timber.e(exception, "%s %s", MALFORMED_URL, exception.toString());
+            ResponseStatus.failure.setDisplayValue(ResponseErrorStatus.malformed_url.name());
+            return new Response<>(ResponseStatus.failure, null);
+        } catch (SocketTimeoutException exception) {
+            Timber.e(exception, "%s %s", TIMEOUT, exception.toString());
+            ResponseStatus.failure.setDisplayValue(ResponseErrorStatus.timeout.name());
+            return new Response<>(ResponseStatus.failure, null);
+        } catch (IOException exception) {
+            Timber.e(exception, "%s %s", NO_INTERNET_CONNECTIVITY, exception.toString());
+            return new Response<>(ResponseStatus.failure, null);
+        } finally {
+            closeIOStream(inputStream);
+            closeConnection(urlConnection);
+        }
+        return new Response<>(ResponseStatus.success, payload)
+                .withTotalRecords(Utils.tryParseLong(totalRecords, 0));
+    }
+
 
     /**
      * @param urlString This is the url of the image, TAG,
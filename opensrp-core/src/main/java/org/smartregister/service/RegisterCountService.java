@@ -0,0 +1,341 @@
+package org.smartregister.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.Context;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.event.Listener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+import static org.smartregister.event.Event.ON_LOGOUT;
+import static org.smartregister.event.Event.REGISTER_COUNT_UPDATED;
+
+/**
+ * Caches register counts per (table, main condition, filter).
+ * <p>
+ * Counts are kept up to date as client processing writes register records: whether a record matches the
+ * count shown for its table is looked up by primary key before and after the write, so the count moves by one
+ * instead of being recounted. The other cached counts of the table are marked stale, as are counts for which
+ * whether a record matches can not be told e.g. counts of search results. A stale count is still returned and recounted in the background,
+ * {@link org.smartregister.event.Event#REGISTER_COUNT_UPDATED} is notified with the table name when a count changes.
+ * Counts of tables written outside client processing are marked stale, the counts are dropped on logout.
+ * With a recount delay, a stale count is only recounted once its table has not been written for the delay,
+ * so a count that can not be updated record by record is recounted once a batch of writes ends rather than after every write.
+ */
+public class RegisterCountService {
+
+    private static final int MAX_COUNTS = 50;
+
+    public static final long DEFAULT_RECOUNT_DELAY_MILLIS = 1000;
+
+    private final Context context;
+
+    private final Executor executor;
+
+    private final long recountDelayMillis;
+
+    private long lastChangeMillis;
+
+    private final Map<String, CachedCount> counts = new LinkedHashMap<String, CachedCount>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest) {
+            return size() > MAX_COUNTS;
+        }
+    };
+
+    private final Map<String, CachedCount> activeCounts = new LinkedHashMap<>();
+
+    // the table whose record the current thread is writing between beforeChange and onChanged
+    private final ThreadLocal<String> trackedTable = new ThreadLocal<>();
+
+    // kept as events only hold weak references to their listeners
+    private final Listener<Boolean> logoutListener = data -> clear();
+
+    public RegisterCountService(@NonNull Context context, @NonNull Executor executor) {
+        this(context, executor, 0);
+    }
+
+    /**
+     * @param executor           runs the recounts, a {@link ScheduledExecutorService} to delay them
+     * @param recountDelayMillis how long a table must not be written before its stale counts are recounted
+     */
+    public RegisterCountService(@NonNull Context context, @NonNull Executor executor, long recountDelayMillis) {
+        this.context = context;
+        this.executor = executor;
+        this.recountDelayMillis = executor instanceof ScheduledExecutorService ? Math.max(0, recountDelayMillis) : 0;
+        ON_LOGOUT.addListener(logoutListener);
+    }
+
+    /**
+     * Returns the count, counting with the counter only when the count is not cached yet.
+     * A stale count is returned as it is and recounted in the background.
+     *
+     * @param recordCondition the where clause on the table that the counted records match, used to update
+     *                        the count as records are written. Null if the count can not be told from the
+     *                        records of the table alone, the count is then recounted when the table changes
+     * @param counter         counts the register, must not hold on to views as it is kept to recount
+     */
+    public int getCount(@NonNull String tableName, @Nullable String mainCondition, @Nullable String filter,
+                        @Nullable String recordCondition, @NonNull Callable<Integer> counter) throws Exception {
+        String key = getKey(tableName, mainCondition, filter);
+        CachedCount cachedCount;
+        synchronized (this) {
+            cachedCount = counts.get(key);
+            if (cachedCount != null) {
+                cachedCount.counter = counter;
+                activeCounts.put(tableName, cachedCount);
+                if (cachedCount.stale) {
+                    scheduleRecount(cachedCount);
+                }
+                return cachedCount.count;
+            }
+        }
+
+        int count = counter.call();
+        synchronized (this) {
+            cachedCount = new CachedCount(tableName, recordCondition, counter, count);
+            counts.put(key, cachedCount);
+            activeCounts.put(tableName, cachedCount);
+        }
+        return count;
+    }
+
+    /**
+     * @return the cached count, null if it is not cached
+     */
+    @Nullable
+    public synchronized Integer getCachedCount(@NonNull String tableName, @Nullable String mainCondition, @Nullable String filter) {
+        CachedCount cachedCount = counts.get(getKey(tableName, mainCondition, filter));
+        return cachedCount != null ? cachedCount.count : null;
+    }
+
+    /**
+     * Captures which of the cached counts of the table the record is counted in, call before writing it
+     *
+     * @return the change to pass to {@link #onChanged(Change)} once the record is written,
+     * null if there are no cached counts of the table
+     */
+    @Nullable
+    public Change beforeChange(@NonNull String tableName, @Nullable String entityId) {
+        List<CachedCount> tableCounts = getCachedCounts(tableName);
+        if (tableCounts.isEmpty()) {
+            return null;
+        }
+
+        trackedTable.set(tableName);
+        Change change = new Change(entityId);
+        CachedCount activeCount;
+        synchronized (this) {
+            activeCount = activeCounts.get(tableName);
+        }
+        for (CachedCount cachedCount : tableCounts) {
+            synchronized (this) {
+                cachedCount.version++;
+                cachedCount.pendingChanges++;
+            }
+            change.counts.add(cachedCount);
+            // only the shown count is checked record by record, the others are recounted when shown again
+            change.counted.add(cachedCount == activeCount ? isCounted(cachedCount, entityId) : null);
+        }
+        return change;
+    }
+
+    /**
+     * Updates the counts captured by {@link #beforeChange(String, String)} once the record is written,
+     * must be called even if writing the record fails
+     */
+    public void onChanged(@Nullable Change change) {
+        if (change == null) {
+            return;
+        }
+        trackedTable.remove();
+
+        String updatedTable = null;
+        for (int i = 0; i < change.counts.size(); i++) {
+            CachedCount cachedCount = change.counts.get(i);
+            Boolean countedBefore = change.counted.get(i);
+            Boolean countedAfter = countedBefore != null ? isCounted(cachedCount, change.entityId) : null;
+
+            synchronized (this) {
+                cachedCount.version++;
+                cachedCount.pendingChanges--;
+                lastChangeMillis = System.currentTimeMillis();
+                if (countedBefore == null || countedAfter == null) {
+                    cachedCount.stale = true;
+                    if (activeCounts.get(cachedCount.tableName) == cachedCount) {
+                        scheduleRecount(cachedCount);
+                    }
+                } else if (!countedBefore.equals(countedAfter)) {
+                    cachedCount.count += countedAfter ? 1 : -1;
+                    updatedTable = cachedCount.tableName;
+                }
+            }
+        }
+
+        if (updatedTable != null) {
+            REGISTER_COUNT_UPDATED.notifyListeners(updatedTable);
+        }
+    }
+
+    /**
+     * Marks the cached counts of the table stale e.g. after its records are written outside client processing
+     */
+    public void invalidate(@NonNull String tableName) {
+        for (CachedCount cachedCount : getCachedCounts(tableName)) {
+            synchronized (this) {
+                cachedCount.version++;
+                cachedCount.stale = true;
+                lastChangeMillis = System.currentTimeMillis();
+                if (activeCounts.get(tableName) == cachedCount) {
+                    scheduleRecount(cachedCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called after records of the table are written, marks the cached counts of the table stale unless
+     * the write is tracked by {@link #beforeChange(String, String)} on the current thread
+     */
+    public void onTableWritten(@NonNull String tableName) {
+        if (!tableName.equals(trackedTable.get())) {
+            invalidate(tableName);
+        }
+    }
+
+    public synchronized void clear() {
+        counts.clear();
+        activeCounts.clear();
+    }
+
+    private synchronized List<CachedCount> getCachedCounts(String tableName) {
+        List<CachedCount> tableCounts = new ArrayList<>();
+        for (CachedCount cachedCount : counts.values()) {
+            if (cachedCount.tableName.equals(tableName)) {
+                tableCounts.add(cachedCount);
+            }
+        }
+        return tableCounts;
+    }
+
+    @Nullable
+    private Boolean isCounted(CachedCount cachedCount, @Nullable String entityId) {
+        if (cachedCount.recordCondition == null || entityId == null) {
+            return null;
+        }
+        CommonRepository commonRepository = context.commonrepository(cachedCount.tableName);
+        return commonRepository != null ? commonRepository.matchesCondition(entityId, cachedCount.recordCondition) : null;
+    }
+
+    private void scheduleRecount(final CachedCount cachedCount) {
+        if (cachedCount.recounting) {
+            return;
+        }
+        cachedCount.recounting = true;
+        submitRecount(cachedCount, recountDelayMillis);
+    }
+
+    private void submitRecount(final CachedCount cachedCount, long delayMillis) {
+        Runnable recount = () -> recount(cachedCount);
+        if (delayMillis > 0) {
+            ((ScheduledExecutorService) executor).schedule(recount, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            executor.execute(recount);
+        }
+    }
+
+    private void recount(final CachedCount cachedCount) {
+        Callable<Integer> counter;
+        long version;
+        synchronized (this) {
+            long quietMillis = System.currentTimeMillis() - lastChangeMillis;
+            if (quietMillis < recountDelayMillis) {
+                // still being written, wait for the writes to stop
+                submitRecount(cachedCount, recountDelayMillis - quietMillis);
+                return;
+            }
+            counter = cachedCount.counter;
+            version = cachedCount.version;
+        }
+        Integer count = null;
+        try {
+            count = counter.call();
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+
+        boolean updated = false;
+        synchronized (this) {
+            cachedCount.recounting = false;
+            if (count != null && version == cachedCount.version && cachedCount.pendingChanges == 0) {
+                updated = cachedCount.count != count;
+                cachedCount.count = count;
+                cachedCount.stale = false;
+            } else if (count != null && activeCounts.get(cachedCount.tableName) == cachedCount) {
+                // records were written while counting
+                scheduleRecount(cachedCount);
+            }
+        }
+        if (updated) {
+            REGISTER_COUNT_UPDATED.notifyListeners(cachedCount.tableName);
+        }
+    }
+
+    private static String getKey(String tableName, String mainCondition, String filter) {
+        return tableName + '\u0000' + StringUtils.defaultString(mainCondition) + '\u0000' + StringUtils.defaultString(filter);
+    }
+
+    /**
+     * The cached counts a record was counted in before it was written
+     */
+    public static class Change {
+
+        private final String entityId;
+
+        private final List<CachedCount> counts = new ArrayList<>();
+
+        private final List<Boolean> counted = new ArrayList<>();
+
+        private Change(String entityId) {
+            this.entityId = entityId;
+        }
+    }
+
+    private static class CachedCount {
+
+        private final String tableName;
+
+        private final String recordCondition;
+
+        private Callable<Integer> counter;
+
+        private int count;
+
+        private boolean stale;
+
+        private boolean recounting;
+
+        private long version;
+
+        private int pendingChanges;
+
+        private CachedCount(String tableName, String recordCondition, Callable<Integer> counter, int count) {
+            this.tableName = tableName;
+            this.recordCondition = recordCondition;
+            this.counter = counter;
+            this.count = count;
+        }
+    }
+}
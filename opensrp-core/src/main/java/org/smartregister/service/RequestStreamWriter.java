@@ -0,0 +1,17 @@
+package org.smartregister.service;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a request body straight to the connection, see {@link HTTPAgent#postStream(String, RequestStreamWriter)}
+ */
+public interface RequestStreamWriter {
+
+    /**
+     * @param writer the request body, it is closed by the caller
+     */
+    void write(@NonNull Writer writer) throws IOException;
+}
@@ -0,0 +1,20 @@
+package org.smartregister.service;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes the body of a successful http response while the connection is still open.
+ * <p>
+ * Used by {@link HTTPAgent#fetchStream(String, ResponseStreamHandler)} and
+ * {@link HTTPAgent#postStream(String, String, ResponseStreamHandler)} so that large payloads
+ * can be processed without first being read into a String
+ *
+ * @param <T> the type of the value produced from the response body
+ */
+public interface ResponseStreamHandler<T> {
+
+    T handle(@NonNull InputStream inputStream) throws IOException;
+}
@@ -33,6 +33,7 @@ import org.smartregister.domain.jsonmapping.User;
 import org.smartregister.domain.jsonmapping.util.LocationTree;
 import org.smartregister.domain.jsonmapping.util.TeamLocation;
 import org.smartregister.domain.jsonmapping.util.TeamMember;
+import org.smartregister.location.helper.LocationHelper;
 import org.smartregister.repository.AllSettings;
 import org.smartregister.repository.AllSharedPreferences;
 import org.smartregister.security.PasswordHash;
@@ -520,6 +521,10 @@ public class UserService {
 
     public void saveAnmLocation(LocationTree anmLocation) {
         String anmLocationString = AssetHandler.javaToJsonString(anmLocation);
+        LocationHelper locationHelper = LocationHelper.getInstance();
+        if (locationHelper != null && anmLocation != null) {
+            locationHelper.updateLocationHierarchy(anmLocation);
+        }
         executeSaveAnmLocationTask(allSettings, anmLocationString);
     }
 
@@ -0,0 +1,116 @@
+package org.smartregister.sync;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.smartregister.domain.jsonmapping.ClassificationRule;
+import org.smartregister.domain.jsonmapping.ClientClassification;
+import org.smartregister.domain.jsonmapping.Field;
+import org.smartregister.domain.jsonmapping.Rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable view of the ec_client_classification.json rules indexed by event type.
+ * <p>
+ * Rule fields of the form {"field": "eventType", "field_value": "..."} can only match events of that type,
+ * so for each event type the rules are reduced to the fields that can match it, in their configured order.
+ * Fields that check anything else are kept for every event type.
+ */
+class ClassificationRuleIndex {
+
+    private static final String EVENT_TYPE_FIELD = "eventType";
+
+    private final ClientClassification clientClassification;
+
+    private final Map<String, List<ClassificationRule>> rulesByEventType;
+
+    private final List<ClassificationRule> rulesForOtherEventTypes;
+
+    ClassificationRuleIndex(@NonNull ClientClassification clientClassification) {
+        this.clientClassification = clientClassification;
+
+        List<ClassificationRule> classificationRules = clientClassification.case_classification_rules != null
+                ? clientClassification.case_classification_rules : Collections.<ClassificationRule>emptyList();
+
+        // event types are compared with equalsIgnoreCase when processing a field
+        Set<String> eventTypes = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (ClassificationRule classificationRule : classificationRules) {
+            for (Field field : getFields(classificationRule)) {
+                if (isEventTypeField(field) && field.field_value != null) {
+                    eventTypes.add(field.field_value);
+                }
+            }
+        }
+
+        Map<String, List<ClassificationRule>> rules = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String eventType : eventTypes) {
+            rules.put(eventType, filterRules(classificationRules, eventType));
+        }
+        rulesByEventType = Collections.unmodifiableMap(rules);
+        rulesForOtherEventTypes = filterRules(classificationRules, null);
+    }
+
+    ClientClassification getClientClassification() {
+        return clientClassification;
+    }
+
+    /**
+     * @return the rules, reduced to the fields that can match an event of the given type
+     */
+    @NonNull
+    List<ClassificationRule> getRules(@Nullable String eventType) {
+        List<ClassificationRule> rules = rulesByEventType.get(eventType != null ? eventType : "");
+        return rules != null ? rules : rulesForOtherEventTypes;
+    }
+
+    private List<ClassificationRule> filterRules(List<ClassificationRule> classificationRules, @Nullable String eventType) {
+        List<ClassificationRule> filteredRules = new ArrayList<>();
+        for (ClassificationRule classificationRule : classificationRules) {
+            if (classificationRule == null || classificationRule.rule == null || classificationRule.rule.fields == null) {
+                // nothing to index, let the processor handle the rule as configured
+                filteredRules.add(classificationRule);
+                continue;
+            }
+
+            List<Field> fields = new ArrayList<>();
+            for (Field field : classificationRule.rule.fields) {
+                if (field == null) {
+                    continue;
+                }
+                if (!isEventTypeField(field) || (eventType != null && eventType.equalsIgnoreCase(field.field_value))) {
+                    fields.add(field);
+                }
+            }
+
+            if (!fields.isEmpty()) {
+                Rule rule = new Rule();
+                rule.type = classificationRule.rule.type;
+                rule.fields = Collections.unmodifiableList(fields);
+
+                ClassificationRule filteredRule = new ClassificationRule();
+                filteredRule.comment = classificationRule.comment;
+                filteredRule.rule = rule;
+                filteredRules.add(filteredRule);
+            }
+        }
+        return Collections.unmodifiableList(filteredRules);
+    }
+
+    private List<Field> getFields(ClassificationRule classificationRule) {
+        if (classificationRule == null || classificationRule.rule == null || classificationRule.rule.fields == null) {
+            return Collections.emptyList();
+        }
+        return classificationRule.rule.fields;
+    }
+
+    private boolean isEventTypeField(Field field) {
+        return field != null && EVENT_TYPE_FIELD.equals(field.field);
+    }
+}
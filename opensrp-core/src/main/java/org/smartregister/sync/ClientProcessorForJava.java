@@ -14,6 +14,7 @@ import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.smartregister.AllConstants;
 import org.smartregister.CoreLibrary;
+import org.smartregister.SyncConfiguration;
 import org.smartregister.commonregistry.AllCommonsRepository;
 import org.smartregister.commonregistry.CommonRepository;
 import org.smartregister.converters.ClientConverter;
@@ -34,20 +35,23 @@ import org.smartregister.domain.jsonmapping.Rule;
 import org.smartregister.domain.jsonmapping.Table;
 import org.smartregister.pathevaluator.plan.PlanEvaluator;
 import org.smartregister.repository.DetailsRepository;
+import org.smartregister.service.RegisterCountService;
 import org.smartregister.util.AppExecutors;
 import org.smartregister.util.AssetHandler;
 
 import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import timber.log.Timber;
 
@@ -56,12 +60,17 @@ public class ClientProcessorForJava {
     public static final String JSON_ARRAY = "json_array";
     protected static final String VALUES_KEY = "values";
     protected static final String detailsUpdated = "detailsUpdated";
+    private static final int SEARCH_INDEX_BATCH_SIZE = 500;
     protected static ClientProcessorForJava instance;
+    private static final FieldAccessorRegistry fieldAccessorRegistry = new FieldAccessorRegistry();
     protected HashMap<String, MiniClientProcessorForJava> processorMap = new HashMap<>();
     protected HashMap<MiniClientProcessorForJava, List<Event>> unsyncEventsPerProcessor = new HashMap<>();
     private String[] openmrsGenIds = {};
-    private Map<String, Object> jsonMap = new HashMap<>();
+    private Map<String, Object> jsonMap = new ConcurrentHashMap<>();
     private Context mContext;
+    private volatile ClassificationRuleIndex classificationRuleIndex;
+    private volatile ColumnMappingIndex columnMappingIndex;
+    private final SearchIndexQueue searchIndexQueue = new SearchIndexQueue();
 
     private AppExecutors appExecutors;
 
@@ -115,6 +124,8 @@ public class ClientProcessorForJava {
                 }
             }
         }
+
+        flushSearchIndex();
     }
 
     /**
@@ -181,7 +192,8 @@ public class ClientProcessorForJava {
                 return false;
             }
 
-            for (ClassificationRule clientClass : clientClasses) {
+            // only the rule fields that can match the event type are processed
+            for (ClassificationRule clientClass : getClassificationRuleIndex(clientClassification).getRules(event.getEventType())) {
                 processClientClass(clientClass, event, client);
             }
 
@@ -610,10 +622,11 @@ public class ClientProcessorForJava {
         try {
             String baseEntityId = values.getAsString("base_entity_id");
 
+            Map<String, String> details = new LinkedHashMap<>();
             for (String key : values.keySet()) {
-                String value = values.getAsString(key);
-                saveClientDetails(baseEntityId, key, value, eventDate);
+                details.put(key, values.getAsString(key));
             }
+            saveClientDetails(baseEntityId, details, eventDate);
         } catch (Exception e) {
             Timber.e(e);
         }
@@ -636,17 +649,12 @@ public class ClientProcessorForJava {
                 String baseEntityId = client.getBaseEntityId();
                 Long timestamp = getEventDate(event.getEventDate());
 
-                Map<String, String> genderInfo = getGender(client);
-                saveClientDetails(baseEntityId, genderInfo, timestamp);
-
-                Map<String, String> addressInfo = getClientAddressAsMap(client);
-                saveClientDetails(baseEntityId, addressInfo, timestamp);
-
-                Map<String, String> attributes = getClientAttributes(client);
-                saveClientDetails(baseEntityId, attributes, timestamp);
-
-                Map<String, String> obs = getObsFromEvent(event);
-                saveClientDetails(baseEntityId, obs, timestamp);
+                // later sections overwrite earlier ones with the same key
+                Map<String, String> details = new LinkedHashMap<>(getGender(client));
+                details.putAll(getClientAddressAsMap(client));
+                details.putAll(getClientAttributes(client));
+                details.putAll(getObsFromEvent(event));
+                saveClientDetails(baseEntityId, details, timestamp);
             }
 
             event.addDetails(detailsUpdated, Boolean.TRUE.toString());
@@ -722,28 +730,22 @@ public class ClientProcessorForJava {
         return map;
     }
 
-    public void saveClientDetails(String baseEntityId, Map<String, String> values, Long timestamp) {
-        for (String key : values.keySet()) {
-            String value = values.get(key);
-            saveClientDetails(baseEntityId, key, value, timestamp);
-        }
-    }
-
     /**
-     * Save a single details row to the db
+     * Save the details of a client to the db, only the changed values are written
      *
      * @param baseEntityId
-     * @param key
-     * @param value
+     * @param values
      * @param timestamp
      */
-    private void saveClientDetails(String baseEntityId, String key, String value, Long timestamp) {
+    public void saveClientDetails(String baseEntityId, Map<String, String> values, Long timestamp) {
+        if (values.isEmpty()) {
+            return;
+        }
         DetailsRepository detailsRepository = org.smartregister.CoreLibrary.getInstance().context().
                 detailsRepository();
-        detailsRepository.add(baseEntityId, key, value, timestamp);
+        detailsRepository.add(baseEntityId, values, timestamp);
     }
 
-
     /**
      * Get human readable values from the json doc humanreadablevalues key if the key is empty
      * return value
@@ -825,17 +827,46 @@ public class ClientProcessorForJava {
      **/
     public Long executeInsertStatement(ContentValues values, String tableName) {
         CommonRepository cr = org.smartregister.CoreLibrary.getInstance().context().commonrepository(tableName);
-        return cr.executeInsertStatement(values, tableName);
+        RegisterCountService.Change countChange = beforeRegisterChange(tableName, values.getAsString(CommonRepository.BASE_ENTITY_ID_COLUMN));
+        try {
+            return cr.executeInsertStatement(values, tableName);
+        } finally {
+            onRegisterChanged(countChange);
+        }
     }
 
     public void closeCase(String tableName, String baseEntityId) {
         CommonRepository cr = org.smartregister.CoreLibrary.getInstance().context().commonrepository(tableName);
-        cr.closeCase(baseEntityId, tableName);
+        RegisterCountService.Change countChange = beforeRegisterChange(tableName, baseEntityId);
+        try {
+            cr.closeCase(baseEntityId, tableName);
+        } finally {
+            onRegisterChanged(countChange);
+        }
     }
 
     public boolean deleteCase(String tableName, String baseEntityId) {
         CommonRepository cr = org.smartregister.CoreLibrary.getInstance().context().commonrepository(tableName);
-        return cr.deleteCase(baseEntityId, tableName);
+        RegisterCountService.Change countChange = beforeRegisterChange(tableName, baseEntityId);
+        try {
+            return cr.deleteCase(baseEntityId, tableName);
+        } finally {
+            onRegisterChanged(countChange);
+        }
+    }
+
+    private RegisterCountService.Change beforeRegisterChange(String tableName, String baseEntityId) {
+        SyncConfiguration syncConfiguration = CoreLibrary.getInstance().getSyncConfiguration();
+        if (syncConfiguration == null || !syncConfiguration.isCachedRegisterCounts() || tableName == null) {
+            return null;
+        }
+        return CoreLibrary.getInstance().context().registerCountService().beforeChange(tableName, baseEntityId);
+    }
+
+    private void onRegisterChanged(RegisterCountService.Change countChange) {
+        if (countChange != null) {
+            CoreLibrary.getInstance().context().registerCountService().onChanged(countChange);
+        }
     }
 
     public Table getColumnMappings(String registerName) {
@@ -844,18 +875,28 @@ public class ClientProcessorForJava {
             if (clientField == null) {
                 return null;
             }
-            List<Table> bindObjects = clientField.bindobjects;
-            for (Table bindObject : bindObjects) {
-                if (bindObject.name.equalsIgnoreCase(registerName)) {
-                    return bindObject;
-                }
+            ColumnMappingIndex index = columnMappingIndex;
+            if (index == null || index.clientField != clientField) {
+                index = new ColumnMappingIndex(clientField);
+                columnMappingIndex = index;
             }
+            return registerName != null ? index.tables.get(registerName) : null;
         } catch (Exception e) {
             Timber.e(e);
         }
         return null;
     }
 
+    private ClassificationRuleIndex getClassificationRuleIndex(ClientClassification clientClassification) {
+        ClassificationRuleIndex index = classificationRuleIndex;
+        // the parsed assets are cached, so the index is only rebuilt if a different classification is passed
+        if (index == null || index.getClientClassification() != clientClassification) {
+            index = new ClassificationRuleIndex(clientClassification);
+            classificationRuleIndex = index;
+        }
+        return index;
+    }
+
     protected <T> T assetJsonToJava(String fileName, Class<T> clazz) {
         return AssetHandler.assetJsonToJava(jsonMap, mContext, fileName, clazz);
     }
@@ -878,12 +919,7 @@ public class ClientProcessorForJava {
             return null;
         }
         try {
-            Field field = getField(instance.getClass(), fieldName);
-            if (field == null) {
-                return null;
-            }
-            field.setAccessible(true);
-            return field.get(instance);
+            return fieldAccessorRegistry.getValue(instance, fieldName);
         } catch (IllegalAccessException e) {
             return null;
         }
@@ -907,42 +943,11 @@ public class ClientProcessorForJava {
     }
 
     private List<Field> getFields(Class clazz) {
-        List<Field> fields = new ArrayList<>();
         if (instance == null) {
             return new ArrayList<>();
         }
 
-
-        Class current = clazz;
-        while (current != null) { // we don't want to process Object.class
-            // do something with current's fields
-            Field[] fieldArray = current.getDeclaredFields();
-            if (fieldArray != null) {
-                fields.addAll(Arrays.asList(fieldArray));
-            }
-
-            current = current.getSuperclass();
-        }
-
-        return fields;
-    }
-
-    private Field getField(Class clazz, String fieldName) {
-        if (clazz == null || StringUtils.isBlank(fieldName)) {
-            return null;
-        }
-
-        Field field = null;
-        try {
-            field = clazz.getDeclaredField(fieldName);
-        } catch (NoSuchFieldException e) {
-            // No need to log this, log will be to big
-        }
-        if (field != null) {
-            return field;
-        }
-
-        return getField(clazz.getSuperclass(), fieldName);
+        return fieldAccessorRegistry.getFields(clazz);
     }
 
     /**
@@ -958,6 +963,12 @@ public class ClientProcessorForJava {
     }
 
     public void updateFTSsearch(String tableName, String entityId, ContentValues contentValues) {
+        SyncConfiguration syncConfiguration = CoreLibrary.getInstance().getSyncConfiguration();
+        if (syncConfiguration != null && syncConfiguration.isDeferredSearchIndexing() && tableName != null && entityId != null) {
+            searchIndexQueue.add(tableName, entityId);
+            return;
+        }
+
         Timber.d("Starting updateFTSsearch table: " + tableName);
         AllCommonsRepository allCommonsRepository = org.smartregister.CoreLibrary.getInstance().context().
                 allCommonsRepositoryobjects(tableName);
@@ -970,6 +981,59 @@ public class ClientProcessorForJava {
         Timber.d("Finished updateFTSsearch table: " + tableName);
     }
 
+    /**
+     * Rebuilds the search rows of the entities queued while search indexing is deferred.
+     * Called at the end of {@link #processClient(List, boolean)}, subclasses that process events
+     * without calling it should call this once their batch of events is processed.
+     * Entities whose search rows were not written are queued again for the next flush
+     */
+    public void flushSearchIndex() {
+        Map<String, List<String>> failedIds = new LinkedHashMap<>();
+        Map<String, List<String>> batch;
+        while (!(batch = searchIndexQueue.poll(SEARCH_INDEX_BATCH_SIZE)).isEmpty()) {
+            for (Map.Entry<String, List<String>> tableIds : batch.entrySet()) {
+                AllCommonsRepository allCommonsRepository = CoreLibrary.getInstance().context().
+                        allCommonsRepositoryobjects(tableIds.getKey());
+                if (allCommonsRepository == null) {
+                    continue;
+                }
+
+                List<String> indexedIds = new ArrayList<>(tableIds.getValue());
+                List<String> remainingIds = allCommonsRepository.batchUpdateSearch(tableIds.getValue());
+                if (!remainingIds.isEmpty()) {
+                    Timber.w("%d search rows of %s were not updated", remainingIds.size(), tableIds.getKey());
+                    indexedIds.removeAll(remainingIds);
+                    List<String> tableFailedIds = failedIds.get(tableIds.getKey());
+                    if (tableFailedIds == null) {
+                        tableFailedIds = new ArrayList<>();
+                        failedIds.put(tableIds.getKey(), tableFailedIds);
+                    }
+                    tableFailedIds.addAll(remainingIds);
+                }
+                for (String entityId : indexedIds) {
+                    updateRegisterCount(entityId);
+                }
+                searchIndexQueue.markIndexed(tableIds.getKey(), indexedIds);
+            }
+            Timber.d("Search index: %d indexed, %d pending", searchIndexQueue.getIndexedCount(), searchIndexQueue.getPendingCount());
+        }
+
+        // queued after draining so that rows that keep failing are not retried in a loop
+        for (Map.Entry<String, List<String>> tableIds : failedIds.entrySet()) {
+            List<String> droppedIds = searchIndexQueue.requeue(tableIds.getKey(), tableIds.getValue());
+            if (!droppedIds.isEmpty()) {
+                Timber.e("Search rows of %s not updated after %d attempts: %s", tableIds.getKey(), SearchIndexQueue.MAX_ATTEMPTS, droppedIds);
+            }
+        }
+    }
+
+    /**
+     * @return the queue of entities whose search rows are updated in batches when search indexing is deferred
+     */
+    public SearchIndexQueue getSearchIndexQueue() {
+        return searchIndexQueue;
+    }
+
     protected void updateRegisterCount(String entityId) {
         FORM_SUBMITTED.notifyListeners(entityId);
     }
@@ -1029,4 +1093,28 @@ public class ClientProcessorForJava {
             miniClientProcessorForJava.processEventClient(eventClient, processorUnsyncEvents, clientClassification);
         }
     }
+
+    /**
+     * The ec_client_fields.json bind objects indexed by table name
+     */
+    private static class ColumnMappingIndex {
+
+        private final ClientField clientField;
+
+        private final Map<String, Table> tables;
+
+        private ColumnMappingIndex(ClientField clientField) {
+            this.clientField = clientField;
+            Map<String, Table> tableMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (clientField.bindobjects != null) {
+                for (Table bindObject : clientField.bindobjects) {
+                    // the first bind object with a name is used, as when scanning the list
+                    if (bindObject != null && bindObject.name != null && !tableMap.containsKey(bindObject.name)) {
+                        tableMap.put(bindObject.name, bindObject);
+                    }
+                }
+            }
+            tables = Collections.unmodifiableMap(tableMap);
+        }
+    }
 }
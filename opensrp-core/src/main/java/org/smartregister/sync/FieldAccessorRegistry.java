@@ -0,0 +1,87 @@
+package org.smartregister.sync;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the fields read by name from events, clients and their segments when processing clients.
+ * <p>
+ * A field is looked up once per (class, field name), the nearest declaration in the class hierarchy wins.
+ * Missing fields are cached too, so repeated lookups of a field a class does not have are a map lookup
+ * instead of a {@link NoSuchFieldException} per superclass.
+ */
+class FieldAccessorRegistry {
+
+    private static final Accessor MISSING = new Accessor(null);
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, Accessor>> accessors = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Class<?>, List<Field>> fields = new ConcurrentHashMap<>();
+
+    /**
+     * @return the value of the field of the instance, null if the field does not exist
+     */
+    @Nullable
+    Object getValue(@NonNull Object instance, @NonNull String fieldName) throws IllegalAccessException {
+        Accessor accessor = getAccessor(instance.getClass(), fieldName);
+        return accessor.field != null ? accessor.field.get(instance) : null;
+    }
+
+    /**
+     * @return the fields declared by the class and its superclasses, starting with the class itself
+     */
+    @NonNull
+    List<Field> getFields(@NonNull Class<?> clazz) {
+        List<Field> classFields = fields.get(clazz);
+        if (classFields == null) {
+            List<Field> hierarchyFields = new ArrayList<>();
+            Class<?> current = clazz;
+            while (current != null) {
+                hierarchyFields.addAll(Arrays.asList(current.getDeclaredFields()));
+                current = current.getSuperclass();
+            }
+            classFields = Collections.unmodifiableList(hierarchyFields);
+            fields.putIfAbsent(clazz, classFields);
+        }
+        return classFields;
+    }
+
+    private Accessor getAccessor(Class<?> clazz, String fieldName) {
+        ConcurrentMap<String, Accessor> classAccessors = accessors.get(clazz);
+        if (classAccessors == null) {
+            accessors.putIfAbsent(clazz, new ConcurrentHashMap<String, Accessor>());
+            classAccessors = accessors.get(clazz);
+        }
+
+        Accessor accessor = classAccessors.get(fieldName);
+        if (accessor == null) {
+            accessor = MISSING;
+            for (Field field : getFields(clazz)) {
+                if (field.getName().equals(fieldName)) {
+                    field.setAccessible(true);
+                    accessor = new Accessor(field);
+                    break;
+                }
+            }
+            classAccessors.putIfAbsent(fieldName, accessor);
+        }
+        return accessor;
+    }
+
+    private static class Accessor {
+
+        private final Field field;
+
+        private Accessor(@Nullable Field field) {
+            this.field = field;
+        }
+    }
+}
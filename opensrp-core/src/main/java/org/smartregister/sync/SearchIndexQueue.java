@@ -0,0 +1,140 @@
+package org.smartregister.sync;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The entities whose full text search rows are out of date, grouped by register table.
+ * An entity updated several times while queued is only indexed once.
+ * Entities whose search rows could not be written are queued again until they fail {@link #MAX_ATTEMPTS} times
+ */
+public class SearchIndexQueue {
+
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final Map<String, Set<String>> pendingIds = new LinkedHashMap<>();
+
+    // failed attempts keyed by table then entity id
+    private final Map<String, Map<String, Integer>> failedAttempts = new HashMap<>();
+
+    private int pendingCount;
+
+    private long indexedCount;
+
+    private long failedCount;
+
+    public synchronized void add(@NonNull String tableName, @NonNull String entityId) {
+        Set<String> tableIds = pendingIds.get(tableName);
+        if (tableIds == null) {
+            tableIds = new LinkedHashSet<>();
+            pendingIds.put(tableName, tableIds);
+        }
+        if (tableIds.add(entityId)) {
+            pendingCount++;
+        }
+    }
+
+    /**
+     * Removes up to maxIds queued entities from the queue
+     *
+     * @return the removed entity ids keyed by table, in the order they were queued
+     */
+    @NonNull
+    public synchronized Map<String, List<String>> poll(int maxIds) {
+        Map<String, List<String>> batch = new LinkedHashMap<>();
+        int remaining = maxIds;
+        Iterator<Map.Entry<String, Set<String>>> tables = pendingIds.entrySet().iterator();
+        while (remaining > 0 && tables.hasNext()) {
+            Map.Entry<String, Set<String>> table = tables.next();
+            List<String> tableBatch = new ArrayList<>();
+            Iterator<String> ids = table.getValue().iterator();
+            while (remaining > 0 && ids.hasNext()) {
+                tableBatch.add(ids.next());
+                ids.remove();
+                remaining--;
+            }
+            if (table.getValue().isEmpty()) {
+                tables.remove();
+            }
+            batch.put(table.getKey(), tableBatch);
+        }
+        pendingCount -= maxIds - remaining;
+        return batch;
+    }
+
+    public synchronized void markIndexed(int count) {
+        indexedCount += count;
+    }
+
+    public synchronized void markIndexed(@NonNull String tableName, @NonNull Collection<String> entityIds) {
+        indexedCount += entityIds.size();
+        Map<String, Integer> tableAttempts = failedAttempts.get(tableName);
+        if (tableAttempts != null) {
+            tableAttempts.keySet().removeAll(entityIds);
+            if (tableAttempts.isEmpty()) {
+                failedAttempts.remove(tableName);
+            }
+        }
+    }
+
+    /**
+     * Queues entities whose search rows were not written so that they are indexed again
+     *
+     * @return the entity ids that were not queued because they have failed {@link #MAX_ATTEMPTS} times
+     */
+    @NonNull
+    public synchronized List<String> requeue(@NonNull String tableName, @NonNull Collection<String> entityIds) {
+        List<String> droppedIds = new ArrayList<>();
+        Map<String, Integer> tableAttempts = failedAttempts.get(tableName);
+        if (tableAttempts == null) {
+            tableAttempts = new HashMap<>();
+            failedAttempts.put(tableName, tableAttempts);
+        }
+        for (String entityId : entityIds) {
+            Integer attempts = tableAttempts.get(entityId);
+            attempts = attempts == null ? 1 : attempts + 1;
+            if (attempts >= MAX_ATTEMPTS) {
+                tableAttempts.remove(entityId);
+                droppedIds.add(entityId);
+                failedCount++;
+            } else {
+                tableAttempts.put(entityId, attempts);
+                add(tableName, entityId);
+            }
+        }
+        if (tableAttempts.isEmpty()) {
+            failedAttempts.remove(tableName);
+        }
+        return droppedIds;
+    }
+
+    /**
+     * @return the number of entities waiting to be indexed i.e. how far the search index lags behind
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the number of entities indexed from the queue so far
+     */
+    public synchronized long getIndexedCount() {
+        return indexedCount;
+    }
+
+    /**
+     * @return the number of entities dropped from the queue after failing {@link #MAX_ATTEMPTS} times
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+}
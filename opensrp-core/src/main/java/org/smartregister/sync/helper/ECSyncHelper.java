@@ -88,6 +88,19 @@ public class ECSyncHelper {
         return allSharedPreferences.fetchLastCheckTimeStamp();
     }
 
+    /**
+     * Returns a parser that saves clients and events as they are read from the sync response stream
+     *
+     * @return an {@link EventClientStreamParser} bound to the event client repository
+     */
+    public EventClientStreamParser getEventClientStreamParser() {
+        return getEventClientStreamParser(getLastSyncTimeStamp());
+    }
+
+    public EventClientStreamParser getEventClientStreamParser(long lastSyncTimeStamp) {
+        return new EventClientStreamParser(eventClientRepository, lastSyncTimeStamp);
+    }
+
     public void batchSave(JSONArray events, JSONArray clients) {
         eventClientRepository.batchInsertClients(clients);
         eventClientRepository.batchInsertEvents(events, getLastSyncTimeStamp());
@@ -0,0 +1,294 @@
+package org.smartregister.sync.helper;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.smartregister.AllConstants;
+import org.smartregister.repository.EventClientRepository;
+import org.smartregister.repository.StreamedRecord;
+import org.smartregister.service.ResponseStreamHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Reads a page of clients and events from the {@link org.smartregister.sync.intent.SyncIntentService#SYNC_URL} response
+ * one record at a time and saves them to the {@link EventClientRepository} in small batches,
+ * so that the whole page is never held in memory. The values bound to the columns of a record are read
+ * while its json is copied, so records are not parsed into a {@link org.json.JSONObject} to be saved
+ */
+public class EventClientStreamParser implements ResponseStreamHandler<EventClientStreamParser.Result> {
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    private static final String NO_OF_EVENTS = "no_of_events";
+
+    private static final String SYNC_STATUS = EventClientRepository.client_column.syncStatus.name();
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final EventClientRepository eventClientRepository;
+
+    private final long lastSyncTimeStamp;
+
+    private final int batchSize;
+
+    public EventClientStreamParser(EventClientRepository eventClientRepository, long lastSyncTimeStamp) {
+        this(eventClientRepository, lastSyncTimeStamp, DEFAULT_BATCH_SIZE);
+    }
+
+    public EventClientStreamParser(EventClientRepository eventClientRepository, long lastSyncTimeStamp, int batchSize) {
+        this.eventClientRepository = eventClientRepository;
+        this.lastSyncTimeStamp = lastSyncTimeStamp;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public Result handle(@NonNull InputStream inputStream) throws IOException {
+        Result result = new Result();
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return result;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (AllConstants.KEY.EVENTS.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                    readRecords(parser, result, true);
+                } else if (AllConstants.KEY.CLIENTS.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                    readRecords(parser, result, false);
+                } else if (NO_OF_EVENTS.equals(fieldName) && token == JsonToken.VALUE_NUMBER_INT) {
+                    result.numberOfEvents = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            result.byteCount = parser.getCurrentLocation().getByteOffset();
+        }
+        return result;
+    }
+
+    private void readRecords(JsonParser parser, Result result, boolean events) throws IOException {
+        List<StreamedRecord> batch = new ArrayList<>(batchSize);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            StreamedRecord record = readRecord(parser);
+            if (events) {
+                result.updateServerVersions(NumberUtils.toLong(record.get(AllConstants.SERVER_VERSION), -1));
+                result.parsedEvents++;
+            } else {
+                result.parsedClients++;
+            }
+            batch.add(record);
+            if (batch.size() >= batchSize) {
+                result.saved &= saveBatch(batch, events, result);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            result.saved &= saveBatch(batch, events, result);
+        }
+    }
+
+    /**
+     * Copies the record the parser is at to its json text, leaving out its syncStatus, while reading the
+     * values the repository binds to the columns of the record
+     */
+    private StreamedRecord readRecord(JsonParser parser) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        Map<String, String> details = null;
+        Map<String, String> attributes = null;
+        String syncStatus = null;
+        String[] relationship = null;
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (SYNC_STATUS.equals(fieldName)) {
+                    syncStatus = token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getText() : null;
+                    parser.skipChildren();
+                    continue;
+                }
+
+                generator.writeFieldName(fieldName);
+                if (token.isScalarValue()) {
+                    if (token != JsonToken.VALUE_NULL) {
+                        values.put(fieldName, parser.getText());
+                    }
+                    generator.copyCurrentEvent(parser);
+                } else if (token == JsonToken.START_OBJECT && AllConstants.DETAILS.equals(fieldName)) {
+                    details = copyObject(parser, generator);
+                } else if (token == JsonToken.START_OBJECT && AllConstants.ATTRIBUTES.equals(fieldName)) {
+                    attributes = copyObject(parser, generator);
+                } else if (token == JsonToken.START_OBJECT && AllConstants.RELATIONSHIPS.equals(fieldName)) {
+                    relationship = copyRelationships(parser, generator);
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            generator.writeEndObject();
+        }
+
+        StreamedRecord record = new StreamedRecord(writer.toString(), values, details, attributes);
+        record.setSyncStatus(syncStatus);
+        if (relationship != null) {
+            record.setRelationship(relationship[0], relationship[1]);
+        }
+        return record;
+    }
+
+    /**
+     * Copies the object the parser is at, returning the values of its scalar fields
+     */
+    private Map<String, String> copyObject(JsonParser parser, JsonGenerator generator) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            generator.writeFieldName(fieldName);
+            if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+                values.put(fieldName, parser.getText());
+            }
+            generator.copyCurrentStructure(parser);
+        }
+        generator.writeEndObject();
+        return values;
+    }
+
+    /**
+     * Copies the relationships the parser is at, returning the first relationship with a relational id and the id
+     */
+    private String[] copyRelationships(JsonParser parser, JsonGenerator generator) throws IOException {
+        String[] relationship = null;
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String relationshipName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            generator.writeFieldName(relationshipName);
+            if (token != JsonToken.START_ARRAY) {
+                generator.copyCurrentStructure(parser);
+                continue;
+            }
+            generator.writeStartArray();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (relationship == null && parser.currentToken().isScalarValue()) {
+                    relationship = new String[]{relationshipName, parser.getText()};
+                }
+                generator.copyCurrentStructure(parser);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        return relationship;
+    }
+
+    private boolean saveBatch(List<StreamedRecord> batch, boolean events, Result result) {
+        long startTime = System.currentTimeMillis();
+        try {
+            return events ? eventClientRepository.batchInsertEventRecords(batch, lastSyncTimeStamp)
+                    : eventClientRepository.batchInsertClientRecords(batch);
+        } catch (Exception e) {
+            Timber.e(e);
+            return false;
+        } finally {
+            result.saveMillis += System.currentTimeMillis() - startTime;
+        }
+    }
+
+    /**
+     * Summary of a streamed page of clients and events
+     */
+    public static class Result {
+
+        private int numberOfEvents = -1;
+
+        private int parsedEvents;
+
+        private int parsedClients;
+
+        private long minServerVersion = Long.MAX_VALUE;
+
+        private long maxServerVersion = Long.MIN_VALUE;
+
+        private boolean saved = true;
+
+        private long byteCount;
+
+        private long saveMillis;
+
+        private void updateServerVersions(long serverVersion) {
+            if (serverVersion < 0) {
+                return;
+            }
+            if (serverVersion > maxServerVersion) {
+                maxServerVersion = serverVersion;
+            }
+            if (serverVersion < minServerVersion) {
+                minServerVersion = serverVersion;
+            }
+        }
+
+        /**
+         * @return the no_of_events reported by the server or -1 if it was missing from the response
+         */
+        public int getNumberOfEvents() {
+            return numberOfEvents;
+        }
+
+        public int getParsedEvents() {
+            return parsedEvents;
+        }
+
+        public int getParsedClients() {
+            return parsedClients;
+        }
+
+        public Pair<Long, Long> getMinMaxServerVersions() {
+            if (minServerVersion > maxServerVersion) {
+                return Pair.create(0L, 0L);
+            }
+            return Pair.create(minServerVersion, maxServerVersion);
+        }
+
+        /**
+         * @return the number of bytes read from the response stream
+         */
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        /**
+         * @return the time spent saving the batches while the response was read
+         */
+        public long getSaveMillis() {
+            return saveMillis;
+        }
+
+        /**
+         * @return true if every batch read from the stream was saved
+         */
+        public boolean isSaved() {
+            return saved;
+        }
+    }
+}
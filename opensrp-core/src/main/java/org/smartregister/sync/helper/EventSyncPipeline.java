@@ -0,0 +1,266 @@
+package org.smartregister.sync.helper;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * Runs the fetch, save and client processing of event pages as a pipeline so that page N+1 downloads
+ * while page N is saved and page N-1 is processed.
+ * <p>
+ * Pages move between the stages through bounded queues, a full queue blocks the stage feeding it.
+ * Pages are processed and committed one at a time in the order they were fetched i.e. by ascending serverVersion.
+ * A page is only committed after it has been processed, so a pull that is interrupted resumes from the last committed page.
+ * No page is committed after a page fails to save or process.
+ * <p>
+ * Pages streamed to the database while they are fetched, see {@link Page#isSaved()}, are already saved when they
+ * reach the save stage, which then only passes them on to be processed in order.
+ */
+public class EventSyncPipeline {
+
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private static final Page END_OF_PAGES = new Page(null, 0, Pair.create(0L, 0L), 0, false);
+
+    private final Stages stages;
+
+    private final int capacity;
+
+    public EventSyncPipeline(@NonNull Stages stages) {
+        this(stages, DEFAULT_CAPACITY);
+    }
+
+    public EventSyncPipeline(@NonNull Stages stages, int capacity) {
+        this.stages = stages;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Fetches pages on the calling thread starting from the given server version until an empty page is returned
+     * and blocks until every fetched page has been saved, processed and committed
+     *
+     * @param startServerVersion the server version of the last committed page
+     * @return the outcome of the pull
+     */
+    public Status run(long startServerVersion) {
+        BlockingQueue<Page> saveQueue = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Page> processQueue = new ArrayBlockingQueue<>(capacity);
+        AtomicBoolean saveFailed = new AtomicBoolean(false);
+        AtomicBoolean processFailed = new AtomicBoolean(false);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        Future<?> saveStage = executorService.submit(() -> save(saveQueue, processQueue, saveFailed, processFailed));
+        Future<?> processStage = executorService.submit(() -> process(processQueue, processFailed));
+
+        Status status = Status.COMPLETED;
+        try {
+            long serverVersion = startServerVersion;
+            while (true) {
+                if (saveFailed.get()) {
+                    status = Status.SAVE_FAILED;
+                    break;
+                }
+                if (processFailed.get()) {
+                    status = Status.PROCESS_FAILED;
+                    break;
+                }
+                Page page = stages.fetch(serverVersion);
+                if (page == null) {
+                    status = Status.FETCH_FAILED;
+                    break;
+                }
+                if (page.getEventCount() <= 0) {
+                    break;
+                }
+                saveQueue.put(page);
+                serverVersion = page.getLastServerVersion();
+            }
+            saveQueue.put(END_OF_PAGES);
+            try {
+                saveStage.get();
+            } catch (ExecutionException e) {
+                Timber.e(e, "Save stage failed");
+                status = Status.SAVE_FAILED;
+                // the process stage never receives the end of the pages from a failed save stage
+                processStage.cancel(true);
+            }
+            if (!processStage.isCancelled()) {
+                try {
+                    processStage.get();
+                } catch (ExecutionException e) {
+                    Timber.e(e, "Process stage failed");
+                    status = Status.PROCESS_FAILED;
+                }
+            }
+        } catch (InterruptedException e) {
+            Timber.e(e);
+            Thread.currentThread().interrupt();
+            status = Status.INTERRUPTED;
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        if (status == Status.COMPLETED && saveFailed.get()) {
+            status = Status.SAVE_FAILED;
+        } else if (status == Status.COMPLETED && processFailed.get()) {
+            status = Status.PROCESS_FAILED;
+        }
+        return status;
+    }
+
+    private void save(BlockingQueue<Page> saveQueue, BlockingQueue<Page> processQueue, AtomicBoolean saveFailed, AtomicBoolean processFailed) {
+        try {
+            while (true) {
+                Page page = saveQueue.take();
+                if (page == END_OF_PAGES) {
+                    break;
+                }
+                // keep draining after a failure so that the fetch stage is never blocked, but do not process later pages
+                if (saveFailed.get() || processFailed.get()) {
+                    continue;
+                }
+                boolean saved;
+                try {
+                    saved = stages.save(page);
+                } catch (Exception e) {
+                    Timber.e(e);
+                    saved = false;
+                }
+                if (saved) {
+                    processQueue.put(page);
+                } else {
+                    saveFailed.set(true);
+                }
+            }
+            processQueue.put(END_OF_PAGES);
+        } catch (InterruptedException e) {
+            Timber.e(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(BlockingQueue<Page> processQueue, AtomicBoolean processFailed) {
+        try {
+            while (true) {
+                Page page = processQueue.take();
+                if (page == END_OF_PAGES) {
+                    break;
+                }
+                // keep draining after a failure so that the save stage is never blocked, but do not commit later pages
+                if (processFailed.get()) {
+                    continue;
+                }
+                try {
+                    stages.process(page);
+                    stages.commit(page);
+                } catch (Exception e) {
+                    Timber.e(e, "Error processing page ending at server version %d", page.getLastServerVersion());
+                    processFailed.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Timber.e(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public enum Status {
+        COMPLETED, FETCH_FAILED, SAVE_FAILED, PROCESS_FAILED, INTERRUPTED
+    }
+
+    /**
+     * The work done by each stage of the pipeline
+     */
+    public interface Stages {
+
+        /**
+         * Fetches the page of events after the given server version, retrying as configured
+         *
+         * @return the fetched page, a page with no events when there is nothing left to fetch or null if the fetch failed
+         */
+        @Nullable
+        Page fetch(long serverVersion);
+
+        /**
+         * Saves the clients and events of the page, a page saved while fetching only reports whether it was saved
+         *
+         * @return true if the page was saved
+         */
+        boolean save(@NonNull Page page);
+
+        /**
+         * Runs client processing for the events of the page
+         */
+        void process(@NonNull Page page);
+
+        /**
+         * Records the page as processed, a new pull resumes after the last committed page
+         */
+        void commit(@NonNull Page page);
+    }
+
+    /**
+     * A page of clients and events returned by the server
+     */
+    public static class Page {
+
+        private final JSONObject payload;
+
+        private final int eventCount;
+
+        private final Pair<Long, Long> serverVersions;
+
+        private final long lastServerVersion;
+
+        private final boolean saved;
+
+        /**
+         * @param payload           the clients and events of the page, null if they were saved while fetching
+         * @param eventCount        the number of events in the page
+         * @param serverVersions    the min and max server versions of the events in the page
+         * @param lastServerVersion the server version the next page is fetched from
+         * @param saved             true if the clients and events were saved while fetching
+         */
+        public Page(@Nullable JSONObject payload, int eventCount, @NonNull Pair<Long, Long> serverVersions, long lastServerVersion, boolean saved) {
+            this.payload = payload;
+            this.eventCount = eventCount;
+            this.serverVersions = serverVersions;
+            this.lastServerVersion = lastServerVersion;
+            this.saved = saved;
+        }
+
+        @Nullable
+        public JSONObject getPayload() {
+            return payload;
+        }
+
+        public int getEventCount() {
+            return eventCount;
+        }
+
+        public Pair<Long, Long> getServerVersions() {
+            return serverVersions;
+        }
+
+        public long getLastServerVersion() {
+            return lastServerVersion;
+        }
+
+        public boolean isSaved() {
+            return saved;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package org.smartregister.sync.helper;
 
 import android.content.Context;
-import android.text.TextUtils;
 
 import androidx.annotation.Nullable;
 
@@ -115,7 +114,25 @@ public class LocationServiceHelper extends BaseHelper {
         return instance;
     }
 
+    /**
+     * @return the locations or structures synced, without their geometries
+     * @deprecated holds every synced location or structure in memory, use
+     * {@link #syncLocationsStructures(boolean, LocationStreamParser.OnBatchSavedListener)}
+     */
+    @Deprecated
     protected List<Location> syncLocationsStructures(boolean isJurisdiction) {
+        List<Location> locationStructures = new ArrayList<>();
+        syncLocationsStructures(isJurisdiction, features -> addWithoutGeometry(features, locationStructures));
+        return locationStructures;
+    }
+
+    /**
+     * Syncs the locations or structures page by page, saving each page as it is read
+     *
+     * @param onBatchSavedListener notified of each batch of locations or structures saved e.g. to read their ids
+     * @return the number of locations or structures synced
+     */
+    protected int syncLocationsStructures(boolean isJurisdiction, @Nullable LocationStreamParser.OnBatchSavedListener onBatchSavedListener) {
         syncProgress = new SyncProgress();
         if (isJurisdiction) {
             syncProgress.setSyncEntity(SyncEntity.LOCATIONS);
@@ -124,69 +141,83 @@ public class LocationServiceHelper extends BaseHelper {
         }
         syncProgress.setTotalRecords(totalRecords);
 
-        List<Location> locationStructures = batchSyncLocationsStructures(isJurisdiction, new ArrayList<>(), true);
-        syncProgress.setPercentageSynced(Utils.calculatePercentage(totalRecords, locationStructures.size()));
+        int synced = batchSyncLocationsStructures(isJurisdiction, onBatchSavedListener);
+        syncProgress.setPercentageSynced(Utils.calculatePercentage(totalRecords, synced));
         sendSyncProgressBroadcast(syncProgress, context);
-        return locationStructures;
+        return synced;
     }
 
-    private List<Location> batchSyncLocationsStructures(boolean isJurisdiction, List<Location> batchLocationStructures, boolean returnCount) {
-        long serverVersion = 0;
-        String currentServerVersion = allSharedPreferences.getPreference(isJurisdiction ? LOCATION_LAST_SYNC_DATE : STRUCTURES_LAST_SYNC_DATE);
-        try {
-            serverVersion = (StringUtils.isEmpty(currentServerVersion) ? 0 : Long.parseLong(currentServerVersion));
-        } catch (NumberFormatException e) {
-            Timber.e(e, "EXCEPTION %s", e.toString());
-        }
-        if (serverVersion > 0) serverVersion += 1;
+    /**
+     * Fetches pages of locations or structures until no newer ones are returned. Each page is streamed into
+     * the repository and its server version saved before the next page is fetched, so a sync that is
+     * interrupted resumes from the last saved page and only one batch of a page is held in memory.
+     */
+    private int batchSyncLocationsStructures(boolean isJurisdiction, LocationStreamParser.OnBatchSavedListener onBatchSavedListener) {
+        String updateKey = isJurisdiction ? LOCATION_LAST_SYNC_DATE : STRUCTURES_LAST_SYNC_DATE;
+        int synced = 0;
         try {
-            List<String> parentIds = locationRepository.getAllLocationIds();
-
-            if (isJurisdiction) {
-                startLocationTrace(FETCH, AllConstants.PerformanceMonitoring.LOCATION, 0);
-            } else {
-                startLocationTrace(FETCH, STRUCTURE, 0);
-            }
-            startTrace(locationSyncTrace);
-            String featureResponse = fetchLocationsOrStructures(isJurisdiction, serverVersion, TextUtils.join(",", parentIds), returnCount);
-            List<Location> locations = locationGson.fromJson(featureResponse, new TypeToken<List<Location>>() {
-            }.getType());
-
-            addAttribute(locationSyncTrace, COUNT, String.valueOf(locations.size()));
-            stopTrace(locationSyncTrace);
+            JSONArray parentIds = isJurisdiction ? null : new JSONArray(locationRepository.getAllLocationIds());
+            LocationStreamParser streamParser = getLocationStreamParser(isJurisdiction);
+            streamParser.setOnBatchSavedListener(onBatchSavedListener);
+            boolean returnCount = true;
+            while (true) {
+                long lastServerVersion = getLastServerVersion(updateKey);
+                long serverVersion = lastServerVersion > 0 ? lastServerVersion + 1 : 0;
+
+                if (isJurisdiction) {
+                    startLocationTrace(FETCH, AllConstants.PerformanceMonitoring.LOCATION, 0);
+                } else {
+                    startLocationTrace(FETCH, STRUCTURE, 0);
+                }
+                startTrace(locationSyncTrace);
+                LocationStreamParser.Result result = fetchLocationsOrStructures(isJurisdiction, serverVersion, parentIds, returnCount, streamParser);
+                addAttribute(locationSyncTrace, COUNT, String.valueOf(result.getParsed()));
+                stopTrace(locationSyncTrace);
+                returnCount = false;
+
+                if (result.getParsed() == 0) {
+                    break;
+                } else if (!result.isSaved()) {
+                    Timber.w("%s not saved, the page will be fetched again on the next sync", isJurisdiction ? "Locations" : "Structures");
+                    break;
+                } else if (result.getMaxServerVersion() <= lastServerVersion) {
+                    // the server returned nothing newer, fetching again would return the same page
+                    break;
+                }
 
-            for (Location location : locations) {
-                try {
-                    location.setSyncStatus(BaseRepository.TYPE_Synced);
-                    if (isJurisdiction)
-                        locationRepository.addOrUpdate(location);
-                    else {
-                        structureRepository.addOrUpdate(location);
-                    }
-                    location.setGeometry(null);
-                } catch (Exception e) {
-                    Timber.e(e, "EXCEPTION %s", e.toString());
+                if (result.getSkipped() > 0) {
+                    Timber.w("%d %s could not be saved and were skipped", result.getSkipped(), isJurisdiction ? "locations" : "structures");
                 }
-            }
-            if (!Utils.isEmptyCollection(locations)) {
-                String maxServerVersion = getMaxServerVersion(locations);
-                String updateKey = isJurisdiction ? LOCATION_LAST_SYNC_DATE : STRUCTURES_LAST_SYNC_DATE;
-                allSharedPreferences.savePreference(updateKey, maxServerVersion);
-
-                // retry fetch since there were items synced from the server
-                locations.addAll(batchLocationStructures);
-                syncProgress.setPercentageSynced(Utils.calculatePercentage(totalRecords, locations.size()));
+                allSharedPreferences.savePreference(updateKey, String.valueOf(result.getMaxServerVersion()));
+                synced += result.getParsed();
+                syncProgress.setPercentageSynced(Utils.calculatePercentage(totalRecords, synced));
                 sendSyncProgressBroadcast(syncProgress, context);
-                return batchSyncLocationsStructures(isJurisdiction, locations, false);
-
             }
         } catch (Exception e) {
             Timber.e(e, "EXCEPTION %s", e.toString());
         }
-        return batchLocationStructures;
+        return synced;
+    }
+
+    /**
+     * @return the server version of the last page synced, -1 if none was synced
+     */
+    private long getLastServerVersion(String updateKey) {
+        String currentServerVersion = allSharedPreferences.getPreference(updateKey);
+        try {
+            return StringUtils.isEmpty(currentServerVersion) ? -1 : Long.parseLong(currentServerVersion);
+        } catch (NumberFormatException e) {
+            Timber.e(e, "EXCEPTION %s", e.toString());
+            return -1;
+        }
     }
 
-    private String fetchLocationsOrStructures(boolean isJurisdiction, Long serverVersion, String locationFilterValue, boolean returnCount) throws Exception {
+    protected LocationStreamParser getLocationStreamParser(boolean isJurisdiction) {
+        return new LocationStreamParser(isJurisdiction ? locationRepository : structureRepository);
+    }
+
+    private LocationStreamParser.Result fetchLocationsOrStructures(boolean isJurisdiction, Long serverVersion, JSONArray parentIds,
+                                                                   boolean returnCount, LocationStreamParser streamParser) throws Exception {
 
         HTTPAgent httpAgent = getHttpAgent();
         if (httpAgent == null) {
@@ -195,7 +226,7 @@ public class LocationServiceHelper extends BaseHelper {
 
         String baseUrl = getFormattedBaseUrl();
 
-        Response<String> resp;
+        Response<LocationStreamParser.Result> resp;
 
         JSONObject request = new JSONObject();
         request.put(IS_JURISDICTION, isJurisdiction);
@@ -209,14 +240,14 @@ public class LocationServiceHelper extends BaseHelper {
                 request.put(LOCATION_IDS, new JSONArray(Arrays.asList(preferenceLocationIds.split(","))));
             }
         } else {
-            request.put(PARENT_ID, new JSONArray(Arrays.asList(locationFilterValue.split(","))));
+            request.put(PARENT_ID, parentIds);
         }
         request.put(AllConstants.SERVER_VERSION, serverVersion);
 
-        resp = httpAgent.post(MessageFormat.format("{0}{1}", baseUrl, LOCATION_STRUCTURE_URL),
-                request.toString());
+        resp = httpAgent.postStream(MessageFormat.format("{0}{1}", baseUrl, LOCATION_STRUCTURE_URL),
+                request.toString(), streamParser);
 
-        if (resp.isFailure()) {
+        if (resp.isFailure() || resp.payload() == null) {
             throw new NoHttpResponseException(LOCATION_STRUCTURE_URL + " not returned data");
         }
 
@@ -227,23 +258,37 @@ public class LocationServiceHelper extends BaseHelper {
         return resp.payload();
     }
 
-    private String getMaxServerVersion(List<Location> locations) {
-        long maxServerVersion = 0;
-        for (Location location : locations) {
-            long serverVersion = location.getServerVersion();
-            if (serverVersion > maxServerVersion) {
-                maxServerVersion = serverVersion;
-            }
-        }
-        return String.valueOf(maxServerVersion);
+    /**
+     * @return the structures synced, without their geometries
+     * @deprecated holds every synced structure in memory, use
+     * {@link #fetchLocationsStructures(LocationStreamParser.OnBatchSavedListener)}
+     */
+    @Deprecated
+    public List<Location> fetchLocationsStructures() {
+        List<Location> structures = new ArrayList<>();
+        fetchLocationsStructures(features -> addWithoutGeometry(features, structures));
+        return structures;
     }
 
-    public List<Location> fetchLocationsStructures() {
-        syncLocationsStructures(true);
-        List<Location> locations = syncLocationsStructures(false);
+    /**
+     * Syncs the locations and structures, then posts the ones created or updated locally
+     *
+     * @param onStructuresSaved notified of each batch of structures saved e.g. to read their ids
+     * @return the number of structures synced
+     */
+    public int fetchLocationsStructures(@Nullable LocationStreamParser.OnBatchSavedListener onStructuresSaved) {
+        syncLocationsStructures(true, null);
+        int structures = syncLocationsStructures(false, onStructuresSaved);
         syncCreatedStructureToServer();
         syncUpdatedLocationsToServer();
-        return locations;
+        return structures;
+    }
+
+    private static void addWithoutGeometry(List<Location> features, List<Location> locations) {
+        for (Location feature : features) {
+            feature.setGeometry(null);
+            locations.add(feature);
+        }
     }
 
     public void fetchLocationsByLevelAndTags() throws Exception {
@@ -0,0 +1,195 @@
+package org.smartregister.sync.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.domain.Location;
+import org.smartregister.repository.BaseRepository;
+import org.smartregister.repository.LocationRepository;
+import org.smartregister.service.ResponseStreamHandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Reads a page of locations or structures from the {@link LocationServiceHelper#LOCATION_STRUCTURE_URL} response
+ * one feature at a time and saves them to the repository in batches, so that the whole page is never held in memory.
+ * <p>
+ * A batch that fails to save is saved again one feature at a time and the features that still fail are skipped,
+ * so one bad feature does not keep the page from being synced when the rest of its batch saves. A batch none of whose
+ * features save, whatever its size, e.g. when the database can not be written stops the page, it is fetched again on
+ * the next sync.
+ */
+public class LocationStreamParser implements ResponseStreamHandler<LocationStreamParser.Result> {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final LocationRepository locationRepository;
+
+    private final int batchSize;
+
+    private OnBatchSavedListener onBatchSavedListener;
+
+    /**
+     * @param locationRepository the repository the features are saved to, a {@link org.smartregister.repository.StructureRepository} for structures
+     */
+    public LocationStreamParser(LocationRepository locationRepository) {
+        this(locationRepository, DEFAULT_BATCH_SIZE);
+    }
+
+    public LocationStreamParser(LocationRepository locationRepository, int batchSize) {
+        this.locationRepository = locationRepository;
+        this.batchSize = batchSize;
+    }
+
+    public void setOnBatchSavedListener(@Nullable OnBatchSavedListener onBatchSavedListener) {
+        this.onBatchSavedListener = onBatchSavedListener;
+    }
+
+    @Override
+    public Result handle(@NonNull InputStream inputStream) throws IOException {
+        Result result = new Result();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            try {
+                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    return result;
+                }
+            } catch (EOFException e) {
+                return result;
+            }
+
+            List<Location> batch = new ArrayList<>(batchSize);
+            reader.beginArray();
+            while (result.saved && reader.hasNext()) {
+                Location location = LocationServiceHelper.locationGson.fromJson(reader, Location.class);
+                if (location == null) {
+                    continue;
+                }
+                result.parsed++;
+                result.updateMaxServerVersion(location.getServerVersion());
+                if (StringUtils.isBlank(location.getId())) {
+                    Timber.w("Feature without id not saved");
+                    continue;
+                }
+                location.setSyncStatus(BaseRepository.TYPE_Synced);
+                batch.add(location);
+                if (batch.size() >= batchSize) {
+                    saveBatch(batch, result);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!result.saved) {
+                return result;
+            }
+            reader.endArray();
+            if (!batch.isEmpty()) {
+                saveBatch(batch, result);
+            }
+        }
+        return result;
+    }
+
+    private void saveBatch(List<Location> batch, Result result) {
+        if (locationRepository.batchInsertLocations(batch)) {
+            onBatchSaved(batch);
+            return;
+        }
+        // a single feature that fails has already been saved on its own
+        if (batch.size() == 1) {
+            result.saved = false;
+            return;
+        }
+        List<Location> saved = new ArrayList<>(batch.size());
+        List<Location> failed = new ArrayList<>();
+        for (Location location : batch) {
+            if (locationRepository.batchInsertLocations(Collections.singletonList(location))) {
+                saved.add(location);
+            } else {
+                failed.add(location);
+            }
+        }
+        if (saved.isEmpty()) {
+            result.saved = false;
+            return;
+        }
+        for (Location location : failed) {
+            Timber.w("Feature %s not saved, it is skipped", location.getId());
+        }
+        result.skipped += failed.size();
+        onBatchSaved(saved);
+    }
+
+    private void onBatchSaved(List<Location> features) {
+        if (onBatchSavedListener != null) {
+            onBatchSavedListener.onBatchSaved(features);
+        }
+    }
+
+    /**
+     * Notified of the features of each batch saved
+     */
+    public interface OnBatchSavedListener {
+
+        /**
+         * @param features the features saved, with their geometries. Keeping them holds their geometries in memory
+         */
+        void onBatchSaved(@NonNull List<Location> features);
+    }
+
+    /**
+     * Summary of a streamed page of locations or structures
+     */
+    public static class Result {
+
+        private int parsed;
+
+        private long maxServerVersion = -1;
+
+        private int skipped;
+
+        private boolean saved = true;
+
+        private void updateMaxServerVersion(Long serverVersion) {
+            if (serverVersion != null && serverVersion > maxServerVersion) {
+                maxServerVersion = serverVersion;
+            }
+        }
+
+        public int getParsed() {
+            return parsed;
+        }
+
+        /**
+         * @return the features of the page that could not be saved and were skipped
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the largest server version of the page, -1 if it had none
+         */
+        public long getMaxServerVersion() {
+            return maxServerVersion;
+        }
+
+        /**
+         * @return true if every batch read from the stream was saved, but for the features skipped
+         */
+        public boolean isSaved() {
+            return saved;
+        }
+    }
+}
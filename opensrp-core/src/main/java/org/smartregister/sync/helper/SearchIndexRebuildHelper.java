@@ -0,0 +1,78 @@
+package org.smartregister.sync.helper;
+
+import androidx.annotation.NonNull;
+
+import org.smartregister.commonregistry.CommonFtsObject;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.domain.SyncEntity;
+import org.smartregister.domain.SyncProgress;
+import org.smartregister.service.AlertService;
+import org.smartregister.util.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Rebuilds the search tables of all the registers in {@link CommonFtsObject}, e.g. after the search
+ * fields change or records are imported without being indexed. Progress is reported as a
+ * {@link SyncEntity#SEARCH_INDEX} sync progress broadcast.
+ */
+public class SearchIndexRebuildHelper extends BaseHelper {
+
+    public static final int BATCH_SIZE = 250;
+
+    private final org.smartregister.Context context;
+
+    public SearchIndexRebuildHelper(@NonNull org.smartregister.Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the number of records indexed
+     */
+    public int rebuildSearchIndexes() {
+        CommonFtsObject commonFtsObject = context.commonFtsObject();
+        if (commonFtsObject == null) {
+            return 0;
+        }
+
+        List<CommonRepository> repositories = new ArrayList<>();
+        long totalRecords = 0;
+        for (String table : commonFtsObject.getTables()) {
+            CommonRepository commonRepository = context.commonrepository(table);
+            if (commonRepository != null) {
+                repositories.add(commonRepository);
+                totalRecords += commonRepository.count();
+            }
+        }
+
+        final long total = totalRecords;
+        final SyncProgress syncProgress = new SyncProgress();
+        syncProgress.setSyncEntity(SyncEntity.SEARCH_INDEX);
+        syncProgress.setTotalRecords(total);
+        syncProgress.setPercentageSynced(0);
+        sendSyncProgressBroadcast(syncProgress, context.applicationContext());
+
+        int indexed = 0;
+        for (CommonRepository commonRepository : repositories) {
+            final int indexedBefore = indexed;
+            indexed += commonRepository.rebuildSearchIndex(BATCH_SIZE, (tableName, tableIndexed, tableTotal) -> {
+                syncProgress.setPercentageSynced(Utils.calculatePercentage(total, indexedBefore + tableIndexed));
+                sendSyncProgressBroadcast(syncProgress, context.applicationContext());
+            });
+            Timber.i("Rebuilt the search index of %s", commonRepository.TABLE_NAME);
+        }
+
+        // alert statuses and visit codes are written to the search tables by the alerts
+        AlertService alertService = context.alertService();
+        if (alertService != null) {
+            alertService.updateFtsSearchOfAllAlerts();
+        }
+
+        syncProgress.setPercentageSynced(100);
+        sendSyncProgressBroadcast(syncProgress, context.applicationContext());
+        return indexed;
+    }
+}
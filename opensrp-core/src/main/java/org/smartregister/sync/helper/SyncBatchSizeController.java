@@ -0,0 +1,175 @@
+package org.smartregister.sync.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.smartregister.repository.AllSharedPreferences;
+
+import timber.log.Timber;
+
+/**
+ * Adjusts the number of records requested per sync page from the measured round trip time,
+ * payload size and failures of previous pages.
+ * <p>
+ * The batch size grows while pages come back well within the target round trip time, shrinks in proportion
+ * when a page takes longer than the target or exceeds the maximum payload size and is halved when a request fails.
+ * The last batch size that completed successfully is saved so that the next sync starts from it.
+ */
+public class SyncBatchSizeController {
+
+    public static final String PULL = "PULL";
+
+    public static final String PUSH = "PUSH";
+
+    @VisibleForTesting
+    protected static final float GROWTH_FACTOR = 1.5f;
+
+    private final String batchType;
+
+    private final int minBatchSize;
+
+    private final int maxBatchSize;
+
+    private final long targetRoundTripMillis;
+
+    private final long maxPayloadBytes;
+
+    private final AllSharedPreferences allSharedPreferences;
+
+    private int batchSize;
+
+    private int lastGoodBatchSize;
+
+    private int consecutiveFailures;
+
+    // the most records the server returned for a page it filled
+    private int largestFullPage;
+
+    // the page size the server is known to limit pages to
+    private int serverLimit = Integer.MAX_VALUE;
+
+    public SyncBatchSizeController(@NonNull String batchType, int defaultBatchSize, int minBatchSize, int maxBatchSize,
+                                   long targetRoundTripMillis, long maxPayloadBytes, @NonNull AllSharedPreferences allSharedPreferences) {
+        this.batchType = batchType;
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.targetRoundTripMillis = targetRoundTripMillis;
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.allSharedPreferences = allSharedPreferences;
+        this.lastGoodBatchSize = bound(allSharedPreferences.fetchSyncBatchSize(batchType, defaultBatchSize));
+        this.batchSize = lastGoodBatchSize;
+    }
+
+    /**
+     * @return the number of records to request for the next page
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getLastGoodBatchSize() {
+        return lastGoodBatchSize;
+    }
+
+    /**
+     * Records a page that was transferred successfully using the current batch size
+     *
+     * @param roundTripMillis time taken from sending the request to reading the whole response
+     * @param payloadBytes    size of the transferred payload, 0 if unknown
+     */
+    public void onSuccess(long roundTripMillis, long payloadBytes) {
+        onSuccess(roundTripMillis, payloadBytes, -1);
+    }
+
+    /**
+     * Records a page that was transferred successfully using the current batch size. The batch size only
+     * grows after pages the server filled and never above the page size the server is found to limit pages to.
+     *
+     * @param roundTripMillis time taken from sending the request to reading the whole response, without saving it
+     * @param payloadBytes    size of the transferred payload, 0 if unknown
+     * @param recordCount     the number of records the page had, -1 if unknown
+     */
+    public void onSuccess(long roundTripMillis, long payloadBytes, int recordCount) {
+        consecutiveFailures = 0;
+        if (batchSize != lastGoodBatchSize) {
+            lastGoodBatchSize = batchSize;
+            allSharedPreferences.saveSyncBatchSize(batchType, lastGoodBatchSize);
+        }
+
+        if (recordCount >= batchSize) {
+            largestFullPage = Math.max(largestFullPage, recordCount);
+        } else if (recordCount > 0 && largestFullPage > 0 && recordCount >= largestFullPage) {
+            // fewer records than requested but at least a full page, the server limits the page size
+            serverLimit = recordCount;
+            Timber.d("%s sync pages are limited to %d records by the server", batchType, serverLimit);
+        }
+
+        int nextBatchSize = batchSize;
+        if (maxPayloadBytes > 0 && payloadBytes > maxPayloadBytes) {
+            nextBatchSize = (int) (batchSize * maxPayloadBytes / payloadBytes);
+        } else if (roundTripMillis > targetRoundTripMillis) {
+            nextBatchSize = Math.max(batchSize / 2, (int) (batchSize * targetRoundTripMillis / roundTripMillis));
+        } else if (roundTripMillis * 2 <= targetRoundTripMillis && (recordCount < 0 || recordCount >= batchSize)) {
+            nextBatchSize = (int) Math.ceil(batchSize * GROWTH_FACTOR);
+        }
+        setBatchSize(Math.min(nextBatchSize, serverLimit));
+    }
+
+    /**
+     * Whether a page may have left out records because it was full. A page with fewer records than requested
+     * is also full if the server limits pages to its size, or may do so as the page is as large as the largest
+     * page the server filled.
+     *
+     * @param recordCount        the number of records the page had
+     * @param requestedBatchSize the batch size the page was requested with
+     */
+    public boolean isFullPage(int recordCount, int requestedBatchSize) {
+        return recordCount >= Math.min(requestedBatchSize, serverLimit)
+                || (largestFullPage > 0 && requestedBatchSize > largestFullPage && recordCount >= largestFullPage);
+    }
+
+    /**
+     * @return the number of bytes the text takes encoded in UTF-8, without encoding it
+     */
+    public static long utf8Length(@NonNull CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Records a page that failed or timed out, the batch size is halved for the next attempt
+     */
+    public void onFailure() {
+        consecutiveFailures++;
+        setBatchSize(batchSize / 2);
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    private void setBatchSize(int nextBatchSize) {
+        nextBatchSize = bound(nextBatchSize);
+        if (nextBatchSize != batchSize) {
+            Timber.d("%s sync batch size changed from %d to %d", batchType, batchSize, nextBatchSize);
+            batchSize = nextBatchSize;
+        }
+    }
+
+    private int bound(int size) {
+        return Math.min(maxBatchSize, Math.max(minBatchSize, size));
+    }
+}
@@ -17,6 +17,7 @@ import org.smartregister.domain.Response;
 import org.smartregister.domain.jsonmapping.util.LocationTree;
 import org.smartregister.dto.UserAssignmentDTO;
 import org.smartregister.exception.NoHttpResponseException;
+import org.smartregister.location.helper.LocationHelper;
 import org.smartregister.repository.AllSettings;
 import org.smartregister.repository.AllSharedPreferences;
 import org.smartregister.repository.LocationRepository;
@@ -175,6 +176,10 @@ public class ValidateAssignmentHelper extends BaseHelper {
         }
         settingsRepository.saveANMLocation(gson.toJson(locationTree));
         anmLocationController.evict();
+        LocationHelper locationHelper = LocationHelper.getInstance();
+        if (locationHelper != null) {
+            locationHelper.updateLocationHierarchy(locationTree);
+        }
         String defaultLocationUuid = allSharedPreferences.fetchDefaultLocalityId(allSharedPreferences.fetchRegisteredANM());
         if (StringUtils.isNotBlank(defaultLocationUuid) && removedAssignments.contains(defaultLocationUuid)) {
             logoff(R.string.default_location_revoked_logged_off);
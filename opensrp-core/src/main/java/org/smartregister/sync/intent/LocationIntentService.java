@@ -26,7 +26,7 @@ public class LocationIntentService extends BaseSyncIntentService {
         super.onHandleIntent(intent);
         LocationServiceHelper locationServiceHelper = LocationServiceHelper.getInstance();
 
-        locationServiceHelper.fetchLocationsStructures();
+        locationServiceHelper.fetchLocationsStructures(null);
 
     }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package org.smartregister.sync.intent;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+import androidx.annotation.Nullable;
+
+import org.smartregister.CoreLibrary;
+import org.smartregister.sync.helper.SearchIndexRebuildHelper;
+
+import timber.log.Timber;
+
+/**
+ * Rebuilds the register search tables in the background, see {@link SearchIndexRebuildHelper}
+ */
+public class SearchIndexRebuildIntentService extends IntentService {
+
+    private static final String TAG = "SearchIndexRebuildIntentService";
+
+    public SearchIndexRebuildIntentService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(@Nullable Intent intent) {
+        try {
+            int indexed = new SearchIndexRebuildHelper(CoreLibrary.getInstance().context()).rebuildSearchIndexes();
+            Timber.i("Rebuilt the search index of %d records", indexed);
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+}
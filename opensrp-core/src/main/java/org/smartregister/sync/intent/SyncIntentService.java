@@ -19,6 +19,7 @@ import android.util.Pair;
 
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.google.firebase.perf.metrics.Trace;
@@ -37,11 +38,15 @@ import org.smartregister.domain.Response;
 import org.smartregister.domain.SyncEntity;
 import org.smartregister.domain.SyncProgress;
 import org.smartregister.domain.db.EventClient;
+import org.smartregister.domain.db.EventClientPushBatch;
 import org.smartregister.receiver.SyncStatusBroadcastReceiver;
 import org.smartregister.repository.AllSharedPreferences;
 import org.smartregister.repository.EventClientRepository;
 import org.smartregister.service.HTTPAgent;
 import org.smartregister.sync.helper.ECSyncHelper;
+import org.smartregister.sync.helper.EventClientStreamParser;
+import org.smartregister.sync.helper.EventSyncPipeline;
+import org.smartregister.sync.helper.SyncBatchSizeController;
 import org.smartregister.sync.helper.ValidateAssignmentHelper;
 import org.smartregister.util.NetworkUtils;
 import org.smartregister.util.SyncUtils;
@@ -72,11 +77,14 @@ public class SyncIntentService extends BaseSyncIntentService {
     private Trace processClientTrace;
     private String team;
     private AllSharedPreferences allSharedPreferences = CoreLibrary.getInstance().context().allSharedPreferences();
-    private long totalRecords;
+    private volatile long totalRecords;
     private int fetchedRecords = 0;
     private int totalRecordsCount = 0;
     //this variable using to track the sync request goes along with add events/clients
     private boolean isEmptyToAdd = true;
+    private SyncBatchSizeController pullBatchSizeController;
+    private SyncBatchSizeController pushBatchSizeController;
+    private int requestedEventPullLimit = EVENT_PULL_LIMIT;
 
     public SyncIntentService() {
         super("SyncIntentService");
@@ -95,6 +103,21 @@ public class SyncIntentService extends BaseSyncIntentService {
         String providerId = allSharedPreferences.fetchRegisteredANM();
         team = allSharedPreferences.fetchDefaultTeam(providerId);
         validateAssignmentHelper = new ValidateAssignmentHelper(syncUtils);
+        initBatchSizeControllers(CoreLibrary.getInstance().getSyncConfiguration());
+    }
+
+    private void initBatchSizeControllers(SyncConfiguration configs) {
+        if (configs == null || !configs.isAdaptiveSyncBatchSize()) {
+            pullBatchSizeController = null;
+            pushBatchSizeController = null;
+            return;
+        }
+        pullBatchSizeController = new SyncBatchSizeController(SyncBatchSizeController.PULL, EVENT_PULL_LIMIT,
+                configs.getMinEventPullLimit(), configs.getMaxEventPullLimit(),
+                configs.getTargetSyncRoundTripMillis(), configs.getMaxSyncPayloadBytes(), allSharedPreferences);
+        pushBatchSizeController = new SyncBatchSizeController(SyncBatchSizeController.PUSH, EVENT_PUSH_LIMIT,
+                configs.getMinEventPushLimit(), configs.getMaxEventPushLimit(),
+                configs.getTargetSyncRoundTripMillis(), configs.getMaxSyncPayloadBytes(), allSharedPreferences);
     }
 
     @Override
@@ -146,7 +169,36 @@ public class SyncIntentService extends BaseSyncIntentService {
     }
 
     protected void pullECFromServer() {
-        fetchRetry(0, true);
+        if (CoreLibrary.getInstance().getSyncConfiguration().isPipelinedEventClientPull()) {
+            pipelinedPull();
+        } else {
+            fetchRetry(0, true);
+        }
+    }
+
+    /**
+     * Pulls pages of clients and events through an {@link EventSyncPipeline} so that the next page is
+     * downloaded while the previous pages are saved and processed
+     */
+    private void pipelinedPull() {
+        SyncConfiguration configs = CoreLibrary.getInstance().getSyncConfiguration();
+        if (configs.getSyncFilterParam() == null || StringUtils.isBlank(configs.getSyncFilterValue()) || httpAgent == null) {
+            complete(FetchStatus.fetchedFailed);
+            return;
+        }
+
+        ECSyncHelper ecSyncUpdater = ECSyncHelper.getInstance(context);
+        long lastSyncDatetime = ecSyncUpdater.getLastSyncTimeStamp();
+        Timber.i("LAST SYNC DT %s", new DateTime(lastSyncDatetime));
+
+        EventSyncPipeline.Status status = new EventSyncPipeline(new PipelinedPullStages(configs, ecSyncUpdater)).run(lastSyncDatetime);
+        Timber.i("Pipelined pull finished with status %s", status);
+        if (status == EventSyncPipeline.Status.COMPLETED) {
+            complete(FetchStatus.nothingFetched);
+            sendSyncProgressBroadcast(0); // Complete progress update
+        } else {
+            complete(FetchStatus.fetchedFailed);
+        }
     }
 
     private synchronized void fetchRetry(final int count, boolean returnCount) {
@@ -170,10 +222,21 @@ public class SyncIntentService extends BaseSyncIntentService {
 
             startEventTrace(FETCH, 0);
 
+            requestedEventPullLimit = getEventPullLimit();
             BaseSyncIntentService.RequestParamsBuilder syncParamBuilder = new BaseSyncIntentService.RequestParamsBuilder().
-                    configureSyncFilter(configs.getSyncFilterParam().value(), configs.getSyncFilterValue()).addServerVersion(lastSyncDatetime).addEventPullLimit(getEventPullLimit());
+                    configureSyncFilter(configs.getSyncFilterParam().value(), configs.getSyncFilterValue()).addServerVersion(lastSyncDatetime).addEventPullLimit(requestedEventPullLimit);
 
-            Response resp = getUrlResponse(baseUrl + SYNC_URL, syncParamBuilder, configs, returnCount);
+            long requestStartTime = System.currentTimeMillis();
+            Response resp;
+            if (configs.isStreamEventClientPull()) {
+                resp = getStreamedUrlResponse(baseUrl + SYNC_URL, syncParamBuilder, configs, returnCount, ecSyncUpdater.getEventClientStreamParser());
+            } else {
+                resp = getUrlResponse(baseUrl + SYNC_URL, syncParamBuilder, configs, returnCount);
+            }
+            long roundTripMillis = System.currentTimeMillis() - requestStartTime;
+            if (isFailedPull(resp)) {
+                updatePullBatchSize(resp, roundTripMillis, -1);
+            }
             if (resp == null) {
                 FetchStatus.fetchedFailed.setDisplayValue("Empty response");
                 complete(FetchStatus.fetchedFailed);
@@ -200,7 +263,11 @@ public class SyncIntentService extends BaseSyncIntentService {
                 totalRecords = resp.getTotalRecords();
             }
 
-            processFetchedEvents(resp, ecSyncUpdater, count);
+            if (configs.isStreamEventClientPull()) {
+                processStreamedEvents(resp, ecSyncUpdater, count, roundTripMillis);
+            } else {
+                processFetchedEvents(resp, ecSyncUpdater, count, roundTripMillis);
+            }
 
         } catch (Exception e) {
             Timber.e(e, "Fetch Retry Exception:  %s", e.getMessage());
@@ -234,7 +301,44 @@ public class SyncIntentService extends BaseSyncIntentService {
 
     }
 
-    private void processFetchedEvents(Response resp, ECSyncHelper ecSyncUpdater, final int count) throws JSONException {
+    /**
+     * Makes the sync request like {@link #getUrlResponse(String, RequestParamsBuilder, SyncConfiguration, boolean)}
+     * but hands the response body to the {@link EventClientStreamParser} which saves the clients and events as they are read
+     *
+     * @param baseURL              the base url for the request
+     * @param requestParamsBuilder the query string builder object
+     * @param configs              the Sync Configuration object with various configurations
+     * @param returnCount          a boolean flag, whether to return the total count of records as part of the response (field - total_records)
+     * @param streamParser         the parser that saves the streamed clients and events
+     */
+    protected Response<EventClientStreamParser.Result> getStreamedUrlResponse(@NonNull String baseURL, @NonNull BaseSyncIntentService.RequestParamsBuilder requestParamsBuilder,
+                                                                              @NonNull SyncConfiguration configs, boolean returnCount, @NonNull EventClientStreamParser streamParser) {
+        if (configs.isSyncUsingPost()) {
+            return httpAgent.postStream(baseURL, requestParamsBuilder.returnCount(returnCount).build(), streamParser);
+        } else {
+            String requestUrl = baseURL + "?" + requestParamsBuilder.build();
+            Timber.i("URL: %s", requestUrl);
+            return httpAgent.fetchStream(requestUrl, streamParser);
+        }
+    }
+
+    private void processStreamedEvents(Response<EventClientStreamParser.Result> resp, ECSyncHelper ecSyncUpdater, final int count, long roundTripMillis) {
+        EventClientStreamParser.Result result = resp.payload();
+        int eCount = result == null ? 0 : result.getNumberOfEvents();
+        Timber.i("Streamed Network Event Count: %s", eCount);
+        updatePullBatchSize(resp, roundTripMillis, eCount);
+
+        if (eCount == 0) {
+            complete(FetchStatus.nothingFetched);
+            sendSyncProgressBroadcast(eCount); // Complete progress update
+        } else if (eCount < 0) {
+            fetchFailed(count);
+        } else {
+            processSavedEvents(eCount, result.getMinMaxServerVersions(), result.isSaved(), ecSyncUpdater);
+        }
+    }
+
+    private void processFetchedEvents(Response resp, ECSyncHelper ecSyncUpdater, final int count, long roundTripMillis) throws JSONException {
         int eCount;
         JSONObject jsonObject = new JSONObject();
         if (resp.payload() == null) {
@@ -244,6 +348,7 @@ public class SyncIntentService extends BaseSyncIntentService {
             eCount = fetchNumberOfEvents(jsonObject);
             Timber.i("Parse Network Event Count: %s", eCount);
         }
+        updatePullBatchSize(resp, roundTripMillis, eCount);
 
         if (eCount == 0) {
             complete(FetchStatus.nothingFetched);
@@ -251,29 +356,59 @@ public class SyncIntentService extends BaseSyncIntentService {
         } else if (eCount < 0) {
             fetchFailed(count);
         } else {
-            final Pair<Long, Long> serverVersionPair = getMinMaxServerVersions(jsonObject);
-            long lastServerVersion = serverVersionPair.second - 1;
-            if (eCount < getEventPullLimit()) {
-                lastServerVersion = serverVersionPair.second;
-            }
+            boolean isSaved = ecSyncUpdater.saveAllClientsAndEvents(jsonObject);
+            processSavedEvents(eCount, getMinMaxServerVersions(jsonObject), isSaved, ecSyncUpdater);
+        }
+    }
 
-            addAttribute(eventSyncTrace, COUNT, String.valueOf(eCount));
-            stopTrace(eventSyncTrace);
+    /**
+     * @param roundTripMillis time taken to request and read the page
+     * @param eventCount      the number of events of the page, -1 if unknown
+     */
+    private void updatePullBatchSize(Response resp, long roundTripMillis, int eventCount) {
+        if (pullBatchSizeController == null) {
+            return;
+        }
+        if (isFailedPull(resp)) {
+            pullBatchSizeController.onFailure();
+        } else if (resp.payload() instanceof EventClientStreamParser.Result) {
+            EventClientStreamParser.Result result = (EventClientStreamParser.Result) resp.payload();
+            // a streamed page is saved while it is read, only the network time sizes the pages
+            pullBatchSizeController.onSuccess(Math.max(0, roundTripMillis - result.getSaveMillis()), result.getByteCount(), eventCount);
+        } else if (resp.payload() instanceof String) {
+            pullBatchSizeController.onSuccess(roundTripMillis, SyncBatchSizeController.utf8Length((String) resp.payload()), eventCount);
+        } else {
+            pullBatchSizeController.onSuccess(roundTripMillis, 0, eventCount);
+        }
+    }
 
-            boolean isSaved = ecSyncUpdater.saveAllClientsAndEvents(jsonObject);
-            //update sync time if all event client is save.
-            if (isSaved) {
-                startTrace(processClientTrace);
-                processClient(serverVersionPair);
-                addAttribute(processClientTrace, COUNT, String.valueOf(eCount));
-                addAttribute(processClientTrace, TEAM, team);
-                stopTrace(processClientTrace);
-                ecSyncUpdater.updateLastSyncTimeStamp(lastServerVersion);
-            }
-            sendSyncProgressBroadcast(eCount);
-            fetchRetry(0, true);
+    private void processSavedEvents(int eCount, Pair<Long, Long> serverVersionPair, boolean isSaved, ECSyncHelper ecSyncUpdater) {
+        long lastServerVersion = getLastServerVersion(eCount, serverVersionPair, requestedEventPullLimit);
 
+        addAttribute(eventSyncTrace, COUNT, String.valueOf(eCount));
+        stopTrace(eventSyncTrace);
+
+        //update sync time if all event client is save.
+        if (isSaved) {
+            startTrace(processClientTrace);
+            processClient(serverVersionPair);
+            addAttribute(processClientTrace, COUNT, String.valueOf(eCount));
+            addAttribute(processClientTrace, TEAM, team);
+            stopTrace(processClientTrace);
+            ecSyncUpdater.updateLastSyncTimeStamp(lastServerVersion);
         }
+        sendSyncProgressBroadcast(eCount);
+        fetchRetry(0, true);
+    }
+
+    private boolean isFailedPull(Response resp) {
+        return resp == null || resp.isFailure() || resp.isUrlError() || resp.isTimeoutError();
+    }
+
+    private long getLastServerVersion(int eCount, Pair<Long, Long> serverVersionPair, int pullLimit) {
+        boolean fullPage = pullBatchSizeController != null ? pullBatchSizeController.isFullPage(eCount, pullLimit) : eCount >= pullLimit;
+        // a full page may have left out events sharing the max server version, fetch them again with the next page
+        return fullPage ? serverVersionPair.second - 1 : serverVersionPair.second;
     }
 
     public void fetchFailed(int count) {
@@ -296,6 +431,135 @@ public class SyncIntentService extends BaseSyncIntentService {
         }
     }
 
+    /**
+     * Fetches, saves and processes the pages of a pipelined pull, see {@link EventSyncPipeline}
+     */
+    private class PipelinedPullStages implements EventSyncPipeline.Stages {
+
+        private final SyncConfiguration configs;
+
+        private final ECSyncHelper ecSyncUpdater;
+
+        private final String syncUrl;
+
+        private PipelinedPullStages(SyncConfiguration configs, ECSyncHelper ecSyncUpdater) {
+            this.configs = configs;
+            this.ecSyncUpdater = ecSyncUpdater;
+            this.syncUrl = getFormattedBaseUrl() + SYNC_URL;
+        }
+
+        @Nullable
+        @Override
+        public EventSyncPipeline.Page fetch(long serverVersion) {
+            for (int count = 0; count <= configs.getSyncMaxRetries(); count++) {
+                try {
+                    EventSyncPipeline.Page page = fetchPage(serverVersion, count == 0);
+                    if (page != null) {
+                        return page;
+                    }
+                } catch (UrlOrTimeoutException e) {
+                    FetchStatus.fetchedFailed.setDisplayValue(e.getMessage());
+                    return null;
+                } catch (Exception e) {
+                    Timber.e(e, "Fetch Retry Exception:  %s", e.getMessage());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the fetched page or null if the request should be retried
+         */
+        private EventSyncPipeline.Page fetchPage(long serverVersion, boolean returnCount) throws JSONException, UrlOrTimeoutException {
+            startEventTrace(FETCH, 0);
+
+            int pullLimit = getEventPullLimit();
+            BaseSyncIntentService.RequestParamsBuilder syncParamBuilder = new BaseSyncIntentService.RequestParamsBuilder().
+                    configureSyncFilter(configs.getSyncFilterParam().value(), configs.getSyncFilterValue()).addServerVersion(serverVersion).addEventPullLimit(pullLimit);
+
+            long requestStartTime = System.currentTimeMillis();
+            Response resp;
+            if (configs.isStreamEventClientPull()) {
+                resp = getStreamedUrlResponse(syncUrl, syncParamBuilder, configs, returnCount, ecSyncUpdater.getEventClientStreamParser(serverVersion));
+            } else {
+                resp = getUrlResponse(syncUrl, syncParamBuilder, configs, returnCount);
+            }
+            long roundTripMillis = System.currentTimeMillis() - requestStartTime;
+            if (isFailedPull(resp)) {
+                updatePullBatchSize(resp, roundTripMillis, -1);
+            }
+            if (resp == null) {
+                throw new UrlOrTimeoutException("Empty response");
+            }
+            if (resp.isUrlError() || resp.isTimeoutError()) {
+                throw new UrlOrTimeoutException(resp.status().displayValue());
+            }
+            if (resp.isFailure()) {
+                return null;
+            }
+            if (returnCount) {
+                totalRecords = resp.getTotalRecords();
+            }
+
+            int eCount;
+            EventSyncPipeline.Page page;
+            if (resp.payload() instanceof EventClientStreamParser.Result) {
+                EventClientStreamParser.Result result = (EventClientStreamParser.Result) resp.payload();
+                eCount = result.getNumberOfEvents();
+                updatePullBatchSize(resp, roundTripMillis, eCount);
+                Pair<Long, Long> serverVersionPair = result.getMinMaxServerVersions();
+                page = new EventSyncPipeline.Page(null, eCount, serverVersionPair,
+                        getLastServerVersion(eCount, serverVersionPair, pullLimit), result.isSaved());
+            } else if (resp.payload() != null) {
+                JSONObject jsonObject = new JSONObject((String) resp.payload());
+                eCount = fetchNumberOfEvents(jsonObject);
+                updatePullBatchSize(resp, roundTripMillis, eCount);
+                Pair<Long, Long> serverVersionPair = getMinMaxServerVersions(jsonObject);
+                page = new EventSyncPipeline.Page(jsonObject, eCount, serverVersionPair,
+                        getLastServerVersion(eCount, serverVersionPair, pullLimit), false);
+            } else {
+                eCount = 0;
+                updatePullBatchSize(resp, roundTripMillis, eCount);
+                page = new EventSyncPipeline.Page(null, 0, Pair.create(0L, 0L), serverVersion, false);
+            }
+            Timber.i("Pipelined Network Event Count: %s", eCount);
+
+            addAttribute(eventSyncTrace, COUNT, String.valueOf(eCount));
+            stopTrace(eventSyncTrace);
+            return eCount < 0 ? null : page;
+        }
+
+        @Override
+        public boolean save(@NonNull EventSyncPipeline.Page page) {
+            return page.getPayload() == null ? page.isSaved() : ecSyncUpdater.saveAllClientsAndEvents(page.getPayload());
+        }
+
+        @Override
+        public void process(@NonNull EventSyncPipeline.Page page) {
+            startTrace(processClientTrace);
+            processClient(page.getServerVersions());
+            addAttribute(processClientTrace, COUNT, String.valueOf(page.getEventCount()));
+            addAttribute(processClientTrace, TEAM, team);
+            stopTrace(processClientTrace);
+        }
+
+        @Override
+        public void commit(@NonNull EventSyncPipeline.Page page) {
+            ecSyncUpdater.updateLastSyncTimeStamp(page.getLastServerVersion());
+            sendSyncProgressBroadcast(page.getEventCount());
+        }
+    }
+
+    /**
+     * Thrown when a pipelined fetch fails in a way that should not be retried
+     */
+    private static class UrlOrTimeoutException extends Exception {
+
+        private UrlOrTimeoutException(String message) {
+            super(message);
+        }
+    }
+
     // PUSH TO SERVER
     private boolean pushToServer() {
         return pushECToServer(CoreLibrary.getInstance().context().getEventClientRepository()) &&
@@ -315,42 +579,59 @@ public class SyncIntentService extends BaseSyncIntentService {
         }
 
         for (int i = 0; i < syncUtils.getNumOfSyncAttempts(); i++) {
-            Map<String, Object> pendingEventsClients = db.getUnSyncedEvents(getEventBatchSize());
+            Map<String, Object> pendingEventsClients = null;
+            EventClientPushBatch pushBatch = null;
+            String jsonPayload = null;
+            if (CoreLibrary.getInstance().getSyncConfiguration().isStreamEventClientPush()) {
+                pushBatch = db.getUnSyncedEventClientPushBatch(getEventBatchSize());
+                if (pushBatch.isEmpty()) {
+                    break;
+                }
+                eventsUploadedCount += pushBatch.getEventCount();
+            } else {
+                pendingEventsClients = db.getUnSyncedEvents(getEventBatchSize());
 
-            if (pendingEventsClients.isEmpty()) {
-                break;
-            }
-            // create request body
-            JSONObject request = new JSONObject();
-            try {
-                if (pendingEventsClients.containsKey(AllConstants.KEY.CLIENTS)) {
-                    Object value = pendingEventsClients.get(AllConstants.KEY.CLIENTS);
-                    request.put(AllConstants.KEY.CLIENTS, value);
-
-                    if (value instanceof List) {
-                        eventsUploadedCount += ((List) value).size();
-                    }
+                if (pendingEventsClients.isEmpty()) {
+                    break;
                 }
-                if (pendingEventsClients.containsKey(AllConstants.KEY.EVENTS)) {
-                    request.put(AllConstants.KEY.EVENTS, pendingEventsClients.get(AllConstants.KEY.EVENTS));
+                // create request body
+                JSONObject request = new JSONObject();
+                try {
+                    if (pendingEventsClients.containsKey(AllConstants.KEY.CLIENTS)) {
+                        Object value = pendingEventsClients.get(AllConstants.KEY.CLIENTS);
+                        request.put(AllConstants.KEY.CLIENTS, value);
+
+                        if (value instanceof List) {
+                            eventsUploadedCount += ((List) value).size();
+                        }
+                    }
+                    if (pendingEventsClients.containsKey(AllConstants.KEY.EVENTS)) {
+                        request.put(AllConstants.KEY.EVENTS, pendingEventsClients.get(AllConstants.KEY.EVENTS));
+                    }
+                } catch (JSONException e) {
+                    Timber.e(e);
                 }
-            } catch (JSONException e) {
-                Timber.e(e);
+                jsonPayload = request.toString();
             }
 
             isEmptyToAdd = false;
-            String jsonPayload = request.toString();
             startEventTrace(PUSH, eventsUploadedCount);
-            Response<String> response = httpAgent.post(
-                    MessageFormat.format("{0}/{1}",
-                            baseUrl,
-                            ADD_URL),
-                    jsonPayload);
+            long requestStartTime = System.currentTimeMillis();
+            String addUrl = MessageFormat.format("{0}/{1}", baseUrl, ADD_URL);
+            Response<String> response = pushBatch != null ? httpAgent.postStream(addUrl, pushBatch::writeTo)
+                    : httpAgent.post(addUrl, jsonPayload);
 
             if (response.isFailure()) {
                 Timber.e("Events sync failed.");
                 isSuccessfulPushSync = false;
+                if (pushBatchSizeController != null) {
+                    pushBatchSizeController.onFailure();
+                }
             } else {
+                if (pushBatchSizeController != null) {
+                    pushBatchSizeController.onSuccess(System.currentTimeMillis() - requestStartTime,
+                            pushBatch != null ? pushBatch.getJsonLength() : jsonPayload.length());
+                }
                 // do not mark items in list of failed events/clients as synced
                 Set<String> failedClients = null;
                 Set<String> failedEvents = null;
@@ -366,7 +647,11 @@ public class SyncIntentService extends BaseSyncIntentService {
                     }
                 }
 
-                db.markEventsAsSynced(pendingEventsClients, failedEvents, failedClients);
+                if (pushBatch != null) {
+                    db.markEventsAsSynced(pushBatch, failedEvents, failedClients);
+                } else {
+                    db.markEventsAsSynced(pendingEventsClients, failedEvents, failedClients);
+                }
 
                 Timber.i("Events synced successfully.");
 
@@ -509,7 +794,7 @@ public class SyncIntentService extends BaseSyncIntentService {
     }
 
     public int getEventPullLimit() {
-        return EVENT_PULL_LIMIT;
+        return pullBatchSizeController != null ? pullBatchSizeController.getBatchSize() : EVENT_PULL_LIMIT;
     }
 
     public HTTPAgent getHttpAgent() {
@@ -531,6 +816,6 @@ public class SyncIntentService extends BaseSyncIntentService {
     }
 
     protected Integer getEventBatchSize() {
-        return EVENT_PUSH_LIMIT;
+        return pushBatchSizeController != null ? pushBatchSizeController.getBatchSize() : EVENT_PUSH_LIMIT;
     }
 }
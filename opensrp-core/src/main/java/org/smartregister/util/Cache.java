@@ -4,8 +4,14 @@ import org.smartregister.domain.FetchStatus;
 import org.smartregister.event.CapturedPhotoInformation;
 import org.smartregister.event.Listener;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -16,20 +22,62 @@ import static org.smartregister.event.Event.FORM_SUBMITTED;
 import static org.smartregister.event.Event.ON_DATA_FETCHED;
 import static org.smartregister.event.Event.ON_PHOTO_CAPTURED;
 
+/**
+ * A thread safe cache of the values {@link CacheableData} fetches, bounded by its number of entries and
+ * optionally by the weight of its values, evicting the least recently used entries first.
+ * <p>
+ * A value missing from the cache is fetched once however many threads get it at the same time, the
+ * others wait for it to be fetched.
+ * <p>
+ * Entries are invalidated by the events that change the data they were fetched from. Every entry is
+ * invalidated by form submissions and fetches of new data, form submissions are notified with the id of the
+ * form instance rather than of the entity it changed. An entry got without tags is also invalidated by every
+ * captured photo and handled action. An entry got with tags, e.g. the ids of the entities it was fetched from,
+ * is otherwise only invalidated by {@link #evictTag(String)} and by the captured photos of its entities.
+ */
 public class Cache<T> {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
     private final Listener<String> formSubmittedListener;
     private final Listener<FetchStatus> actionsFetchedListener;
     private final Listener<CapturedPhotoInformation> photoCapturedListener;
     private final Listener<String> actionHandledListener;
-    private Map<String, T> value = new HashMap<String, T>();
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Weigher<T> weigher;
+    private final LinkedHashMap<String, CacheEntry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Loader<T>> loaders = new HashMap<>();
+    private long weight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
 
     public Cache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public Cache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @param maxEntries the entries kept
+     * @param maxWeight  the total weight of the values kept, as weighed by the weigher
+     */
+    public Cache(int maxEntries, long maxWeight, Weigher<T> weigher) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
         actionsFetchedListener = new Listener<FetchStatus>() {
             @Override
             public void onEvent(FetchStatus data) {
                 if (fetched.equals(data)) {
                     Timber.i("List cache invalidated as new data was fetched from server.");
-                    value.clear();
+                    evictAll();
                 }
             }
         };
@@ -37,20 +85,20 @@ public class Cache<T> {
             @Override
             public void onEvent(String reason) {
                 Timber.i(format("List cache invalidated: {0}.", reason));
-                value.clear();
+                evictAll();
             }
         };
         photoCapturedListener = new Listener<CapturedPhotoInformation>() {
             @Override
             public void onEvent(CapturedPhotoInformation data) {
-                value.clear();
+                invalidate(data != null ? data.entityId() : null);
             }
         };
         actionHandledListener = new Listener<String>() {
             @Override
             public void onEvent(String data) {
                 Timber.i(format("List cache invalidated as Action handled: {0}", data));
-                value.clear();
+                invalidate(data);
             }
         };
         ON_DATA_FETCHED.addListener(actionsFetchedListener);
@@ -60,18 +108,221 @@ public class Cache<T> {
     }
 
     public T get(String key, CacheableData<T> cacheableData) {
-        if (value.get(key) != null) {
-            return value.get(key);
+        return get(key, cacheableData, (String[]) null);
+    }
+
+    /**
+     * Gets the value of the key, fetching and caching it when it is not cached
+     *
+     * @param tags the tags of the entry if the value is fetched, it is then invalidated only by the events of its tags
+     */
+    public T get(String key, CacheableData<T> cacheableData, String... tags) {
+        Loader<T> loader;
+        boolean loading = false;
+        synchronized (this) {
+            CacheEntry<T> entry = entries.get(key);
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                return entry.value;
+            }
+            missCount.incrementAndGet();
+
+            loader = loaders.get(key);
+            if (loader == null || loader.thread == Thread.currentThread()) {
+                loader = new Loader<>(cacheableData);
+                loaders.put(key, loader);
+                loading = true;
+            }
+        }
+
+        if (!loading) {
+            return loader.await();
+        }
+
+        try {
+            loader.task.run();
+            T fetchedData = loader.await();
+            synchronized (this) {
+                // a value fetched while its entry was invalidated may already be out of date
+                if (fetchedData != null && !loader.stale) {
+                    put(key, new CacheEntry<>(fetchedData, weigh(fetchedData), tags));
+                }
+            }
+            return fetchedData;
+        } finally {
+            synchronized (this) {
+                if (loaders.get(key) == loader) {
+                    loaders.remove(key);
+                }
+            }
         }
-        T fetchedData = cacheableData.fetch();
-        value.put(key, fetchedData);
-        return fetchedData;
     }
 
-    public void evict(String key) {
-        if (value.get(key) != null) {
-            value.remove(key);
+    public synchronized void evict(String key) {
+        CacheEntry<T> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+        Loader<T> loader = loaders.get(key);
+        if (loader != null) {
+            loader.stale = true;
         }
     }
-}
 
+    /**
+     * Evicts the entries got with the tag
+     */
+    public synchronized void evictTag(String tag) {
+        Iterator<CacheEntry<T>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry<T> entry = iterator.next();
+            if (entry.hasTag(tag)) {
+                weight -= entry.weight;
+                iterator.remove();
+            }
+        }
+        invalidateLoaders();
+    }
+
+    public synchronized void evictAll() {
+        entries.clear();
+        weight = 0;
+        invalidateLoaders();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * @return the number of gets that found their value cached
+     */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of gets that fetched their value or waited for it to be fetched
+     */
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries evicted to keep the cache within its bounds
+     */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Evicts the entries without tags and the entries with the tag of an event
+     */
+    private synchronized void invalidate(String tag) {
+        Iterator<CacheEntry<T>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry<T> entry = iterator.next();
+            if (entry.tags == null || entry.hasTag(tag)) {
+                weight -= entry.weight;
+                iterator.remove();
+            }
+        }
+        invalidateLoaders();
+    }
+
+    // the tags of values being fetched are not known until they are cached
+    private void invalidateLoaders() {
+        for (Loader<T> loader : loaders.values()) {
+            loader.stale = true;
+        }
+    }
+
+    private void put(String key, CacheEntry<T> entry) {
+        CacheEntry<T> previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entry.weight;
+
+        Iterator<CacheEntry<T>> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+            CacheEntry<T> evicted = eldest.next();
+            weight -= evicted.weight;
+            eldest.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private long weigh(T value) {
+        return weigher != null ? weigher.weigh(value) : 0;
+    }
+
+    /**
+     * Weighs the values of a cache bounded by weight, e.g. by their approximate size in memory
+     */
+    public interface Weigher<T> {
+        long weigh(T value);
+    }
+
+    private static class CacheEntry<T> {
+
+        private final T value;
+
+        private final long weight;
+
+        private final String[] tags;
+
+        private CacheEntry(T value, long weight, String[] tags) {
+            this.value = value;
+            this.weight = weight;
+            this.tags = tags != null && tags.length > 0 ? tags : null;
+        }
+
+        private boolean hasTag(String tag) {
+            return tag != null && tags != null && Arrays.asList(tags).contains(tag);
+        }
+    }
+
+    private static class Loader<T> {
+
+        private final FutureTask<T> task;
+
+        private final Thread thread = Thread.currentThread();
+
+        // guarded by the cache
+        private boolean stale;
+
+        private Loader(CacheableData<T> cacheableData) {
+            this.task = new FutureTask<>(cacheableData::fetch);
+        }
+
+        private T await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return task.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
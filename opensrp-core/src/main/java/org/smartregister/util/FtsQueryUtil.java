@@ -0,0 +1,56 @@
+package org.smartregister.util;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Builds full text search MATCH arguments that look up exact values such as ids through the fts index
+ */
+public class FtsQueryUtil {
+
+    /**
+     * Returns the value as a quoted phrase of the tokens the simple tokenizer indexes for it,
+     * e.g. 3a221190-c004 becomes "3a221190 c004".
+     * A phrase can also match values that contain it, so matches should be compared to the value.
+     *
+     * @return the phrase, null if the value has no characters the tokenizer indexes
+     */
+    @Nullable
+    public static String toMatchPhrase(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder phrase = new StringBuilder(value.length() + 2).append('"');
+        boolean hasToken = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // the simple tokenizer splits on ASCII characters that are not letters or digits
+            if (c > 127 || Character.isLetterOrDigit(c)) {
+                phrase.append(c);
+                hasToken = true;
+            } else {
+                phrase.append(' ');
+            }
+        }
+        return hasToken ? phrase.append('"').toString() : null;
+    }
+
+    /**
+     * @return a MATCH argument matching any of the values, null if none of the values can be matched
+     */
+    @Nullable
+    public static String toMatchAnyPhrase(Collection<String> values) {
+        StringBuilder query = new StringBuilder();
+        for (String value : values) {
+            String phrase = toMatchPhrase(value);
+            if (phrase != null) {
+                if (query.length() > 0) {
+                    query.append(" OR ");
+                }
+                query.append(phrase);
+            }
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+}
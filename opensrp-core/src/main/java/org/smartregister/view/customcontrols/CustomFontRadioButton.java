@@ -46,6 +46,6 @@ public class CustomFontRadioButton extends RadioButton {
     public void setFontVariant(final FontVariant variant) {
         setTypeface(cache.get(variant.name(), () -> Typeface.createFromAsset(
                 CoreLibrary.getInstance().context().applicationContext().getAssets(),
-                variant.fontFile())));
+                variant.fontFile()), variant.fontFile()));
     }
 }
@@ -44,6 +44,7 @@ public class CustomFontTextView extends TextView {
     }
 
     public void setFontVariant(final FontVariant variant) {
+        // tagged with its asset so submitted forms do not invalidate it
         setTypeface(cache.get(variant.name(), new CacheableData<Typeface>() {
             @Override
             public Typeface fetch() {
@@ -52,6 +53,6 @@ public class CustomFontTextView extends TextView {
                         variant.fontFile());
 
             }
-        }));
+        }, variant.fontFile()));
     }
 }
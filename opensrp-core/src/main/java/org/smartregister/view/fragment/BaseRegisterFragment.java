@@ -271,6 +271,12 @@ public abstract class BaseRegisterFragment extends RecyclerViewFragment implemen
         setTotalPatients();
     }
 
+    @Override
+    protected void onRegisterCountUpdated() {
+        super.onRegisterCountUpdated();
+        setTotalPatients();
+    }
+
     @Override
     public void setTotalPatients() {
         if (headerTextDisplay != null) {
@@ -127,6 +127,32 @@ public class SmartRegisterQueryBuilderTest extends BaseUnitTest {
 
     }
 
+    @Test
+    public void testToStringFtsHitsSelectsTheSavedHits() {
+        String query = "SELECT COUNT(*) FROM table1 JOIN table2 ON table1.id = table2.entityId WHERE table1.id IS NOT NULL";
+        smartRegisterQueryBuilder.setSelectquery(query);
+
+        String actualQuery = smartRegisterQueryBuilder.toStringFtsHits("table1", "id", "created_at ASC");
+        assertEquals("SELECT COUNT(*) FROM table1 JOIN table2 ON table1.id = table2.entityId  WHERE table1.id IN "
+                + "(SELECT id FROM temp.search_hits WHERE query_id = ?)  ORDER BY table1.created_at ASC", actualQuery);
+    }
+
+    @Test
+    public void testToStringRankedFtsHitsOrdersTheRowsAsTheHitsWereSaved() {
+        smartRegisterQueryBuilder.setSelectquery("SELECT * FROM table1 WHERE table1.id IS NOT NULL");
+
+        String actualQuery = smartRegisterQueryBuilder.toStringRankedFtsHits("table1", "id");
+        assertEquals("SELECT * FROM table1  WHERE table1.id IN (SELECT id FROM temp.search_hits WHERE query_id = ?1)  "
+                + "ORDER BY (SELECT position FROM temp.search_hits WHERE query_id = ?1 AND id = table1.id)", actualQuery);
+    }
+
+    @Test
+    public void testRankedSearchQueryFtsSelectsTheMatchInfo() {
+        String actualQuery = smartRegisterQueryBuilder.rankedSearchQueryFts("table1", "is_closed = 0", "jo");
+        assertEquals("SELECT object_id, matchinfo(table1_search, 'pcx') FROM table1_search "
+                + "WHERE is_closed = 0 AND phrase MATCH 'jo*' ", actualQuery);
+    }
+
     @Test
     public void testSearchQueryFts() {
         String expectedQuery = "SELECT object_id FROM table1_search WHERE object_id " +
@@ -149,6 +175,31 @@ public class SmartRegisterQueryBuilderTest extends BaseUnitTest {
         assertEquals(expectedQuery, actualQuery);
     }
 
+    @Test
+    public void testSearchQueryFtsWithSeekCondition() {
+        String expectedQuery = "SELECT object_id FROM table1_search WHERE (where id in (1,2,3)) AND object_id > 'a' " +
+                "ORDER BY created_at ASC, object_id ASC LIMIT 10";
+        String actualQuery = smartRegisterQueryBuilder.searchQueryFts("table1",
+                "", "where id in (1,2,3)", "",
+                "created_at ASC, object_id ASC", 10, "object_id > 'a'");
+        assertEquals(expectedQuery, actualQuery);
+    }
+
+    @Test
+    public void testSearchQueryFtsWithSeekConditionAndNoOtherCondition() {
+        String expectedQuery = "SELECT object_id FROM table1_search WHERE object_id > 'a' ORDER BY object_id ASC LIMIT 10";
+        String actualQuery = smartRegisterQueryBuilder.searchQueryFts("table1",
+                new String[]{}, "", "", "object_id ASC", 10, "object_id > 'a'");
+        assertEquals(expectedQuery, actualQuery);
+    }
+
+    @Test
+    public void testAddKeysetPage() {
+        String actualQuery = smartRegisterQueryBuilder.addKeysetPage("SELECT * FROM task WHERE status IS NULL",
+                "_id > 'a'", "_id ASC", 10);
+        assertEquals("SELECT * FROM (SELECT * FROM task WHERE status IS NULL) WHERE _id > 'a' ORDER BY _id ASC LIMIT 10", actualQuery);
+    }
+
     @Test
     public void testCountQueryFts() {
         String expectedQuery = "SELECT COUNT(object_id) FROM table1_search " +
@@ -14,13 +14,16 @@ import org.smartregister.repository.TimelineEventRepository;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -223,6 +226,32 @@ public class AllCommonsRepositoryTest extends BaseUnitTest {
 
     }
 
+    @Test
+    public void testBatchUpdateSearchWritesFoundCasesAndReturnsMissingIds() {
+        List<String> caseIds = Arrays.asList("case-1", "case-2");
+        Map<String, ContentValues> searchMap = new HashMap<>();
+        searchMap.put("case-1", new ContentValues());
+        when(personRepository.batchPopulateSearchValues(caseIds)).thenReturn(searchMap);
+        when(personRepository.searchBatchReplace(searchMap)).thenReturn(true);
+
+        List<String> remainingIds = allCommonsRepository.batchUpdateSearch(caseIds);
+
+        assertEquals(Collections.singletonList("case-2"), remainingIds);
+        verify(personRepository).searchBatchReplace(searchMap);
+        verify(personRepository, never()).populateSearchValues(anyString());
+    }
+
+    @Test
+    public void testBatchUpdateSearchReturnsAllIdsWhenWriteFails() {
+        List<String> caseIds = Arrays.asList("case-1", "case-2");
+        Map<String, ContentValues> searchMap = new HashMap<>();
+        searchMap.put("case-1", new ContentValues());
+        when(personRepository.batchPopulateSearchValues(caseIds)).thenReturn(searchMap);
+        when(personRepository.searchBatchReplace(searchMap)).thenReturn(false);
+
+        assertEquals(caseIds, allCommonsRepository.batchUpdateSearch(caseIds));
+    }
+
     @Test
     public void testUpdateSearchWithNoCaseIdList() {
         allCommonsRepository.updateSearch(new ArrayList<>());
@@ -97,4 +97,14 @@ public class CommonFtsObjectTest extends BaseUnitTest {
         assertNull(commonFtsObject.alertUpdateVisitCode(null));
         assertNull(commonFtsObject.alertUpdateVisitCode("does_not_exist"));
     }
+
+    @Test
+    public void testCreateSearchTableSqlShouldIndexTheSearchPrefixes() {
+        commonFtsObject.updateSearchPrefixes("table1", new int[]{2, 3});
+
+        assertEquals("create virtual table table1_search using fts4 (object_id,object_relational_id,phrase,"
+                + "is_closed TINYINT DEFAULT 0,prefix=\"2,3\");", commonFtsObject.createSearchTableSql("table1"));
+        assertEquals("create virtual table table2_search using fts4 (object_id,object_relational_id,phrase,"
+                + "is_closed TINYINT DEFAULT 0);", commonFtsObject.createSearchTableSql("table2"));
+    }
 }
@@ -1,15 +1,21 @@
 package org.smartregister.commonregistry;
 
 import android.content.ContentValues;
+import android.database.Cursor;
+
+import androidx.core.os.CancellationSignal;
+import androidx.core.os.OperationCanceledException;
 
 import net.sqlcipher.MatrixCursor;
 import net.sqlcipher.SQLException;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -18,9 +24,15 @@ import org.smartregister.BaseUnitTest;
 import org.smartregister.domain.ColumnDetails;
 import org.smartregister.repository.Repository;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by onaio on 29/08/2017.
@@ -627,6 +639,89 @@ public class CommonRepositoryTest extends BaseUnitTest {
         Mockito.verify(sqliteDatabase).endTransaction();
     }
 
+    @Test
+    public void searchBatchReplaceShouldUpdateExistingRowsByDocIdAndInsertNewRows() {
+        MatrixCursor docIds = new MatrixCursor(new String[]{"docid", "object_id"});
+        docIds.addRow(new Object[]{7L, "case-1"});
+        docIds.addRow(new Object[]{8L, "case-1-old"});
+        Mockito.when(sqliteDatabase.rawQuery(Mockito.eq("SELECT docid, object_id FROM " + tablename + "_search WHERE object_id MATCH ?"), Mockito.any(String[].class))).thenReturn(docIds);
+        Map<String, ContentValues> searchMap = new LinkedHashMap<>();
+        ContentValues existingValues = new ContentValues();
+        existingValues.put("phrase", "jane");
+        ContentValues newValues = new ContentValues();
+        newValues.put("phrase", "john");
+        searchMap.put("case-1", existingValues);
+        searchMap.put("case-2", newValues);
+
+        Assert.assertTrue(commonRepository.searchBatchReplace(searchMap));
+
+        ArgumentCaptor<String[]> matchArgsCaptor = ArgumentCaptor.forClass(String[].class);
+        Mockito.verify(sqliteDatabase).rawQuery(Mockito.anyString(), matchArgsCaptor.capture());
+        Assert.assertEquals("\"case 1\" OR \"case 2\"", matchArgsCaptor.getValue()[0]);
+        Mockito.verify(sqliteDatabase).update(tablename + "_search", existingValues, "docid = ?", new String[]{"7"});
+        Mockito.verify(sqliteDatabase).insert(tablename + "_search", null, newValues);
+        Mockito.verify(sqliteDatabase, Mockito.never()).update(Mockito.anyString(), Mockito.any(ContentValues.class), Mockito.eq("object_id MATCH ?"), Mockito.any(String[].class));
+        Mockito.verify(sqliteDatabase).setTransactionSuccessful();
+        Mockito.verify(sqliteDatabase).endTransaction();
+    }
+
+    @Test
+    public void rebuildSearchIndexShouldBuildANewSearchTableAndReplaceTheOldOne() {
+        commonFtsObject = Mockito.mock(CommonFtsObject.class);
+        Mockito.when(commonFtsObject.containsTable("common")).thenReturn(true);
+        Mockito.when(commonFtsObject.createSearchTableSql("common", "common_search_rebuild")).thenReturn("CREATE common_search_rebuild");
+        CommonRepository ftsRepository = new CommonRepository(commonFtsObject, "common", new ColumnDetails[0]);
+        ftsRepository.updateMasterRepository(repository);
+        Mockito.when(sqliteDatabase.compileStatement(Mockito.anyString())).thenReturn(Mockito.mock(SQLiteStatement.class));
+        // client processing deletes a search row while the records are read
+        Mockito.when(sqliteDatabase.query(Mockito.eq("common"), Mockito.any(String[].class), Mockito.anyString(),
+                Mockito.nullable(String[].class), Mockito.isNull(), Mockito.isNull(), Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> {
+                    ftsRepository.deleteSearchRecord("case-1");
+                    return new MatrixCursor(new String[]{"id"});
+                });
+
+        Assert.assertEquals(0, ftsRepository.rebuildSearchIndex(250, null));
+
+        Mockito.verify(sqliteDatabase).delete(Mockito.eq("common_search"), Mockito.eq("object_id MATCH ?"), Mockito.any(String[].class));
+        Mockito.verify(sqliteDatabase).delete(Mockito.eq("common_search_rebuild"), Mockito.eq("object_id MATCH ?"), Mockito.any(String[].class));
+        InOrder inOrder = Mockito.inOrder(sqliteDatabase);
+        inOrder.verify(sqliteDatabase).execSQL("DROP TABLE IF EXISTS common_search_rebuild");
+        inOrder.verify(sqliteDatabase).execSQL("CREATE common_search_rebuild");
+        inOrder.verify(sqliteDatabase).execSQL("DROP TABLE IF EXISTS common_search");
+        inOrder.verify(sqliteDatabase).execSQL("ALTER TABLE common_search_rebuild RENAME TO common_search");
+        inOrder.verify(sqliteDatabase).execSQL("INSERT INTO common_search(common_search) VALUES('optimize')");
+
+        // writes after the rebuild only go to the search table
+        ftsRepository.deleteSearchRecord("case-2");
+        Mockito.verify(sqliteDatabase, Mockito.times(1)).delete(Mockito.eq("common_search_rebuild"), Mockito.anyString(), Mockito.any(String[].class));
+    }
+
+    @Test
+    public void batchPopulateSearchValuesShouldReadCasesAndRelatedTableColumnsOnce() {
+        MatrixCursor cases = new MatrixCursor(new String[]{"id", "relationalid", "details", "is_closed"});
+        cases.addRow(new Object[]{"case-1", "relational-1", "{}", 0});
+        cases.addRow(new Object[]{"case-2", "relational-2", "{}", 1});
+        MatrixCursor tableInfo = new MatrixCursor(new String[]{"name"});
+        tableInfo.addRow(new Object[]{"first_name"});
+        commonFtsObject = Mockito.mock(CommonFtsObject.class);
+        Mockito.when(commonFtsObject.getSearchFields("common")).thenReturn(new String[]{"first_name"});
+        Mockito.when(commonFtsObject.getTables()).thenReturn(new String[]{"common", "common2"});
+        CommonRepository ftsRepository = new CommonRepository(commonFtsObject, "common", new ColumnDetails[0]);
+        ftsRepository.updateMasterRepository(repository);
+        Mockito.when(sqliteDatabase.query(Mockito.eq("common"), Mockito.any(String[].class), Mockito.eq("id IN (?,?,?)"),
+                Mockito.any(String[].class), Mockito.isNull(), Mockito.isNull(), Mockito.isNull(), Mockito.isNull())).thenReturn(cases);
+        Mockito.when(sqliteDatabase.rawQuery("PRAGMA table_info(common2)", null)).thenReturn(tableInfo);
+
+        Map<String, ContentValues> searchMap = ftsRepository.batchPopulateSearchValues(Arrays.asList("case-1", "case-2", "case-3"));
+
+        Assert.assertEquals(Arrays.asList("case-1", "case-2"), new ArrayList<>(searchMap.keySet()));
+        Assert.assertEquals("case-2", searchMap.get("case-2").getAsString(CommonFtsObject.idColumn));
+        Assert.assertEquals(1, (int) searchMap.get("case-2").getAsInteger(CommonFtsObject.isClosedColumnName));
+        Mockito.verify(sqliteDatabase).rawQuery("PRAGMA table_info(common2)", null);
+        Mockito.verify(sqliteDatabase, Mockito.times(2)).rawQuery(Mockito.eq(" SELECT first_name FROM common2 WHERE id = ?"), Mockito.any(String[].class));
+    }
+
     @Test
     public void searchBatchInsertsShouldReturnFalse() {
         HashMap<String, ContentValues> searchMap = new HashMap<>();
@@ -694,6 +789,48 @@ public class CommonRepositoryTest extends BaseUnitTest {
     }
 
 
+    @Test
+    public void findRankedSearchIdsShouldKeepTheBestRankedIdsInTheOrderOfTheirRank() {
+        String query = "SELECT object_id, matchinfo(ec_client_search, 'pcx') FROM ec_client_search";
+
+        net.sqlcipher.Cursor cursor = Mockito.mock(net.sqlcipher.Cursor.class);
+        Mockito.when(cursor.moveToNext()).thenReturn(true, true, true, true, false);
+        Mockito.when(cursor.getString(0)).thenReturn("id-1", "id-2", "id-3", "id-4");
+        Mockito.when(cursor.getBlob(1)).thenReturn(matchInfo(1, 8), matchInfo(4, 8), matchInfo(1, 8), matchInfo(2, 8));
+
+        Mockito.doReturn(cursor).when(sqliteDatabase).rawQuery(Mockito.eq(query), Mockito.nullable(String[].class));
+        List<String> ids = commonRepository.findRankedSearchIds(query, 3);
+
+        Assert.assertEquals(Arrays.asList("id-2", "id-4", "id-1"), ids);
+        Mockito.verify(cursor).close();
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void findRankedSearchIdsShouldStopWhenCanceled() {
+        String query = "SELECT object_id, matchinfo(ec_client_search, 'pcx') FROM ec_client_search";
+
+        net.sqlcipher.Cursor cursor = Mockito.mock(net.sqlcipher.Cursor.class);
+        Mockito.when(cursor.moveToNext()).thenReturn(true);
+        Mockito.doReturn(cursor).when(sqliteDatabase).rawQuery(Mockito.eq(query), Mockito.nullable(String[].class));
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+
+        try {
+            commonRepository.findRankedSearchIds(query, 3, cancellationSignal);
+        } finally {
+            Mockito.verify(cursor, Mockito.never()).getBlob(1);
+            Mockito.verify(cursor).close();
+        }
+    }
+
+    @Test
+    public void rankShouldAddUpTheShareOfThePhraseHitsInTheRow() {
+        Assert.assertEquals(0.25, CommonRepository.rank(matchInfo(2, 8)), 0.0001);
+        Assert.assertEquals(0, CommonRepository.rank(matchInfo(0, 0)), 0.0001);
+        Assert.assertEquals(0, CommonRepository.rank(new byte[4]), 0.0001);
+        Assert.assertEquals(0, CommonRepository.rank(null), 0.0001);
+    }
+
     @Test
     public void countSearchIdsShouldReturnListOfIds() {
         String query = "SELECT count(object_id) FROM ec_client_search";
@@ -709,4 +846,123 @@ public class CommonRepositoryTest extends BaseUnitTest {
         Assert.assertTrue(matrixCursor.isClosed());
     }
 
+    @Test
+    public void matchesConditionShouldLookUpTheRecordById() {
+        SQLiteStatement statement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(statement.simpleQueryForLong()).thenReturn(1L);
+        Mockito.when(sqliteDatabase.compileStatement("SELECT COUNT(*) FROM ec_client WHERE id = ? AND (is_closed = 0)")).thenReturn(statement);
+
+        Assert.assertTrue(commonRepository.matchesCondition("id-1", "is_closed = 0"));
+    }
+
+    @Test
+    public void matchesConditionShouldReturnNullWhenTheConditionCanNotBeEvaluated() {
+        Mockito.when(sqliteDatabase.compileStatement(Mockito.anyString())).thenThrow(new SQLException("no such column: phrase"));
+
+        Assert.assertNull(commonRepository.matchesCondition("id-1", "phrase MATCH 'john'"));
+    }
+
+    @Test
+    public void saveSearchHitsShouldInsertTheIdsInOrderUnderANewId() {
+        SQLiteStatement statement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqliteDatabase.compileStatement(Mockito.anyString())).thenReturn(statement);
+
+        long searchHitsId = commonRepository.saveSearchHits(Arrays.asList("id-1", "id-2"));
+
+        Assert.assertTrue(commonRepository.saveSearchHits(Arrays.asList("id-3")) > searchHitsId);
+        Mockito.verify(sqliteDatabase).compileStatement("INSERT INTO temp.search_hits (query_id, position, id) VALUES (?, ?, ?), (?, ?, ?)");
+        Mockito.verify(statement).bindString(3, "id-1");
+        Mockito.verify(statement).bindLong(5, 1);
+        Mockito.verify(statement).bindString(6, "id-2");
+        Mockito.verify(statement, Mockito.times(2)).executeInsert();
+        Mockito.verify(statement, Mockito.times(2)).close();
+        Mockito.verify(sqliteDatabase, Mockito.never()).beginTransaction();
+    }
+
+    @Test
+    public void rawSearchHitsQueryForAdapterShouldDeleteTheHitsWhenTheCursorIsClosed() {
+        SQLiteStatement statement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqliteDatabase.compileStatement(Mockito.anyString())).thenReturn(statement);
+        MatrixCursor matrixCursor = new MatrixCursor(new String[]{"id"});
+        Mockito.doReturn(matrixCursor).when(sqliteDatabase).rawQuery(Mockito.eq("SELECT id FROM ec_client WHERE id IN (SELECT id FROM temp.search_hits WHERE query_id = ?)"),
+                Mockito.any(String[].class));
+
+        Cursor cursor = commonRepository.rawSearchHitsQueryForAdapter("SELECT id FROM ec_client WHERE id IN (SELECT id FROM temp.search_hits WHERE query_id = ?)",
+                Arrays.asList("id-1", "id-2"));
+
+        Mockito.verify(sqliteDatabase, Mockito.never()).delete(Mockito.eq(CommonRepository.SEARCH_HITS_TABLE), Mockito.anyString(), Mockito.any(String[].class));
+        cursor.close();
+        cursor.close();
+
+        Assert.assertTrue(matrixCursor.isClosed());
+        Mockito.verify(sqliteDatabase).delete(Mockito.eq(CommonRepository.SEARCH_HITS_TABLE), Mockito.eq("query_id = ?"), Mockito.any(String[].class));
+    }
+
+    @Test
+    public void rawCustomQueryForAdapterShouldBindTheSelectionArgs() {
+        MatrixCursor matrixCursor = new MatrixCursor(new String[]{"id"});
+        String[] args = new String[]{"1"};
+        Mockito.doReturn(matrixCursor).when(sqliteDatabase).rawQuery("SELECT id FROM ec_client WHERE id = ?", args);
+
+        Assert.assertEquals(matrixCursor, commonRepository.rawCustomQueryForAdapter("SELECT id FROM ec_client WHERE id = ?", args));
+    }
+
+    @Test
+    public void rebuildSearchIndexShouldRecreateTheSearchTableAndIndexTheRecordsInBatches() {
+        CommonFtsObject ftsObject = new CommonFtsObject(new String[]{"ec_client"});
+        CommonRepository searchRepository = Mockito.spy(new CommonRepository(ftsObject, "ec_client", new ColumnDetails[0]));
+        searchRepository.updateMasterRepository(repository);
+
+        MatrixCursor firstBatch = new MatrixCursor(new String[]{"id"});
+        firstBatch.addRow(new Object[]{"id-1"});
+        firstBatch.addRow(new Object[]{"id-2"});
+        MatrixCursor secondBatch = new MatrixCursor(new String[]{"id"});
+        secondBatch.addRow(new Object[]{"id-3"});
+        Mockito.doReturn(firstBatch, secondBatch, new MatrixCursor(new String[]{"id"})).when(sqliteDatabase)
+                .query(Mockito.eq("ec_client"), Mockito.any(String[].class), Mockito.anyString(), Mockito.nullable(String[].class),
+                        Mockito.isNull(), Mockito.isNull(), Mockito.eq("id"), Mockito.eq("2"));
+
+        // id-3 is written by client processing in between the batches
+        MatrixCursor writtenElsewhere = new MatrixCursor(new String[]{"docid", "object_id"});
+        writtenElsewhere.addRow(new Object[]{3, "id-3"});
+        Mockito.doReturn(new MatrixCursor(new String[]{"docid", "object_id"}), writtenElsewhere).when(sqliteDatabase)
+                .rawQuery(Mockito.startsWith("SELECT docid, object_id FROM ec_client_search WHERE docid > ?"), Mockito.any(String[].class));
+        SQLiteStatement statement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(statement.simpleQueryForLong()).thenReturn(3L, 2L, 3L);
+        Mockito.when(sqliteDatabase.compileStatement(Mockito.anyString())).thenReturn(statement);
+
+        Map<String, ContentValues> searchValues = new LinkedHashMap<>();
+        for (String id : Arrays.asList("id-1", "id-2", "id-3")) {
+            ContentValues values = new ContentValues();
+            values.put(CommonFtsObject.idColumn, id);
+            searchValues.put(id, values);
+        }
+        Map<String, ContentValues> firstBatchValues = new LinkedHashMap<>(searchValues);
+        firstBatchValues.remove("id-3");
+        Mockito.doReturn(firstBatchValues).when(searchRepository).batchPopulateSearchValues(Arrays.asList("id-1", "id-2"));
+        Mockito.doReturn(Collections.singletonMap("id-3", searchValues.get("id-3"))).when(searchRepository).batchPopulateSearchValues(Arrays.asList("id-3"));
+        List<Integer> progress = new ArrayList<>();
+
+        Assert.assertEquals(3, searchRepository.rebuildSearchIndex(2, (tableName, indexed, total) -> progress.add(indexed)));
+
+        Mockito.verify(sqliteDatabase).execSQL("DROP TABLE IF EXISTS ec_client_search");
+        Mockito.verify(sqliteDatabase).execSQL(ftsObject.createSearchTableSql("ec_client"));
+        Mockito.verify(sqliteDatabase).insert("ec_client_search", null, searchValues.get("id-1"));
+        Mockito.verify(sqliteDatabase, Mockito.times(1)).insert("ec_client_search", null, searchValues.get("id-2"));
+        Mockito.verify(sqliteDatabase, Mockito.never()).insert("ec_client_search", null, searchValues.get("id-3"));
+        Mockito.verify(sqliteDatabase).execSQL("INSERT INTO ec_client_search(ec_client_search) VALUES('optimize')");
+        Assert.assertEquals(Arrays.asList(2, 3), progress);
+    }
+
+    @Test
+    public void rebuildSearchIndexShouldSkipTablesWithoutSearchTables() {
+        Assert.assertEquals(0, commonRepository.rebuildSearchIndex(2, null));
+        Mockito.verifyNoInteractions(sqliteDatabase);
+    }
+
+    private static byte[] matchInfo(int rowHits, int allRowHits) {
+        // one phrase in one column
+        return ByteBuffer.allocate(5 * 4).order(ByteOrder.nativeOrder())
+                .putInt(1).putInt(1).putInt(rowHits).putInt(allRowHits).putInt(rowHits > 0 ? 1 : 0).array();
+    }
 }
@@ -0,0 +1,135 @@
+package org.smartregister.commonregistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.smartregister.BaseUnitTest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CursorRowMapperTest extends BaseUnitTest {
+
+    private MatrixCursor cursor;
+
+    private CursorRowMapper mapper;
+
+    @Before
+    public void setUp() {
+        cursor = new MatrixCursor(new String[]{"_id", "first_name", "id", "id"});
+        cursor.addRow(new Object[]{"1", "Ann", "id-a", "id-b"});
+        cursor.addRow(new Object[]{"2", null, "id-c", "id-d"});
+        cursor.moveToFirst();
+        mapper = new CursorRowMapper(cursor);
+    }
+
+    @Test
+    public void testReadRowKeepsTheLastColumnOfARepeatedName() {
+        Map<String, String> row = mapper.readRow(cursor);
+
+        assertEquals(3, row.size());
+        assertEquals("Ann", row.get("first_name"));
+        assertEquals("id-b", row.get("id"));
+    }
+
+    @Test
+    public void testReadRowByFirstColumnKeepsTheFirstColumnOfARepeatedName() {
+        Map<String, String> row = mapper.readRowByFirstColumn(cursor);
+
+        assertEquals("id-a", row.get("id"));
+        assertEquals(2, mapper.getColumnIndex("id"));
+        assertEquals(-1, mapper.getColumnIndex("last_name"));
+    }
+
+    @Test
+    public void testRowsShareTheColumnNames() {
+        Map<String, String> first = mapper.readRow(cursor);
+        cursor.moveToNext();
+        Map<String, String> second = mapper.readRow(cursor);
+
+        assertNull(second.get("first_name"));
+        assertTrue(second.containsKey("first_name"));
+        assertSame(keyOf(first, "first_name"), keyOf(second, "first_name"));
+    }
+
+    @Test
+    public void testCompactRowEqualsTheRow() {
+        Map<String, String> compactRow = mapper.readCompactRow(cursor);
+
+        assertEquals(mapper.readRow(cursor), compactRow);
+        assertEquals(new HashMap<>(compactRow), compactRow);
+        assertFalse(compactRow.containsKey("last_name"));
+    }
+
+    @Test
+    public void testCompactRowCanBeModified() {
+        Map<String, String> compactRow = mapper.readCompactRow(cursor);
+
+        assertEquals("Ann", compactRow.put("first_name", "Jane"));
+        assertEquals("Jane", compactRow.get("first_name"));
+
+        compactRow.put("last_name", "Doe");
+        compactRow.remove("_id");
+
+        assertEquals("Doe", compactRow.get("last_name"));
+        assertEquals("Jane", compactRow.get("first_name"));
+        assertFalse(compactRow.containsKey("_id"));
+        assertEquals(3, compactRow.size());
+        // the other rows are not affected
+        assertEquals("Ann", mapper.readCompactRow(cursor).get("first_name"));
+    }
+
+    @Test
+    public void testUnreadableColumnsAreLeftOutOfTheRow() {
+        Cursor blobCursor = Mockito.mock(Cursor.class);
+        String[] columns = {"_id", "photo", "id", "id"};
+        Mockito.doReturn(columns.length).when(blobCursor).getColumnCount();
+        for (int i = 0; i < columns.length; i++) {
+            Mockito.doReturn(columns[i]).when(blobCursor).getColumnName(i);
+        }
+        Mockito.doReturn(0).when(blobCursor).getColumnIndex("_id");
+        Mockito.doReturn(1).when(blobCursor).getColumnIndex("photo");
+        Mockito.doReturn(2).when(blobCursor).getColumnIndex("id");
+        Mockito.doReturn("1").when(blobCursor).getString(0);
+        Mockito.doThrow(new IllegalStateException("blob")).when(blobCursor).getString(1);
+        Mockito.doReturn("id-a").when(blobCursor).getString(2);
+        Mockito.doThrow(new IllegalStateException("blob")).when(blobCursor).getString(3);
+        CursorRowMapper blobMapper = new CursorRowMapper(blobCursor);
+
+        Map<String, String> row = blobMapper.readRow(blobCursor);
+        assertEquals(2, row.size());
+        assertFalse(row.containsKey("photo"));
+        assertEquals("id-a", row.get("id"));
+
+        assertFalse(blobMapper.readRowByFirstColumn(blobCursor).containsKey("photo"));
+        assertEquals(row, blobMapper.readCompactRow(blobCursor));
+        assertFalse(blobMapper.readCompactRow(blobCursor).containsKey("photo"));
+    }
+
+    @Test
+    public void testIsForTheCursorItWasCreatedFor() {
+        assertTrue(mapper.isFor(cursor));
+        assertFalse(mapper.isFor(new MatrixCursor(new String[]{"_id"})));
+
+        cursor.close();
+        assertFalse(mapper.isFor(cursor));
+    }
+
+    private static String keyOf(Map<String, String> row, String key) {
+        for (String next : row.keySet()) {
+            if (next.equals(key)) {
+                return next;
+            }
+        }
+        return null;
+    }
+}
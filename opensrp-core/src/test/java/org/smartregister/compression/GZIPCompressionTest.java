@@ -1,13 +1,20 @@
 package org.smartregister.compression;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.CharEncoding;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.Deflater;
 
 /**
  * Created by ndegwamartin on 2019-05-16.
@@ -58,6 +65,80 @@ public class GZIPCompressionTest {
         Assert.assertEquals(TEST_STRING, decompressedString);
     }
 
+    @Test
+    public void testDecompressMethodDecompressesPayloadsLargerThanTheReadBuffer() {
+
+        String payload = getEventsJson(2000);
+
+        String decompressedString = gzipCompression.decompress(gzipCompression.compress(payload));
+
+        Assert.assertTrue(payload.length() > 100000);
+        Assert.assertEquals(payload, decompressedString);
+    }
+
+    @Test
+    public void testCompressAndDecompressStreamsRoundTrip() throws IOException {
+
+        byte[] original = getEventsJson(2000).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+
+        gzipCompression.compress(new ByteArrayInputStream(original), compressed);
+        gzipCompression.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+
+        Assert.assertTrue(compressed.size() < original.length);
+        Assert.assertArrayEquals(original, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testCompressAndDecompressStreamsLeaveCallerStreamsOpen() throws IOException {
+
+        byte[] original = getEventsJson(10).getBytes(StandardCharsets.UTF_8);
+        CloseTrackingOutputStream compressed = new CloseTrackingOutputStream();
+        CloseTrackingOutputStream decompressed = new CloseTrackingOutputStream();
+        CloseTrackingInputStream originalInput = new CloseTrackingInputStream(original);
+
+        gzipCompression.compress(originalInput, compressed);
+        CloseTrackingInputStream compressedInput = new CloseTrackingInputStream(compressed.toByteArray());
+        gzipCompression.decompress(compressedInput, decompressed);
+
+        Assert.assertFalse(originalInput.closed);
+        Assert.assertFalse(compressed.closed);
+        Assert.assertFalse(compressedInput.closed);
+        Assert.assertFalse(decompressed.closed);
+        Assert.assertArrayEquals(original, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testNewReaderReadsDecompressedText() throws IOException {
+
+        String payload = getEventsJson(500);
+
+        try (Reader reader = new GZIPCompression().newReader(new ByteArrayInputStream(gzipCompression.compress(payload)))) {
+            Assert.assertEquals(payload, IOUtils.toString(reader));
+        }
+    }
+
+    @Test
+    public void testCompressionLevelIsUsedWhenCompressing() {
+
+        String payload = getEventsJson(2000);
+        GZIPCompression fastest = new GZIPCompression(Deflater.BEST_SPEED);
+        GZIPCompression smallest = new GZIPCompression(Deflater.BEST_COMPRESSION);
+
+        byte[] fastestBytes = fastest.compress(payload);
+        byte[] smallestBytes = smallest.compress(payload);
+
+        Assert.assertTrue(smallestBytes.length < fastestBytes.length);
+        Assert.assertEquals(payload, fastest.decompress(smallestBytes));
+        Assert.assertEquals(payload, smallest.decompress(fastestBytes));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorRejectsInvalidCompressionLevel() {
+        new GZIPCompression(10);
+    }
+
     @Test
     public void testCompressFileMethodReturnsACompressedOutputFile() throws IOException {
 
@@ -123,8 +204,47 @@ public class GZIPCompressionTest {
         }
     }
 
+    private String getEventsJson(int count) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"baseEntityId\":\"").append(UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()))
+                    .append("\",\"eventType\":\"Visite \u00e0 domicile\",\"obs\":[{\"fieldCode\":\"weight\",\"values\":[\"")
+                    .append(i % 97).append("\"]}],\"serverVersion\":").append(1500000000000L + i).append('}');
+        }
+        return builder.append(']').toString();
+    }
+
     private String getFilePath(String fileName) {
 
         return "src/test/assets/" + fileName;
     }
+
+    private static class CloseTrackingInputStream extends ByteArrayInputStream {
+
+        private boolean closed;
+
+        private CloseTrackingInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static class CloseTrackingOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package org.smartregister.cursoradapter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.database.MatrixCursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+
+public class KeysetPaginationTest extends BaseUnitTest {
+
+    private static final String SORT = "ec_client.last_name ASC, dob DESC";
+
+    private KeysetPagination keysetPagination;
+
+    @Before
+    public void setUp() {
+        keysetPagination = new KeysetPagination();
+    }
+
+    @Test
+    public void testIsSupportedOnlyForPlainColumnSorts() {
+        assertTrue(keysetPagination.isSupported(SORT));
+        assertTrue(keysetPagination.isSupported("first_name"));
+        assertTrue(keysetPagination.isSupported(""));
+        assertFalse(keysetPagination.isSupported("first_name COLLATE NOCASE ASC"));
+        assertFalse(keysetPagination.isSupported("CASE WHEN alerts.status = 'urgent' THEN '1' END ASC"));
+    }
+
+    @Test
+    public void testGetOrderByAddsIdAsTieBreaker() {
+        assertEquals("ec_client.last_name ASC, dob DESC, ec_client.id ASC", keysetPagination.getOrderBy(SORT, "ec_client.id", false));
+        assertEquals("last_name ASC, dob DESC, _id ASC", keysetPagination.getOrderBy(SORT, "_id", true));
+    }
+
+    @Test
+    public void testCanSeekFirstPageAndPagesAfterAKnownKey() {
+        assertTrue(keysetPagination.canSeek(SORT, 0));
+        assertFalse(keysetPagination.canSeek(SORT, 20));
+        assertNull(keysetPagination.getSeekCondition(SORT, 0, "_id", false));
+
+        keysetPagination.onNextPage(createPage(), 20);
+
+        assertTrue(keysetPagination.canSeek(SORT, 20));
+        KeysetPagination.SeekCondition seekCondition = keysetPagination.getSeekCondition(SORT, 20, "_id", false);
+        assertEquals("(last_name > ? OR (last_name = ? AND ((dob < CAST(? AS INTEGER) OR dob IS NULL) OR (dob = CAST(? AS INTEGER) AND _id > ?))))",
+                seekCondition.getCondition());
+        assertArrayEquals(new String[]{"Doe", "Doe", "20", "20", "id-2"}, seekCondition.getArgs());
+    }
+
+    @Test
+    public void testGetSeekConditionComparesTextForSearchTables() {
+        keysetPagination.canSeek(SORT, 0);
+        keysetPagination.onNextPage(createPage(), 20);
+
+        KeysetPagination.SeekCondition seekCondition = keysetPagination.getSeekCondition(SORT, 20, "object_id", true);
+        assertEquals("(last_name > ? OR (last_name = ? AND ((dob < ? OR dob IS NULL) OR (dob = ? AND object_id > ?))))",
+                seekCondition.getCondition());
+        assertArrayEquals(new String[]{"Doe", "Doe", "20", "20", "id-2"}, seekCondition.getArgs());
+    }
+
+    @Test
+    public void testGetSeekConditionHandlesNullKeyValues() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "last_name", "dob"});
+        cursor.addRow(new Object[]{"id-1", null, null});
+        keysetPagination.canSeek(SORT, 0);
+
+        keysetPagination.onNextPage(cursor, 20);
+
+        KeysetPagination.SeekCondition seekCondition = keysetPagination.getSeekCondition(SORT, 20, "_id", false);
+        assertEquals("(last_name IS NOT NULL OR (last_name IS NULL AND (dob IS NULL AND _id > ?)))",
+                seekCondition.getCondition());
+        assertArrayEquals(new String[]{"id-1"}, seekCondition.getArgs());
+    }
+
+    @Test
+    public void testOnNextPageUsesThePageEndIdWhenSet() {
+        keysetPagination.canSeek(SORT, 0);
+        keysetPagination.setPageEndId("id-1");
+
+        keysetPagination.onNextPage(createPage(), 20);
+
+        assertArrayEquals(new String[]{"Ann", "Ann", "10", "10", "id-1"},
+                keysetPagination.getSeekCondition(SORT, 20, "_id", false).getArgs());
+    }
+
+    @Test
+    public void testOnNextPageSkipsPagesWithoutTheSortColumns() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "last_name"});
+        cursor.addRow(new Object[]{"id-1", "Doe"});
+        keysetPagination.canSeek(SORT, 0);
+
+        keysetPagination.onNextPage(cursor, 20);
+
+        assertFalse(keysetPagination.canSeek(SORT, 20));
+    }
+
+    @Test
+    public void testKeysAreDroppedWhenTheSortChangesOrOnReset() {
+        keysetPagination.canSeek(SORT, 0);
+        keysetPagination.onNextPage(createPage(), 20);
+
+        assertFalse(keysetPagination.canSeek("dob DESC", 20));
+
+        keysetPagination.canSeek(SORT, 0);
+        keysetPagination.onNextPage(createPage(), 20);
+        keysetPagination.reset();
+
+        assertFalse(keysetPagination.canSeek(SORT, 20));
+    }
+
+    @Test
+    public void testGetSeekConditionBindsValuesThatLookLikeSql() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "last_name", "dob"});
+        cursor.addRow(new Object[]{"id-1", "O'Neil", 10});
+        keysetPagination.canSeek(SORT, 0);
+
+        keysetPagination.onNextPage(cursor, 20);
+
+        KeysetPagination.SeekCondition seekCondition = keysetPagination.getSeekCondition(SORT, 20, "_id", false);
+        assertFalse(seekCondition.getCondition().contains("O'Neil"));
+        assertEquals("O'Neil", seekCondition.getArgs()[0]);
+    }
+
+    private MatrixCursor createPage() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "last_name", "dob"});
+        cursor.addRow(new Object[]{"id-1", "Ann", 10});
+        cursor.addRow(new Object[]{"id-2", "Doe", 20});
+        return cursor;
+    }
+}
@@ -0,0 +1,137 @@
+package org.smartregister.cursoradapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.commonregistry.CommonPersonObject;
+import org.smartregister.commonregistry.CommonRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.smartregister.event.Event.FORM_SUBMITTED;
+
+public class PrefetchingClientSourceTest extends BaseUnitTest {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private CommonRepository commonRepository;
+
+    private final List<Runnable> scheduledPages = new ArrayList<>();
+
+    private PrefetchingClientSource clientSource;
+
+    private MatrixCursor cursor;
+
+    @Before
+    public void setUp() {
+        when(commonRepository.readAllcommonforCursorAdapter(any(Cursor.class))).thenAnswer(invocation -> {
+            Cursor cursor = invocation.getArgument(0);
+            return new CommonPersonObject(cursor.getString(0), null, new HashMap<>(), "ec_client");
+        });
+        cursor = createCursor(0, 3);
+        clientSource = new PrefetchingClientSource(commonRepository, scheduledPages::add, 4);
+        clientSource.setCursor(cursor);
+    }
+
+    @Test
+    public void testGetClientReadsTheRowOnceAndKeepsItById() {
+        cursor.moveToPosition(1);
+
+        assertEquals("id-1", clientSource.getClient(cursor).getCaseId());
+        assertEquals("id-1", clientSource.getClient(cursor).getCaseId());
+
+        assertNotNull(clientSource.getCachedClient("id-1"));
+        verify(commonRepository, times(1)).readAllcommonforCursorAdapter(cursor);
+        assertEquals(0, scheduledPages.size());
+    }
+
+    @Test
+    public void testPrefetchPageReadsTheClientsOfTheNextPageWithItsOwnCursor() {
+        MatrixCursor nextPage = createCursor(3, 3);
+
+        clientSource.prefetchPage(() -> nextPage);
+        assertNull(clientSource.getCachedClient("id-3"));
+        scheduledPages.remove(0).run();
+
+        assertTrue(nextPage.isClosed());
+        assertEquals("id-4", clientSource.getCachedClient("id-4").getCaseId());
+
+        // the clients survive the page flip
+        MatrixCursor shownPage = createCursor(3, 3);
+        clientSource.setCursor(shownPage);
+        shownPage.moveToPosition(1);
+        assertEquals("id-4", clientSource.getClient(shownPage).getCaseId());
+        verify(commonRepository, times(0)).readAllcommonforCursorAdapter(shownPage);
+    }
+
+    @Test
+    public void testClearDropsTheClientsAndDiscardsPagesInFlight() {
+        cursor.moveToPosition(0);
+        clientSource.getClient(cursor);
+        clientSource.prefetchPage(() -> createCursor(3, 3));
+
+        clientSource.clear();
+        scheduledPages.remove(0).run();
+
+        assertNull(clientSource.getCachedClient("id-0"));
+        assertNull(clientSource.getCachedClient("id-3"));
+    }
+
+    @Test
+    public void testFormSubmittedEvictsTheClientOfTheRecord() {
+        cursor.moveToPosition(0);
+        clientSource.getClient(cursor);
+
+        FORM_SUBMITTED.notifyListeners("id-0");
+
+        assertNull(clientSource.getCachedClient("id-0"));
+    }
+
+    @Test
+    public void testFailedPageQueryIsIgnored() {
+        clientSource.prefetchPage(() -> {
+            throw new IllegalStateException("no such table");
+        });
+
+        scheduledPages.remove(0).run();
+
+        assertNull(clientSource.getCachedClient("id-3"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedClientsAreEvicted() {
+        clientSource.prefetchPage(() -> createCursor(0, 5));
+        scheduledPages.remove(0).run();
+
+        assertNull(clientSource.getCachedClient("id-0"));
+        assertNotNull(clientSource.getCachedClient("id-4"));
+    }
+
+    private MatrixCursor createCursor(int first, int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "first_name"});
+        for (int i = first; i < first + rows; i++) {
+            cursor.addRow(new Object[]{"id-" + i, "name-" + i});
+        }
+        return cursor;
+    }
+}
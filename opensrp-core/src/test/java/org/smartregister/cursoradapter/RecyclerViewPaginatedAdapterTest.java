@@ -1,6 +1,8 @@
 package org.smartregister.cursoradapter;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
@@ -8,6 +10,7 @@ import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.widget.LinearLayout;
 
 import androidx.recyclerview.widget.RecyclerView;
@@ -172,4 +175,46 @@ public class RecyclerViewPaginatedAdapterTest extends BaseUnitTest {
         assertEquals(3, totalPageCount);
     }
 
+    @Test
+    public void testNextPageOffsetKeepsTheKeyOfTheLastRowWhenPagingByKey() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "first_name"});
+        cursor.addRow(new Object[]{"id-1", "Ann"});
+        cursor.addRow(new Object[]{"id-2", "Doe"});
+        KeysetPagination keysetPagination = new KeysetPagination();
+        keysetPagination.canSeek("first_name ASC", 0);
+        adapter = new RecyclerViewPaginatedAdapter(cursor, listItemProvider, commonRepository);
+        adapter.setKeysetPagination(keysetPagination);
+        adapter.setCurrentlimit(2);
+
+        adapter.nextPageOffset();
+
+        assertEquals(2, adapter.getCurrentoffset());
+        KeysetPagination.SeekCondition seekCondition = keysetPagination.getSeekCondition("first_name ASC", 2, "_id", false);
+        assertEquals("(first_name > ? OR (first_name = ? AND _id > ?))", seekCondition.getCondition());
+        assertArrayEquals(new String[]{"Doe", "Doe", "id-2"}, seekCondition.getArgs());
+
+        adapter.previousPageOffset();
+        adapter.setCurrentoffset(0);
+
+        assertFalse(keysetPagination.canSeek("first_name ASC", 2));
+    }
+
+    @Test
+    public void testOnBindViewHolderTakesTheClientFromTheClientSource() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "first_name"});
+        cursor.addRow(new Object[]{"id-1", "Ann"});
+        cursor.moveToFirst();
+        PrefetchingClientSource clientSource = Mockito.mock(PrefetchingClientSource.class);
+        CommonPersonObjectClient client = new CommonPersonObjectClient("id-1", new HashMap<>(), "Ann");
+        when(clientSource.getClient(cursor)).thenReturn(client);
+        adapter = new RecyclerViewPaginatedAdapter(cursor, listItemProvider, commonRepository);
+        adapter.setClientSource(clientSource);
+
+        adapter.onBindViewHolder(mockViewHolder, cursor);
+
+        verify(clientSource).setCursor(cursor);
+        verify(listItemProvider).getView(cursor, client, mockViewHolder);
+        verify(commonRepository, Mockito.never()).readAllcommonforCursorAdapter(any());
+    }
+
 }
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
@@ -517,4 +518,43 @@ public class LocationHelperTest extends BaseRobolectricUnitTest {
         assertEquals(advancedDataStrategyType, defaultLocationLevel.get(0));
     }
 
+    @Test
+    public void testLocationLookupsIndexTheTreeOnce() {
+        ANMLocationController anmLocationController = Mockito.spy(CoreLibrary.getInstance().context().anmLocationController());
+        ReflectionHelpers.setField(CoreLibrary.getInstance().context(), "anmLocationController", anmLocationController);
+        Mockito.doReturn(anmLocation2).when(anmLocationController).get();
+
+        assertEquals("Jambula Girls School", locationHelper.getOpenMrsLocationName("982eb3f3-b7e3-450f-a38e-d067f2345212"));
+        Object hierarchyIndex = ((AtomicReference<?>) ReflectionHelpers.getField(locationHelper, "hierarchyIndex")).get();
+
+        assertEquals("44de66fb-e6c6-4bae-92bb-386dfe626eba", locationHelper.getOpenMrsLocationId("Bukesa Urban Health Centre"));
+        assertEquals("Unknown", locationHelper.getOpenMrsLocationId("Unknown"));
+        assertEquals(Arrays.asList("Bukesa Urban Health Centre", "Jambula Girls School"),
+                locationHelper.getOpenMrsLocationHierarchy("982eb3f3-b7e3-450f-a38e-d067f2345212", true));
+        assertEquals(Arrays.asList("Uganda", "Kampala", "KCCA", "Central Division"),
+                locationHelper.getOpenMrsLocationHierarchy("4e188e6d-2ffb-4b25-85f9-b9fbf5010d40", false));
+        assertNull(locationHelper.getOpenMrsLocationHierarchy("4e188e6d-2ffb-4b25-85f9-b9fbf5010d40", true));
+
+        assertEquals(hierarchyIndex, ((AtomicReference<?>) ReflectionHelpers.getField(locationHelper, "hierarchyIndex")).get());
+        // the saved tree is only read to build the index
+        Mockito.verify(anmLocationController, Mockito.times(1)).get();
+    }
+
+    @Test
+    public void testUpdateLocationHierarchySwapsInTheNewTreeBeforeItIsSaved() {
+        ANMLocationController anmLocationController = Mockito.spy(CoreLibrary.getInstance().context().anmLocationController());
+        ReflectionHelpers.setField(CoreLibrary.getInstance().context(), "anmLocationController", anmLocationController);
+        Mockito.doReturn(anmLocation2).when(anmLocationController).get();
+        assertEquals("Kampala", locationHelper.getOpenMrsLocationName("8340315f-48e4-4768-a1ce-414532b4c49b"));
+
+        locationHelper.updateLocationHierarchy(AssetHandler.jsonStringToJava(anmLocation1, LocationTree.class));
+
+        assertEquals("620332e0-6108-4611-bac5-8b48d20051c9", locationHelper.getOpenMrsLocationId("ra Nchelenge"));
+        assertEquals("8340315f-48e4-4768-a1ce-414532b4c49b", locationHelper.getOpenMrsLocationName("8340315f-48e4-4768-a1ce-414532b4c49b"));
+
+        // once saved the new tree is read without being indexed again
+        Mockito.doReturn(anmLocation1).when(anmLocationController).get();
+        assertEquals("ra Nchelenge", locationHelper.getOpenMrsLocationName("620332e0-6108-4611-bac5-8b48d20051c9"));
+        Mockito.verify(anmLocationController, Mockito.times(1)).get();
+    }
 }
@@ -6,9 +6,11 @@ import org.junit.Assert;
 
 import net.sqlcipher.MatrixCursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -16,6 +18,8 @@ import org.smartregister.BaseUnitTest;
 import org.smartregister.commonregistry.CommonPersonObject;
 import org.smartregister.commonregistry.CommonPersonObjectClient;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -68,6 +72,64 @@ public class DetailsRepositoryTest extends BaseUnitTest {
         Mockito.verify(sqLiteDatabase, Mockito.times(1)).insert(Mockito.anyString(), Mockito.isNull(), Mockito.any(ContentValues.class));
     }
 
+    @Test
+    public void testAddDetailsWritesOnlyChangedKeysInOneTransaction() {
+        MatrixCursor storedDetails = new MatrixCursor(new String[]{"docid", KEY_COLUMN, VALUE_COLUMN});
+        storedDetails.addRow(new Object[]{1L, "first_name", "Jane"});
+        storedDetails.addRow(new Object[]{2L, "village", "Kasabuni"});
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.startsWith("SELECT docid"), Mockito.any(String[].class))).thenReturn(storedDetails);
+        SQLiteStatement insertStatement = Mockito.mock(SQLiteStatement.class);
+        SQLiteStatement updateStatement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqLiteDatabase.compileStatement(Mockito.startsWith("INSERT"))).thenReturn(insertStatement);
+        Mockito.when(sqLiteDatabase.compileStatement(Mockito.startsWith("UPDATE"))).thenReturn(updateStatement);
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("first_name", "Jane");
+        details.put("village", "Mbita");
+        details.put("phone_number", "0707070");
+        details.put("national_id", "423");
+
+        detailsRepository.add("3a221190-c004", details, 12L);
+
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        Mockito.verify(sqLiteDatabase).rawQuery(Mockito.eq("SELECT docid, key, value FROM ec_details WHERE base_entity_id MATCH ? AND base_entity_id = ?"), argsCaptor.capture());
+        Assert.assertArrayEquals(new String[]{"\"3a221190 c004\"", "3a221190-c004"}, argsCaptor.getValue());
+
+        Mockito.verify(sqLiteDatabase).beginTransaction();
+        Mockito.verify(updateStatement).bindString(1, "Mbita");
+        Mockito.verify(updateStatement).bindLong(3, 2L);
+        Mockito.verify(updateStatement).executeUpdateDelete();
+        Mockito.verify(insertStatement).bindString(2, "phone_number");
+        Mockito.verify(insertStatement).bindString(2, "national_id");
+        Mockito.verify(insertStatement, Mockito.times(2)).executeInsert();
+        Mockito.verify(insertStatement, Mockito.never()).bindString(2, "first_name");
+        Mockito.verify(sqLiteDatabase).setTransactionSuccessful();
+        Mockito.verify(sqLiteDatabase).endTransaction();
+        Mockito.verify(insertStatement).close();
+        Mockito.verify(updateStatement).close();
+    }
+
+    @Test
+    public void testAddDetailsDoesNotWriteWhenNothingChanged() {
+        MatrixCursor storedDetails = new MatrixCursor(new String[]{"docid", KEY_COLUMN, VALUE_COLUMN});
+        storedDetails.addRow(new Object[]{1L, "first_name", "Jane"});
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.startsWith("SELECT docid"), Mockito.any(String[].class))).thenReturn(storedDetails);
+
+        detailsRepository.add("1", Collections.singletonMap("first_name", "Jane"), 12L);
+
+        Mockito.verify(sqLiteDatabase, Mockito.never()).compileStatement(Mockito.anyString());
+        Mockito.verify(sqLiteDatabase).setTransactionSuccessful();
+    }
+
+    @Test
+    public void testAddDetailsUsesEqualityWhenBaseEntityIdHasNoIndexedCharacters() {
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.startsWith("SELECT docid"), Mockito.any(String[].class))).thenReturn(null);
+        Mockito.when(sqLiteDatabase.compileStatement(Mockito.anyString())).thenReturn(Mockito.mock(SQLiteStatement.class));
+
+        detailsRepository.add("--", Collections.singletonMap("first_name", "Jane"), 12L);
+
+        Mockito.verify(sqLiteDatabase).rawQuery("SELECT docid, key, value FROM ec_details WHERE base_entity_id = ?", new String[]{"--"});
+    }
+
     @Test
     public void assertgetAllDetailsForClient() {
         Map<String, String> detail = detailsRepository.getAllDetailsForClient("1");
@@ -18,6 +18,7 @@ import android.util.Pair;
 import net.sqlcipher.Cursor;
 import net.sqlcipher.MatrixCursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -42,6 +43,7 @@ import org.smartregister.domain.DuplicateZeirIdStatus;
 import org.smartregister.domain.db.Column;
 import org.smartregister.domain.db.ColumnAttribute;
 import org.smartregister.domain.db.EventClient;
+import org.smartregister.domain.db.EventClientPushBatch;
 import org.smartregister.p2p.sync.data.JsonData;
 import org.smartregister.sync.ClientData;
 import org.smartregister.sync.intent.P2pProcessRecordsService;
@@ -54,6 +56,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -92,11 +95,86 @@ public class EventClientRepositoryTest extends BaseUnitTest {
         Assert.assertTrue(eventClientRepository.batchInsertClients(new JSONArray(ClientData.clientJsonArray)));
     }
 
+    @Test
+    public void testBatchInsertClientsLooksUpExistingClientsOncePerBatch() throws Exception {
+        SQLiteStatement insertStatement = Mockito.mock(SQLiteStatement.class);
+        SQLiteStatement updateStatement = Mockito.mock(SQLiteStatement.class);
+        when(sqliteDatabase.compileStatement(Mockito.startsWith("INSERT"))).thenReturn(insertStatement);
+        when(sqliteDatabase.compileStatement(Mockito.startsWith("UPDATE"))).thenReturn(updateStatement);
+        MatrixCursor existingClients = new MatrixCursor(new String[]{"baseEntityId"});
+        existingClients.addRow(new Object[]{"existing-client"});
+        when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT baseEntityId FROM client WHERE baseEntityId IN"), any(String[].class))).thenReturn(existingClients);
+        JSONArray clients = new JSONArray("[{\"baseEntityId\":\"existing-client\"},{\"baseEntityId\":\"new-client\"},{\"baseEntityId\":\"new-client\"}]");
+
+        Assert.assertTrue(eventClientRepository.batchInsertClients(clients));
+
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        verify(sqliteDatabase).rawQuery(eq("SELECT baseEntityId FROM client WHERE baseEntityId IN ( ?, ?, ?)"), argsCaptor.capture());
+        Assert.assertArrayEquals(new String[]{"existing-client", "new-client", "new-client"}, argsCaptor.getValue());
+        verify(sqliteDatabase, Mockito.never()).rawQuery(eq("SELECT baseEntityId FROM client WHERE baseEntityId = ?"), any(String[].class));
+        verify(insertStatement, times(1)).executeInsert();
+        verify(updateStatement, times(2)).executeUpdateDelete();
+    }
+
     @Test
     public void batchInsertEventsReturnsNotNull() throws Exception {
         Assert.assertTrue(eventClientRepository.batchInsertEvents(new JSONArray(ClientData.eventJsonArray), 0l));
     }
 
+    @Test
+    public void testBatchInsertEventRecordsBindsStreamedValues() {
+        SQLiteStatement insertStatement = Mockito.mock(SQLiteStatement.class);
+        SQLiteStatement updateStatement = Mockito.mock(SQLiteStatement.class);
+        when(sqliteDatabase.compileStatement(Mockito.startsWith("INSERT"))).thenReturn(insertStatement);
+        when(sqliteDatabase.compileStatement(Mockito.startsWith("UPDATE"))).thenReturn(updateStatement);
+        Map<String, String> values = new HashMap<>();
+        values.put("baseEntityId", "eb2eab25");
+        values.put("formSubmissionId", "d9d621b7");
+        values.put("eventType", "Spray");
+        values.put("serverVersion", "1597318034276");
+        values.put("eventDate", "1597318034000");
+        String json = "{\"baseEntityId\":\"eb2eab25\",\"formSubmissionId\":\"d9d621b7\"}";
+        StreamedRecord record = new StreamedRecord(json, values, Collections.singletonMap("planIdentifier", "plan-1"), null);
+        StreamedRecord withoutFormSubmissionId = new StreamedRecord("{}", Collections.singletonMap("baseEntityId", "eb2eab25"), null, null);
+
+        Assert.assertTrue(eventClientRepository.batchInsertEventRecords(Arrays.asList(record, withoutFormSubmissionId), 0L));
+
+        verify(insertStatement).bindString(Mockito.anyInt(), eq(json));
+        verify(insertStatement).bindString(Mockito.anyInt(), eq(TYPE_Valid));
+        verify(insertStatement).bindString(Mockito.anyInt(), eq(BaseRepository.TYPE_Synced));
+        verify(insertStatement).bindString(Mockito.anyInt(), eq("Spray"));
+        verify(insertStatement).bindString(Mockito.anyInt(), eq("plan-1"));
+        verify(insertStatement).bindLong(Mockito.anyInt(), eq(1597318034276L));
+        verify(insertStatement, times(1)).executeInsert();
+        verify(updateStatement, Mockito.never()).executeUpdateDelete();
+        verify(sqliteDatabase).setTransactionSuccessful();
+    }
+
+    @Test
+    public void testBatchInsertClientRecordsUpdatesExistingClients() {
+        SQLiteStatement insertStatement = Mockito.mock(SQLiteStatement.class);
+        SQLiteStatement updateStatement = Mockito.mock(SQLiteStatement.class);
+        when(sqliteDatabase.compileStatement(Mockito.startsWith("INSERT"))).thenReturn(insertStatement);
+        when(sqliteDatabase.compileStatement(Mockito.startsWith("UPDATE"))).thenReturn(updateStatement);
+        MatrixCursor existingClients = new MatrixCursor(new String[]{"baseEntityId"});
+        existingClients.addRow(new Object[]{"existing-client"});
+        when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT baseEntityId FROM client WHERE baseEntityId IN"), any(String[].class))).thenReturn(existingClients);
+        StreamedRecord existingClient = new StreamedRecord("{\"baseEntityId\":\"existing-client\"}",
+                Collections.singletonMap("baseEntityId", "existing-client"), null, Collections.singletonMap("residence", "154142"));
+        existingClient.setSyncStatus(TYPE_Unsynced);
+        StreamedRecord newClient = new StreamedRecord("{\"baseEntityId\":\"new-client\"}",
+                Collections.singletonMap("baseEntityId", "new-client"), null, null);
+
+        Assert.assertTrue(eventClientRepository.batchInsertClientRecords(Arrays.asList(existingClient, newClient)));
+
+        verify(updateStatement).bindString(Mockito.anyInt(), eq("{\"baseEntityId\":\"existing-client\"}"));
+        verify(updateStatement).bindString(Mockito.anyInt(), eq(TYPE_Unsynced));
+        verify(updateStatement).bindString(Mockito.anyInt(), eq("154142"));
+        verify(updateStatement, times(1)).executeUpdateDelete();
+        verify(insertStatement).bindString(Mockito.anyInt(), eq(BaseRepository.TYPE_Synced));
+        verify(insertStatement, times(1)).executeInsert();
+    }
+
     @Test
     public void getEventsByServerVersionsReturnsNotNull() throws Exception {
         String query = "SELECT json FROM event WHERE serverVersion > 0 AND serverVersion <= 0 ORDER BY serverVersion";
@@ -244,14 +322,125 @@ public class EventClientRepositoryTest extends BaseUnitTest {
     }
 
     @Test
-    public void markEventsAsSyncedCallsUpdateAsMAnyTimesAsEventsAndClientsPassedIntoMethod() throws Exception {
+    public void markEventsAsSyncedUpdatesEventsAndClientsInOneTransaction() throws Exception {
+        SQLiteStatement updateStatement = mockRowIds(100L, 40L);
 
         HashMap<String, Object> syncedObjects = new HashMap<String, Object>();
         syncedObjects.put("clients", getClientList());
         syncedObjects.put("events", getEventList());
         eventClientRepository.markEventsAsSynced(syncedObjects);
-        Mockito.verify(sqliteDatabase, Mockito.times(getEventList().size() + getClientList().size())).update(org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(ContentValues.class), org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(String[].class));
 
+        Mockito.verify(sqliteDatabase).beginTransaction();
+        Mockito.verify(sqliteDatabase).compileStatement("UPDATE client SET syncStatus = ?, rowid = ? WHERE rowid = ?");
+        Mockito.verify(sqliteDatabase).compileStatement("UPDATE event SET syncStatus = ?, rowid = ? WHERE rowid = ?");
+        Mockito.verify(sqliteDatabase).rawQuery(Mockito.startsWith("SELECT rowid FROM client WHERE baseEntityId IN (?"), any(String[].class));
+        Mockito.verify(sqliteDatabase).rawQuery(Mockito.startsWith("SELECT rowid FROM event WHERE formSubmissionId IN (?"), any(String[].class));
+        Mockito.verify(updateStatement, times(2)).executeUpdateDelete();
+        Mockito.verify(sqliteDatabase).setTransactionSuccessful();
+        Mockito.verify(sqliteDatabase).endTransaction();
+        Mockito.verify(sqliteDatabase, Mockito.never()).update(org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(ContentValues.class), org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(String[].class));
+    }
+
+    @Test
+    public void markEventsAsSyncedSkipsFailedClientsAndMovesRowsAfterMaxRowId() throws Exception {
+        SQLiteStatement updateStatement = mockRowIds(100L, 40L, 41L);
+        List<JSONObject> clients = getClientList().subList(0, 3);
+        HashMap<String, Object> syncedObjects = new HashMap<String, Object>();
+        syncedObjects.put("clients", clients);
+        Set<String> failedClients = Collections.singleton(clients.get(1).getString("baseEntityId"));
+
+        eventClientRepository.markEventsAsSynced(syncedObjects, null, failedClients);
+
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        Mockito.verify(sqliteDatabase).rawQuery(eq("SELECT rowid FROM client WHERE baseEntityId IN (?, ?) ORDER BY rowid"), argsCaptor.capture());
+        Assert.assertArrayEquals(new String[]{clients.get(0).getString("baseEntityId"), clients.get(2).getString("baseEntityId")}, argsCaptor.getValue());
+        // the rows get the next rowids, one each, in their current order
+        org.mockito.InOrder inOrder = Mockito.inOrder(updateStatement);
+        inOrder.verify(updateStatement).bindLong(2, 101L);
+        inOrder.verify(updateStatement).bindLong(3, 40L);
+        inOrder.verify(updateStatement).bindLong(2, 102L);
+        inOrder.verify(updateStatement).bindLong(3, 41L);
+        Mockito.verify(updateStatement, times(2)).bindString(1, BaseRepository.TYPE_Synced);
+        Mockito.verify(sqliteDatabase, Mockito.never()).compileStatement(Mockito.startsWith("UPDATE event"));
+    }
+
+    @Test
+    public void testGetUnSyncedEventClientPushBatchLooksUpSharedClientsOnce() throws Exception {
+        MatrixCursor events = new MatrixCursor(new String[]{"json", "baseEntityId", "formSubmissionId"});
+        events.addRow(new Object[]{"{\"formSubmissionId\":\"fs-1\",\"baseEntityId\":\"client-1\"}", "client-1", "fs-1"});
+        events.addRow(new Object[]{"{\"formSubmissionId\":\"fs-2\",\"baseEntityId\":\"client-1\"}", "client-1", "fs-2"});
+        events.addRow(new Object[]{"{\"formSubmissionId\":\"fs-3\",\"baseEntityId\":\"client-2\"}", "client-2", "fs-3"});
+        when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT json, baseEntityId, formSubmissionId FROM event"), any(String[].class))).thenReturn(events);
+        MatrixCursor clients = new MatrixCursor(new String[]{"json", "baseEntityId"});
+        clients.addRow(new Object[]{"{\"baseEntityId\":\"client-1\",\"firstName\":\"O'Neil\"}", "client-1"});
+        when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT json, baseEntityId FROM client"), any(String[].class))).thenReturn(clients);
+
+        EventClientPushBatch pushBatch = eventClientRepository.getUnSyncedEventClientPushBatch(50);
+
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        verify(sqliteDatabase).rawQuery(eq("SELECT json, baseEntityId FROM client WHERE syncStatus = ? AND baseEntityId IN (?, ?)"), argsCaptor.capture());
+        Assert.assertArrayEquals(new String[]{BaseRepository.TYPE_Unsynced, "client-1", "client-2"}, argsCaptor.getValue());
+        Assert.assertEquals(3, pushBatch.getEventCount());
+        Assert.assertEquals(1, pushBatch.getClientCount());
+        Assert.assertEquals(Arrays.asList("fs-1", "fs-2", "fs-3"), pushBatch.getFormSubmissionIds());
+        JSONObject request = new JSONObject(pushBatch.toJson());
+        Assert.assertEquals("O'Neil", request.getJSONArray(AllConstants.KEY.CLIENTS).getJSONObject(0).getString("firstName"));
+        Assert.assertEquals("fs-3", request.getJSONArray(AllConstants.KEY.EVENTS).getJSONObject(2).getString("formSubmissionId"));
+    }
+
+    @Test
+    public void testGetUnSyncedEventClientPushBatchReturnsUnSyncedClientsWhenThereAreNoEvents() {
+        when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT json, baseEntityId, formSubmissionId FROM event"), any(String[].class)))
+                .thenReturn(new MatrixCursor(new String[]{"json", "baseEntityId", "formSubmissionId"}));
+        MatrixCursor clients = new MatrixCursor(new String[]{"json", "baseEntityId"});
+        clients.addRow(new Object[]{"{\"baseEntityId\":\"client-1\"}", "client-1"});
+        when(sqliteDatabase.rawQuery(eq("SELECT json, baseEntityId FROM client WHERE syncStatus = ? LIMIT 50"), any(String[].class))).thenReturn(clients);
+
+        EventClientPushBatch pushBatch = eventClientRepository.getUnSyncedEventClientPushBatch(50);
+
+        Assert.assertEquals(0, pushBatch.getEventCount());
+        Assert.assertEquals(Collections.singletonList("client-1"), pushBatch.getBaseEntityIds());
+        Assert.assertEquals("{\"clients\":[{\"baseEntityId\":\"client-1\"}]}", pushBatch.toJson());
+    }
+
+    @Test
+    public void testMarkPushBatchAsSyncedSkipsFailedEvents() {
+        SQLiteStatement updateStatement = mockRowIds(10L, 5L);
+        EventClientPushBatch pushBatch = new EventClientPushBatch();
+        pushBatch.addEvent("fs-1", "{}");
+        pushBatch.addEvent("fs-2", "{}");
+
+        eventClientRepository.markEventsAsSynced(pushBatch, Collections.singleton("fs-1"), null);
+
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        verify(sqliteDatabase).rawQuery(eq("SELECT rowid FROM event WHERE formSubmissionId IN (?) ORDER BY rowid"), argsCaptor.capture());
+        Assert.assertArrayEquals(new String[]{"fs-2"}, argsCaptor.getValue());
+        verify(updateStatement).bindLong(2, 11L);
+        verify(updateStatement).bindLong(3, 5L);
+        verify(updateStatement).executeUpdateDelete();
+    }
+
+    /**
+     * Mocks the max rowid of the tables and the rowids of the rows marked as synced
+     *
+     * @return the statement that updates the rows
+     */
+    private SQLiteStatement mockRowIds(long maxRowId, Long... rowIds) {
+        Mockito.when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT max(rowid) AS max_row_id"), Mockito.isNull())).thenAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"max_row_id"});
+            cursor.addRow(new Object[]{maxRowId});
+            return cursor;
+        });
+        Mockito.when(sqliteDatabase.rawQuery(Mockito.startsWith("SELECT rowid FROM"), any(String[].class))).thenAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"rowid"});
+            for (Long rowId : rowIds) {
+                cursor.addRow(new Object[]{rowId});
+            }
+            return cursor;
+        });
+        SQLiteStatement updateStatement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqliteDatabase.compileStatement(Mockito.startsWith("UPDATE "))).thenReturn(updateStatement);
+        return updateStatement;
     }
 
     @Test
@@ -25,14 +25,23 @@ import org.smartregister.domain.LocationTest;
 import org.smartregister.util.DateTimeTypeConverter;
 import org.smartregister.view.activity.DrishtiApplication;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.smartregister.domain.LocationTest.stripTimezone;
@@ -123,6 +132,30 @@ public class LocationRepositoryTest extends BaseUnitTest {
         locationRepository.addOrUpdate(location);
     }
 
+    @Test
+    public void testBatchInsertLocationsSavesLocationsInOneTransaction() {
+        Location location = gson.fromJson(locationJson, Location.class);
+        Location child = gson.fromJson(locationJson, Location.class);
+        child.setId("3735");
+
+        assertTrue(locationRepository.batchInsertLocations(Arrays.asList(location, child)));
+
+        verify(sqLiteDatabase, times(2)).replace(eq(LOCATION_TABLE), eq(null), contentValuesArgumentCaptor.capture());
+        assertEquals("3734", contentValuesArgumentCaptor.getAllValues().get(0).getAsString(ID));
+        assertEquals("3735", contentValuesArgumentCaptor.getAllValues().get(1).getAsString(ID));
+        verify(sqLiteDatabase, times(3)).setTransactionSuccessful();
+    }
+
+    @Test
+    public void testBatchInsertLocationsWithInvalidLocation() {
+        Location location = gson.fromJson(locationJson, Location.class);
+
+        assertFalse(locationRepository.batchInsertLocations(Arrays.asList(location, new Location())));
+        assertFalse(locationRepository.batchInsertLocations(Collections.emptyList()));
+
+        verify(sqLiteDatabase, times(1)).setTransactionSuccessful();
+    }
+
     @Test
     public void tesGetAllLocations() {
         when(sqLiteDatabase.rawQuery("SELECT * FROM location", null)).thenReturn(getCursor());
@@ -259,6 +292,79 @@ public class LocationRepositoryTest extends BaseUnitTest {
 
     }
 
+    @Test
+    public void testAddOrUpdateMovesLocationUnderItsParent() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getAncestryCursor());
+        Location location = gson.fromJson(locationJson, Location.class);
+        locationRepository.addOrUpdate(location);
+
+        verify(sqLiteDatabase).rawQuery(anyString(), eq(new String[]{"21", "3734", "1", "1"}));
+        verify(sqLiteDatabase).execSQL(startsWith("DELETE FROM location_ancestry"), eq(new Object[]{"3734", "3734"}));
+        verify(sqLiteDatabase).execSQL(startsWith("INSERT OR REPLACE INTO location_ancestry"), eq(new Object[]{"21", "3734"}));
+        verify(sqLiteDatabase, never()).execSQL(startsWith("WITH RECURSIVE"));
+        verify(sqLiteDatabase).setTransactionSuccessful();
+    }
+
+    @Test
+    public void testAddOrUpdateKeepsAncestryOfLocationAlreadyUnderItsParent() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getAncestryCursor());
+        when(sqLiteDatabase.rawQuery(anyString(), eq(new String[]{"21", "3734", "1", "1"}))).thenReturn(getAncestryCursor());
+        Location location = gson.fromJson(locationJson, Location.class);
+        locationRepository.addOrUpdate(location);
+
+        verify(sqLiteDatabase).replace(eq(LOCATION_TABLE), any(), any(ContentValues.class));
+        verify(sqLiteDatabase, never()).execSQL(anyString(), any(Object[].class));
+    }
+
+    @Test
+    public void testAddOrUpdateBuildsMissingAncestryTable() {
+        Location location = gson.fromJson(locationJson, Location.class);
+        locationRepository.addOrUpdate(location);
+        locationRepository.addOrUpdate(location);
+
+        verify(sqLiteDatabase).execSQL(startsWith("CREATE TABLE IF NOT EXISTS location_ancestry"));
+        verify(sqLiteDatabase).execSQL(startsWith("WITH RECURSIVE"));
+    }
+
+    @Test
+    public void testGetDescendants() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getAncestryCursor());
+        when(sqLiteDatabase.rawQuery(contains("JOIN location_ancestry"), any(String[].class))).thenReturn(getCursor());
+        List<Location> descendants = locationRepository.getDescendants("21", 2);
+
+        verify(sqLiteDatabase).rawQuery(stringArgumentCaptor.capture(), eq(new String[]{"21", "2"}));
+        assertEquals("SELECT l.* FROM location l JOIN location_ancestry a ON l._id = a.descendant_id " +
+                "WHERE a.ancestor_id = ? AND a.depth BETWEEN 1 AND ? ORDER BY a.depth", stringArgumentCaptor.getValue());
+        assertEquals(1, descendants.size());
+        assertEquals("3734", descendants.get(0).getId());
+    }
+
+    @Test
+    public void testIsAncestor() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getAncestryCursor());
+        when(sqLiteDatabase.rawQuery(anyString(), eq(new String[]{"21", "3734", "1", String.valueOf(Integer.MAX_VALUE)})))
+                .thenReturn(getAncestryCursor());
+
+        assertTrue(locationRepository.isAncestor("21", "3734"));
+        assertFalse(locationRepository.isAncestor("3734", "21"));
+    }
+
+    @Test
+    public void testDeleteLocationsRemovesTheirAncestry() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getAncestryCursor());
+        locationRepository.deleteLocations(Collections.singleton("3734"));
+
+        verify(sqLiteDatabase).delete(LOCATION_TABLE, "_id IN (?)", new String[]{"3734"});
+        verify(sqLiteDatabase).execSQL(startsWith("DELETE FROM location_ancestry"), eq(new Object[]{"3734", "3734"}));
+        verify(sqLiteDatabase).delete("location_ancestry", "descendant_id IN (?)", new String[]{"3734"});
+    }
+
+    private MatrixCursor getAncestryCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"name"});
+        cursor.addRow(new Object[]{"location_ancestry"});
+        return cursor;
+    }
+
     public MatrixCursor getCursor() {
         MatrixCursor cursor = new MatrixCursor(LocationRepository.COLUMNS);
         Location location = gson.fromJson(locationJson, Location.class);
@@ -9,6 +9,7 @@ import com.google.gson.JsonArray;
 import net.sqlcipher.MatrixCursor;
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteException;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.joda.time.DateTime;
 import org.json.JSONArray;
@@ -18,6 +19,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -32,18 +34,24 @@ import org.smartregister.domain.LocationProperty;
 import org.smartregister.domain.LocationTest;
 import org.smartregister.p2p.sync.data.JsonData;
 import org.smartregister.repository.helper.MappingHelper;
+import org.smartregister.util.AppExecutors;
 import org.smartregister.util.DateTimeTypeConverter;
 import org.smartregister.view.activity.DrishtiApplication;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -84,11 +92,19 @@ public class StructureRepositoryTest extends BaseUnitTest {
     private ArgumentCaptor<Object[]> objectArgsCaptor;
 
 
-    @Captor
-    private ArgumentCaptor<Location> structureArgumentCapture;
+    @Mock
+    private SQLiteStatement structureStatement;
+
+    @Mock
+    private SQLiteStatement boundsStatement;
+
+    @Mock
+    private SQLiteStatement deleteBoundsStatement;
 
     private String locationJson = LocationTest.structureJson;
 
+    private List<Runnable> backgroundTasks;
+
     private static Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HHmm")
             .registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 
@@ -97,6 +113,8 @@ public class StructureRepositoryTest extends BaseUnitTest {
     public void setUp() {
         Whitebox.setInternalState(DrishtiApplication.getInstance(), "repository", repository);
         structureRepository = new StructureRepository();
+        backgroundTasks = new ArrayList<>();
+        structureRepository.setAppExecutors(new AppExecutors(backgroundTasks::add, Runnable::run, Runnable::run));
         when(repository.getReadableDatabase()).thenReturn(sqLiteDatabase);
         when(repository.getWritableDatabase()).thenReturn(sqLiteDatabase);
     }
@@ -178,9 +196,13 @@ public class StructureRepositoryTest extends BaseUnitTest {
     }
 
     @Test
-     public void testBatchInsertStructures() throws Exception {
-        Location expectedStructure = gson.fromJson(locationJson, Location.class);
+    public void testBatchInsertStructures() throws Exception {
         JSONArray structureArray = new JSONArray().put(new JSONObject(locationJson));
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.compileStatement(startsWith("INSERT OR REPLACE INTO structure ("))).thenReturn(structureStatement);
+        when(sqLiteDatabase.compileStatement(startsWith("INSERT OR REPLACE INTO structure_bounds"))).thenReturn(boundsStatement);
+        when(sqLiteDatabase.compileStatement(startsWith("DELETE FROM structure_bounds"))).thenReturn(deleteBoundsStatement);
+        when(structureStatement.executeInsert()).thenReturn(5L);
 
         structureRepository = spy(structureRepository);
         boolean inserted = structureRepository.batchInsertStructures(structureArray);
@@ -190,16 +212,46 @@ public class StructureRepositoryTest extends BaseUnitTest {
         verify(sqLiteDatabase).setTransactionSuccessful();
         verify(sqLiteDatabase).endTransaction();
 
-        verify(structureRepository).addOrUpdate(structureArgumentCapture.capture());
-        assertEquals(expectedStructure.getId(), structureArgumentCapture.getValue().getId());
-        assertEquals(expectedStructure.getType(), structureArgumentCapture.getValue().getType());
+        verify(sqLiteDatabase).compileStatement("INSERT OR REPLACE INTO structure (rowid, _id, uuid, parent_id, name, " +
+                "sync_status, latitude, longitude, geojson) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        verify(structureStatement).bindNull(1);
+        verify(structureStatement).bindString(2, "90397");
+        verify(structureStatement).bindString(4, "3734");
+        verify(boundsStatement).bindLong(1, 5L);
+        verify(boundsStatement).bindDouble(2, 32.5978434);
+        verify(boundsStatement).executeInsert();
+        verify(deleteBoundsStatement, never()).executeUpdateDelete();
+        verify(structureRepository, never()).addOrUpdate(any());
+    }
+
+    @Test
+    public void testBatchInsertStructuresMovesUpdatedStructuresToTheEnd() {
+        Location structure = gson.fromJson(locationJson, Location.class);
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.compileStatement(startsWith("INSERT OR REPLACE INTO structure ("))).thenReturn(structureStatement);
+        when(sqLiteDatabase.compileStatement(startsWith("INSERT OR REPLACE INTO structure_bounds"))).thenReturn(boundsStatement);
+        when(sqLiteDatabase.compileStatement(startsWith("DELETE FROM structure_bounds"))).thenReturn(deleteBoundsStatement);
+        MatrixCursor existingCursor = new MatrixCursor(new String[]{"_id", "rowid"});
+        existingCursor.addRow(new Object[]{"90397", 3L});
+        when(sqLiteDatabase.rawQuery("SELECT _id, rowid FROM structure WHERE _id IN (?)", new String[]{"90397"})).thenReturn(existingCursor);
+        MatrixCursor maxRowIdCursor = new MatrixCursor(new String[]{"max_row_id"});
+        maxRowIdCursor.addRow(new Object[]{10});
+        when(sqLiteDatabase.rawQuery("SELECT max(rowid) AS max_row_id FROM structure", null)).thenReturn(maxRowIdCursor);
+        when(structureStatement.executeInsert()).thenReturn(11L);
+
+        assertTrue(structureRepository.batchInsertStructures(Collections.singletonList(structure)));
+
+        verify(deleteBoundsStatement).bindLong(1, 3L);
+        verify(deleteBoundsStatement).executeUpdateDelete();
+        verify(structureStatement).bindLong(1, 11L);
+        verify(boundsStatement).bindLong(1, 11L);
     }
 
     @Test
     public void testBatchInsertStructuresWithNullParam() {
 
         structureRepository = spy(structureRepository);
-        boolean inserted = structureRepository.batchInsertStructures(null);
+        boolean inserted = structureRepository.batchInsertStructures((JSONArray) null);
         assertFalse(inserted);
 
         verifyNoInteractions(sqLiteDatabase);
@@ -208,11 +260,10 @@ public class StructureRepositoryTest extends BaseUnitTest {
 
     @Test
     public void testBatchInsertStructuresWithExceptionThrown() throws Exception {
-
-        Location expectedStructure = gson.fromJson(locationJson, Location.class);
-        structureRepository = spy(structureRepository);
         JSONArray structureArray = new JSONArray().put(new JSONObject(locationJson));
-        doThrow(new SQLiteException()).when(structureRepository).addOrUpdate(any());
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.compileStatement(anyString())).thenReturn(structureStatement);
+        doThrow(new SQLiteException()).when(structureStatement).executeInsert();
 
         boolean inserted = structureRepository.batchInsertStructures(structureArray);
 
@@ -220,10 +271,7 @@ public class StructureRepositoryTest extends BaseUnitTest {
         verify(sqLiteDatabase).beginTransaction();
         verify(sqLiteDatabase, never()).setTransactionSuccessful();
         verify(sqLiteDatabase).endTransaction();
-
-        verify(structureRepository).addOrUpdate(structureArgumentCapture.capture());
-        assertEquals(expectedStructure.getId(), structureArgumentCapture.getValue().getId());
-        assertEquals(expectedStructure.getType(), structureArgumentCapture.getValue().getType());
+        verify(structureStatement, times(3)).close();
     }
 
     @Test
@@ -362,11 +410,180 @@ public class StructureRepositoryTest extends BaseUnitTest {
     @Test
     public void testCreateTable() {
         StructureRepository.createTable(sqLiteDatabase);
-        verify(sqLiteDatabase, times(2)).execSQL(stringArgumentCaptor.capture());
+        verify(sqLiteDatabase, times(3)).execSQL(stringArgumentCaptor.capture());
         assertEquals("CREATE TABLE structure (_id VARCHAR NOT NULL PRIMARY KEY,uuid VARCHAR , " +
                 "parent_id VARCHAR , name VARCHAR , sync_status VARCHAR DEFAULT Synced, latitude FLOAT , " +
                 "longitude FLOAT , geojson VARCHAR NOT NULL ) ", stringArgumentCaptor.getAllValues().get(0));
         assertEquals("CREATE INDEX structure_parent_id_ind ON structure(parent_id)", stringArgumentCaptor.getAllValues().get(1));
+        assertEquals("CREATE VIRTUAL TABLE IF NOT EXISTS structure_bounds USING rtree(_id, min_longitude, max_longitude, " +
+                "min_latitude, max_latitude)", stringArgumentCaptor.getAllValues().get(2));
+    }
+
+    @Test
+    public void testCreateBoundsTableWithoutRTree() {
+        doThrow(new SQLiteException("no such module: rtree")).when(sqLiteDatabase).execSQL(startsWith("CREATE VIRTUAL TABLE"));
+        StructureRepository.createBoundsTable(sqLiteDatabase);
+
+        verify(sqLiteDatabase).execSQL("CREATE TABLE IF NOT EXISTS structure_bounds (_id INTEGER PRIMARY KEY, " +
+                "min_longitude REAL, max_longitude REAL, min_latitude REAL, max_latitude REAL)");
+        verify(sqLiteDatabase).execSQL("CREATE INDEX IF NOT EXISTS structure_bounds_min_latitude_ind ON structure_bounds(min_latitude)");
+    }
+
+    @Test
+    public void testGetBounds() {
+        Location structure = gson.fromJson(locationJson, Location.class);
+        double[] bounds = StructureRepository.getBounds(structure.getGeometry());
+
+        assertEquals(32.5978434, bounds[0], 0);
+        assertEquals(32.5978956, bounds[1], 0);
+        assertEquals(-14.1699947, bounds[2], 0);
+        assertEquals(-14.1699446, bounds[3], 0);
+
+        Geometry point = new Geometry();
+        JsonArray coordinates = new JsonArray();
+        coordinates.add(4.5);
+        coordinates.add(9.7);
+        point.setCoordinates(coordinates);
+        assertArrayEquals(new double[]{4.5, 4.5, 9.7, 9.7}, StructureRepository.getBounds(point), 0);
+        assertNull(StructureRepository.getBounds(new Geometry()));
+    }
+
+    @Test
+    public void testAddOrUpdateSavesBounds() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.replace(anyString(), any(), any(ContentValues.class))).thenReturn(7L);
+        Location location = gson.fromJson(locationJson, Location.class);
+        structureRepository.addOrUpdate(location);
+
+        verify(sqLiteDatabase).execSQL("DELETE FROM structure_bounds WHERE _id = (SELECT rowid FROM structure WHERE _id = ?)",
+                new Object[]{"90397"});
+        verify(sqLiteDatabase).execSQL(startsWith("INSERT OR REPLACE INTO structure_bounds"), objectArgsCaptor.capture());
+        assertArrayEquals(new Object[]{7L, 32.5978434, 32.5978956, -14.1699947, -14.1699446}, objectArgsCaptor.getValue());
+        verify(sqLiteDatabase, never()).execSQL("DELETE FROM structure_bounds");
+    }
+
+    @Test
+    public void testAddOrUpdateSavesTheStructureAndBoundsInOneTransaction() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.replace(anyString(), any(), any(ContentValues.class))).thenReturn(7L);
+        Location location = gson.fromJson(locationJson, Location.class);
+        structureRepository.addOrUpdate(location);
+
+        InOrder inOrder = Mockito.inOrder(sqLiteDatabase);
+        inOrder.verify(sqLiteDatabase).beginTransaction();
+        inOrder.verify(sqLiteDatabase).execSQL(startsWith("DELETE FROM structure_bounds"), any(Object[].class));
+        inOrder.verify(sqLiteDatabase).replace(anyString(), any(), any(ContentValues.class));
+        inOrder.verify(sqLiteDatabase).execSQL(startsWith("INSERT OR REPLACE INTO structure_bounds"), any(Object[].class));
+        inOrder.verify(sqLiteDatabase).setTransactionSuccessful();
+        inOrder.verify(sqLiteDatabase).endTransaction();
+    }
+
+    @Test
+    public void testAddOrUpdateRollsBackTheBoundsWhenTheStructureIsNotSaved() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.replace(anyString(), any(), any(ContentValues.class))).thenReturn(-1L);
+        structureRepository.addOrUpdate(gson.fromJson(locationJson, Location.class));
+
+        verify(sqLiteDatabase).beginTransaction();
+        verify(sqLiteDatabase, never()).setTransactionSuccessful();
+        verify(sqLiteDatabase).endTransaction();
+    }
+
+    @Test
+    public void testAddOrUpdateFillsMissingBoundsTableInTheBackground() {
+        Location location = gson.fromJson(locationJson, Location.class);
+        structureRepository.addOrUpdate(location);
+        structureRepository.addOrUpdate(location);
+
+        verify(sqLiteDatabase).execSQL(startsWith("CREATE VIRTUAL TABLE IF NOT EXISTS structure_bounds"));
+        verify(sqLiteDatabase, never()).execSQL("DELETE FROM structure_bounds");
+        verify(sqLiteDatabase, never()).rawQuery("SELECT rowid, geojson FROM structure", null);
+        assertEquals(1, backgroundTasks.size());
+
+        backgroundTasks.get(0).run();
+
+        verify(sqLiteDatabase).execSQL("DELETE FROM structure_bounds");
+        verify(sqLiteDatabase).rawQuery("SELECT rowid, geojson FROM structure", null);
+    }
+
+    @Test
+    public void testAddBoundsTableCreatesAndFillsTheBounds() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"rowid", "geojson"});
+        cursor.addRow(new Object[]{3L, locationJson});
+        when(sqLiteDatabase.rawQuery("SELECT rowid, geojson FROM structure", null)).thenReturn(cursor);
+
+        StructureRepository.addBoundsTable(sqLiteDatabase);
+
+        verify(sqLiteDatabase).execSQL(startsWith("CREATE VIRTUAL TABLE IF NOT EXISTS structure_bounds"));
+        verify(sqLiteDatabase).execSQL("DELETE FROM structure_bounds");
+        verify(sqLiteDatabase).execSQL(startsWith("INSERT OR REPLACE INTO structure_bounds"), objectArgsCaptor.capture());
+        assertArrayEquals(new Object[]{3L, 32.5978434, 32.5978956, -14.1699947, -14.1699446}, objectArgsCaptor.getValue());
+    }
+
+    @Test
+    public void testGetStructuresInBounds() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.rawQuery(contains("JOIN structure_bounds"), any(Object[].class))).thenReturn(getCursor());
+        List<Location> structures = structureRepository.getStructuresInBounds(32.5, -14.2, 32.6, -14.1);
+
+        verify(sqLiteDatabase).rawQuery(stringArgumentCaptor.capture(), objectArgsCaptor.capture());
+        assertEquals("SELECT s.* FROM structure s JOIN structure_bounds b ON s.rowid = b._id WHERE b.max_longitude >= ? " +
+                "AND b.min_longitude <= ? AND b.max_latitude >= ? AND b.min_latitude <= ?", stringArgumentCaptor.getValue());
+        assertArrayEquals(new Object[]{32.5, 32.6, -14.2, -14.1}, objectArgsCaptor.getValue());
+        assertEquals(1, structures.size());
+        assertEquals("90397", structures.get(0).getId());
+    }
+
+    @Test
+    public void testGetNearestStructuresReturnsNearestFirst() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.rawQuery(contains("FROM structure_bounds WHERE"), any(Object[].class))).thenAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "min_longitude", "max_longitude", "min_latitude", "max_latitude"});
+            cursor.addRow(new Object[]{2L, 0.0005, 0.0006, 0.0, 0.0});
+            cursor.addRow(new Object[]{1L, -0.0001, 0.0001, -0.0001, 0.0001});
+            return cursor;
+        });
+        when(sqLiteDatabase.rawQuery(contains("rowid IN"), any(Object[].class))).thenAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"rowid", "geojson"});
+            cursor.addRow(new Object[]{2L, locationJson.replace("90397", "structure-2")});
+            cursor.addRow(new Object[]{1L, locationJson});
+            return cursor;
+        });
+
+        List<Location> structures = structureRepository.getNearestStructures(0, 0, 2);
+
+        assertEquals(2, structures.size());
+        assertEquals("90397", structures.get(0).getId());
+        assertEquals("structure-2", structures.get(1).getId());
+        verify(sqLiteDatabase).rawQuery(contains("rowid IN"), objectArgsCaptor.capture());
+        assertArrayEquals(new Object[]{1L, 2L}, objectArgsCaptor.getValue());
+    }
+
+    @Test
+    public void testGetNearestStructuresSearchesFurtherForNearerStructures() {
+        when(sqLiteDatabase.rawQuery(contains("sqlite_master"), any(String[].class))).thenReturn(getBoundsTableCursor());
+        when(sqLiteDatabase.rawQuery(contains("FROM structure_bounds WHERE"), any(Object[].class))).thenAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "min_longitude", "max_longitude", "min_latitude", "max_latitude"});
+            cursor.addRow(new Object[]{1L, 0.0009, 0.0009, 0.0009, 0.0009});
+            return cursor;
+        });
+        when(sqLiteDatabase.rawQuery(contains("rowid IN"), any(Object[].class))).thenAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"rowid", "geojson"});
+            cursor.addRow(new Object[]{1L, locationJson});
+            return cursor;
+        });
+
+        assertEquals(1, structureRepository.getNearestStructures(0, 0, 1).size());
+
+        // the structure at a box corner is further than the box is high, the box is searched again as high as it is far
+        verify(sqLiteDatabase, times(2)).rawQuery(contains("FROM structure_bounds WHERE"), objectArgsCaptor.capture());
+        assertEquals(-Math.sqrt(2 * 0.0009 * 0.0009), (double) objectArgsCaptor.getValue()[2], 1e-12);
+    }
+
+    private MatrixCursor getBoundsTableCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"name"});
+        cursor.addRow(new Object[]{"structure_bounds"});
+        return cursor;
     }
 
     @Test
@@ -59,6 +59,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -601,8 +602,8 @@ public class TaskRepositoryTest extends BaseUnitTest {
 
         Task expectedTask = gson.fromJson(taskJson, Task.class);
         JSONArray taskArray = new JSONArray().put(new JSONObject(taskJson));
+        when(sqLiteStatement.executeInsert()).thenReturn(1L);
 
-        taskRepository = spy(taskRepository);
         boolean inserted = taskRepository.batchInsertTasks(taskArray);
 
         verify(sqLiteDatabase).beginTransaction();
@@ -610,20 +611,53 @@ public class TaskRepositoryTest extends BaseUnitTest {
         verify(sqLiteDatabase).endTransaction();
         assertTrue(inserted);
 
-        verify(taskRepository).addOrUpdate(taskArgumentCaptor.capture());
-        assertEquals(expectedTask.getIdentifier(), taskArgumentCaptor.getValue().getIdentifier());
-        assertEquals(expectedTask.getStatus(), taskArgumentCaptor.getValue().getStatus());
-        assertEquals(expectedTask.getBusinessStatus(), taskArgumentCaptor.getValue().getBusinessStatus());
-        assertEquals(expectedTask.getCode(), taskArgumentCaptor.getValue().getCode());
-        assertEquals(expectedTask.getForEntity(), taskArgumentCaptor.getValue().getForEntity());
+        verify(sqLiteDatabase).compileStatement("INSERT OR REPLACE INTO task (rowid, _id, plan_id, group_id, status, " +
+                "business_status, priority, code, description, focus, for, start, end, authored_on, last_modified, owner, " +
+                "sync_status, server_version, structure_id, reason_reference, location, requester, restriction_repeat, " +
+                "restriction_start, restriction_end) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        verify(sqLiteDatabase).compileStatement("INSERT OR REPLACE INTO task_note (task_id, author, time, text) VALUES (?, ?, ?, ?)");
+        verify(sqLiteStatement).bindNull(1);
+        verify(sqLiteStatement).bindString(2, expectedTask.getIdentifier());
+        verify(sqLiteStatement).bindString(4, expectedTask.getGroupIdentifier());
+        verify(sqLiteStatement).bindString(6, expectedTask.getBusinessStatus());
+        verify(sqLiteStatement).bindString(4, "This should be assigned to patrick.");
+        verify(sqLiteStatement, times(2)).executeInsert();
+        verify(taskRepository, never()).addOrUpdate(any());
+        verify(taskRepository, never()).getTaskByIdentifier(anyString());
+    }
 
+    @Test
+    public void testBatchInsertTasksUpdatesExistingTasks() throws Exception {
+        Task task = gson.fromJson(taskJson, Task.class);
+        task.setNotes(null);
+        Task olderTask = gson.fromJson(taskJson, Task.class);
+        olderTask.setIdentifier("tsk2");
+        olderTask.setNotes(null);
+
+        MatrixCursor existingCursor = new MatrixCursor(new String[]{"_id", "last_modified"});
+        existingCursor.addRow(new Object[]{task.getIdentifier(), task.getLastModified().getMillis()});
+        existingCursor.addRow(new Object[]{"tsk2", olderTask.getLastModified().plusDays(1).getMillis()});
+        when(sqLiteDatabase.rawQuery("SELECT _id, last_modified FROM task WHERE _id IN (?,?)", new String[]{task.getIdentifier(), "tsk2"}))
+                .thenReturn(existingCursor);
+        MatrixCursor maxRowIdCursor = new MatrixCursor(new String[]{"max_row_id"});
+        maxRowIdCursor.addRow(new Object[]{10});
+        when(sqLiteDatabase.rawQuery("SELECT max(rowid) AS max_row_id FROM task", null)).thenReturn(maxRowIdCursor);
+        when(sqLiteStatement.executeInsert()).thenReturn(11L);
+
+        assertTrue(taskRepository.batchInsertTasks(java.util.Arrays.asList(task, olderTask)));
+
+        // the task saved with a later last modified date is skipped
+        verify(sqLiteStatement).bindLong(1, 11);
+        verify(sqLiteStatement, times(1)).executeInsert();
+        verify(sqLiteDatabase, times(1)).rawQuery("SELECT max(rowid) AS max_row_id FROM task", null);
+        verify(sqLiteDatabase).setTransactionSuccessful();
     }
 
     @Test
     public void testBatchInsertTasksWithNullParam() {
 
         taskRepository = spy(taskRepository);
-        boolean inserted = taskRepository.batchInsertTasks(null);
+        boolean inserted = taskRepository.batchInsertTasks((JSONArray) null);
 
         assertFalse(inserted);
         verify(sqLiteDatabase, never()).beginTransaction();
@@ -636,17 +670,16 @@ public class TaskRepositoryTest extends BaseUnitTest {
     @Test
     public void testBatchInsertTasksWithExceptionThrown() throws Exception {
 
-        taskRepository = spy(taskRepository);
         JSONArray taskArray = new JSONArray().put(new JSONObject(taskJson));
-        doThrow(new SQLiteException()).when(taskRepository).addOrUpdate(any());
+        doThrow(new SQLiteException()).when(sqLiteStatement).executeInsert();
 
         boolean inserted = taskRepository.batchInsertTasks(taskArray);
 
         assertFalse(inserted);
         verify(sqLiteDatabase).beginTransaction();
-        verify(taskRepository).addOrUpdate(taskArgumentCaptor.capture());
         verify(sqLiteDatabase, never()).setTransactionSuccessful();
         verify(sqLiteDatabase).endTransaction();
+        verify(sqLiteStatement).close();
 
     }
 
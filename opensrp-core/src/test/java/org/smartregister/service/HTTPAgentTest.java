@@ -43,6 +43,8 @@ import org.smartregister.util.CredentialsHelper;
 import org.smartregister.util.LoginResponseTestData;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -58,6 +60,8 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -301,6 +305,37 @@ public class HTTPAgentTest {
         }
     }
 
+    @Test
+    public void testPostStreamWritesGzipBodyAndDecompressesGzipResponse() throws IOException, URISyntaxException {
+        try (MockedStatic<CoreLibrary> coreLibraryMockedStatic = Mockito.mockStatic(CoreLibrary.class)) {
+            coreLibraryMockedStatic.when(CoreLibrary::getInstance).thenReturn(coreLibrary);
+
+            Mockito.doReturn(true).when(syncConfiguration).isStreamEventClientPush();
+            HTTPAgent httpAgentSpy = Mockito.spy(httpAgent);
+            ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+            ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(responseBody)) {
+                gzipOutputStream.write("{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8));
+            }
+
+            Mockito.doReturn(httpURLConnection).when(httpAgentSpy).getHttpURLConnection(TEST_IMAGE_UPLOAD_ENDPOINT);
+            Mockito.doReturn(requestBody).when(httpURLConnection).getOutputStream();
+            Mockito.doReturn(new ByteArrayInputStream(responseBody.toByteArray())).when(httpURLConnection).getInputStream();
+            Mockito.doReturn("gzip").when(httpURLConnection).getContentEncoding();
+            Mockito.doReturn(HttpURLConnection.HTTP_OK).when(httpURLConnection).getResponseCode();
+
+            Response<String> resp = httpAgentSpy.postStream(TEST_IMAGE_UPLOAD_ENDPOINT, writer -> writer.write("{\"events\":[]}"));
+
+            Assert.assertEquals(ResponseStatus.success, resp.status());
+            Assert.assertEquals("{\"status\":\"ok\"}", resp.payload());
+            Assert.assertEquals("{\"events\":[]}", IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(requestBody.toByteArray())), StandardCharsets.UTF_8));
+            Mockito.verify(httpURLConnection).setChunkedStreamingMode(0);
+            Mockito.verify(httpURLConnection).setRequestProperty("Content-Encoding", "gzip");
+            Mockito.verify(httpURLConnection).setRequestProperty("Accept-Encoding", "gzip");
+            Mockito.verify(httpURLConnection).setRequestMethod("POST");
+        }
+    }
+
     @Test
     public void testPostWithJsonResponse() throws IOException, URISyntaxException {
         try (MockedStatic<CoreLibrary> coreLibraryMockedStatic = Mockito.mockStatic(CoreLibrary.class)) {
@@ -329,6 +364,51 @@ public class HTTPAgentTest {
         }
     }
 
+    @Test
+    public void testPostStreamPassesResponseBodyToHandler() throws IOException, URISyntaxException {
+        try (MockedStatic<CoreLibrary> coreLibraryMockedStatic = Mockito.mockStatic(CoreLibrary.class)) {
+            coreLibraryMockedStatic.when(CoreLibrary::getInstance).thenReturn(coreLibrary);
+            String payload = "{\"title\":\"OpenSRP Testing Tuesdays\"}";
+
+            HTTPAgent httpAgentSpy = Mockito.spy(httpAgent);
+
+            Mockito.doReturn(new ByteArrayInputStream("{\"no_of_events\":0}".getBytes())).when(httpURLConnection).getInputStream();
+            Mockito.doReturn(HttpURLConnection.HTTP_OK).when(httpURLConnection).getResponseCode();
+            Mockito.doNothing().when(httpURLConnection).disconnect();
+            Mockito.doReturn(httpURLConnection).when(httpAgentSpy).generatePostRequest(TEST_IMAGE_UPLOAD_ENDPOINT, payload);
+            Mockito.doReturn("7").when(httpURLConnection).getHeaderField(AllConstants.SyncProgressConstants.TOTAL_RECORDS);
+
+            Response<String> resp = httpAgentSpy.postStream(TEST_IMAGE_UPLOAD_ENDPOINT, payload, IOUtils::toString);
+
+            Assert.assertEquals(ResponseStatus.success, resp.status());
+            Assert.assertEquals("{\"no_of_events\":0}", resp.payload());
+            Assert.assertEquals(Long.valueOf(7), resp.getTotalRecords());
+            Mockito.verify(allSharedPreferences).updateLastAuthenticationHttpStatus(HttpURLConnection.HTTP_OK);
+            Mockito.verify(httpURLConnection).disconnect();
+        }
+    }
+
+    @Test
+    public void testPostStreamReturnsFailureForBadRequest() throws IOException, URISyntaxException {
+        try (MockedStatic<CoreLibrary> coreLibraryMockedStatic = Mockito.mockStatic(CoreLibrary.class)) {
+            coreLibraryMockedStatic.when(CoreLibrary::getInstance).thenReturn(coreLibrary);
+            String payload = "{\"title\":\"OpenSRP Testing Tuesdays\"}";
+
+            HTTPAgent httpAgentSpy = Mockito.spy(httpAgent);
+            ResponseStreamHandler<String> handler = Mockito.mock(ResponseStreamHandler.class);
+
+            Mockito.doReturn(new ByteArrayInputStream("Bad request".getBytes())).when(httpURLConnection).getErrorStream();
+            Mockito.doReturn(HttpURLConnection.HTTP_BAD_REQUEST).when(httpURLConnection).getResponseCode();
+            Mockito.doReturn(httpURLConnection).when(httpAgentSpy).generatePostRequest(TEST_IMAGE_UPLOAD_ENDPOINT, payload);
+
+            Response<String> resp = httpAgentSpy.postStream(TEST_IMAGE_UPLOAD_ENDPOINT, payload, handler);
+
+            Assert.assertEquals(ResponseStatus.failure, resp.status());
+            Assert.assertNull(resp.payload());
+            Mockito.verifyNoInteractions(handler);
+        }
+    }
+
     @Test
     public void testOauth2authenticateCreatesUrlConnectionWithCorrectParametersForThePasswordGrantType() throws Exception {
 
@@ -632,7 +712,7 @@ public class HTTPAgentTest {
         Response<String> response;
         try (MockedStatic<IOUtils> ioUtilsMockedStatic = Mockito.mockStatic(IOUtils.class); MockedStatic<CoreLibrary> coreLibraryMockedStatic = Mockito.mockStatic(CoreLibrary.class)) {
             coreLibraryMockedStatic.when(CoreLibrary::getInstance).thenReturn(coreLibrary);
-            ioUtilsMockedStatic.when(() -> IOUtils.toString(errorStream)).thenReturn(FETCH_DATA_REQUEST_SERVER_RESPONSE);
+            ioUtilsMockedStatic.when(() -> IOUtils.toString(errorStream, StandardCharsets.UTF_8)).thenReturn(FETCH_DATA_REQUEST_SERVER_RESPONSE);
 
             response = httpAgentSpy.fetch(SECURE_RESOURCE_ENDPOINT);
 
@@ -641,8 +721,8 @@ public class HTTPAgentTest {
         Assert.assertNotNull(response);
         Assert.assertEquals(ResponseStatus.failure, response.status());
         Assert.assertEquals(FETCH_DATA_REQUEST_SERVER_RESPONSE, response.payload());
-
-
+        // compressed responses are only requested by apps that opted in to compressed push
+        Mockito.verify(httpURLConnection, Mockito.never()).setRequestProperty("Accept-Encoding", "gzip");
     }
 
     @Test
@@ -659,7 +739,7 @@ public class HTTPAgentTest {
             coreLibraryMockedStatic.when(CoreLibrary::getInstance).thenReturn(coreLibrary);
             accountHelperMockedStatic.when(() -> AccountHelper.getCachedOAuthToken(TEST_USERNAME, accountAuthenticatorXml.getAccountType(), AccountHelper.TOKEN_TYPE.PROVIDER)).thenReturn(SAMPLE_TEST_TOKEN);
 
-            ioUtilsMockedStatic.when(() -> IOUtils.toString(errorStream)).thenReturn(FETCH_DATA_REQUEST_SERVER_RESPONSE);
+            ioUtilsMockedStatic.when(() -> IOUtils.toString(errorStream, StandardCharsets.UTF_8)).thenReturn(FETCH_DATA_REQUEST_SERVER_RESPONSE);
 
             Mockito.doReturn(httpURLConnection).when(httpAgentSpy).generatePostRequest(SECURE_RESOURCE_ENDPOINT, SAMPLE_POST_REQUEST_PAYLOAD);
 
@@ -682,7 +762,7 @@ public class HTTPAgentTest {
         try (MockedStatic<IOUtils> ioUtilsMockedStatic = Mockito.mockStatic(IOUtils.class); MockedStatic<CoreLibrary> coreLibraryMockedStatic = Mockito.mockStatic(CoreLibrary.class)) {
             coreLibraryMockedStatic.when(CoreLibrary::getInstance).thenReturn(coreLibrary);
 
-            ioUtilsMockedStatic.when(() -> IOUtils.toString(errorStream)).thenReturn(FETCH_DATA_REQUEST_SERVER_RESPONSE);
+            ioUtilsMockedStatic.when(() -> IOUtils.toString(errorStream, StandardCharsets.UTF_8)).thenReturn(FETCH_DATA_REQUEST_SERVER_RESPONSE);
 
             Response<String> response = httpAgentSpy.fetchWithCredentials(SECURE_RESOURCE_ENDPOINT, SAMPLE_TEST_TOKEN);
 
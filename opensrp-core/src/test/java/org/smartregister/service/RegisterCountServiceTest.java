@@ -0,0 +1,238 @@
+package org.smartregister.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.smartregister.Context;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.event.Listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.smartregister.event.Event.ON_LOGOUT;
+import static org.smartregister.event.Event.REGISTER_COUNT_UPDATED;
+
+public class RegisterCountServiceTest {
+
+    private static final String TABLE = "ec_client";
+
+    private static final String MAIN_CONDITION = "is_closed = 0";
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private Context context;
+
+    @Mock
+    private CommonRepository commonRepository;
+
+    private final List<Runnable> scheduledRecounts = new ArrayList<>();
+
+    private final List<String> updatedTables = new ArrayList<>();
+
+    private final Listener<String> registerCountUpdatedListener = updatedTables::add;
+
+    private final AtomicInteger counted = new AtomicInteger();
+
+    private RegisterCountService registerCountService;
+
+    @Before
+    public void setUp() {
+        when(context.commonrepository(TABLE)).thenReturn(commonRepository);
+        registerCountService = new RegisterCountService(context, scheduledRecounts::add);
+        REGISTER_COUNT_UPDATED.addListener(registerCountUpdatedListener);
+    }
+
+    @After
+    public void tearDown() {
+        REGISTER_COUNT_UPDATED.removeListener(registerCountUpdatedListener);
+    }
+
+    @Test
+    public void testGetCountCountsOnlyWhenTheCountIsNotCached() throws Exception {
+        assertEquals(10, registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(10)));
+        assertEquals(10, registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(11)));
+        assertEquals(20, registerCountService.getCount(TABLE, MAIN_CONDITION, "john", null, counter(20)));
+
+        assertEquals(2, counted.get());
+        assertNull(registerCountService.getCachedCount(TABLE, "", ""));
+    }
+
+    @Test
+    public void testOnChangedAddsAndRemovesRecordsMatchingTheCount() throws Exception {
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(10));
+
+        when(commonRepository.matchesCondition("new-id", MAIN_CONDITION)).thenReturn(false);
+        RegisterCountService.Change change = registerCountService.beforeChange(TABLE, "new-id");
+        when(commonRepository.matchesCondition("new-id", MAIN_CONDITION)).thenReturn(true);
+        registerCountService.onChanged(change);
+
+        assertEquals(Integer.valueOf(11), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, ""));
+
+        change = registerCountService.beforeChange(TABLE, "new-id");
+        when(commonRepository.matchesCondition("new-id", MAIN_CONDITION)).thenReturn(false);
+        registerCountService.onChanged(change);
+
+        assertEquals(Integer.valueOf(10), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, ""));
+        assertEquals(2, updatedTables.size());
+        assertEquals(1, counted.get());
+        assertEquals(0, scheduledRecounts.size());
+    }
+
+    @Test
+    public void testOnChangedLeavesCountsOfUnchangedMembershipAsTheyAre() throws Exception {
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(10));
+        when(commonRepository.matchesCondition("id-1", MAIN_CONDITION)).thenReturn(true);
+
+        registerCountService.onChanged(registerCountService.beforeChange(TABLE, "id-1"));
+
+        assertEquals(Integer.valueOf(10), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, ""));
+        assertEquals(0, updatedTables.size());
+    }
+
+    @Test
+    public void testOnChangedOnlyChecksTheShownCountAndMarksTheOthersStale() throws Exception {
+        String closedCondition = "is_closed = 1";
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(10));
+        registerCountService.getCount(TABLE, closedCondition, "", closedCondition, counter(5));
+        when(commonRepository.matchesCondition("id-1", closedCondition)).thenReturn(false, true);
+
+        registerCountService.onChanged(registerCountService.beforeChange(TABLE, "id-1"));
+
+        verify(commonRepository, never()).matchesCondition("id-1", MAIN_CONDITION);
+        assertEquals(Integer.valueOf(6), registerCountService.getCachedCount(TABLE, closedCondition, ""));
+        assertEquals(0, scheduledRecounts.size());
+
+        assertEquals(10, registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(11)));
+        scheduledRecounts.remove(0).run();
+
+        assertEquals(Integer.valueOf(11), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, ""));
+    }
+
+    @Test
+    public void testBeforeChangeReturnsNullWithoutCachedCountsOfTheTable() throws Exception {
+        registerCountService.getCount("ec_mother", MAIN_CONDITION, "", MAIN_CONDITION, counter(10));
+
+        assertNull(registerCountService.beforeChange(TABLE, "id-1"));
+    }
+
+    @Test
+    public void testUnknownMembershipRecountsTheActiveCountInTheBackground() throws Exception {
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "john", null, counter(3));
+
+        registerCountService.onChanged(registerCountService.beforeChange(TABLE, "id-1"));
+
+        assertEquals(1, scheduledRecounts.size());
+        assertEquals(3, registerCountService.getCount(TABLE, MAIN_CONDITION, "john", null, counter(4)));
+        assertEquals(1, scheduledRecounts.size());
+
+        scheduledRecounts.get(0).run();
+
+        assertEquals(Integer.valueOf(4), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, "john"));
+        assertEquals(1, updatedTables.size());
+        assertEquals(TABLE, updatedTables.get(0));
+    }
+
+    @Test
+    public void testRecountIsDiscardedWhenRecordsAreWrittenWhileCounting() throws Exception {
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "john", null, counter(3));
+        registerCountService.invalidate(TABLE);
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "john", null, counter(4));
+
+        RegisterCountService.Change change = registerCountService.beforeChange(TABLE, "id-1");
+        scheduledRecounts.remove(0).run();
+
+        assertEquals(Integer.valueOf(3), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, "john"));
+
+        registerCountService.onChanged(change);
+        while (!scheduledRecounts.isEmpty()) {
+            scheduledRecounts.remove(0).run();
+        }
+
+        assertEquals(Integer.valueOf(4), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, "john"));
+    }
+
+    @Test
+    public void testConditionThatCanNotBeEvaluatedMarksTheCountStale() throws Exception {
+        registerCountService.getCount(TABLE, "phrase MATCH 'x'", "", "phrase MATCH 'x'", counter(5));
+        when(commonRepository.matchesCondition(anyString(), anyString())).thenReturn(null);
+
+        registerCountService.onChanged(registerCountService.beforeChange(TABLE, "id-1"));
+
+        assertEquals(1, scheduledRecounts.size());
+    }
+
+    @Test
+    public void testOnTableWrittenMarksCountsStaleUnlessTheWriteIsTracked() throws Exception {
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(10));
+        when(commonRepository.matchesCondition("id-1", MAIN_CONDITION)).thenReturn(false, true);
+
+        RegisterCountService.Change change = registerCountService.beforeChange(TABLE, "id-1");
+        registerCountService.onTableWritten(TABLE);
+        registerCountService.onChanged(change);
+
+        assertEquals(0, scheduledRecounts.size());
+        assertEquals(Integer.valueOf(11), registerCountService.getCachedCount(TABLE, MAIN_CONDITION, ""));
+
+        registerCountService.onTableWritten(TABLE);
+
+        assertEquals(1, scheduledRecounts.size());
+    }
+
+    @Test
+    public void testLogoutClearsTheCounts() throws Exception {
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "", MAIN_CONDITION, counter(10));
+
+        ON_LOGOUT.notifyListeners(true);
+
+        assertNull(registerCountService.getCachedCount(TABLE, MAIN_CONDITION, ""));
+    }
+
+    @Test
+    public void testDelayedRecountWaitsUntilTheTableIsNoLongerWritten() throws Exception {
+        ScheduledExecutorService executorService = mock(ScheduledExecutorService.class);
+        ArgumentCaptor<Runnable> recountCaptor = ArgumentCaptor.forClass(Runnable.class);
+        registerCountService = new RegisterCountService(context, executorService, 60000);
+        registerCountService.getCount(TABLE, MAIN_CONDITION, "john", null, counter(3));
+
+        registerCountService.onChanged(registerCountService.beforeChange(TABLE, "id-1"));
+        registerCountService.onChanged(registerCountService.beforeChange(TABLE, "id-2"));
+
+        verify(executorService).schedule(recountCaptor.capture(), eq(60000L), eq(TimeUnit.MILLISECONDS));
+        recountCaptor.getValue().run();
+
+        // the table was written less than the delay ago so the recount is put off
+        verify(executorService, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+        assertEquals(1, counted.get());
+    }
+
+    private Callable<Integer> counter(final int count) {
+        return () -> {
+            counted.incrementAndGet();
+            return count;
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package org.smartregister.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.domain.jsonmapping.ClassificationRule;
+import org.smartregister.domain.jsonmapping.ClientClassification;
+import org.smartregister.domain.jsonmapping.Field;
+import org.smartregister.util.AssetData;
+import org.smartregister.util.JsonFormUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ClassificationRuleIndexTest {
+
+    private static final String MIXED_RULES = "{\"case_classification_rules\":[" +
+            "{\"comment\":\"Mother\",\"rule\":{\"type\":\"event\",\"fields\":[" +
+            "{\"field\":\"eventType\",\"field_value\":\"ANC Registration\",\"creates_case\":[\"ec_mother_details\"]}," +
+            "{\"field\":\"obs.fieldCode\",\"concept\":\"1234AAAA\",\"values\":[\"yes\"],\"creates_case\":[\"ec_pregnancy\"]}," +
+            "{\"field\":\"eventType\",\"field_value\":\"Visit\",\"creates_case\":[\"ec_visit\"]}]}}," +
+            "{\"comment\":\"Child\",\"rule\":{\"type\":\"event\",\"fields\":[" +
+            "{\"field\":\"eventType\",\"field_value\":\"Birth Registration\",\"creates_case\":[\"ec_child_details\"]}]}}]}";
+
+    private ClassificationRuleIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ClassificationRuleIndex(JsonFormUtils.gson.fromJson(MIXED_RULES, ClientClassification.class));
+    }
+
+    @Test
+    public void testGetRulesReturnsOnlyFieldsThatCanMatchTheEventType() {
+        List<ClassificationRule> rules = index.getRules("Visit");
+
+        assertEquals(1, rules.size());
+        assertEquals("Mother", rules.get(0).comment);
+        assertEquals("event", rules.get(0).rule.type);
+        assertEquals(2, rules.get(0).rule.fields.size());
+        assertEquals("obs.fieldCode", rules.get(0).rule.fields.get(0).field);
+        assertEquals("Visit", rules.get(0).rule.fields.get(1).field_value);
+    }
+
+    @Test
+    public void testGetRulesMatchesEventTypeIgnoringCase() {
+        List<ClassificationRule> rules = index.getRules("birth registration");
+
+        assertEquals(2, rules.size());
+        assertEquals("obs.fieldCode", rules.get(0).rule.fields.get(0).field);
+        assertEquals("Birth Registration", rules.get(1).rule.fields.get(0).field_value);
+    }
+
+    @Test
+    public void testGetRulesForUnknownEventTypeKeepsFieldsThatAreNotEventTypeChecks() {
+        List<ClassificationRule> rules = index.getRules("Unknown Event");
+
+        assertEquals(1, rules.size());
+        assertEquals(1, rules.get(0).rule.fields.size());
+        assertEquals("obs.fieldCode", rules.get(0).rule.fields.get(0).field);
+        assertEquals(rules, index.getRules(null));
+    }
+
+    @Test
+    public void testGetRulesReturnsEachEventTypeRuleOfTheAssetOnce() {
+        ClassificationRuleIndex assetIndex = new ClassificationRuleIndex(JsonFormUtils.gson.fromJson(AssetData.ec_client_classification_json, ClientClassification.class));
+
+        List<ClassificationRule> rules = assetIndex.getRules("Update Birth Registration");
+
+        assertEquals(1, rules.size());
+        assertEquals(1, rules.get(0).rule.fields.size());
+        assertEquals(Collections.singletonList("ec_client"), assetIndex.getRules("Opd Registration").get(0).rule.fields.get(0).creates_case);
+        assertTrue(assetIndex.getRules("Vaccination").isEmpty());
+    }
+
+    @Test
+    public void testGetRulesKeepsRulesWithoutFields() {
+        ClientClassification clientClassification = new ClientClassification();
+        clientClassification.case_classification_rules = new ArrayList<>();
+        clientClassification.case_classification_rules.add(new ClassificationRule());
+
+        ClassificationRuleIndex ruleIndex = new ClassificationRuleIndex(clientClassification);
+
+        assertEquals(1, ruleIndex.getRules("Visit").size());
+        assertNull(ruleIndex.getRules("Visit").get(0).rule);
+        assertSame(clientClassification, ruleIndex.getClientClassification());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetRulesReturnsUnmodifiableFields() {
+        index.getRules("Visit").get(0).rule.fields.add(new Field());
+    }
+}
@@ -35,6 +35,7 @@ import org.robolectric.util.ReflectionHelpers;
 import org.smartregister.BaseUnitTest;
 import org.smartregister.CoreLibrary;
 import org.smartregister.SyncConfiguration;
+import org.smartregister.commonregistry.AllCommonsRepository;
 import org.smartregister.commonregistry.CommonRepository;
 import org.smartregister.domain.Client;
 import org.smartregister.domain.Event;
@@ -48,6 +49,7 @@ import org.smartregister.domain.jsonmapping.Field;
 import org.smartregister.domain.jsonmapping.Table;
 import org.smartregister.repository.DetailsRepository;
 import org.smartregister.shadows.ShadowAssetHandler;
+import org.smartregister.util.AssetData;
 import org.smartregister.util.AssetHandler;
 import org.smartregister.util.DateTimeTypeConverter;
 import org.smartregister.util.JsonFormUtils;
@@ -56,6 +58,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -74,8 +77,6 @@ public class ClientProcessorForJavaTest extends BaseUnitTest {
     private Context context;
     @Captor
     private ArgumentCaptor<String> closeCaseArgumentCaptor;
-    @Captor
-    private ArgumentCaptor detailsRepositoryAddArgumentCaptor;
     private ClientProcessorForJava clientProcessor;
 
     @Before
@@ -228,6 +229,7 @@ public class ClientProcessorForJavaTest extends BaseUnitTest {
         Mockito.when(syncConfiguration.updateClientDetailsTable()).thenReturn(false);
         clientProcessor.addContentValuesToDetailsTable(new ContentValues(), new Date().getTime());
         Mockito.verify(detailsRepository, Mockito.never()).add(anyString(), anyString(), anyString(), anyLong());
+        Mockito.verify(detailsRepository, Mockito.never()).add(anyString(), ArgumentMatchers.<String, String>anyMap(), anyLong());
     }
 
     @Test
@@ -244,16 +246,12 @@ public class ClientProcessorForJavaTest extends BaseUnitTest {
 
         Long timestamp = new Date().getTime();
         clientProcessor.addContentValuesToDetailsTable(contentValues, timestamp);
-        Mockito.verify(detailsRepository).add((String) detailsRepositoryAddArgumentCaptor.capture(), (String) detailsRepositoryAddArgumentCaptor.capture(),
-                (String) detailsRepositoryAddArgumentCaptor.capture(), (Long) detailsRepositoryAddArgumentCaptor.capture());
-
-        assertEquals("2342-234", detailsRepositoryAddArgumentCaptor.getAllValues().get(0));
-
-        assertEquals("base_entity_id", detailsRepositoryAddArgumentCaptor.getAllValues().get(1));
+        ArgumentCaptor<Map<String, String>> detailsCaptor = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(detailsRepository).add(Mockito.eq("2342-234"), detailsCaptor.capture(), Mockito.eq(timestamp));
 
-        assertEquals(contentValues.getAsString("base_entity_id"), detailsRepositoryAddArgumentCaptor.getAllValues().get(2));
+        assertEquals(1, detailsCaptor.getValue().size());
 
-        assertEquals(timestamp, detailsRepositoryAddArgumentCaptor.getAllValues().get(3));
+        assertEquals(contentValues.getAsString("base_entity_id"), detailsCaptor.getValue().get("base_entity_id"));
 
     }
 
@@ -294,6 +292,7 @@ public class ClientProcessorForJavaTest extends BaseUnitTest {
         clientProcessor.updateClientDetailsTable(event, new Client("2323-2"));
         assertTrue(Boolean.valueOf(event.getDetails().get(ClientProcessorForJava.detailsUpdated)));
         Mockito.verify(detailsRepository, Mockito.never()).add(anyString(), anyString(), anyString(), anyLong());
+        Mockito.verify(detailsRepository, Mockito.never()).add(anyString(), ArgumentMatchers.<String, String>anyMap(), anyLong());
     }
 
     @Test
@@ -327,7 +326,14 @@ public class ClientProcessorForJavaTest extends BaseUnitTest {
         client.setAttributes(attribsMap);
         clientProcessor.updateClientDetailsTable(event, client);
         assertTrue(Boolean.valueOf(event.getDetails().get(ClientProcessorForJava.detailsUpdated)));
-        Mockito.verify(detailsRepository, Mockito.atLeast(4)).add(anyString(), anyString(), anyString(), anyLong());
+        ArgumentCaptor<Map<String, String>> detailsCaptor = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(detailsRepository).add(Mockito.eq("234-13"), detailsCaptor.capture(), Mockito.eq(dateTime.getMillis()));
+        Map<String, String> details = detailsCaptor.getValue();
+        assertTrue(details.size() >= 4);
+        assertEquals("Female", details.get("gender"));
+        assertEquals("423", details.get("national_id"));
+        assertEquals("0707070", details.get("phone_number"));
+        assertEquals("no", details.get("reminders"));
     }
 
     @Config(shadows = {ShadowAssetHandler.class})
@@ -508,6 +514,71 @@ public class ClientProcessorForJavaTest extends BaseUnitTest {
         Mockito.verify(clientProcessorForJava).updateClientDetailsTable(Mockito.eq(event), Mockito.eq(client));
     }
 
+    @Test
+    public void processEventShouldOnlyProcessClassificationFieldsMatchingTheEventType() {
+        Event event = new Event().withEventType("Birth Registration");
+        ClientProcessorForJava clientProcessorForJava = Mockito.spy(clientProcessor);
+        Mockito.doNothing().when(clientProcessorForJava).completeProcessing(Mockito.eq(event));
+        Mockito.doNothing().when(clientProcessorForJava).updateClientDetailsTable(Mockito.eq(event), Mockito.any(Client.class));
+        Client client = new Client("bei");
+        ClientClassification clientClassification = JsonFormUtils.gson.fromJson(AssetData.ec_client_classification_json, ClientClassification.class);
+        ArgumentCaptor<Field> fieldCaptor = ArgumentCaptor.forClass(Field.class);
+        Mockito.doReturn(true).when(clientProcessorForJava).processField(fieldCaptor.capture(), Mockito.eq(event), Mockito.eq(client));
+
+        Assert.assertTrue(clientProcessorForJava.processEvent(event, client, clientClassification));
+
+        assertEquals(1, fieldCaptor.getAllValues().size());
+        assertEquals("Birth Registration", fieldCaptor.getValue().field_value);
+        assertEquals(Arrays.asList("ec_client", "ec_child_details"), fieldCaptor.getValue().creates_case);
+    }
+
+    @Test
+    public void updateFTSsearchShouldQueueEntitiesAndIndexThemInBatchWhenSearchIndexingIsDeferred() {
+        ReflectionHelpers.setStaticField(CoreLibrary.class, "instance", coreLibrary);
+        SyncConfiguration syncConfiguration = Mockito.mock(SyncConfiguration.class);
+        AllCommonsRepository allCommonsRepository = Mockito.mock(AllCommonsRepository.class);
+        Mockito.when(coreLibrary.getSyncConfiguration()).thenReturn(syncConfiguration);
+        Mockito.when(coreLibrary.context()).thenReturn(opensrpContext);
+        Mockito.when(opensrpContext.allCommonsRepositoryobjects("ec_client")).thenReturn(allCommonsRepository);
+        Mockito.when(syncConfiguration.isDeferredSearchIndexing()).thenReturn(true);
+        Mockito.when(allCommonsRepository.batchUpdateSearch(ArgumentMatchers.<String>anyList())).thenReturn(new ArrayList<>());
+
+        clientProcessor.updateFTSsearch("ec_client", "1", null);
+        clientProcessor.updateFTSsearch("ec_client", "2", null);
+        clientProcessor.updateFTSsearch("ec_client", "1", null);
+
+        Mockito.verify(allCommonsRepository, Mockito.never()).updateSearch(anyString());
+        assertEquals(2, clientProcessor.getSearchIndexQueue().getPendingCount());
+
+        clientProcessor.flushSearchIndex();
+
+        Mockito.verify(allCommonsRepository).batchUpdateSearch(Arrays.asList("1", "2"));
+        assertEquals(0, clientProcessor.getSearchIndexQueue().getPendingCount());
+        assertEquals(2, clientProcessor.getSearchIndexQueue().getIndexedCount());
+    }
+
+    @Test
+    public void flushSearchIndexShouldQueueEntitiesWhoseSearchRowsWereNotUpdated() {
+        ReflectionHelpers.setStaticField(CoreLibrary.class, "instance", coreLibrary);
+        SyncConfiguration syncConfiguration = Mockito.mock(SyncConfiguration.class);
+        AllCommonsRepository allCommonsRepository = Mockito.mock(AllCommonsRepository.class);
+        Mockito.when(coreLibrary.getSyncConfiguration()).thenReturn(syncConfiguration);
+        Mockito.when(coreLibrary.context()).thenReturn(opensrpContext);
+        Mockito.when(opensrpContext.allCommonsRepositoryobjects("ec_client")).thenReturn(allCommonsRepository);
+        Mockito.when(syncConfiguration.isDeferredSearchIndexing()).thenReturn(true);
+        Mockito.when(allCommonsRepository.batchUpdateSearch(ArgumentMatchers.<String>anyList())).thenReturn(Collections.singletonList("2"));
+
+        clientProcessor.updateFTSsearch("ec_client", "1", null);
+        clientProcessor.updateFTSsearch("ec_client", "2", null);
+
+        clientProcessor.flushSearchIndex();
+
+        Mockito.verify(allCommonsRepository).batchUpdateSearch(Arrays.asList("1", "2"));
+        assertEquals(1, clientProcessor.getSearchIndexQueue().getPendingCount());
+        assertEquals(1, clientProcessor.getSearchIndexQueue().getIndexedCount());
+        assertEquals(Collections.singletonMap("ec_client", Collections.singletonList("2")), clientProcessor.getSearchIndexQueue().poll(10));
+    }
+
     @Test
     public void processClientClassShouldReturnTrueAndProcessEachFieldInTheMappingDefinition() {
         ClientProcessorForJava clientProcessorForJava = Mockito.spy(clientProcessor);
@@ -0,0 +1,80 @@
+package org.smartregister.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.domain.Obs;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FieldAccessorRegistryTest {
+
+    private FieldAccessorRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new FieldAccessorRegistry();
+    }
+
+    @Test
+    public void testGetValueReadsPrivateFieldsOfTheClassAndItsSuperclasses() throws Exception {
+        Child child = new Child();
+
+        assertEquals("child", registry.getValue(child, "name"));
+        assertEquals("parent", registry.getValue(child, "parentOnly"));
+    }
+
+    @Test
+    public void testGetValueUsesTheNearestDeclarationOfAHiddenField() throws Exception {
+        assertEquals("child", registry.getValue(new Child(), "name"));
+        assertEquals("parent", registry.getValue(new Parent(), "name"));
+    }
+
+    @Test
+    public void testGetValueReturnsNullForMissingFieldOnEveryLookup() throws Exception {
+        Child child = new Child();
+
+        assertNull(registry.getValue(child, "missing"));
+        assertNull(registry.getValue(child, "missing"));
+    }
+
+    @Test
+    public void testGetValueReadsObsFields() throws Exception {
+        Obs obs = new Obs().withFieldCode("1234AAAA").withValues(Arrays.<Object>asList("yes"));
+
+        assertEquals("1234AAAA", registry.getValue(obs, "fieldCode"));
+        assertEquals(Arrays.<Object>asList("yes"), registry.getValue(obs, "values"));
+    }
+
+    @Test
+    public void testGetFieldsReturnsClassFieldsBeforeSuperclassFieldsAndIsCached() {
+        List<Field> fields = registry.getFields(Child.class);
+        List<String> names = new ArrayList<>();
+        for (Field field : fields) {
+            if (!field.isSynthetic()) {
+                names.add(field.getDeclaringClass().getSimpleName() + "." + field.getName());
+            }
+        }
+
+        assertEquals(Arrays.asList("Child.name", "Parent.name", "Parent.parentOnly"), names);
+        assertSame(fields, registry.getFields(Child.class));
+    }
+
+    private static class Parent {
+
+        private String name = "parent";
+
+        private String parentOnly = "parent";
+    }
+
+    private static class Child extends Parent {
+
+        private String name = "child";
+    }
+}
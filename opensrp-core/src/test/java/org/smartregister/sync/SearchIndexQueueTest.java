@@ -0,0 +1,96 @@
+package org.smartregister.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class SearchIndexQueueTest {
+
+    private SearchIndexQueue searchIndexQueue;
+
+    @Before
+    public void setUp() {
+        searchIndexQueue = new SearchIndexQueue();
+    }
+
+    @Test
+    public void testAddQueuesEachEntityOncePerTable() {
+        searchIndexQueue.add("ec_client", "1");
+        searchIndexQueue.add("ec_client", "2");
+        searchIndexQueue.add("ec_client", "1");
+        searchIndexQueue.add("ec_mother_details", "1");
+
+        assertEquals(3, searchIndexQueue.getPendingCount());
+    }
+
+    @Test
+    public void testPollReturnsAtMostMaxIdsInQueuedOrder() {
+        searchIndexQueue.add("ec_client", "1");
+        searchIndexQueue.add("ec_client", "2");
+        searchIndexQueue.add("ec_mother_details", "3");
+        searchIndexQueue.add("ec_mother_details", "4");
+
+        Map<String, List<String>> firstBatch = searchIndexQueue.poll(3);
+
+        assertEquals(Arrays.asList("ec_client", "ec_mother_details"), Arrays.asList(firstBatch.keySet().toArray()));
+        assertEquals(Arrays.asList("1", "2"), firstBatch.get("ec_client"));
+        assertEquals(Collections.singletonList("3"), firstBatch.get("ec_mother_details"));
+        assertEquals(1, searchIndexQueue.getPendingCount());
+
+        Map<String, List<String>> secondBatch = searchIndexQueue.poll(3);
+
+        assertEquals(Collections.singletonMap("ec_mother_details", Collections.singletonList("4")), secondBatch);
+        assertEquals(0, searchIndexQueue.getPendingCount());
+        assertTrue(searchIndexQueue.poll(3).isEmpty());
+    }
+
+    @Test
+    public void testEntityPolledCanBeQueuedAgain() {
+        searchIndexQueue.add("ec_client", "1");
+        searchIndexQueue.poll(10);
+
+        searchIndexQueue.add("ec_client", "1");
+
+        assertEquals(1, searchIndexQueue.getPendingCount());
+    }
+
+    @Test
+    public void testMarkIndexedAccumulatesIndexedCount() {
+        searchIndexQueue.markIndexed(2);
+        searchIndexQueue.markIndexed(3);
+
+        assertEquals(5, searchIndexQueue.getIndexedCount());
+    }
+
+    @Test
+    public void testRequeueQueuesFailedEntitiesUntilMaxAttempts() {
+        for (int attempt = 1; attempt < SearchIndexQueue.MAX_ATTEMPTS; attempt++) {
+            assertTrue(searchIndexQueue.requeue("ec_client", Collections.singletonList("1")).isEmpty());
+            assertEquals(Collections.singletonMap("ec_client", Collections.singletonList("1")), searchIndexQueue.poll(10));
+        }
+
+        assertEquals(Collections.singletonList("1"), searchIndexQueue.requeue("ec_client", Collections.singletonList("1")));
+        assertEquals(0, searchIndexQueue.getPendingCount());
+        assertEquals(1, searchIndexQueue.getFailedCount());
+    }
+
+    @Test
+    public void testMarkIndexedResetsFailedAttempts() {
+        for (int attempt = 1; attempt < SearchIndexQueue.MAX_ATTEMPTS; attempt++) {
+            searchIndexQueue.requeue("ec_client", Collections.singletonList("1"));
+            searchIndexQueue.poll(10);
+        }
+        searchIndexQueue.markIndexed("ec_client", Collections.singletonList("1"));
+
+        assertTrue(searchIndexQueue.requeue("ec_client", Collections.singletonList("1")).isEmpty());
+        assertEquals(1, searchIndexQueue.getPendingCount());
+        assertEquals(1, searchIndexQueue.getIndexedCount());
+    }
+}
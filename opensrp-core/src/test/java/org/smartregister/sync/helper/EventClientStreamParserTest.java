@@ -0,0 +1,145 @@
+package org.smartregister.sync.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.util.Pair;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.repository.EventClientRepository;
+import org.smartregister.repository.StreamedRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class EventClientStreamParserTest extends BaseUnitTest {
+
+    @Mock
+    private EventClientRepository eventClientRepository;
+
+    @Captor
+    private ArgumentCaptor<List<StreamedRecord>> recordsArgumentCaptor;
+
+    private static final String PAYLOAD = "{\"events\":[" +
+            "{\"type\":\"Event\",\"serverVersion\":1597318034276,\"baseEntityId\":\"eb2eab25\",\"eventType\":\"Register_Structure\",\"formSubmissionId\":\"d9d621b7\",\"obs\":[{\"fieldCode\":\"a\",\"values\":[\"1\"]}]}," +
+            "null," +
+            "{\"type\":\"Event\",\"serverVersion\":1597318034270,\"baseEntityId\":\"eb2eab25\",\"eventType\":\"Spray\",\"formSubmissionId\":\"e63db3c8\"}," +
+            "{\"type\":\"Event\",\"serverVersion\":1597318034280,\"baseEntityId\":\"66fa7eda\",\"eventType\":\"Spray\",\"formSubmissionId\":\"f11db3c8\"}" +
+            "],\"clients\":[" +
+            "{\"type\":\"Client\",\"baseEntityId\":\"eb2eab25\",\"attributes\":{\"residence\":\"154142\"}}," +
+            "{\"type\":\"Client\",\"baseEntityId\":\"66fa7eda\"}" +
+            "],\"no_of_events\":3,\"total_records\":3}";
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(eventClientRepository.batchInsertEventRecords(anyList(), anyLong())).thenReturn(true);
+        when(eventClientRepository.batchInsertClientRecords(anyList())).thenReturn(true);
+    }
+
+    @Test
+    public void testHandleSavesEventsAndClientsInBatches() throws IOException, JSONException {
+        EventClientStreamParser parser = new EventClientStreamParser(eventClientRepository, 1000L, 2);
+
+        EventClientStreamParser.Result result = parser.handle(toStream(PAYLOAD));
+
+        verify(eventClientRepository, times(2)).batchInsertEventRecords(recordsArgumentCaptor.capture(), eq(1000L));
+        List<List<StreamedRecord>> eventBatches = recordsArgumentCaptor.getAllValues();
+        assertEquals(2, eventBatches.get(0).size());
+        assertEquals(1, eventBatches.get(1).size());
+        assertEquals("f11db3c8", eventBatches.get(1).get(0).get("formSubmissionId"));
+        StreamedRecord event = eventBatches.get(0).get(0);
+        assertEquals("1597318034276", event.get("serverVersion"));
+        assertEquals("Register_Structure", event.get("eventType"));
+        assertEquals(1, new JSONObject(event.getJson()).getJSONArray("obs").length());
+
+        verify(eventClientRepository).batchInsertClientRecords(recordsArgumentCaptor.capture());
+        List<StreamedRecord> clients = recordsArgumentCaptor.getValue();
+        assertEquals(2, clients.size());
+        assertEquals("154142", clients.get(0).optAttribute("residence"));
+        assertEquals("66fa7eda", clients.get(1).get("baseEntityId"));
+
+        assertEquals(3, result.getNumberOfEvents());
+        assertEquals(3, result.getParsedEvents());
+        assertEquals(2, result.getParsedClients());
+        assertTrue(result.isSaved());
+        Pair<Long, Long> serverVersions = result.getMinMaxServerVersions();
+        assertEquals(Long.valueOf(1597318034270L), serverVersions.first);
+        assertEquals(Long.valueOf(1597318034280L), serverVersions.second);
+    }
+
+    @Test
+    public void testHandleReadsColumnValuesWithoutSyncStatus() throws IOException, JSONException {
+        EventClientStreamParser parser = new EventClientStreamParser(eventClientRepository, 1000L);
+
+        parser.handle(toStream("{\"clients\":[{\"baseEntityId\":\"eb2eab25\",\"syncStatus\":\"Unsynced\",\"locationId\":\"3951\"," +
+                "\"relationships\":{\"family\":[],\"mother\":[\"66fa7eda\"]},\"details\":{\"planIdentifier\":\"plan-1\"}}]," +
+                "\"events\":[{\"baseEntityId\":\"eb2eab25\",\"formSubmissionId\":\"d9d621b7\",\"syncStatus\":\"Synced\"," +
+                "\"details\":{\"planIdentifier\":\"plan-1\",\"taskIdentifier\":\"task-1\"}}]}"));
+
+        verify(eventClientRepository).batchInsertClientRecords(recordsArgumentCaptor.capture());
+        StreamedRecord client = recordsArgumentCaptor.getValue().get(0);
+        assertEquals("Unsynced", client.getSyncStatus());
+        assertEquals("3951", client.optString("locationId"));
+        assertEquals("mother", client.getRelationship());
+        assertEquals("66fa7eda", client.getRelationalId());
+        JSONObject clientJson = new JSONObject(client.getJson());
+        assertFalse(clientJson.has("syncStatus"));
+        assertEquals("66fa7eda", clientJson.getJSONObject("relationships").getJSONArray("mother").getString(0));
+        assertEquals("plan-1", clientJson.getJSONObject("details").getString("planIdentifier"));
+
+        verify(eventClientRepository).batchInsertEventRecords(recordsArgumentCaptor.capture(), eq(1000L));
+        StreamedRecord event = recordsArgumentCaptor.getValue().get(0);
+        assertEquals("Synced", event.getSyncStatus());
+        assertEquals("plan-1", event.optDetail("planIdentifier"));
+        assertEquals("task-1", event.optDetail("taskIdentifier"));
+        assertFalse(new JSONObject(event.getJson()).has("syncStatus"));
+    }
+
+    @Test
+    public void testHandleReportsFailedBatch() throws IOException {
+        when(eventClientRepository.batchInsertClientRecords(anyList())).thenReturn(false);
+        EventClientStreamParser parser = new EventClientStreamParser(eventClientRepository, 1000L);
+
+        EventClientStreamParser.Result result = parser.handle(toStream(PAYLOAD));
+
+        verify(eventClientRepository).batchInsertEventRecords(anyList(), eq(1000L));
+        assertFalse(result.isSaved());
+    }
+
+    @Test
+    public void testHandleWithoutEventCountReturnsNegativeCount() throws IOException {
+        EventClientStreamParser parser = new EventClientStreamParser(eventClientRepository, 1000L);
+
+        EventClientStreamParser.Result result = parser.handle(toStream("{\"events\":[],\"clients\":[]}"));
+
+        verify(eventClientRepository, never()).batchInsertEventRecords(anyList(), anyLong());
+        verify(eventClientRepository, never()).batchInsertClientRecords(anyList());
+        assertEquals(-1, result.getNumberOfEvents());
+        assertEquals(Long.valueOf(0L), result.getMinMaxServerVersions().first);
+        assertEquals(Long.valueOf(0L), result.getMinMaxServerVersions().second);
+    }
+
+    private InputStream toStream(String payload) {
+        return new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,185 @@
+package org.smartregister.sync.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class EventSyncPipelineTest extends BaseUnitTest {
+
+    @Test
+    public void testRunSavesProcessesAndCommitsPagesInServerVersionOrder() {
+        FakeStages stages = new FakeStages(5);
+
+        EventSyncPipeline.Status status = new EventSyncPipeline(stages).run(0);
+
+        assertEquals(EventSyncPipeline.Status.COMPLETED, status);
+        assertEquals(Arrays.asList(0L, 10L, 20L, 30L, 40L, 50L), stages.fetched);
+        assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), stages.saved);
+        assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), stages.processed);
+        assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), stages.committed);
+    }
+
+    @Test
+    public void testRunStopsCommittingAfterPageFailsToSave() {
+        FakeStages stages = new FakeStages(6);
+        stages.failSaveAt = 30L;
+
+        EventSyncPipeline.Status status = new EventSyncPipeline(stages).run(0);
+
+        assertEquals(EventSyncPipeline.Status.SAVE_FAILED, status);
+        assertEquals(Arrays.asList(10L, 20L), stages.committed);
+        assertEquals(Arrays.asList(10L, 20L), stages.saved);
+    }
+
+    @Test
+    public void testRunStopsCommittingAfterPageFailsToProcess() {
+        FakeStages stages = new FakeStages(3);
+        stages.failProcessAt = 20L;
+
+        EventSyncPipeline.Status status = new EventSyncPipeline(stages).run(0);
+
+        assertEquals(EventSyncPipeline.Status.PROCESS_FAILED, status);
+        assertEquals(Collections.singletonList(10L), stages.committed);
+        assertFalse(stages.processed.contains(30L));
+    }
+
+    @Test
+    public void testRunReturnsProcessFailedWhenProcessStageDies() {
+        FakeStages stages = new FakeStages(3);
+        stages.processErrorAt = 20L;
+
+        EventSyncPipeline.Status status = new EventSyncPipeline(stages).run(0);
+
+        assertEquals(EventSyncPipeline.Status.PROCESS_FAILED, status);
+        assertEquals(Collections.singletonList(10L), stages.committed);
+    }
+
+    @Test
+    public void testRunReturnsFetchFailedAfterCommittingFetchedPages() {
+        FakeStages stages = new FakeStages(6);
+        stages.failFetchAt = 30L;
+
+        EventSyncPipeline.Status status = new EventSyncPipeline(stages).run(0);
+
+        assertEquals(EventSyncPipeline.Status.FETCH_FAILED, status);
+        assertEquals(Arrays.asList(10L, 20L, 30L), stages.committed);
+    }
+
+    @Test
+    public void testRunResumesFromStartServerVersion() {
+        FakeStages stages = new FakeStages(4);
+
+        new EventSyncPipeline(stages).run(20);
+
+        assertEquals(Arrays.asList(30L, 40L), stages.committed);
+    }
+
+    @Test
+    public void testFetchIsBlockedWhileSaveQueueIsFull() throws Exception {
+        FakeStages stages = new FakeStages(10);
+        stages.saveLatch = new CountDownLatch(1);
+        AtomicReference<EventSyncPipeline.Status> status = new AtomicReference<>();
+
+        Thread thread = new Thread(() -> status.set(new EventSyncPipeline(stages, 1).run(0)));
+        thread.start();
+        Thread.sleep(300);
+
+        // one page being saved, one in the queue and one waiting to be queued
+        assertEquals(3, stages.fetched.size());
+        assertEquals(Collections.emptyList(), stages.committed);
+
+        stages.saveLatch.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertEquals(EventSyncPipeline.Status.COMPLETED, status.get());
+        assertEquals(10, stages.committed.size());
+    }
+
+    private static class FakeStages implements EventSyncPipeline.Stages {
+
+        private final int pageCount;
+
+        private final List<Long> fetched = new CopyOnWriteArrayList<>();
+
+        private final List<Long> saved = new CopyOnWriteArrayList<>();
+
+        private final List<Long> processed = new CopyOnWriteArrayList<>();
+
+        private final List<Long> committed = new CopyOnWriteArrayList<>();
+
+        private volatile long failSaveAt = -1;
+
+        private volatile long failFetchAt = -1;
+
+        private volatile long failProcessAt = -1;
+
+        private volatile long processErrorAt = -1;
+
+        private volatile CountDownLatch saveLatch;
+
+        private FakeStages(int pageCount) {
+            this.pageCount = pageCount;
+        }
+
+        @Nullable
+        @Override
+        public EventSyncPipeline.Page fetch(long serverVersion) {
+            fetched.add(serverVersion);
+            if (serverVersion == failFetchAt) {
+                return null;
+            }
+            long lastServerVersion = serverVersion + 10;
+            if (lastServerVersion > pageCount * 10L) {
+                return new EventSyncPipeline.Page(null, 0, Pair.create(0L, 0L), serverVersion, false);
+            }
+            return new EventSyncPipeline.Page(null, 10, Pair.create(serverVersion + 1, lastServerVersion), lastServerVersion, true);
+        }
+
+        @Override
+        public boolean save(@NonNull EventSyncPipeline.Page page) {
+            if (saveLatch != null) {
+                try {
+                    saveLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (page.getLastServerVersion() == failSaveAt) {
+                return false;
+            }
+            saved.add(page.getLastServerVersion());
+            return true;
+        }
+
+        @Override
+        public void process(@NonNull EventSyncPipeline.Page page) {
+            if (page.getLastServerVersion() == failProcessAt) {
+                throw new IllegalStateException("Client processing failed");
+            }
+            if (page.getLastServerVersion() == processErrorAt) {
+                throw new OutOfMemoryError("Client processing ran out of memory");
+            }
+            processed.add(page.getLastServerVersion());
+        }
+
+        @Override
+        public void commit(@NonNull EventSyncPipeline.Page page) {
+            committed.add(page.getLastServerVersion());
+        }
+    }
+}
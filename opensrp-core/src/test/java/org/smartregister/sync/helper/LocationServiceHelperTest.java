@@ -9,6 +9,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.smartregister.AllConstants.OPERATIONAL_AREAS;
 import static org.smartregister.sync.helper.LocationServiceHelper.LOCATION_LAST_SYNC_DATE;
+import static org.smartregister.sync.helper.LocationServiceHelper.STRUCTURES_LAST_SYNC_DATE;
 
 import com.google.gson.reflect.TypeToken;
 
@@ -43,10 +44,14 @@ import org.smartregister.repository.LocationTagRepository;
 import org.smartregister.repository.Repository;
 import org.smartregister.repository.StructureRepository;
 import org.smartregister.service.HTTPAgent;
+import org.smartregister.service.ResponseStreamHandler;
 import org.smartregister.view.activity.DrishtiApplication;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -79,7 +84,7 @@ public class LocationServiceHelperTest extends BaseRobolectricUnitTest {
     private ArgumentCaptor<String> stringArgumentCaptor;
 
     @Captor
-    private ArgumentCaptor<Location> locationArgumentCaptor;
+    private ArgumentCaptor<List<Location>> locationsArgumentCaptor;
 
     private String locationJSon = "{\"id\": \"3537\", \"type\": \"Feature\", \"geometry\": {\"type\": \"MultiPolygon\", \"coordinates\": [[[[32.64555352892119, -14.15491759447286], [32.64526263744511, -14.154844278278059], [32.64536132720689, -14.154861856643318], [32.645458459831154, -14.154886337918807], [32.64555352892119, -14.15491759447286]]]]}, \"properties\": {\"name\": \"MTI_13\", \"status\": \"Active\", \"version\": 0, \"parentId\": \"2953\", \"geographicLevel\": 2}, \"serverVersion\": 1542965231622}";
 
@@ -177,6 +182,7 @@ public class LocationServiceHelperTest extends BaseRobolectricUnitTest {
     public void testSyncLocations() {
         CoreLibrary.getInstance().context().allSharedPreferences().savePreference(OPERATIONAL_AREAS, "MTI_13");
         when(locationRepository.getAllLocationIds()).thenReturn(Collections.singletonList("2953"));
+        when(locationRepository.batchInsertLocations(ArgumentMatchers.anyList())).thenReturn(true);
 
         Location expectedLocation = LocationServiceHelper.locationGson.fromJson(locationJSon, new TypeToken<Location>() {
         }.getType());
@@ -185,31 +191,22 @@ public class LocationServiceHelperTest extends BaseRobolectricUnitTest {
         locations.add(expectedLocation);
         assertFalse(expectedLocation.getGeometry() == null);
 
-        Mockito.doReturn(new Response<>(ResponseStatus.success,    // returned on first call
-                        LocationServiceHelper.locationGson.toJson(locations)).withTotalRecords(1l),
+        mockPostStream(LocationServiceHelper.locationGson.toJson(locations), 1L,     // returned on first call
+                LocationServiceHelper.locationGson.toJson(new ArrayList<>()));      //returned on second call
 
-                new Response<>(ResponseStatus.success,             //returned on second call
-                        LocationServiceHelper.locationGson.toJson(new ArrayList<>())).withTotalRecords(0l))
-                .when(httpAgent).post(stringArgumentCaptor.capture(), stringArgumentCaptor.capture());
-
-        List<Location> actualLocations = locationServiceHelper.syncLocationsStructures(true);
-        assertNotNull(actualLocations);
-        Location actualLocation = actualLocations.get(0);
+        int synced = locationServiceHelper.syncLocationsStructures(true, null);
+        assertEquals(1, synced);
 
         String syncUrl = stringArgumentCaptor.getAllValues().get(0);
         assertEquals("https://sample-stage.smartregister.org/opensrp//rest/location/sync", syncUrl);
         String requestString = stringArgumentCaptor.getAllValues().get(1);
         assertEquals("{\"is_jurisdiction\":true,\"return_count\":true,\"location_names\":[\"MTI_13\"],\"serverVersion\":0}", requestString);
+        requestString = stringArgumentCaptor.getAllValues().get(3);
+        assertEquals("{\"is_jurisdiction\":true,\"return_count\":false,\"location_names\":[\"MTI_13\"],\"serverVersion\":" + (expectedLocation.getServerVersion() + 1) + "}", requestString);
 
-        verify(locationRepository).addOrUpdate(locationArgumentCaptor.capture());
-        assertEquals(expectedLocation.getId(), locationArgumentCaptor.getValue().getId());
-        assertEquals(expectedLocation.getType(), locationArgumentCaptor.getValue().getType());
-        assertEquals(BaseRepository.TYPE_Synced, locationArgumentCaptor.getValue().getSyncStatus());
-        assertEquals(expectedLocation.getServerVersion(), locationArgumentCaptor.getValue().getServerVersion());
-        assertEquals(expectedLocation.getProperties().getName(), locationArgumentCaptor.getValue().getProperties().getName());
-        assertEquals(expectedLocation.getProperties().getParentId(), locationArgumentCaptor.getValue().getProperties().getParentId());
-        assertEquals(expectedLocation.getProperties().getUid(), locationArgumentCaptor.getValue().getProperties().getUid());
-
+        verify(locationRepository).batchInsertLocations(locationsArgumentCaptor.capture());
+        assertEquals(1, locationsArgumentCaptor.getValue().size());
+        Location actualLocation = locationsArgumentCaptor.getValue().get(0);
         assertEquals(expectedLocation.getId(), actualLocation.getId());
         assertEquals(expectedLocation.getType(), actualLocation.getType());
         assertEquals(BaseRepository.TYPE_Synced, actualLocation.getSyncStatus());
@@ -217,22 +214,93 @@ public class LocationServiceHelperTest extends BaseRobolectricUnitTest {
         assertEquals(expectedLocation.getProperties().getName(), actualLocation.getProperties().getName());
         assertEquals(expectedLocation.getProperties().getParentId(), actualLocation.getProperties().getParentId());
         assertEquals(expectedLocation.getProperties().getUid(), actualLocation.getProperties().getUid());
-        assertTrue(actualLocation.getGeometry() == null);
+        Mockito.verifyNoInteractions(structureRepository);
 
         String actualLocationLastSyncDate = CoreLibrary.getInstance().context().allSharedPreferences().getPreference(LOCATION_LAST_SYNC_DATE);
         assertEquals(expectedLocation.getServerVersion().toString(), actualLocationLastSyncDate);
 
     }
 
+    @Test
+    public void testSyncStructuresResumesFromLastSavedPage() {
+        CoreLibrary.getInstance().context().allSharedPreferences().savePreference(STRUCTURES_LAST_SYNC_DATE, "1560245526000");
+        when(locationRepository.getAllLocationIds()).thenReturn(Collections.singletonList("3951"));
+        when(structureRepository.batchInsertLocations(ArgumentMatchers.anyList())).thenReturn(true);
+
+        mockPostStream("[" + structureJSon + "]", 1L, "[]");
+
+        List<String> savedIds = new ArrayList<>();
+        int synced = locationServiceHelper.syncLocationsStructures(false, features -> {
+            for (Location feature : features) {
+                savedIds.add(feature.getId());
+            }
+        });
+        assertEquals(1, synced);
+        assertEquals(Collections.singletonList("3c35325e-4a34-4730-b67d-c824d6e783ba"), savedIds);
+
+        String requestString = stringArgumentCaptor.getAllValues().get(1);
+        assertEquals("{\"is_jurisdiction\":false,\"return_count\":true,\"parent_id\":[\"3951\"],\"serverVersion\":1560245526001}", requestString);
+        requestString = stringArgumentCaptor.getAllValues().get(3);
+        assertEquals("{\"is_jurisdiction\":false,\"return_count\":false,\"parent_id\":[\"3951\"],\"serverVersion\":1560245526900}", requestString);
+        verify(locationRepository).getAllLocationIds();
+
+        verify(structureRepository).batchInsertLocations(locationsArgumentCaptor.capture());
+        assertEquals("3c35325e-4a34-4730-b67d-c824d6e783ba", locationsArgumentCaptor.getValue().get(0).getId());
+        assertEquals("1560245526899", CoreLibrary.getInstance().context().allSharedPreferences().getPreference(STRUCTURES_LAST_SYNC_DATE));
+    }
+
+    @Test
+    public void testSyncStructuresKeepsCheckpointWhenPageIsNotSaved() {
+        CoreLibrary.getInstance().context().allSharedPreferences().savePreference(STRUCTURES_LAST_SYNC_DATE, "1560245526000");
+        when(locationRepository.getAllLocationIds()).thenReturn(Collections.singletonList("3951"));
+        when(structureRepository.batchInsertLocations(ArgumentMatchers.anyList())).thenReturn(false);
+
+        mockPostStream("[" + structureJSon + "," + structureJSon.replace("3c35325e", "4d35325e") + "]", 1L, "[]");
+
+        int synced = locationServiceHelper.syncLocationsStructures(false, null);
+        assertEquals(0, synced);
+        verify(httpAgent).postStream(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(), ArgumentMatchers.any(ResponseStreamHandler.class));
+        assertEquals("1560245526000", CoreLibrary.getInstance().context().allSharedPreferences().getPreference(STRUCTURES_LAST_SYNC_DATE));
+    }
+
+    /**
+     * Mocks the location sync responses, streaming each payload to the handler the helper posts with
+     */
+    private void mockPostStream(String firstPayload, long totalRecords, String... payloads) {
+        List<String> responses = new ArrayList<>();
+        responses.add(firstPayload);
+        responses.addAll(Arrays.asList(payloads));
+        Mockito.doAnswer(invocation -> {
+            String payload = responses.size() > 1 ? responses.remove(0) : responses.get(0);
+            ResponseStreamHandler<?> handler = invocation.getArgument(2);
+            Object result = handler.handle(new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8)));
+            return new Response<>(ResponseStatus.success, result).withTotalRecords(totalRecords);
+        }).when(httpAgent).postStream(stringArgumentCaptor.capture(), stringArgumentCaptor.capture(), ArgumentMatchers.any(ResponseStreamHandler.class));
+    }
+
     @Test
     public void testFetchLocationsStructures() {
-        locationServiceHelper.fetchLocationsStructures();
-        verify(locationServiceHelper).syncLocationsStructures(true);
-        verify(locationServiceHelper).syncLocationsStructures(false);
+        locationServiceHelper.fetchLocationsStructures(null);
+        verify(locationServiceHelper).syncLocationsStructures(true, null);
+        verify(locationServiceHelper).syncLocationsStructures(false, null);
         verify(locationServiceHelper).syncCreatedStructureToServer();
         verify(locationServiceHelper).syncCreatedStructureToServer();
     }
 
+    @Test
+    public void testDeprecatedFetchLocationsStructuresReturnsStructuresWithoutGeometry() {
+        when(locationRepository.getAllLocationIds()).thenReturn(Collections.singletonList("3951"));
+        when(structureRepository.batchInsertLocations(ArgumentMatchers.anyList())).thenReturn(true);
+        mockPostStream("[" + structureJSon + "]", 1L, "[]");
+        Mockito.doReturn(1).when(locationServiceHelper).syncLocationsStructures(ArgumentMatchers.eq(true), ArgumentMatchers.any());
+
+        List<Location> structures = locationServiceHelper.fetchLocationsStructures();
+
+        assertEquals(1, structures.size());
+        assertEquals("3c35325e-4a34-4730-b67d-c824d6e783ba", structures.get(0).getId());
+        assertNull(structures.get(0).getGeometry());
+    }
+
     @Test
     public void testSyncCreatedStructureToServer() {
         Location expectedStructure = LocationServiceHelper.locationGson.fromJson(structureJSon, new TypeToken<Location>() {
@@ -0,0 +1,146 @@
+package org.smartregister.sync.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.domain.Location;
+import org.smartregister.repository.BaseRepository;
+import org.smartregister.repository.StructureRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LocationStreamParserTest extends BaseUnitTest {
+
+    @Mock
+    private StructureRepository structureRepository;
+
+    @Captor
+    private ArgumentCaptor<List<Location>> locationsArgumentCaptor;
+
+    private static final String PAYLOAD = "[" +
+            "{\"type\":\"Feature\",\"id\":\"3c35325e\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[28.351322951711495,-15.419607299156059]},\"properties\":{\"parentId\":\"3951\",\"status\":\"Active\",\"version\":0},\"serverVersion\":1560245526899}," +
+            "null," +
+            "{\"type\":\"Feature\",\"id\":\"4a35325e\",\"properties\":{\"parentId\":\"3951\",\"status\":\"Active\",\"version\":0},\"serverVersion\":1560245526910}," +
+            "{\"type\":\"Feature\",\"properties\":{\"parentId\":\"3951\",\"status\":\"Active\",\"version\":0},\"serverVersion\":1560245526920}," +
+            "{\"type\":\"Feature\",\"id\":\"5b35325e\",\"properties\":{\"parentId\":\"3951\",\"status\":\"Active\",\"version\":0},\"serverVersion\":1560245526905}" +
+            "]";
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(structureRepository.batchInsertLocations(anyList())).thenReturn(true);
+    }
+
+    @Test
+    public void testHandleSavesFeaturesInBatches() throws IOException {
+        LocationStreamParser parser = new LocationStreamParser(structureRepository, 2);
+
+        LocationStreamParser.Result result = parser.handle(toStream(PAYLOAD));
+
+        assertEquals(4, result.getParsed());
+        assertEquals(1560245526920L, result.getMaxServerVersion());
+        assertTrue(result.isSaved());
+
+        verify(structureRepository, times(2)).batchInsertLocations(locationsArgumentCaptor.capture());
+        List<List<Location>> batches = locationsArgumentCaptor.getAllValues();
+        assertEquals(2, batches.get(0).size());
+        assertEquals("3c35325e", batches.get(0).get(0).getId());
+        assertEquals("4a35325e", batches.get(0).get(1).getId());
+        assertEquals(1, batches.get(1).size());
+        assertEquals("5b35325e", batches.get(1).get(0).getId());
+        assertEquals(BaseRepository.TYPE_Synced, batches.get(1).get(0).getSyncStatus());
+    }
+
+    @Test
+    public void testHandleStopsWhenNoFeatureOfABatchIsSaved() throws IOException {
+        when(structureRepository.batchInsertLocations(anyList())).thenReturn(false);
+        LocationStreamParser parser = new LocationStreamParser(structureRepository, 2);
+
+        LocationStreamParser.Result result = parser.handle(toStream(PAYLOAD));
+
+        assertFalse(result.isSaved());
+        // the batch and each of its features, the rest of the page is not read
+        verify(structureRepository, times(3)).batchInsertLocations(anyList());
+        assertEquals(2, result.getParsed());
+    }
+
+    @Test
+    public void testHandleStopsWhenTheFeatureOfASingleFeatureBatchIsNotSaved() throws IOException {
+        when(structureRepository.batchInsertLocations(anyList())).thenReturn(false);
+        LocationStreamParser parser = new LocationStreamParser(structureRepository, 1);
+
+        LocationStreamParser.Result result = parser.handle(toStream(PAYLOAD));
+
+        assertFalse(result.isSaved());
+        assertEquals(0, result.getSkipped());
+        // the feature is not saved again on its own and the rest of the page is not read
+        verify(structureRepository, times(1)).batchInsertLocations(anyList());
+        assertEquals(1, result.getParsed());
+    }
+
+    @Test
+    public void testHandleSkipsAFeatureThatCanNotBeSaved() throws IOException {
+        when(structureRepository.batchInsertLocations(anyList())).thenAnswer(invocation -> {
+            List<Location> locations = invocation.getArgument(0);
+            for (Location location : locations) {
+                if ("4a35325e".equals(location.getId())) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        List<String> savedIds = new ArrayList<>();
+        LocationStreamParser parser = new LocationStreamParser(structureRepository, 2);
+        parser.setOnBatchSavedListener(features -> {
+            for (Location feature : features) {
+                savedIds.add(feature.getId());
+            }
+        });
+
+        LocationStreamParser.Result result = parser.handle(toStream(PAYLOAD));
+
+        assertTrue(result.isSaved());
+        assertEquals(4, result.getParsed());
+        assertEquals(1, result.getSkipped());
+        assertEquals(1560245526920L, result.getMaxServerVersion());
+        assertEquals(Arrays.asList("3c35325e", "5b35325e"), savedIds);
+    }
+
+    @Test
+    public void testHandleEmptyResponse() throws IOException {
+        LocationStreamParser parser = new LocationStreamParser(structureRepository);
+
+        LocationStreamParser.Result result = parser.handle(toStream(""));
+        assertEquals(0, result.getParsed());
+        assertEquals(-1, result.getMaxServerVersion());
+
+        result = parser.handle(toStream("[]"));
+        assertEquals(0, result.getParsed());
+        assertTrue(result.isSaved());
+
+        verify(structureRepository, never()).batchInsertLocations(anyList());
+    }
+
+    private InputStream toStream(String payload) {
+        return new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
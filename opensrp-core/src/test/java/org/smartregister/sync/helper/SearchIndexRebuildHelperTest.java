@@ -0,0 +1,90 @@
+package org.smartregister.sync.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.smartregister.BaseRobolectricUnitTest;
+import org.smartregister.Context;
+import org.smartregister.commonregistry.CommonFtsObject;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.domain.SyncEntity;
+import org.smartregister.domain.SyncProgress;
+import org.smartregister.service.AlertService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchIndexRebuildHelperTest extends BaseRobolectricUnitTest {
+
+    @Mock
+    private Context context;
+
+    @Mock
+    private CommonRepository clientRepository;
+
+    @Mock
+    private CommonRepository motherRepository;
+
+    @Mock
+    private AlertService alertService;
+
+    private SearchIndexRebuildHelper searchIndexRebuildHelper;
+
+    private final List<Integer> percentages = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        when(context.commonFtsObject()).thenReturn(new CommonFtsObject(new String[]{"ec_client", "ec_mother"}));
+        when(context.commonrepository("ec_client")).thenReturn(clientRepository);
+        when(context.commonrepository("ec_mother")).thenReturn(motherRepository);
+        when(context.alertService()).thenReturn(alertService);
+        when(context.applicationContext()).thenReturn(ApplicationProvider.getApplicationContext());
+        when(clientRepository.count()).thenReturn(3L);
+        when(motherRepository.count()).thenReturn(1L);
+        when(clientRepository.rebuildSearchIndex(anyInt(), any())).thenAnswer(invocation -> {
+            CommonRepository.SearchIndexRebuildListener listener = invocation.getArgument(1);
+            listener.onProgress("ec_client", 2, 3);
+            listener.onProgress("ec_client", 3, 3);
+            return 3;
+        });
+        when(motherRepository.rebuildSearchIndex(anyInt(), any())).thenReturn(1);
+
+        searchIndexRebuildHelper = spy(new SearchIndexRebuildHelper(context));
+        doAnswer(invocation -> {
+            SyncProgress syncProgress = invocation.getArgument(0);
+            assertEquals(SyncEntity.SEARCH_INDEX, syncProgress.getSyncEntity());
+            assertEquals(4, syncProgress.getTotalRecords());
+            percentages.add(syncProgress.getPercentageSynced());
+            return null;
+        }).when(searchIndexRebuildHelper).sendSyncProgressBroadcast(any(SyncProgress.class), any(android.content.Context.class));
+    }
+
+    @Test
+    public void testRebuildSearchIndexesRebuildsEveryTableAndReportsProgress() {
+        assertEquals(4, searchIndexRebuildHelper.rebuildSearchIndexes());
+
+        verify(clientRepository).rebuildSearchIndex(eq(SearchIndexRebuildHelper.BATCH_SIZE), any());
+        verify(alertService).updateFtsSearchOfAllAlerts();
+        assertEquals(Arrays.asList(0, 50, 75, 100), percentages);
+    }
+
+    @Test
+    public void testRebuildSearchIndexesDoesNothingWithoutSearchTables() {
+        when(context.commonFtsObject()).thenReturn(null);
+
+        assertEquals(0, searchIndexRebuildHelper.rebuildSearchIndexes());
+        assertEquals(0, percentages.size());
+    }
+}
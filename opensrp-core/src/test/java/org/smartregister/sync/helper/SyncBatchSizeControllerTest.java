@@ -0,0 +1,194 @@
+package org.smartregister.sync.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.preference.PreferenceManager;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.repository.AllSharedPreferences;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SyncBatchSizeControllerTest extends BaseUnitTest {
+
+    private static final int DEFAULT_BATCH_SIZE = 250;
+    private static final int MIN_BATCH_SIZE = 25;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long TARGET_ROUND_TRIP_MILLIS = 15000;
+    private static final long MAX_PAYLOAD_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Latency and throughput recorded on a good Wi-Fi link
+     */
+    private static final List<NetworkSample> WIFI = Collections.nCopies(10, new NetworkSample(200, 500 * 1024, false));
+
+    /**
+     * Latency and throughput recorded on a 2G link
+     */
+    private static final List<NetworkSample> EDGE = Collections.nCopies(10, new NetworkSample(1500, 5 * 1024, false));
+
+    /**
+     * A 3G link that drops repeatedly while the device moves out of coverage
+     */
+    private static final List<NetworkSample> DROPPING_3G = Arrays.asList(
+            new NetworkSample(400, 60 * 1024, false),
+            new NetworkSample(400, 60 * 1024, true),
+            new NetworkSample(400, 60 * 1024, true),
+            new NetworkSample(400, 60 * 1024, true),
+            new NetworkSample(400, 60 * 1024, true),
+            new NetworkSample(400, 60 * 1024, true));
+
+    private AllSharedPreferences allSharedPreferences;
+
+    @Before
+    public void setUp() {
+        allSharedPreferences = new AllSharedPreferences(PreferenceManager.getDefaultSharedPreferences(ApplicationProvider.getApplicationContext()));
+        allSharedPreferences.getPreferences().edit().clear().commit();
+    }
+
+    @Test
+    public void testBatchSizeGrowsToMaximumOnWifi() {
+        SyncBatchSizeController controller = newController();
+
+        replay(controller, WIFI, 2 * 1024);
+
+        assertEquals(MAX_BATCH_SIZE, controller.getBatchSize());
+        assertEquals(0, controller.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testBatchSizeShrinksUntilPagesFitTargetRoundTripOn2G() {
+        SyncBatchSizeController controller = newController();
+
+        long lastRoundTrip = replay(controller, EDGE, 2 * 1024);
+
+        assertTrue(controller.getBatchSize() < 50);
+        assertTrue(controller.getBatchSize() >= MIN_BATCH_SIZE);
+        assertTrue(lastRoundTrip <= TARGET_ROUND_TRIP_MILLIS);
+    }
+
+    @Test
+    public void testBatchSizeIsHalvedOnFailuresAndNotBelowMinimum() {
+        SyncBatchSizeController controller = newController();
+
+        replay(controller, DROPPING_3G, 2 * 1024);
+
+        assertEquals(MIN_BATCH_SIZE, controller.getBatchSize());
+        assertEquals(5, controller.getConsecutiveFailures());
+        assertEquals(DEFAULT_BATCH_SIZE, controller.getLastGoodBatchSize());
+    }
+
+    @Test
+    public void testBatchSizeIsCappedByPayloadSize() {
+        SyncBatchSizeController controller = newController();
+
+        replay(controller, WIFI.subList(0, 1), 10 * 1024);
+
+        assertEquals(204, controller.getBatchSize());
+    }
+
+    @Test
+    public void testLastGoodBatchSizeIsRestoredAfterRestart() {
+        SyncBatchSizeController controller = newController();
+        replay(controller, WIFI.subList(0, 3), 2 * 1024);
+        int lastGoodBatchSize = controller.getLastGoodBatchSize();
+        assertTrue(lastGoodBatchSize > DEFAULT_BATCH_SIZE);
+
+        SyncBatchSizeController restarted = newController();
+
+        assertEquals(lastGoodBatchSize, restarted.getBatchSize());
+        assertEquals(DEFAULT_BATCH_SIZE, new SyncBatchSizeController(SyncBatchSizeController.PUSH, DEFAULT_BATCH_SIZE, MIN_BATCH_SIZE,
+                MAX_BATCH_SIZE, TARGET_ROUND_TRIP_MILLIS, MAX_PAYLOAD_BYTES, allSharedPreferences).getBatchSize());
+    }
+
+    @Test
+    public void testBatchSizeDoesNotGrowAboveServerPageLimit() {
+        SyncBatchSizeController controller = newController();
+        int serverLimit = 300;
+
+        for (int i = 0; i < 5; i++) {
+            int requested = controller.getBatchSize();
+            controller.onSuccess(200, 1024, Math.min(requested, serverLimit));
+        }
+
+        assertEquals(serverLimit, controller.getBatchSize());
+        assertTrue(controller.isFullPage(serverLimit, 375));
+        assertFalse(controller.isFullPage(120, serverLimit));
+    }
+
+    @Test
+    public void testShorterPageIsFullWhenServerMayLimitPages() {
+        SyncBatchSizeController controller = newController();
+        controller.onSuccess(200, 1024, DEFAULT_BATCH_SIZE);
+        int requested = controller.getBatchSize();
+        assertTrue(requested > DEFAULT_BATCH_SIZE);
+
+        assertTrue(controller.isFullPage(DEFAULT_BATCH_SIZE, requested));
+        assertFalse(controller.isFullPage(DEFAULT_BATCH_SIZE - 1, requested));
+    }
+
+    @Test
+    public void testBatchSizeDoesNotGrowAfterLastPage() {
+        SyncBatchSizeController controller = newController();
+
+        controller.onSuccess(200, 1024, 10);
+
+        assertEquals(DEFAULT_BATCH_SIZE, controller.getBatchSize());
+    }
+
+    @Test
+    public void testUtf8Length() {
+        assertEquals(0, SyncBatchSizeController.utf8Length(""));
+        assertEquals(5, SyncBatchSizeController.utf8Length("abcde"));
+        String text = "Nairobi \u00e9\u4e2d\ud83d\ude00";
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, SyncBatchSizeController.utf8Length(text));
+    }
+
+    private SyncBatchSizeController newController() {
+        return new SyncBatchSizeController(SyncBatchSizeController.PULL, DEFAULT_BATCH_SIZE, MIN_BATCH_SIZE,
+                MAX_BATCH_SIZE, TARGET_ROUND_TRIP_MILLIS, MAX_PAYLOAD_BYTES, allSharedPreferences);
+    }
+
+    /**
+     * Replays the recorded samples against the controller, sizing each page with the current batch size
+     *
+     * @return the round trip time of the last successful page
+     */
+    private long replay(SyncBatchSizeController controller, List<NetworkSample> profile, long bytesPerRecord) {
+        long roundTripMillis = 0;
+        for (NetworkSample sample : profile) {
+            if (sample.failed) {
+                controller.onFailure();
+                continue;
+            }
+            long payloadBytes = controller.getBatchSize() * bytesPerRecord;
+            roundTripMillis = sample.latencyMillis + payloadBytes * 1000 / sample.bytesPerSecond;
+            controller.onSuccess(roundTripMillis, payloadBytes);
+        }
+        return roundTripMillis;
+    }
+
+    private static class NetworkSample {
+
+        private final long latencyMillis;
+
+        private final long bytesPerSecond;
+
+        private final boolean failed;
+
+        private NetworkSample(long latencyMillis, long bytesPerSecond, boolean failed) {
+            this.latencyMillis = latencyMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            this.failed = failed;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.powermock.reflect.Whitebox;
+import org.robolectric.util.ReflectionHelpers;
 import androidx.test.core.app.ApplicationProvider;
 import org.smartregister.BaseUnitTest;
 import org.smartregister.R;
@@ -16,6 +17,7 @@ import org.smartregister.domain.Response;
 import org.smartregister.domain.ResponseStatus;
 import org.smartregister.domain.jsonmapping.util.LocationTree;
 import org.smartregister.dto.UserAssignmentDTO;
+import org.smartregister.location.helper.LocationHelper;
 import org.smartregister.repository.AllSettings;
 import org.smartregister.repository.AllSharedPreferences;
 import org.smartregister.repository.LocationRepository;
@@ -39,6 +41,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -129,6 +132,19 @@ public class ValidateAssignmentHelperTest extends BaseUnitTest {
     }
 
 
+    @Test
+    public void testRemoveLocationsFromHierarchyShouldUpdateLocationHierarchyIndex() throws Exception {
+        LocationHelper locationHelper = mock(LocationHelper.class);
+        ReflectionHelpers.setStaticField(LocationHelper.class, "instance", locationHelper);
+        try {
+            Set<String> locations = Collections.singleton("67c5e0a4-132f-457b-b573-9abf5ec95c75");
+            validateAssignmentHelper.removeLocationsFromHierarchy(locationTree, locations);
+            verify(locationHelper).updateLocationHierarchy(locationTree);
+        } finally {
+            ReflectionHelpers.setStaticField(LocationHelper.class, "instance", null);
+        }
+    }
+
     @Test
     public void testRemoveLocationsFromHierarchyShouldRemoveParentLocationIfOnlyChildIsRemoved() throws Exception {
         Set<String> locations = Collections.singleton("67c5e0a4-132f-457b-b573-9abf5ec95c75");
@@ -33,6 +33,6 @@ public class LocationIntentServiceTest extends BaseUnitTest {
     public void testOnHandleIntentShouldFetchLocations() throws Exception {
         ShadowLocationServiceHelper.setInstance(locationServiceHelper);
         Whitebox.invokeMethod(locationIntentService, "onHandleIntent", (Object) null);
-        Mockito.verify(locationServiceHelper).fetchLocationsStructures();
+        Mockito.verify(locationServiceHelper).fetchLocationsStructures(null);
     }
 }
\ No newline at end of file
@@ -40,12 +40,16 @@ import org.smartregister.domain.FetchStatus;
 import org.smartregister.domain.Response;
 import org.smartregister.domain.ResponseErrorStatus;
 import org.smartregister.domain.ResponseStatus;
+import org.smartregister.domain.db.EventClientPushBatch;
 import org.smartregister.receiver.SyncStatusBroadcastReceiver;
 import org.smartregister.repository.EventClientRepository;
 import org.smartregister.service.HTTPAgent;
+import org.smartregister.service.RequestStreamWriter;
+import org.smartregister.sync.helper.EventClientStreamParser;
 import org.smartregister.util.SyncUtils;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -411,6 +415,49 @@ public class SyncIntentServiceTest extends BaseRobolectricUnitTest {
 
     }
 
+    @Test
+    public void testSuccessfulPipelinedPullEcProcessesPagesAndSendsSyncStatusBroadcasts() {
+
+        initMocksForPullECFromServerUsingPOST();
+        when(syncConfiguration.isPipelinedEventClientPull()).thenReturn(true);
+        syncIntentService = spy(syncIntentService);
+        ResponseStatus responseStatus = ResponseStatus.success;
+        Mockito.doReturn(new Response<>(responseStatus, eventSyncPayload).withTotalRecords(2l),
+                        new Response<>(responseStatus, null).withTotalRecords(0l))
+                .when(httpAgent).postWithJsonResponse(stringArgumentCaptor.capture(), stringArgumentCaptor.capture());
+
+        syncIntentService.pullECFromServer();
+
+        verify(httpAgent, Mockito.times(2)).postWithJsonResponse(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+        assertEquals("{\"locationId\":\"location-1\",\"serverVersion\":1597318034277,\"limit\":250,\"return_count\":true}", stringArgumentCaptor.getAllValues().get(3));
+        verify(syncIntentService).processClient(ArgumentMatchers.any());
+        verify(syncIntentService).sendSyncProgressBroadcast(2);
+        verify(syncIntentService).sendBroadcast(intentArgumentCaptor.capture());
+        FetchStatus actualFetchStatus = (FetchStatus) intentArgumentCaptor.getValue().getSerializableExtra(SyncStatusBroadcastReceiver.EXTRA_FETCH_STATUS);
+        assertEquals(FetchStatus.nothingFetched, actualFetchStatus);
+
+    }
+
+    @Test
+    public void testSuccessfulStreamedPullEcUsesStreamParserAndSendsSyncProgress() {
+
+        initMocksForPullECFromServerUsingPOST();
+        when(syncConfiguration.isStreamEventClientPull()).thenReturn(true);
+        syncIntentService = spy(syncIntentService);
+        Mockito.doReturn(new Response<>(ResponseStatus.success, null).withTotalRecords(0l))
+                .when(httpAgent).postStream(stringArgumentCaptor.capture(), stringArgumentCaptor.capture(), ArgumentMatchers.any(EventClientStreamParser.class));
+
+        syncIntentService.pullECFromServer();
+
+        verify(httpAgent).postStream(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(), ArgumentMatchers.any(EventClientStreamParser.class));
+        verify(httpAgent, Mockito.never()).postWithJsonResponse(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+        assertEquals("https://sample-stage.smartregister.org/opensrp/rest/event/sync", stringArgumentCaptor.getAllValues().get(0));
+        verify(syncIntentService).sendBroadcast(intentArgumentCaptor.capture());
+        FetchStatus actualFetchStatus = (FetchStatus) intentArgumentCaptor.getValue().getSerializableExtra(SyncStatusBroadcastReceiver.EXTRA_FETCH_STATUS);
+        assertEquals(FetchStatus.nothingFetched, actualFetchStatus);
+
+    }
+
     @Test
     public void testPushECToServer() throws Exception {
 
@@ -454,6 +501,38 @@ public class SyncIntentServiceTest extends BaseRobolectricUnitTest {
 
     }
 
+    @Test
+    public void testPushECToServerWithStreamedPushStreamsStoredJson() throws Exception {
+
+        syncIntentService = spy(syncIntentService);
+        EventClientPushBatch pushBatch = new EventClientPushBatch();
+        pushBatch.addClient("client-1", clientJson);
+        pushBatch.addEvent("fs-1", eventJson);
+
+        Whitebox.setInternalState(syncIntentService, "httpAgent", httpAgent);
+        when(eventClientRepository.getUnSyncedEventsCount()).thenReturn(1);
+        when(eventClientRepository.getUnSyncedEventClientPushBatch(EVENT_PUSH_LIMIT)).thenReturn(pushBatch);
+        ArgumentCaptor<RequestStreamWriter> requestWriterCaptor = ArgumentCaptor.forClass(RequestStreamWriter.class);
+        Mockito.doReturn(new Response<>(ResponseStatus.success, null))
+                .when(httpAgent).postStream(stringArgumentCaptor.capture(), requestWriterCaptor.capture());
+
+        SyncConfiguration syncConfiguration = Mockito.mock(SyncConfiguration.class);
+        Mockito.doReturn(true).when(syncConfiguration).isStreamEventClientPush();
+        ReflectionHelpers.setField(CoreLibrary.getInstance(), "syncConfiguration", syncConfiguration);
+
+        Whitebox.invokeMethod(syncIntentService, "pushECToServer", eventClientRepository);
+
+        verify(eventClientRepository, Mockito.never()).getUnSyncedEvents(ArgumentMatchers.anyInt());
+        verify(eventClientRepository).markEventsAsSynced(pushBatch, null, null);
+        verify(syncIntentService).updateProgress(1, 1);
+        verify(httpAgent, Mockito.never()).post(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+        assertEquals("https://sample-stage.smartregister.org/opensrp/rest/event/add", stringArgumentCaptor.getValue());
+        StringWriter requestBody = new StringWriter();
+        requestWriterCaptor.getValue().write(requestBody);
+        assertEquals(pushBatch.toJson(), requestBody.toString());
+
+    }
+
     @Test
     public void testPushECToServerVerifyMarkEventsAsSyncedForFailedEventsAndClients() throws Exception {
         syncIntentService = spy(syncIntentService);
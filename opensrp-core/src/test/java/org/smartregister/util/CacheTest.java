@@ -8,8 +8,16 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.smartregister.BaseUnitTest;
 import org.smartregister.domain.FetchStatus;
+import org.smartregister.event.CapturedPhotoInformation;
 import org.smartregister.event.Event;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class CacheTest extends BaseUnitTest {
     @Mock
     private CacheableData<String> cacheableData;
@@ -55,4 +63,125 @@ public class CacheTest extends BaseUnitTest {
         Assert.assertEquals("value", cache.get("key", cacheableData));
         Mockito.verify(cacheableData, Mockito.times(2)).fetch();
     }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedEntriesOverTheMaxEntries() {
+        Cache<String> cache = new Cache<String>(2);
+
+        cache.get("a", () -> "value-a");
+        cache.get("b", () -> "value-b");
+        cache.get("a", cacheableData);
+        cache.get("c", () -> "value-c");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("value-a", cache.get("a", cacheableData));
+        Assert.assertNull(cache.get("b", cacheableData));
+        Assert.assertEquals(1, cache.evictionCount());
+        Assert.assertEquals(2, cache.hitCount());
+        Assert.assertEquals(4, cache.missCount());
+    }
+
+    @Test
+    public void shouldEvictEntriesOverTheMaxWeight() {
+        Cache<String> cache = new Cache<String>(10, 5, String::length);
+
+        cache.get("a", () -> "abc");
+        cache.get("b", () -> "de");
+        Assert.assertEquals(5, cache.weight());
+
+        cache.get("c", () -> "f");
+
+        Assert.assertEquals(3, cache.weight());
+        Assert.assertEquals(1, cache.evictionCount());
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+        Assert.assertEquals("value", cache.get("a", cacheableData));
+    }
+
+    @Test
+    public void shouldInvalidateTaggedEntriesOnlyForEventsOfTheirTags() {
+        Cache<String> cache = new Cache<String>();
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+        cache.get("list", () -> "list");
+        cache.get("client-1", () -> "client-1", "entity-1");
+        cache.get("client-2", () -> "client-2", "entity-2");
+
+        Event.ON_PHOTO_CAPTURED.notifyListeners(new CapturedPhotoInformation("entity-1", "photo.jpg"));
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("client-2", cache.get("client-2", cacheableData));
+
+        cache.evictTag("entity-2");
+        Assert.assertEquals("value", cache.get("client-2", cacheableData));
+    }
+
+    @Test
+    public void shouldInvalidateEveryEntryWhenAFormIsSubmitted() {
+        Cache<String> cache = new Cache<String>();
+        cache.get("list", () -> "list");
+        cache.get("client-1", () -> "client-1", "entity-1");
+
+        // form submissions are notified with the id of the form instance, not of the entity
+        Event.FORM_SUBMITTED.notifyListeners("instance-1");
+
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldEvictTheKey() {
+        Cache<String> cache = new Cache<String>();
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+        cache.get("key", () -> "old value");
+
+        cache.evict("key");
+
+        Assert.assertEquals("value", cache.get("key", cacheableData));
+    }
+
+    @Test
+    public void shouldFetchAValueOnceForConcurrentGets() throws Exception {
+        final Cache<String> cache = new Cache<String>();
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+        final CacheableData<String> slowData = () -> {
+            fetches.incrementAndGet();
+            fetching.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "value";
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executorService.submit(() -> cache.get("key", slowData));
+            fetching.await();
+            Future<String> second = executorService.submit(() -> cache.get("key", slowData));
+            while (cache.missCount() < 2) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Assert.assertEquals("value", first.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("value", second.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, fetches.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotCacheAValueInvalidatedWhileItWasFetched() {
+        final Cache<String> cache = new Cache<String>();
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+
+        Assert.assertEquals("old value", cache.get("key", () -> {
+            Event.FORM_SUBMITTED.notifyListeners("ec_registration");
+            return "old value";
+        }));
+
+        Assert.assertEquals("value", cache.get("key", cacheableData));
+    }
 }